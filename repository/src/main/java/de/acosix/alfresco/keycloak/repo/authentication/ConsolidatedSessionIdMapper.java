@@ -0,0 +1,246 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.authentication;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.util.EqualsHelper;
+import org.alfresco.util.PropertyCheck;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Instances of this class provide an alternative to the {@link SimpleCacheBackedSessionIdMapper default session ID mapper} which keeps all
+ * details about a session in a single, immutable record, and only maintains a secondary index for lookups by SSO ID. No shared, mutable
+ * index of the sessions of a principal is maintained, so that no update can be lost due to concurrent logins / logouts of the same user on
+ * different servers in a cluster. Instead, {@link #getUserSessions(String) lookups by principal} are answered by scanning all session
+ * records. These lookups are not used in the handling of OpenID Connect sessions / back-channel logouts by the Keycloak adapter, and are
+ * only supported for completeness.
+ *
+ * Compared to the default mapper, this reduces the number of (potentially distributed) cache operations for the frequent operations:
+ * <ul>
+ * <li>{@link #hasSession(String) checks}: 1 operation (default mapper: 1-2)</li>
+ * <li>{@link #map(String, String, String) logins}: 2 operations, or 1 without an SSO ID (default mapper: 4-5)</li>
+ * <li>{@link #removeSession(String) logouts}: 3 operations, or 2 without an SSO ID (default mapper: 6-7)</li>
+ * <li>{@link #getSessionFromSSO(String) lookups by SSO ID}: 1 operation (default mapper: 1)</li>
+ * </ul>
+ *
+ * @author Axel Faust
+ */
+public class ConsolidatedSessionIdMapper implements PrincipalAwareSessionIdMapper, InitializingBean
+{
+
+    protected SimpleCache<String, SessionRecord> sessionRecords;
+
+    protected SimpleCache<String, String> ssoToSession;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet()
+    {
+        PropertyCheck.mandatory(this, "sessionRecords", this.sessionRecords);
+        PropertyCheck.mandatory(this, "ssoToSession", this.ssoToSession);
+    }
+
+    /**
+     * @param sessionRecords
+     *     the sessionRecords to set
+     */
+    public void setSessionRecords(final SimpleCache<String, SessionRecord> sessionRecords)
+    {
+        this.sessionRecords = sessionRecords;
+    }
+
+    /**
+     * @param ssoToSession
+     *     the ssoToSession to set
+     */
+    public void setSsoToSession(final SimpleCache<String, String> ssoToSession)
+    {
+        this.ssoToSession = ssoToSession;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasSession(final String id)
+    {
+        final boolean hasSession = this.sessionRecords.contains(id);
+        return hasSession;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        this.sessionRecords.clear();
+        this.ssoToSession.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> getUserSessions(final String principal)
+    {
+        final Set<String> userSessions = new HashSet<>();
+        for (final String session : this.sessionRecords.getKeys())
+        {
+            final SessionRecord record = this.sessionRecords.get(session);
+            if (record != null && principal.equals(record.getPrincipal()))
+            {
+                userSessions.add(session);
+            }
+        }
+        return userSessions.isEmpty() ? Collections.emptySet() : userSessions;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getSessionFromSSO(final String sso)
+    {
+        return this.ssoToSession.get(sso);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getSessionPrincipal(final String session)
+    {
+        final SessionRecord record = this.sessionRecords.get(session);
+        return record != null ? record.getPrincipal() : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void map(final String sso, final String principal, final String session)
+    {
+        this.sessionRecords.put(session, new SessionRecord(sso, principal));
+
+        if (sso != null)
+        {
+            this.ssoToSession.put(sso, session);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeSession(final String session)
+    {
+        final SessionRecord record = this.sessionRecords.get(session);
+        if (record != null)
+        {
+            this.sessionRecords.remove(session);
+
+            final String sso = record.getSso();
+            if (sso != null)
+            {
+                this.ssoToSession.remove(sso);
+            }
+        }
+    }
+
+    /**
+     * Instances of this class hold the consolidated details of a single mapped session.
+     *
+     * @author Axel Faust
+     */
+    public static class SessionRecord implements Serializable
+    {
+
+        private static final long serialVersionUID = -2203986137914512704L;
+
+        private final String sso;
+
+        private final String principal;
+
+        /**
+         * Creates a new instance of this class.
+         *
+         * @param sso
+         *     the SSO ID of the session
+         * @param principal
+         *     the principal of the session
+         */
+        public SessionRecord(final String sso, final String principal)
+        {
+            this.sso = sso;
+            this.principal = principal;
+        }
+
+        /**
+         * @return the sso
+         */
+        public String getSso()
+        {
+            return this.sso;
+        }
+
+        /**
+         * @return the principal
+         */
+        public String getPrincipal()
+        {
+            return this.principal;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode()
+        {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + ((this.sso == null) ? 0 : this.sso.hashCode());
+            result = prime * result + ((this.principal == null) ? 0 : this.principal.hashCode());
+            return result;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(final Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof SessionRecord))
+            {
+                return false;
+            }
+            final SessionRecord other = (SessionRecord) obj;
+            return EqualsHelper.nullSafeEquals(this.sso, other.sso) && EqualsHelper.nullSafeEquals(this.principal, other.principal);
+        }
+    }
+}
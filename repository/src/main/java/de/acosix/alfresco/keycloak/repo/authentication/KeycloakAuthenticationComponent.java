@@ -25,6 +25,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 import org.alfresco.repo.management.subsystems.ActivateableBean;
@@ -49,6 +50,7 @@ import de.acosix.alfresco.keycloak.repo.token.AccessTokenClient;
 import de.acosix.alfresco.keycloak.repo.token.AccessTokenException;
 import de.acosix.alfresco.keycloak.repo.token.AccessTokenRefreshException;
 import de.acosix.alfresco.keycloak.repo.util.AlfrescoCompatibilityUtil;
+import de.acosix.alfresco.keycloak.repo.util.CircuitBreaker;
 import de.acosix.alfresco.keycloak.repo.util.RefreshableAccessTokenHolder;
 import net.sf.acegisecurity.Authentication;
 import net.sf.acegisecurity.GrantedAuthority;
@@ -86,6 +88,12 @@ public class KeycloakAuthenticationComponent extends AbstractAuthenticationCompo
 
     protected KeycloakDeployment deployment;
 
+    protected TicketTokenRefreshCoordinator ticketTokenRefreshCoordinator;
+
+    protected PasswordVerificationCache passwordVerificationCache;
+
+    protected CircuitBreaker tokenEndpointCircuitBreaker;
+
     protected AccessTokenClient accessTokenClient;
 
     protected Collection<AuthorityExtractor> authorityExtractors;
@@ -101,8 +109,10 @@ public class KeycloakAuthenticationComponent extends AbstractAuthenticationCompo
     {
         PropertyCheck.mandatory(this, "applicationContext", this.applicationContext);
         PropertyCheck.mandatory(this, "keycloakDeployment", this.deployment);
+        PropertyCheck.mandatory(this, "ticketTokenRefreshCoordinator", this.ticketTokenRefreshCoordinator);
+        PropertyCheck.mandatory(this, "passwordVerificationCache", this.passwordVerificationCache);
 
-        this.accessTokenClient = new AccessTokenClient(this.deployment);
+        this.accessTokenClient = new AccessTokenClient(this.deployment, null, this.tokenEndpointCircuitBreaker);
         this.authorityExtractors = Collections
                 .unmodifiableList(new ArrayList<>(this.applicationContext.getBeansOfType(AuthorityExtractor.class, false, true).values()));
         this.userProcessors = Collections
@@ -201,6 +211,54 @@ public class KeycloakAuthenticationComponent extends AbstractAuthenticationCompo
         this.deployment = deployment;
     }
 
+    /**
+     * @param ticketTokenRefreshCoordinator
+     *     the ticketTokenRefreshCoordinator to set
+     */
+    public void setTicketTokenRefreshCoordinator(final TicketTokenRefreshCoordinator ticketTokenRefreshCoordinator)
+    {
+        this.ticketTokenRefreshCoordinator = ticketTokenRefreshCoordinator;
+    }
+
+    /**
+     * @param passwordVerificationCache
+     *     the passwordVerificationCache to set
+     */
+    public void setPasswordVerificationCache(final PasswordVerificationCache passwordVerificationCache)
+    {
+        this.passwordVerificationCache = passwordVerificationCache;
+    }
+
+    /**
+     * @param tokenEndpointCircuitBreaker
+     *     the tokenEndpointCircuitBreaker to set
+     */
+    public void setTokenEndpointCircuitBreaker(final CircuitBreaker tokenEndpointCircuitBreaker)
+    {
+        this.tokenEndpointCircuitBreaker = tokenEndpointCircuitBreaker;
+    }
+
+    /**
+     * Invalidates all cached verifications of user name + password credentials, e.g. as a result of a Keycloak back-channel logout of all
+     * sessions.
+     */
+    public void clearCachedPasswordVerifications()
+    {
+        this.passwordVerificationCache.clear();
+    }
+
+    /**
+     * Invalidates any cached verification of user name + password credentials for a specific user, e.g. as a result of a Keycloak
+     * back-channel logout of a session of that user.
+     *
+     * @param userName
+     *     the name of the user
+     */
+    public void invalidateCachedPasswordVerification(final String userName)
+    {
+        this.passwordVerificationCache.invalidate(userName);
+    }
+
     /**
      * Enables the thread-local storage of the last access token response and verified tokens beyond the internal needs of
      * {@link #authenticateImpl(String, char[]) authenticateImpl}.
@@ -243,19 +301,37 @@ public class KeycloakAuthenticationComponent extends AbstractAuthenticationCompo
      */
     public RefreshableAccessTokenHolder checkAndRefreshTicketToken(final RefreshableAccessTokenHolder ticketToken)
             throws AuthenticationException
+    {
+        return this.checkAndRefreshTicketTokenImpl(ticketToken, this::refreshTicketToken);
+    }
+
+    /**
+     * Checks a refreshable access token associated with an authentication ticket, refreshing it if necessary, and failing if the token has
+     * expired and the component has been configured to not accept expired tokens. Other than {@link #checkAndRefreshTicketToken(
+     * RefreshableAccessTokenHolder)}, this operation coordinates the refresh with any concurrent threads / servers processing the same
+     * ticket, so that the token is only refreshed once, and stores the refreshed token in the ticket token cache.
+     *
+     * @param ticket
+     *     the authentication ticket
+     * @param ticketToken
+     *     the refreshable access token to refresh
+     * @return the refreshed access token if a refresh was possible AND necessary, and a new access token has been retrieved from Keycloak
+     * either by this or a concurrent thread / server - will be {@code null} if no refresh has taken place
+     */
+    public RefreshableAccessTokenHolder checkAndRefreshTicketToken(final String ticket, final RefreshableAccessTokenHolder ticketToken)
+            throws AuthenticationException
+    {
+        return this.checkAndRefreshTicketTokenImpl(ticketToken, token -> this.ticketTokenRefreshCoordinator.refreshTicketToken(ticket,
+                token, this::isTicketTokenRefreshRequired, this::refreshTicketToken));
+    }
+
+    protected RefreshableAccessTokenHolder checkAndRefreshTicketTokenImpl(final RefreshableAccessTokenHolder ticketToken,
+            final UnaryOperator<RefreshableAccessTokenHolder> refresher)
     {
         RefreshableAccessTokenHolder result = null;
-        if (ticketToken.canRefresh() && ticketToken.shouldRefresh(this.deployment.getTokenMinimumTimeToLive()))
+        if (this.isTicketTokenRefreshRequired(ticketToken))
         {
-            try
-            {
-                result = this.accessTokenClient.refreshAccessToken(ticketToken.getRefreshToken());
-            }
-            catch (final AccessTokenRefreshException atrex)
-            {
-                LOGGER.error("Error refreshing Keycloak authentication", atrex);
-                throw new AuthenticationException("Failed to refresh Keycloak authentication", atrex);
-            }
+            result = refresher.apply(ticketToken);
         }
         else if (this.failExpiredTicketTokens && !ticketToken.isActive())
         {
@@ -273,6 +349,64 @@ public class KeycloakAuthenticationComponent extends AbstractAuthenticationCompo
         return result;
     }
 
+    /**
+     * Refreshes a refreshable access token associated with an authentication ticket ahead of time if it is about to require a refresh
+     * within a specific look-ahead period. This operation is intended for background processing - it does not affect the authentication
+     * context of the current thread.
+     *
+     * @param ticket
+     *     the authentication ticket
+     * @param ticketToken
+     *     the refreshable access token to refresh
+     * @param lookAheadSeconds
+     *     the number of seconds in addition to the configured minimum time-to-live of tokens to consider for the refresh check
+     * @return the refreshed access token if a refresh was possible AND necessary - will be {@code null} if no refresh has taken place
+     */
+    public RefreshableAccessTokenHolder refreshTicketTokenAhead(final String ticket, final RefreshableAccessTokenHolder ticketToken,
+            final int lookAheadSeconds) throws AuthenticationException
+    {
+        RefreshableAccessTokenHolder result = null;
+        if (this.isTicketTokenRefreshRequired(ticketToken, lookAheadSeconds))
+        {
+            result = this.ticketTokenRefreshCoordinator.refreshTicketToken(ticket, ticketToken,
+                    token -> this.isTicketTokenRefreshRequired(token, lookAheadSeconds), this::refreshTicketToken);
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether a refreshable access token associated with an authentication ticket requires a refresh within a specific look-ahead
+     * period.
+     *
+     * @param ticketToken
+     *     the refreshable access token to check
+     * @param lookAheadSeconds
+     *     the number of seconds in addition to the configured minimum time-to-live of tokens to consider for the check
+     * @return {@code true} if the token can and should be refreshed, {@code false} otherwise
+     */
+    public boolean isTicketTokenRefreshRequired(final RefreshableAccessTokenHolder ticketToken, final int lookAheadSeconds)
+    {
+        return ticketToken.canRefresh() && ticketToken.shouldRefresh(this.deployment.getTokenMinimumTimeToLive() + lookAheadSeconds);
+    }
+
+    protected boolean isTicketTokenRefreshRequired(final RefreshableAccessTokenHolder ticketToken)
+    {
+        return this.isTicketTokenRefreshRequired(ticketToken, 0);
+    }
+
+    protected RefreshableAccessTokenHolder refreshTicketToken(final RefreshableAccessTokenHolder ticketToken)
+    {
+        try
+        {
+            return this.accessTokenClient.refreshAccessToken(ticketToken.getRefreshToken());
+        }
+        catch (final AccessTokenRefreshException atrex)
+        {
+            LOGGER.error("Error refreshing Keycloak authentication", atrex);
+            throw new AuthenticationException("Failed to refresh Keycloak authentication", atrex);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -284,11 +418,16 @@ public class KeycloakAuthenticationComponent extends AbstractAuthenticationCompo
             throw new AuthenticationException("Simple login via user name + password is not allowed");
         }
 
-        final RefreshableAccessTokenHolder accessTokenHolder;
+        RefreshableAccessTokenHolder accessTokenHolder = this.passwordVerificationCache.getVerifiedToken(userName, password);
+        final boolean freshLogin = accessTokenHolder == null;
         String realUserName = userName;
         try
         {
-            accessTokenHolder = this.accessTokenClient.obtainAccessToken(userName, new String(password), Collections.emptySet());
+            if (freshLogin)
+            {
+                accessTokenHolder = this.accessTokenClient.obtainAccessToken(userName, new String(password), Collections.emptySet());
+                this.passwordVerificationCache.registerVerifiedToken(userName, password, accessTokenHolder);
+            }
             realUserName = accessTokenHolder.getAccessToken().getPreferredUsername();
 
             // for potential one-off authentication, we do not care particularly about the token TTL - so no validation here
@@ -300,12 +439,15 @@ public class KeycloakAuthenticationComponent extends AbstractAuthenticationCompo
         }
         catch (final AccessTokenException atex)
         {
+            // a failed login may e.g. be caused by a disabled account or changed credentials, which a cached verification would not reflect
+            this.passwordVerificationCache.invalidate(userName);
+
             LOGGER.error("Error authenticating against Keycloak", atex);
             throw new AuthenticationException("Failed to authenticate against Keycloak", atex);
         }
 
         this.setCurrentUser(realUserName);
-        this.handleUserTokens(accessTokenHolder.getAccessToken(), accessTokenHolder.getIdToken(), true);
+        this.handleUserTokens(accessTokenHolder.getAccessToken(), accessTokenHolder.getIdToken(), freshLogin);
     }
 
     /**
@@ -19,7 +19,7 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Locale;
+import java.util.regex.Pattern;
 
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletContext;
@@ -70,7 +70,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.extensions.webscripts.Description.RequiredAuthentication;
-import org.springframework.extensions.webscripts.Match;
+import org.springframework.extensions.webscripts.Registry;
 import org.springframework.extensions.webscripts.RuntimeContainer;
 
 import de.acosix.alfresco.keycloak.repo.util.AlfrescoCompatibilityUtil;
@@ -106,10 +106,21 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
 
     private static final String API_SERVLET_PATH = "/api";
 
-    private static final String KEYCLOAK_ACTION_URL_PATTERN = "^(?:/wcs(?:ervice)?)?/keycloak/k_[^/]+$";
+    // request attribute holding the result of the no-auth Public v1 ReST API check, to evaluate it at most once per request
+    private static final String NO_AUTH_PUBLIC_API_WEB_SCRIPT = KeycloakAuthenticationFilter.class.getName() + ".noAuthPublicApiWebScript";
+
+    private static final Pattern KEYCLOAK_ACTION_URL_PATTERN = Pattern.compile("^(?:/wcs(?:ervice)?)?/keycloak/k_[^/]+$");
+
+    private static final String AUTH_SCHEME_BASIC = "basic ";
+
+    private static final String AUTH_SCHEME_BEARER = "bearer ";
+
+    private static final int DEFAULT_PUBLIC_API_AUTH_DECISION_CACHE_SIZE = 1024;
 
     private static final int DEFAULT_BODY_BUFFER_LIMIT = 32 * 1024;// 32 KiB
 
+    private static final int DEFAULT_BODY_BUFFER_THRESHOLD = 32 * 1024;// 32 KiB
+
     protected boolean active;
 
     protected boolean allowTicketLogon;
@@ -128,6 +139,8 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
 
     protected int bodyBufferLimit = DEFAULT_BODY_BUFFER_LIMIT;
 
+    protected int bodyBufferThreshold = DEFAULT_BODY_BUFFER_THRESHOLD;
+
     protected KeycloakDeployment keycloakDeployment;
 
     protected SessionIdMapper sessionIdMapper;
@@ -138,8 +151,14 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
 
     protected SimpleCache<String, RefreshableAccessTokenHolder> keycloakTicketTokenCache;
 
+    protected TicketTokenRefreshCoordinator ticketTokenRefreshCoordinator;
+
     protected RuntimeContainer publicApiRuntimeContainer;
 
+    protected int publicApiAuthDecisionCacheSize = DEFAULT_PUBLIC_API_AUTH_DECISION_CACHE_SIZE;
+
+    protected WebScriptAuthenticationDecisionCache publicApiAuthDecisionCache;
+
     /**
      * {@inheritDoc}
      */
@@ -150,6 +169,7 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
         PropertyCheck.mandatory(this, "sessionIdMapper", this.sessionIdMapper);
         PropertyCheck.mandatory(this, "keycloakAuthenticationComponent", this.keycloakAuthenticationComponent);
         PropertyCheck.mandatory(this, "keycloakTicketTokenCache", this.keycloakTicketTokenCache);
+        PropertyCheck.mandatory(this, "ticketTokenRefreshCoordinator", this.ticketTokenRefreshCoordinator);
         PropertyCheck.mandatory(this, "publicApiRuntimeContainer", this.publicApiRuntimeContainer);
 
         PropertyCheck.mandatory(this, "noKeycloakHandlingHeaderName", this.noKeycloakHandlingHeaderName);
@@ -165,6 +185,8 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
         // basic is handled ourselves
         this.keycloakDeployment.setEnableBasicAuth(false);
         this.deploymentContext = new AdapterDeploymentContext(this.keycloakDeployment);
+
+        this.publicApiAuthDecisionCache = new WebScriptAuthenticationDecisionCache(this.publicApiAuthDecisionCacheSize);
     }
 
     /**
@@ -257,6 +279,15 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
         this.bodyBufferLimit = bodyBufferLimit;
     }
 
+    /**
+     * @param bodyBufferThreshold
+     *     the bodyBufferThreshold to set
+     */
+    public void setBodyBufferThreshold(final int bodyBufferThreshold)
+    {
+        this.bodyBufferThreshold = bodyBufferThreshold;
+    }
+
     /**
      * @param keycloakDeployment
      *     the keycloakDeployment to set
@@ -293,6 +324,15 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
         this.keycloakTicketTokenCache = keycloakTicketTokenCache;
     }
 
+    /**
+     * @param ticketTokenRefreshCoordinator
+     *     the ticketTokenRefreshCoordinator to set
+     */
+    public void setTicketTokenRefreshCoordinator(final TicketTokenRefreshCoordinator ticketTokenRefreshCoordinator)
+    {
+        this.ticketTokenRefreshCoordinator = ticketTokenRefreshCoordinator;
+    }
+
     /**
      * @param publicApiRuntimeContainer
      *     the publicApiRuntimeContainer to set
@@ -302,6 +342,15 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
         this.publicApiRuntimeContainer = publicApiRuntimeContainer;
     }
 
+    /**
+     * @param publicApiAuthDecisionCacheSize
+     *     the publicApiAuthDecisionCacheSize to set
+     */
+    public void setPublicApiAuthDecisionCacheSize(final int publicApiAuthDecisionCacheSize)
+    {
+        this.publicApiAuthDecisionCacheSize = publicApiAuthDecisionCacheSize;
+    }
+
     /**
      *
      * {@inheritDoc}
@@ -357,7 +406,7 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
     {
         boolean basicAuthSucessfull = false;
         final String authHeader = req.getHeader(HEADER_AUTHORIZATION);
-        if (authHeader != null && authHeader.toLowerCase(Locale.ENGLISH).startsWith("basic "))
+        if (authHeader != null && hasAuthorizationScheme(authHeader, AUTH_SCHEME_BASIC))
         {
             final String[] authorizationParts = authHeader.split(" ");
             final String decodedAuthorisation = new String(Base64.decodeBase64(authorizationParts[1]), StandardCharsets.UTF_8);
@@ -502,7 +551,7 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
         final String servletPath = req.getServletPath();
         final String pathInfo = req.getPathInfo();
         final String servletRequestUri = servletPath + (pathInfo != null ? pathInfo : "");
-        if (servletRequestUri.matches(KEYCLOAK_ACTION_URL_PATTERN))
+        if (KEYCLOAK_ACTION_URL_PATTERN.matcher(servletRequestUri).matches())
         {
             LOGGER.trace("Applying Keycloak pre-auth actions handler");
             final PreAuthActionsHandler preActions = new PreAuthActionsHandler(new UserSessionManagement()
@@ -516,6 +565,7 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
                 public void logoutAll()
                 {
                     KeycloakAuthenticationFilter.this.sessionIdMapper.clear();
+                    KeycloakAuthenticationFilter.this.keycloakAuthenticationComponent.clearCachedPasswordVerifications();
                 }
 
                 /**
@@ -525,7 +575,7 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
                 @Override
                 public void logoutHttpSessions(final List<String> ids)
                 {
-                    ids.forEach(KeycloakAuthenticationFilter.this.sessionIdMapper::removeSession);
+                    ids.forEach(KeycloakAuthenticationFilter.this::logoutHttpSession);
                 }
             }, this.deploymentContext, facade);
 
@@ -536,8 +586,9 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
             }
         }
 
-        final OIDCFilterSessionStore tokenStore = new OIDCFilterSessionStore(req, facade,
-                this.bodyBufferLimit > 0 ? this.bodyBufferLimit : DEFAULT_BODY_BUFFER_LIMIT, this.keycloakDeployment, this.sessionIdMapper);
+        final OIDCFilterSessionStore tokenStore = new SpillingOIDCFilterSessionStore(req, facade,
+                this.bodyBufferLimit > 0 ? this.bodyBufferLimit : DEFAULT_BODY_BUFFER_LIMIT, this.bodyBufferThreshold,
+                this.keycloakDeployment, this.sessionIdMapper);
 
         final int sslPort = this.determineLikelySslPort(req);
 
@@ -563,6 +614,27 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
         }
     }
 
+    /**
+     * Processes the back-channel logout of a single HTTP session, invalidating any cached verification of user name + password credentials
+     * of the principal of the session. Cached verifications can only be invalidated if the configured session ID mapper supports the lookup
+     * of the principal of a session, and the principal of sessions corresponds to the user name, e.g. by using {@code preferred_username}
+     * as the {@code principal-attribute} of the adapter configuration. Otherwise, cached verifications remain until they expire.
+     *
+     * @param session
+     *     the ID of the HTTP session to log out
+     */
+    protected void logoutHttpSession(final String session)
+    {
+        final String principal = this.sessionIdMapper instanceof PrincipalAwareSessionIdMapper
+                ? ((PrincipalAwareSessionIdMapper) this.sessionIdMapper).getSessionPrincipal(session)
+                : null;
+        this.sessionIdMapper.removeSession(session);
+        if (principal != null)
+        {
+            this.keycloakAuthenticationComponent.invalidateCachedPasswordVerification(principal);
+        }
+    }
+
     /**
      * Processes a sucessfull authentication via Keycloak.
      *
@@ -608,7 +680,7 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
 
             final RefreshableAccessTokenHolder tokenHolder = new RefreshableAccessTokenHolder(keycloakSecurityContext.getToken(),
                     keycloakSecurityContext.getIdToken(), keycloakSecurityContext.getTokenString(),
-                    keycloakSecurityContext instanceof RefreshableKeycloakSecurityContext
+                    keycloakSecurityContext.getIdTokenString(), keycloakSecurityContext instanceof RefreshableKeycloakSecurityContext
                             ? ((RefreshableKeycloakSecurityContext) keycloakSecurityContext).getRefreshToken()
                             : null);
             this.keycloakTicketTokenCache.put(sessionUser.getTicket(), tokenHolder);
@@ -624,7 +696,7 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
         final String pathInfo = req.getPathInfo();
         final String servletRequestUri = servletPath + (pathInfo != null ? pathInfo : "");
 
-        if (servletRequestUri.matches(KEYCLOAK_ACTION_URL_PATTERN))
+        if (KEYCLOAK_ACTION_URL_PATTERN.matcher(servletRequestUri).matches())
         {
             LOGGER.trace("Applying Keycloak authenticated actions handler");
             final AuthenticatedActionsHandler actions = new AuthenticatedActionsHandler(this.keycloakDeployment, facade);
@@ -746,9 +818,8 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
         SessionUser sessionUser = this.getSessionUser(context, req, res, true);
         HttpSession session = req.getSession(false);
 
+        // checking for no-auth web scripts is comparatively expensive, so only do it in the branches requiring it (at most once)
         final boolean publicRestApi = API_SERVLET_PATH.equals(servletPath);
-        final boolean noAuthPublicRestApiWebScript = publicRestApi
-                && this.isNoAuthPublicRestApiWebScriptRequest(req, servletPath, pathInfo);
 
         // check for back-channel logout (sessionIdMapper should now of all authenticated sessions)
         if (this.active && sessionUser != null && session.getAttribute(KeycloakAccount.class.getName()) != null
@@ -766,7 +837,7 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
             LOGGER.trace("Skipping processKeycloakAuthenticationAndActions as filter is not active");
             skip = true;
         }
-        else if (servletRequestUri.matches(KEYCLOAK_ACTION_URL_PATTERN))
+        else if (KEYCLOAK_ACTION_URL_PATTERN.matcher(servletRequestUri).matches())
         {
             LOGGER.trace("Explicitly not skipping processKeycloakAuthenticationAndActions as Keycloak action URL is being called");
         }
@@ -789,7 +860,7 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
             		"Skipping processKeycloakAuthenticationAndActions as user was prioritize to be authenticated by ticket URL parameter");
             skip = true;
         }
-        else if (authHeader != null && authHeader.toLowerCase(Locale.ENGLISH).startsWith("bearer "))
+        else if (authHeader != null && hasAuthorizationScheme(authHeader, AUTH_SCHEME_BEARER))
         {
             // even though we provide a remote user mapper, it may not be the first in the chain, so Bearer might not be processed (yet) and
             // thus session not initialised
@@ -811,7 +882,7 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
                     // sessionUser should be guaranteed here, but still check - we need it for the cache key
                     if (sessionUser != null)
                     {
-                        final String bearerToken = authHeader.substring("bearer ".length());
+                        final String bearerToken = authHeader.substring(AUTH_SCHEME_BEARER.length());
                         this.keycloakTicketTokenCache.put(sessionUser.getTicket(),
                                 new RefreshableAccessTokenHolder(accessToken, accessToken, bearerToken, null));
                     }
@@ -831,7 +902,7 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
                         "Explicitly not skipping processKeycloakAuthenticationAndActions as unprocessed Bearer authorization header is present");
             }
         }
-        else if (authHeader != null && authHeader.toLowerCase(Locale.ENGLISH).startsWith("basic "))
+        else if (authHeader != null && hasAuthorizationScheme(authHeader, AUTH_SCHEME_BASIC))
         {
             LOGGER.trace("Explicitly not skipping processKeycloakAuthenticationAndActions as Basic authorization header is present");
         }
@@ -856,7 +927,7 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
 
                 if (!skip)
                 {
-                    if (noAuthPublicRestApiWebScript)
+                    if (publicRestApi && this.isNoAuthPublicRestApiWebScriptRequest(req, servletPath, pathInfo))
                     {
                         LOGGER.trace(
                                 "Skipping processKeycloakAuthenticationAndActions as request is aimed at a Public v1 ReST API which does not require authentication");
@@ -890,7 +961,7 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
                             AlfrescoCompatibilityUtil.maskUsername(sessionUser.getUserName()));
                     this.invalidateSession(req);
 
-                    if (noAuthPublicRestApiWebScript)
+                    if (publicRestApi && this.isNoAuthPublicRestApiWebScriptRequest(req, servletPath, pathInfo))
                     {
                         LOGGER.trace(
                                 "Skipping processKeycloakAuthenticationAndActions as request is aimed at a Public v1 ReST API which does not require authentication");
@@ -920,7 +991,7 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
                 skip = true;
             }
         }
-        else if (noAuthPublicRestApiWebScript)
+        else if (publicRestApi && this.isNoAuthPublicRestApiWebScriptRequest(req, servletPath, pathInfo))
         {
             LOGGER.trace(
                     "Skipping processKeycloakAuthenticationAndActions as request is aimed at a Public v1 ReST API which does not require authentication");
@@ -1040,20 +1111,24 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
         // due to how default Alfresco web.xml wires up authentication filters, we have to check for v1 ReST API no-auth web scripts
         // ourselves (cannot rely on a pre-handling filter like for regular web scripts)
         boolean noAuthPublicRestApiWebScript = false;
-        if (API_SERVLET_PATH.equals(servletPath))
+        final Object checkResult = req.getAttribute(NO_AUTH_PUBLIC_API_WEB_SCRIPT);
+        if (checkResult instanceof Boolean)
+        {
+            noAuthPublicRestApiWebScript = ((Boolean) checkResult).booleanValue();
+        }
+        else if (API_SERVLET_PATH.equals(servletPath))
         {
             LOGGER.debug("Checking Public v1 ReST API for required auth status on request to {}", pathInfo);
 
             // utility to properly resolve script URL without duplicating some of the specifics here
             final PublicApiWebScriptUtilityRuntime publicApiRuntime = new PublicApiWebScriptUtilityRuntime(this.publicApiRuntimeContainer,
                     req);
-            final String scriptUrl = publicApiRuntime.getScriptUrl();
+            final Registry registry = this.publicApiRuntimeContainer.getRegistry();
+            final RequiredAuthentication reqAuth = this.publicApiAuthDecisionCache.getRequiredAuthentication(registry, req.getMethod(),
+                    publicApiRuntime.getScriptUrl());
 
-            final Match match = this.publicApiRuntimeContainer.getRegistry().findWebScript(req.getMethod(), scriptUrl);
-            if (match != null && match.getWebScript() != null)
+            if (reqAuth != null)
             {
-                final RequiredAuthentication reqAuth = match.getWebScript().getDescription().getRequiredAuthentication();
-
                 if (RequiredAuthentication.none == reqAuth)
                 {
                     LOGGER.debug("Found webscript with no authentication");
@@ -1066,10 +1141,26 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
                     noAuthPublicRestApiWebScript = true;
                 }
             }
+
+            req.setAttribute(NO_AUTH_PUBLIC_API_WEB_SCRIPT, Boolean.valueOf(noAuthPublicRestApiWebScript));
         }
         return noAuthPublicRestApiWebScript;
     }
 
+    /**
+     * Checks whether an authorization header uses a specific authentication scheme without creating any intermediary strings.
+     *
+     * @param authHeader
+     *     the authorization header value
+     * @param scheme
+     *     the lower-case scheme including the trailing space separator
+     * @return {@code true} if the header uses the scheme, {@code false} otherwise
+     */
+    protected static boolean hasAuthorizationScheme(final String authHeader, final String scheme)
+    {
+        return authHeader.regionMatches(true, 0, scheme, 0, scheme.length());
+    }
+
     /**
      * Processes an existing Keycloak authentication, verifying the state of the underlying access token and potentially refreshing it if
      * necessary or configured.
@@ -1088,8 +1179,9 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
     {
         final OIDCServletHttpFacade facade = new OIDCServletHttpFacade(req, res);
 
-        final OIDCFilterSessionStore tokenStore = new OIDCFilterSessionStore(req, facade,
-                this.bodyBufferLimit > 0 ? this.bodyBufferLimit : DEFAULT_BODY_BUFFER_LIMIT, this.keycloakDeployment, null)
+        final OIDCFilterSessionStore tokenStore = new SpillingOIDCFilterSessionStore(req, facade,
+                this.bodyBufferLimit > 0 ? this.bodyBufferLimit : DEFAULT_BODY_BUFFER_LIMIT, this.bodyBufferThreshold,
+                this.keycloakDeployment, null)
         {
 
             /**
@@ -1109,15 +1201,22 @@ public class KeycloakAuthenticationFilter extends BaseAuthenticationFilter
                 if (user != null)
                 {
                     final RefreshableAccessTokenHolder tokenHolder = new RefreshableAccessTokenHolder(securityContext.getToken(),
-                            securityContext.getIdToken(), securityContext.getTokenString(), securityContext.getRefreshToken());
-                    KeycloakAuthenticationFilter.this.keycloakTicketTokenCache.put(user.getTicket(), tokenHolder);
+                            securityContext.getIdToken(), securityContext.getTokenString(), securityContext.getIdTokenString(),
+                            securityContext.getRefreshToken());
+                    // concurrent sessions of the same user may share the ticket - only keep the longest-lived token
+                    KeycloakAuthenticationFilter.this.ticketTokenRefreshCoordinator.offerRefreshedTicketToken(user.getTicket(),
+                            tokenHolder);
                 }
             }
         };
 
         final String oldSessionId = req.getSession().getId();
 
-        tokenStore.checkCurrentToken();
+        // combine token checks of concurrent requests within the same session so that an expired token is only refreshed once
+        this.ticketTokenRefreshCoordinator.runSingleFlight(oldSessionId, () -> {
+            tokenStore.checkCurrentToken();
+            return null;
+        });
 
         final HttpSession currentSession = req.getSession(false);
 
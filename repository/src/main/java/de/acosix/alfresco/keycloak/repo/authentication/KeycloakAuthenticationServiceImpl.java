@@ -102,9 +102,17 @@ public class KeycloakAuthenticationServiceImpl extends AuthenticationServiceImpl
             if (lastTokenResponse != null)
             {
                 final String currentTicket = this.getCurrentTicket();
-                LOGGER.debug("Associating ticket {} for user {} with Keycloak access token", currentTicket,
-                        AlfrescoCompatibilityUtil.maskUsername(userName));
-                this.keycloakTicketTokenCache.put(currentTicket, lastTokenResponse);
+                if (this.isBetterTicketToken(lastTokenResponse, this.keycloakTicketTokenCache.get(currentTicket)))
+                {
+                    LOGGER.debug("Associating ticket {} for user {} with Keycloak access token", currentTicket,
+                            AlfrescoCompatibilityUtil.maskUsername(userName));
+                    this.keycloakTicketTokenCache.put(currentTicket, lastTokenResponse);
+                }
+                else
+                {
+                    LOGGER.debug("Not associating ticket {} for user {} with Keycloak access token as the current token is preferable",
+                            currentTicket, AlfrescoCompatibilityUtil.maskUsername(userName));
+                }
             }
         }
         finally
@@ -113,6 +121,36 @@ public class KeycloakAuthenticationServiceImpl extends AuthenticationServiceImpl
         }
     }
 
+    /**
+     * Checks whether a token obtained in a login should replace the token currently associated with the authentication ticket of the user.
+     * Since Alfresco re-uses the same ticket for all logins of a user, a token without a refresh token - e.g. obtained from a
+     * {@link PasswordVerificationCache cached verification} - must never replace a token which can still be refreshed, and otherwise only
+     * replaces a token expiring earlier.
+     *
+     * @param token
+     *     the token obtained in a login
+     * @param currentToken
+     *     the token currently associated with the ticket - may be {@code null}
+     * @return {@code true} if the token obtained in the login should be associated with the ticket, {@code false} otherwise
+     */
+    protected boolean isBetterTicketToken(final RefreshableAccessTokenHolder token, final RefreshableAccessTokenHolder currentToken)
+    {
+        final boolean better;
+        if (currentToken == null || token.canRefresh())
+        {
+            better = true;
+        }
+        else if (currentToken.canRefresh())
+        {
+            better = false;
+        }
+        else
+        {
+            better = currentToken.getAccessTokenExpiration() <= token.getAccessTokenExpiration();
+        }
+        return better;
+    }
+
     /**
      *
      * {@inheritDoc}
@@ -127,11 +165,12 @@ public class KeycloakAuthenticationServiceImpl extends AuthenticationServiceImpl
             final RefreshableAccessTokenHolder refreshableAccessToken = this.keycloakTicketTokenCache.get(ticket);
             try
             {
-                final RefreshableAccessTokenHolder refreshedToken = this.authenticationComponent
-                        .checkAndRefreshTicketToken(refreshableAccessToken);
+                // refreshed token (if any) is stored in cache by the component
+                final RefreshableAccessTokenHolder refreshedToken = this.authenticationComponent.checkAndRefreshTicketToken(ticket,
+                        refreshableAccessToken);
                 if (refreshedToken != null)
                 {
-                    this.keycloakTicketTokenCache.put(ticket, refreshedToken);
+                    LOGGER.debug("Refreshed Keycloak access token associated with ticket {}", ticket);
                 }
                 // apparently expiration is allowed - remove from cache to avoid unnecessary checks in the future
                 else if (!refreshableAccessToken.isActive())
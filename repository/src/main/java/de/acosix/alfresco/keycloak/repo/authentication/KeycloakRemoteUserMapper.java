@@ -15,6 +15,7 @@
  */
 package de.acosix.alfresco.keycloak.repo.authentication;
 
+import java.util.Enumeration;
 import java.util.List;
 
 import jakarta.servlet.http.HttpServletRequest;
@@ -29,11 +30,14 @@ import org.alfresco.util.PropertyCheck;
 import org.keycloak.adapters.BearerTokenRequestAuthenticator;
 import org.keycloak.adapters.KeycloakDeployment;
 import org.keycloak.adapters.spi.AuthOutcome;
+import org.keycloak.common.VerificationException;
 import org.keycloak.representations.AccessToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
+import de.acosix.alfresco.keycloak.repo.token.TokenVerificationEngine;
+
 /**
  * @author Axel Faust
  */
@@ -42,6 +46,8 @@ public class KeycloakRemoteUserMapper implements RemoteUserMapper, ActivateableB
 
     private static final Logger LOGGER = LoggerFactory.getLogger(KeycloakRemoteUserMapper.class);
 
+    private static final String BEARER_PREFIX = "Bearer ";
+
     protected boolean active;
 
     protected boolean validationFailureSilent;
@@ -50,6 +56,10 @@ public class KeycloakRemoteUserMapper implements RemoteUserMapper, ActivateableB
 
     protected PersonService personService;
 
+    protected int verifiedTokenCacheSize = 1024;
+
+    protected TokenVerificationEngine tokenVerificationEngine;
+
     /**
      *
      * {@inheritDoc}
@@ -61,6 +71,7 @@ public class KeycloakRemoteUserMapper implements RemoteUserMapper, ActivateableB
         PropertyCheck.mandatory(this, "personService", this.personService);
 
         this.keycloakDeployment.setBearerOnly(true);
+        this.tokenVerificationEngine = new TokenVerificationEngine(this.keycloakDeployment, this.verifiedTokenCacheSize);
     }
 
     /**
@@ -99,6 +110,15 @@ public class KeycloakRemoteUserMapper implements RemoteUserMapper, ActivateableB
         this.personService = personService;
     }
 
+    /**
+     * @param verifiedTokenCacheSize
+     *            the verifiedTokenCacheSize to set
+     */
+    public void setVerifiedTokenCacheSize(final int verifiedTokenCacheSize)
+    {
+        this.verifiedTokenCacheSize = verifiedTokenCacheSize;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -117,54 +137,147 @@ public class KeycloakRemoteUserMapper implements RemoteUserMapper, ActivateableB
         String remoteUser = null;
         if (this.active)
         {
-            final ResponseHeaderCookieCaptureServletHttpFacade httpFacade = new ResponseHeaderCookieCaptureServletHttpFacade(request);
-            final BearerTokenRequestAuthenticator authenticator = new BearerTokenRequestAuthenticator(this.keycloakDeployment);
-            final AuthOutcome authOutcome = authenticator.authenticate(httpFacade);
-
-            if (authOutcome == AuthOutcome.AUTHENTICATED)
+            AccessToken verifiedToken = null;
+            String failureDescription = null;
+            try
             {
-                final AccessToken token = authenticator.getToken();
-                final String preferredUsername = token.getPreferredUsername();
-
-                // need to store token for later validation
-                final HttpSession session = request.getSession(true);
-                session.setAttribute(KeycloakRemoteUserMapper.class.getName(), token);
-
-                // need case distinction to avoid user name being nulled when user does not exist yet
-                final String normalisedUserName = AuthenticationUtil.runAsSystem(
-                        () -> this.personService.personExists(preferredUsername) ? this.personService.getUserIdentifier(preferredUsername)
-                                : preferredUsername);
-
-                // normally Alfresco masks user names in logging, but in this case it would run counter to the purpose of logging
-                LOGGER.debug("Authenticated user {} via bearer token, normalised as {}", preferredUsername, normalisedUserName);
+                verifiedToken = this.verifyBearerToken(request);
+            }
+            catch (final VerificationException vex)
+            {
+                LOGGER.trace("Fast bearer token verification failed", vex);
+                failureDescription = vex.getMessage();
+            }
 
-                remoteUser = normalisedUserName;
+            if (verifiedToken != null)
+            {
+                remoteUser = this.handleAuthenticatedToken(request, verifiedToken);
             }
-            else if (authOutcome == AuthOutcome.FAILED)
+            else if (failureDescription != null)
             {
-                authenticator.getChallenge().challenge(httpFacade);
-                final List<String> authenticateHeader = httpFacade.getHeaders().get("WWW-Authenticate");
-                String errorDescription = null;
-                if (authenticateHeader != null && !authenticateHeader.isEmpty())
+                // definitive rejection - default authenticator would only repeat the same checks
+                this.handleFailedAuthentication(failureDescription);
+            }
+            else
+            {
+                final ResponseHeaderCookieCaptureServletHttpFacade httpFacade = new ResponseHeaderCookieCaptureServletHttpFacade(request);
+                final BearerTokenRequestAuthenticator authenticator = new BearerTokenRequestAuthenticator(this.keycloakDeployment);
+                final AuthOutcome authOutcome = authenticator.authenticate(httpFacade);
+
+                if (authOutcome == AuthOutcome.AUTHENTICATED)
+                {
+                    remoteUser = this.handleAuthenticatedToken(request, authenticator.getToken());
+                }
+                else if (authOutcome == AuthOutcome.FAILED)
                 {
-                    final String headerValue = authenticateHeader.get(0);
-                    final int idx = headerValue.indexOf(", error_description=\"");
-                    if (idx != -1)
+                    authenticator.getChallenge().challenge(httpFacade);
+                    final List<String> authenticateHeader = httpFacade.getHeaders().get("WWW-Authenticate");
+                    String errorDescription = null;
+                    if (authenticateHeader != null && !authenticateHeader.isEmpty())
                     {
-                        final int startIdx = idx + ", error_description=\"".length();
-                        errorDescription = headerValue.substring(startIdx, headerValue.indexOf('"', startIdx));
+                        final String headerValue = authenticateHeader.get(0);
+                        final int idx = headerValue.indexOf(", error_description=\"");
+                        if (idx != -1)
+                        {
+                            final int startIdx = idx + ", error_description=\"".length();
+                            errorDescription = headerValue.substring(startIdx, headerValue.indexOf('"', startIdx));
+                        }
                     }
-                }
 
-                LOGGER.debug("Bearer token authentication failed due to: {}", errorDescription);
-
-                if (!this.validationFailureSilent)
-                {
-                    throw new AuthenticationException("Token validation failed: " + errorDescription);
+                    this.handleFailedAuthentication(errorDescription);
                 }
             }
         }
 
         return remoteUser;
     }
+
+    /**
+     * Handles the failed authentication of a request with a bearer token.
+     *
+     * @param errorDescription
+     *            the description of the reason for the failure
+     */
+    protected void handleFailedAuthentication(final String errorDescription)
+    {
+        LOGGER.debug("Bearer token authentication failed due to: {}", errorDescription);
+
+        if (!this.validationFailureSilent)
+        {
+            throw new AuthenticationException("Token validation failed: " + errorDescription);
+        }
+    }
+
+    /**
+     * Verifies the bearer token of a request via the fast, offline verification path. Any request not supported by the fast path, e.g. due
+     * to a token requiring the caller to be verified, is left to the default bearer token authenticator. Tokens failing verification are
+     * rejected definitively, as the default bearer token authenticator would only repeat the same checks.
+     *
+     * @param request
+     *            the request to process
+     * @return the verified access token or {@code null} if the request is not supported by the fast path
+     * @throws VerificationException
+     *             if the bearer token of the request failed verification
+     */
+    protected AccessToken verifyBearerToken(final HttpServletRequest request) throws VerificationException
+    {
+        AccessToken token = null;
+
+        final String tokenString = this.getBearerTokenString(request);
+        if (tokenString != null)
+        {
+            final String audience = this.keycloakDeployment.isVerifyTokenAudience() ? this.keycloakDeployment.getResourceName() : null;
+            token = this.tokenVerificationEngine.verifyAccessToken(tokenString, audience, null);
+
+            final boolean verifyCaller = this.keycloakDeployment.isUseResourceRoleMappings()
+                    ? token.isVerifyCaller(this.keycloakDeployment.getResourceName())
+                    : token.isVerifyCaller();
+            if (verifyCaller || token.getIat() == null)
+            {
+                token = null;
+            }
+            else if (token.getIat() < this.keycloakDeployment.getNotBefore())
+            {
+                throw new VerificationException("Stale token");
+            }
+        }
+
+        return token;
+    }
+
+    protected String getBearerTokenString(final HttpServletRequest request)
+    {
+        String tokenString = null;
+
+        final Enumeration<String> authorizationHeaders = request.getHeaders("Authorization");
+        while (tokenString == null && authorizationHeaders != null && authorizationHeaders.hasMoreElements())
+        {
+            final String authorizationHeader = authorizationHeaders.nextElement().trim();
+            if (authorizationHeader.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length()))
+            {
+                tokenString = authorizationHeader.substring(BEARER_PREFIX.length()).trim();
+            }
+        }
+
+        return tokenString != null && !tokenString.isEmpty() ? tokenString : null;
+    }
+
+    protected String handleAuthenticatedToken(final HttpServletRequest request, final AccessToken token)
+    {
+        final String preferredUsername = token.getPreferredUsername();
+
+        // need to store token for later validation
+        final HttpSession session = request.getSession(true);
+        session.setAttribute(KeycloakRemoteUserMapper.class.getName(), token);
+
+        // need case distinction to avoid user name being nulled when user does not exist yet
+        final String normalisedUserName = AuthenticationUtil.runAsSystem(
+                () -> this.personService.personExists(preferredUsername) ? this.personService.getUserIdentifier(preferredUsername)
+                        : preferredUsername);
+
+        // normally Alfresco masks user names in logging, but in this case it would run counter to the purpose of logging
+        LOGGER.debug("Authenticated user {} via bearer token, normalised as {}", preferredUsername, normalisedUserName);
+
+        return normalisedUserName;
+    }
 }
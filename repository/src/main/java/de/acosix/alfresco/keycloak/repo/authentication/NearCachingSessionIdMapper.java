@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.authentication;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.util.PropertyCheck;
+import org.keycloak.adapters.spi.SessionIdMapper;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Instances of this class decorate a (cluster-wide) session ID mapper with a near-cache of session IDs known to be live, so that the check
+ * for back-channel logouts performed on every request of a Keycloak-authenticated session can typically be answered with a lookup in local
+ * memory instead of a remote cache operation.
+ *
+ * The near-cache is meant to be backed by an {@code invalidating} cache, which only holds its values locally on each server, but propagates
+ * removals / clearing across the cluster. Since all operations which end a session - including the {@code logoutAll} /
+ * {@code logoutHttpSessions} back-channel actions - are routed through {@link #removeSession(String) removeSession} or {@link #clear()
+ * clear}, any logout processed on one server invalidates the corresponding near-cache entries on all other servers. Only positive lookups
+ * are ever cached - a session ID not contained in the near-cache is always checked against the decorated mapper. A check which populates
+ * the near-cache verifies via a generation counter of removals that no session has been removed on the same server while the check was
+ * in progress, and discards its near-cache entry otherwise, so that a concurrent logout cannot be undone by re-caching the session as live.
+ * Since that generation counter is local to each server, a removal on another server which coincides with such a check can only be
+ * bounded by the time-to-live of the near-cache, which should therefore be kept short.
+ *
+ * @author Axel Faust
+ */
+public class NearCachingSessionIdMapper implements PrincipalAwareSessionIdMapper, InitializingBean
+{
+
+    protected SessionIdMapper delegate;
+
+    protected SimpleCache<String, Boolean> liveSessionCache;
+
+    protected final AtomicLong removalGeneration = new AtomicLong(0);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet()
+    {
+        PropertyCheck.mandatory(this, "delegate", this.delegate);
+        PropertyCheck.mandatory(this, "liveSessionCache", this.liveSessionCache);
+    }
+
+    /**
+     * @param delegate
+     *     the delegate to set
+     */
+    public void setDelegate(final SessionIdMapper delegate)
+    {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @param liveSessionCache
+     *     the liveSessionCache to set
+     */
+    public void setLiveSessionCache(final SimpleCache<String, Boolean> liveSessionCache)
+    {
+        this.liveSessionCache = liveSessionCache;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasSession(final String id)
+    {
+        boolean hasSession = this.liveSessionCache.contains(id);
+        if (!hasSession)
+        {
+            final long generation = this.removalGeneration.get();
+            hasSession = this.delegate.hasSession(id);
+            if (hasSession)
+            {
+                this.liveSessionCache.put(id, Boolean.TRUE);
+                // the check is done after the put so that a removal is either seen here or removes our entry itself
+                if (this.removalGeneration.get() != generation)
+                {
+                    this.liveSessionCache.remove(id);
+                }
+            }
+        }
+        return hasSession;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        this.delegate.clear();
+        this.removalGeneration.incrementAndGet();
+        this.liveSessionCache.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> getUserSessions(final String principal)
+    {
+        return this.delegate.getUserSessions(principal);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getSessionFromSSO(final String sso)
+    {
+        return this.delegate.getSessionFromSSO(sso);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getSessionPrincipal(final String session)
+    {
+        return this.delegate instanceof PrincipalAwareSessionIdMapper
+                ? ((PrincipalAwareSessionIdMapper) this.delegate).getSessionPrincipal(session)
+                : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void map(final String sso, final String principal, final String session)
+    {
+        this.delegate.map(sso, principal, session);
+        this.liveSessionCache.put(session, Boolean.TRUE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeSession(final String session)
+    {
+        this.delegate.removeSession(session);
+        this.removalGeneration.incrementAndGet();
+        this.liveSessionCache.remove(session);
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.authentication;
+
+import java.io.Serializable;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.util.ParameterCheck;
+import org.alfresco.util.PropertyCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.acosix.alfresco.keycloak.repo.util.AlfrescoCompatibilityUtil;
+import de.acosix.alfresco.keycloak.repo.util.RefreshableAccessTokenHolder;
+
+/**
+ * Instances of this class cache the results of successful user name + password verifications against Keycloak for a short period of time,
+ * so that clients sending the same credentials on every request (e.g. WebDAV / CMIS clients or desktop sync tools using HTTP Basic
+ * authentication) do not cause a Keycloak login for each of them.
+ *
+ * Passwords are never stored - instead, a salted hash is computed using a deliberately slow key derivation function, and compared in
+ * constant time on subsequent verifications. Cached verifications expire after a configurable time-to-live, but no later than the access
+ * token obtained during the original verification. Credentials not matching a cached verification are treated like credentials without a
+ * cached verification, and do not invalidate the cached verification by themselves. Only if the login with such credentials fails against
+ * Keycloak, or a session of the user is ended via a Keycloak back-channel logout, is the cached verification invalidated - at worst, this
+ * causes one additional login against Keycloak for the user of the cached verification. The backing cache should be configured as an
+ * invalidating cache so that the hashes never leave the server which computed them, while explicit invalidations still apply to all
+ * servers.
+ *
+ * Only a copy of the access token obtained during the original verification without its refresh token is cached, so that independent
+ * logins re-using a cached verification never share a refresh token, and the refresh token never leaves the login which obtained it.
+ *
+ * @author Axel Faust
+ */
+public class PasswordVerificationCache implements InitializingBean
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PasswordVerificationCache.class);
+
+    private static final String HASH_ALGORITHM = "PBKDF2WithHmacSHA256";
+
+    private static final int SALT_LENGTH = 16;
+
+    private static final int HASH_LENGTH = 256;
+
+    private static final int DEFAULT_TIME_TO_LIVE_SECONDS = 300;
+
+    private static final int DEFAULT_HASH_ITERATIONS = 10000;
+
+    protected final SecureRandom secureRandom = new SecureRandom();
+
+    protected boolean enabled;
+
+    protected int timeToLiveSeconds = DEFAULT_TIME_TO_LIVE_SECONDS;
+
+    protected int hashIterations = DEFAULT_HASH_ITERATIONS;
+
+    protected SimpleCache<String, VerifiedCredentials> verifiedCredentialsCache;
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet()
+    {
+        PropertyCheck.mandatory(this, "verifiedCredentialsCache", this.verifiedCredentialsCache);
+    }
+
+    /**
+     * @param enabled
+     *     the enabled to set
+     */
+    public void setEnabled(final boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param timeToLiveSeconds
+     *     the timeToLiveSeconds to set
+     */
+    public void setTimeToLiveSeconds(final int timeToLiveSeconds)
+    {
+        this.timeToLiveSeconds = timeToLiveSeconds;
+    }
+
+    /**
+     * @param hashIterations
+     *     the hashIterations to set
+     */
+    public void setHashIterations(final int hashIterations)
+    {
+        this.hashIterations = hashIterations;
+    }
+
+    /**
+     * @param verifiedCredentialsCache
+     *     the verifiedCredentialsCache to set
+     */
+    public void setVerifiedCredentialsCache(final SimpleCache<String, VerifiedCredentials> verifiedCredentialsCache)
+    {
+        this.verifiedCredentialsCache = verifiedCredentialsCache;
+    }
+
+    /**
+     * Retrieves the access token obtained by a previous, still valid verification of specific credentials. The token does not contain the
+     * refresh token of the original verification.
+     *
+     * @param userName
+     *     the user name
+     * @param password
+     *     the password
+     * @return the access token obtained by the previous verification, or {@code null} if the credentials have not been verified recently
+     *     or do not match a previous verification
+     */
+    public RefreshableAccessTokenHolder getVerifiedToken(final String userName, final char[] password)
+    {
+        ParameterCheck.mandatoryString("userName", userName);
+        ParameterCheck.mandatory("password", password);
+
+        RefreshableAccessTokenHolder token = null;
+        // empty passwords are never cached (and not supported by the key derivation function)
+        if (this.enabled && password.length > 0)
+        {
+            final VerifiedCredentials credentials = this.verifiedCredentialsCache.get(userName);
+            if (credentials != null)
+            {
+                if (credentials.getExpiry() <= System.currentTimeMillis() || !credentials.getToken().isActive())
+                {
+                    LOGGER.debug("Cached credentials verification for user {} has expired",
+                            AlfrescoCompatibilityUtil.maskUsername(userName));
+                    this.verifiedCredentialsCache.remove(userName);
+                }
+                else if (MessageDigest.isEqual(credentials.getHash(), this.hash(password, credentials.getSalt(), credentials.getIterations())))
+                {
+                    LOGGER.debug("Re-using cached credentials verification for user {}", AlfrescoCompatibilityUtil.maskUsername(userName));
+                    token = credentials.getToken();
+                }
+                else
+                {
+                    // cached verification is kept - the credentials may simply be wrong
+                    LOGGER.debug("Credentials for user {} do not match cached verification",
+                            AlfrescoCompatibilityUtil.maskUsername(userName));
+                }
+            }
+        }
+        return token;
+    }
+
+    /**
+     * Records the successful verification of specific credentials.
+     *
+     * @param userName
+     *     the user name
+     * @param password
+     *     the password
+     * @param token
+     *     the access token obtained by the verification
+     */
+    public void registerVerifiedToken(final String userName, final char[] password, final RefreshableAccessTokenHolder token)
+    {
+        ParameterCheck.mandatoryString("userName", userName);
+        ParameterCheck.mandatory("password", password);
+        ParameterCheck.mandatory("token", token);
+
+        if (this.enabled && this.timeToLiveSeconds > 0 && password.length > 0)
+        {
+            long expiry = System.currentTimeMillis() + this.timeToLiveSeconds * 1000L;
+            final long tokenExpiration = token.getAccessTokenExpiration();
+            if (tokenExpiration > 0)
+            {
+                expiry = Math.min(expiry, tokenExpiration * 1000L);
+            }
+
+            final byte[] salt = new byte[SALT_LENGTH];
+            this.secureRandom.nextBytes(salt);
+            final byte[] hash = this.hash(password, salt, this.hashIterations);
+
+            this.verifiedCredentialsCache.put(userName,
+                    new VerifiedCredentials(salt, hash, this.hashIterations, expiry, token.copyWithoutRefreshToken()));
+        }
+    }
+
+    /**
+     * Invalidates any cached verification of credentials for a specific user name.
+     *
+     * @param userName
+     *     the user name
+     */
+    public void invalidate(final String userName)
+    {
+        ParameterCheck.mandatoryString("userName", userName);
+        this.verifiedCredentialsCache.remove(userName);
+    }
+
+    /**
+     * Invalidates all cached verifications of credentials.
+     */
+    public void clear()
+    {
+        this.verifiedCredentialsCache.clear();
+    }
+
+    protected byte[] hash(final char[] password, final byte[] salt, final int iterations)
+    {
+        final PBEKeySpec keySpec = new PBEKeySpec(password, salt, iterations, HASH_LENGTH);
+        try
+        {
+            return SecretKeyFactory.getInstance(HASH_ALGORITHM).generateSecret(keySpec).getEncoded();
+        }
+        catch (final GeneralSecurityException gsex)
+        {
+            throw new AlfrescoRuntimeException("Failed to hash credentials", gsex);
+        }
+        finally
+        {
+            keySpec.clearPassword();
+        }
+    }
+
+    /**
+     * Instances of this class hold the details of a successful credentials verification.
+     *
+     * @author Axel Faust
+     */
+    public static class VerifiedCredentials implements Serializable
+    {
+
+        private static final long serialVersionUID = 6185926704717236157L;
+
+        private final byte[] salt;
+
+        private final byte[] hash;
+
+        private final int iterations;
+
+        private final long expiry;
+
+        private final RefreshableAccessTokenHolder token;
+
+        /**
+         * Creates a new instance of this class.
+         *
+         * @param salt
+         *     the salt used to hash the credentials
+         * @param hash
+         *     the hash of the credentials
+         * @param iterations
+         *     the number of iterations used to hash the credentials
+         * @param expiry
+         *     the timestamp (epoch milliseconds) at which the verification expires
+         * @param token
+         *     the access token obtained by the verification, without its refresh token
+         */
+        public VerifiedCredentials(final byte[] salt, final byte[] hash, final int iterations, final long expiry,
+                final RefreshableAccessTokenHolder token)
+        {
+            this.salt = salt;
+            this.hash = hash;
+            this.iterations = iterations;
+            this.expiry = expiry;
+            this.token = token;
+        }
+
+        /**
+         * @return the salt
+         */
+        public byte[] getSalt()
+        {
+            return this.salt;
+        }
+
+        /**
+         * @return the hash
+         */
+        public byte[] getHash()
+        {
+            return this.hash;
+        }
+
+        /**
+         * @return the iterations
+         */
+        public int getIterations()
+        {
+            return this.iterations;
+        }
+
+        /**
+         * @return the expiry
+         */
+        public long getExpiry()
+        {
+            return this.expiry;
+        }
+
+        /**
+         * @return the token
+         */
+        public RefreshableAccessTokenHolder getToken()
+        {
+            return this.token;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.authentication;
+
+import org.keycloak.adapters.spi.SessionIdMapper;
+
+/**
+ * Instances of this interface are session ID mappers which support the reverse lookup of the principal of a mapped session, e.g. to
+ * invalidate any user-specific state when a session is ended via a Keycloak back-channel logout.
+ *
+ * @author Axel Faust
+ */
+public interface PrincipalAwareSessionIdMapper extends SessionIdMapper
+{
+
+    /**
+     * Retrieves the principal of a mapped session.
+     *
+     * @param session
+     *     the ID of the session
+     * @return the principal of the session, or {@code null} if the session is not mapped or has been mapped without a principal
+     */
+    String getSessionPrincipal(String session);
+}
@@ -21,13 +21,12 @@ import java.util.Set;
 
 import org.alfresco.repo.cache.SimpleCache;
 import org.alfresco.util.PropertyCheck;
-import org.keycloak.adapters.spi.SessionIdMapper;
 import org.springframework.beans.factory.InitializingBean;
 
 /**
  * @author Axel Faust
  */
-public class SimpleCacheBackedSessionIdMapper implements SessionIdMapper, InitializingBean
+public class SimpleCacheBackedSessionIdMapper implements PrincipalAwareSessionIdMapper, InitializingBean
 {
 
     protected SimpleCache<String, String> ssoToSession;
@@ -132,6 +131,15 @@ public class SimpleCacheBackedSessionIdMapper implements SessionIdMapper, Initia
         return this.ssoToSession.get(sso);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getSessionPrincipal(final String session)
+    {
+        return this.sessionToPrincipal.get(session);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,526 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.authentication;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpSessionBindingEvent;
+import jakarta.servlet.http.HttpSessionBindingListener;
+
+import org.alfresco.util.TempFileProvider;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.servlet.OIDCFilterSessionStore;
+import org.keycloak.adapters.spi.HttpFacade;
+import org.keycloak.adapters.spi.KeycloakAccount;
+import org.keycloak.adapters.spi.SessionIdMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of this class extend the default Keycloak filter session store with a tiered buffer for the bodies of requests saved before
+ * redirecting a client to Keycloak for authentication. Bodies up to a configurable threshold are kept in memory (in the HTTP session) just
+ * like in the default implementation, while larger bodies are spilled to a temporary file which is memory-mapped for replay once the
+ * request is restored, so that large requests can be replayed without holding their bodies in heap memory. URL-encoded form bodies are
+ * always kept in memory as the default implementation needs to access them to provide request parameters for the restored request.
+ *
+ * Temporary files are deleted as soon as the saved request has been restored, or when the saved request is discarded, e.g. due to the HTTP
+ * session being invalidated. As temporary files are local to the server which saved the request, the path to the file is not included in
+ * the serialised state of the HTTP session. A saved request with a spilled body can therefore not be restored on a different server or
+ * after the HTTP session has been passivated, and any attempt to do so fails with an explicit error instead of replaying an incomplete
+ * request.
+ *
+ * @author Axel Faust
+ */
+public class SpillingOIDCFilterSessionStore extends OIDCFilterSessionStore
+{
+
+    public static final String SAVED_SPILLED_BODY = SpillingOIDCFilterSessionStore.class.getName() + ".savedSpilledBody";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpillingOIDCFilterSessionStore.class);
+
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    protected final HttpServletRequest bufferedRequest;
+
+    protected final int bodyBufferLimit;
+
+    protected final int bodyBufferThreshold;
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param request
+     *     the servlet request
+     * @param facade
+     *     the HTTP facade for the current request
+     * @param bodyBufferLimit
+     *     the maximum size of a request body to save
+     * @param bodyBufferThreshold
+     *     the size up to which a request body is kept in memory
+     * @param deployment
+     *     the Keycloak deployment
+     * @param idMapper
+     *     the session ID mapper
+     */
+    public SpillingOIDCFilterSessionStore(final HttpServletRequest request, final HttpFacade facade, final int bodyBufferLimit,
+            final int bodyBufferThreshold, final KeycloakDeployment deployment, final SessionIdMapper idMapper)
+    {
+        super(request, facade, bodyBufferLimit, deployment, idMapper);
+        this.bufferedRequest = request;
+        this.bodyBufferLimit = bodyBufferLimit;
+        this.bodyBufferThreshold = Math.min(Math.max(0, bodyBufferThreshold), bodyBufferLimit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void saveRequest()
+    {
+        final HttpSession existingSession = this.bufferedRequest.getSession(false);
+        if (existingSession != null)
+        {
+            existingSession.removeAttribute(SAVED_SPILLED_BODY);
+        }
+
+        final String contentType = this.bufferedRequest.getContentType();
+        if ("GET".equalsIgnoreCase(this.bufferedRequest.getMethod())
+                || (contentType != null && contentType.toLowerCase(Locale.ENGLISH).startsWith(FORM_CONTENT_TYPE)))
+        {
+            super.saveRequest();
+        }
+        else
+        {
+            final Object body = this.bufferBody();
+
+            // body has already been consumed, so the base class only saves URI, method and headers
+            super.saveRequest();
+
+            final HttpSession session = this.bufferedRequest.getSession(true);
+            session.removeAttribute(SAVED_BODY);
+            if (body instanceof SpilledRequestBody)
+            {
+                session.setAttribute(SAVED_SPILLED_BODY, body);
+            }
+            else if (body != null)
+            {
+                session.setAttribute(SAVED_BODY, body);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clearSavedRequest(final HttpSession session)
+    {
+        super.clearSavedRequest(session);
+        session.removeAttribute(SAVED_SPILLED_BODY);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HttpServletRequestWrapper buildWrapper(final HttpSession session, final KeycloakAccount account)
+    {
+        final Object savedSpilledBody = session.getAttribute(SAVED_SPILLED_BODY);
+        final SpilledRequestBody spilledBody = savedSpilledBody instanceof SpilledRequestBody ? (SpilledRequestBody) savedSpilledBody
+                : null;
+        if (spilledBody != null)
+        {
+            // prevent deletion of the file when the saved request is cleared as part of being restored
+            spilledBody.retain();
+        }
+
+        HttpServletRequestWrapper wrapper;
+        boolean restored = false;
+        try
+        {
+            wrapper = super.buildWrapper(session, account);
+
+            // base class only removes the saved request (and our attribute) from the session if it actually restored it
+            restored = spilledBody != null && session.getAttribute(SAVED_SPILLED_BODY) == null;
+            if (restored)
+            {
+                LOGGER.debug("Replaying spilled request body of {} bytes from memory-mapped file", spilledBody.getLength());
+                wrapper = new MappedBodyRequestWrapper(wrapper, spilledBody.map());
+            }
+        }
+        finally
+        {
+            if (spilledBody != null)
+            {
+                spilledBody.release();
+                if (restored)
+                {
+                    // file is no longer needed once mapped (or if mapping failed)
+                    spilledBody.delete();
+                }
+            }
+        }
+        return wrapper;
+    }
+
+    protected Object bufferBody()
+    {
+        Object body = null;
+        try
+        {
+            final InputStream is = this.bufferedRequest.getInputStream();
+            final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            final ByteArrayOutputStream slab = new ByteArrayOutputStream(Math.min(COPY_BUFFER_SIZE, this.bodyBufferThreshold));
+
+            int totalRead = 0;
+            int bytesRead = is.read(buffer);
+            while (bytesRead >= 0 && totalRead + bytesRead <= this.bodyBufferThreshold)
+            {
+                slab.write(buffer, 0, bytesRead);
+                totalRead += bytesRead;
+                bytesRead = is.read(buffer);
+            }
+
+            if (bytesRead >= 0)
+            {
+                body = this.spillBody(is, slab, buffer, bytesRead, totalRead);
+            }
+            else if (totalRead > 0)
+            {
+                body = slab.toByteArray();
+            }
+        }
+        catch (final IOException ioex)
+        {
+            throw new RuntimeException(ioex);
+        }
+        return body;
+    }
+
+    protected SpilledRequestBody spillBody(final InputStream is, final ByteArrayOutputStream slab, final byte[] buffer,
+            final int pendingBytes, final int slabBytes) throws IOException
+    {
+        final File file = TempFileProvider.createTempFile("keycloak-saved-request-", ".bin");
+        boolean success = false;
+        try
+        {
+            long totalRead = slabBytes;
+            try (OutputStream os = Files.newOutputStream(file.toPath()))
+            {
+                slab.writeTo(os);
+
+                int bytesRead = pendingBytes;
+                while (bytesRead >= 0)
+                {
+                    totalRead += bytesRead;
+                    if (totalRead > this.bodyBufferLimit)
+                    {
+                        // same failure as in the default implementation
+                        throw new RuntimeException("max buffer reached on a saved request");
+                    }
+                    os.write(buffer, 0, bytesRead);
+                    bytesRead = is.read(buffer);
+                }
+            }
+
+            LOGGER.debug("Spilled request body of {} bytes to temporary file", totalRead);
+            success = true;
+            return new SpilledRequestBody(file.getAbsolutePath(), totalRead);
+        }
+        finally
+        {
+            if (!success)
+            {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * Instances of this class represent a request body spilled to a temporary file. The path to the temporary file is excluded from
+     * serialisation, as the file only exists on the server which saved the request.
+     *
+     * @author Axel Faust
+     */
+    public static class SpilledRequestBody implements Serializable, HttpSessionBindingListener
+    {
+
+        private static final long serialVersionUID = 2150851432196563046L;
+
+        private final transient String path;
+
+        private final long length;
+
+        private transient volatile boolean retained;
+
+        /**
+         * Creates a new instance of this class.
+         *
+         * @param path
+         *     the path to the temporary file
+         * @param length
+         *     the length of the body
+         */
+        public SpilledRequestBody(final String path, final long length)
+        {
+            this.path = path;
+            this.length = length;
+        }
+
+        /**
+         * @return the length
+         */
+        public long getLength()
+        {
+            return this.length;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void valueUnbound(final HttpSessionBindingEvent event)
+        {
+            if (!this.retained)
+            {
+                this.delete();
+            }
+        }
+
+        protected void retain()
+        {
+            this.retained = true;
+        }
+
+        protected void release()
+        {
+            this.retained = false;
+        }
+
+        protected ByteBuffer map()
+        {
+            if (this.path == null)
+            {
+                throw new IllegalStateException("Spilled request body of " + this.length
+                        + " bytes was saved on a different server or before the HTTP session was passivated and cannot be restored");
+            }
+
+            final Path filePath = Path.of(this.path);
+            if (!Files.isRegularFile(filePath))
+            {
+                throw new IllegalStateException(
+                        "Temporary file " + this.path + " of spilled request body no longer exists - saved request cannot be restored");
+            }
+
+            try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ))
+            {
+                // mapping remains valid after the channel has been closed
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, this.length);
+            }
+            catch (final IOException ioex)
+            {
+                throw new IllegalStateException("Failed to map spilled request body from temporary file " + this.path, ioex);
+            }
+        }
+
+        protected void delete()
+        {
+            if (this.path != null)
+            {
+                final File file = new File(this.path);
+                // may fail on some operating systems while the file is still mapped
+                if (file.exists() && !file.delete())
+                {
+                    file.deleteOnExit();
+                }
+            }
+        }
+    }
+
+    /**
+     * Instances of this class replay a request body from a (memory-mapped) buffer.
+     *
+     * @author Axel Faust
+     */
+    protected static class MappedBodyRequestWrapper extends HttpServletRequestWrapper
+    {
+
+        protected final ByteBuffer body;
+
+        protected MappedBodyRequestWrapper(final HttpServletRequest request, final ByteBuffer body)
+        {
+            super(request);
+            this.body = body;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getContentLength()
+        {
+            return this.body.capacity();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getContentLengthLong()
+        {
+            return this.body.capacity();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ServletInputStream getInputStream()
+        {
+            return new ByteBufferServletInputStream(this.body.duplicate());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public BufferedReader getReader() throws UnsupportedEncodingException
+        {
+            final String encoding = this.getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(this.getInputStream(),
+                    encoding != null ? encoding : StandardCharsets.ISO_8859_1.name()));
+        }
+    }
+
+    /**
+     * Instances of this class provide a servlet input stream reading from a byte buffer.
+     *
+     * @author Axel Faust
+     */
+    protected static class ByteBufferServletInputStream extends ServletInputStream
+    {
+
+        protected final ByteBuffer buffer;
+
+        protected ByteBufferServletInputStream(final ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read()
+        {
+            return this.buffer.hasRemaining() ? this.buffer.get() & 0xff : -1;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(final byte[] b, final int off, final int len)
+        {
+            int read = len == 0 ? 0 : -1;
+            if (len > 0 && this.buffer.hasRemaining())
+            {
+                read = Math.min(len, this.buffer.remaining());
+                this.buffer.get(b, off, read);
+            }
+            return read;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int available()
+        {
+            return this.buffer.remaining();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isFinished()
+        {
+            return !this.buffer.hasRemaining();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isReady()
+        {
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setReadListener(final ReadListener readListener)
+        {
+            if (readListener == null)
+            {
+                throw new NullPointerException("readListener must not be null");
+            }
+
+            // the replayed body is fully available, so the listener can be notified immediately
+            try
+            {
+                if (this.buffer.hasRemaining())
+                {
+                    // isReady() is always true, so the listener consumes all data in this call
+                    readListener.onDataAvailable();
+                }
+                if (!this.buffer.hasRemaining())
+                {
+                    readListener.onAllDataRead();
+                }
+            }
+            catch (final IOException ioex)
+            {
+                readListener.onError(ioex);
+            }
+        }
+    }
+}
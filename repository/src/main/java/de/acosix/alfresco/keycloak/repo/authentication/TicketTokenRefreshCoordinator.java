@@ -0,0 +1,411 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.authentication;
+
+import java.io.Serializable;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.util.ParameterCheck;
+import org.alfresco.util.PropertyCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.acosix.alfresco.keycloak.repo.util.RefreshableAccessTokenHolder;
+
+/**
+ * Instances of this class coordinate the refresh of access tokens associated with authentication tickets so that concurrent requests for
+ * the same ticket result in only a single call to the Keycloak token endpoint. Within a single server, concurrent refreshes are combined
+ * into a single flight per ticket, with any thread arriving while a refresh is in progress waiting for and re-using its result, while
+ * refreshes across multiple servers in a cluster are guarded by a short-lived lease recorded in a (distributed) cache. Threads / servers
+ * which did not perform the refresh re-use the token stored by the one that did. No lock is held while waiting for a lease or calling the
+ * Keycloak token endpoint, and single flights for different keys (e.g. an HTTP session and the ticket of its user) never wait on each
+ * other, so that nested operations cannot deadlock.
+ *
+ * The lease across servers is a best-effort guard - if a lease cannot be obtained within a configured wait time, the refresh will be
+ * performed regardless, as blocking a request indefinitely would be worse than a duplicate token endpoint call.
+ *
+ * @author Axel Faust
+ */
+public class TicketTokenRefreshCoordinator implements InitializingBean
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TicketTokenRefreshCoordinator.class);
+
+    private static final int DEFAULT_LEASE_SECONDS = 10;
+
+    private static final int DEFAULT_LEASE_WAIT_MILLIS = 5000;
+
+    private static final int DEFAULT_LEASE_POLL_MILLIS = 50;
+
+    protected final String leaseOwner = UUID.randomUUID().toString();
+
+    protected SimpleCache<String, RefreshableAccessTokenHolder> keycloakTicketTokenCache;
+
+    protected SimpleCache<String, RefreshLease> ticketTokenRefreshLeaseCache;
+
+    protected int leaseSeconds = DEFAULT_LEASE_SECONDS;
+
+    protected int leaseWaitMillis = DEFAULT_LEASE_WAIT_MILLIS;
+
+    protected int leasePollMillis = DEFAULT_LEASE_POLL_MILLIS;
+
+    protected final ConcurrentMap<String, CompletableFuture<RefreshableAccessTokenHolder>> ticketRefreshes = new ConcurrentHashMap<>();
+
+    protected final ConcurrentMap<String, CompletableFuture<Object>> singleFlights = new ConcurrentHashMap<>();
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet()
+    {
+        PropertyCheck.mandatory(this, "keycloakTicketTokenCache", this.keycloakTicketTokenCache);
+        PropertyCheck.mandatory(this, "ticketTokenRefreshLeaseCache", this.ticketTokenRefreshLeaseCache);
+    }
+
+    /**
+     * @param keycloakTicketTokenCache
+     *     the keycloakTicketTokenCache to set
+     */
+    public void setKeycloakTicketTokenCache(final SimpleCache<String, RefreshableAccessTokenHolder> keycloakTicketTokenCache)
+    {
+        this.keycloakTicketTokenCache = keycloakTicketTokenCache;
+    }
+
+    /**
+     * @param ticketTokenRefreshLeaseCache
+     *     the ticketTokenRefreshLeaseCache to set
+     */
+    public void setTicketTokenRefreshLeaseCache(final SimpleCache<String, RefreshLease> ticketTokenRefreshLeaseCache)
+    {
+        this.ticketTokenRefreshLeaseCache = ticketTokenRefreshLeaseCache;
+    }
+
+    /**
+     * @param leaseSeconds
+     *     the leaseSeconds to set
+     */
+    public void setLeaseSeconds(final int leaseSeconds)
+    {
+        this.leaseSeconds = leaseSeconds;
+    }
+
+    /**
+     * @param leaseWaitMillis
+     *     the leaseWaitMillis to set
+     */
+    public void setLeaseWaitMillis(final int leaseWaitMillis)
+    {
+        this.leaseWaitMillis = leaseWaitMillis;
+    }
+
+    /**
+     * @param leasePollMillis
+     *     the leasePollMillis to set
+     */
+    public void setLeasePollMillis(final int leasePollMillis)
+    {
+        this.leasePollMillis = leasePollMillis;
+    }
+
+    /**
+     * Refreshes the access token associated with an authentication ticket, unless another thread or server has already done so since the
+     * provided token was retrieved from the cache. The refreshed token is stored in the ticket token cache before this operation returns.
+     *
+     * @param ticket
+     *     the authentication ticket
+     * @param ticketToken
+     *     the access token currently associated with the ticket as known to the caller
+     * @param refreshRequired
+     *     the check whether a token still needs to be refreshed
+     * @param refresher
+     *     the operation performing the actual refresh
+     * @return the token which is now associated with the ticket - either the result of the refresh by the current thread or a token
+     *     refreshed concurrently by another thread or server
+     */
+    public RefreshableAccessTokenHolder refreshTicketToken(final String ticket, final RefreshableAccessTokenHolder ticketToken,
+            final Predicate<RefreshableAccessTokenHolder> refreshRequired, final UnaryOperator<RefreshableAccessTokenHolder> refresher)
+    {
+        ParameterCheck.mandatoryString("ticket", ticket);
+        ParameterCheck.mandatory("ticketToken", ticketToken);
+        ParameterCheck.mandatory("refreshRequired", refreshRequired);
+        ParameterCheck.mandatory("refresher", refresher);
+
+        final RefreshableAccessTokenHolder currentToken = this.getCurrentToken(ticket, ticketToken);
+        if (!refreshRequired.test(currentToken))
+        {
+            LOGGER.debug("Access token for ticket {} has already been refreshed by a concurrent thread", ticket);
+            return currentToken;
+        }
+
+        return this.runSingleFlight(this.ticketRefreshes, ticket,
+                () -> this.refreshTicketTokenImpl(ticket, ticketToken, refreshRequired, refresher));
+    }
+
+    /**
+     * Associates a token which has been refreshed outside of the control of this instance, e.g. by the Keycloak adapter library as part of
+     * HTTP session handling, with an authentication ticket, unless the token currently associated with the ticket remains valid for longer
+     * than the provided token.
+     *
+     * @param ticket
+     *     the authentication ticket
+     * @param refreshedToken
+     *     the refreshed token
+     */
+    public void offerRefreshedTicketToken(final String ticket, final RefreshableAccessTokenHolder refreshedToken)
+    {
+        ParameterCheck.mandatoryString("ticket", ticket);
+        ParameterCheck.mandatory("refreshedToken", refreshedToken);
+
+        // no lock - in the rare case of a concurrent update, the token stored last wins, which is still a valid, freshly refreshed token
+        final RefreshableAccessTokenHolder currentToken = this.keycloakTicketTokenCache.get(ticket);
+        if (currentToken == null || currentToken.getAccessTokenExpiration() <= refreshedToken.getAccessTokenExpiration())
+        {
+            this.keycloakTicketTokenCache.put(ticket, refreshedToken);
+        }
+        else
+        {
+            LOGGER.debug("Not associating refreshed token with ticket {} as the currently associated token is valid for longer", ticket);
+        }
+    }
+
+    /**
+     * Runs an operation for a specific key, e.g. an HTTP session ID, unless the operation is already being run for the same key by another
+     * thread, in which case the current thread waits for that operation to complete instead of running it again. No lock is held while the
+     * operation is run, so the operation may itself use this instance for other keys or any other operations of this instance.
+     *
+     * @param <T>
+     *     the type of the result of the operation
+     * @param key
+     *     the key for which to combine concurrent operations
+     * @param operation
+     *     the operation to run
+     * @return the result of the operation run by either the current or a concurrent thread
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T runSingleFlight(final String key, final Supplier<T> operation)
+    {
+        ParameterCheck.mandatoryString("key", key);
+        ParameterCheck.mandatory("operation", operation);
+
+        return (T) this.runSingleFlight(this.singleFlights, key, operation::get);
+    }
+
+    protected <T> T runSingleFlight(final ConcurrentMap<String, CompletableFuture<T>> flights, final String key,
+            final Supplier<T> operation)
+    {
+        final CompletableFuture<T> flight = new CompletableFuture<>();
+        final CompletableFuture<T> activeFlight = flights.putIfAbsent(key, flight);
+
+        T result;
+        if (activeFlight != null)
+        {
+            LOGGER.trace("Waiting for concurrent operation for {}", key);
+            try
+            {
+                result = activeFlight.join();
+            }
+            catch (final CompletionException cex)
+            {
+                final Throwable cause = cex.getCause();
+                if (cause instanceof RuntimeException)
+                {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error)
+                {
+                    throw (Error) cause;
+                }
+                throw cex;
+            }
+        }
+        else
+        {
+            try
+            {
+                result = operation.get();
+                flight.complete(result);
+            }
+            catch (final RuntimeException | Error ex)
+            {
+                flight.completeExceptionally(ex);
+                throw ex;
+            }
+            finally
+            {
+                flights.remove(key, flight);
+            }
+        }
+        return result;
+    }
+
+    protected RefreshableAccessTokenHolder refreshTicketTokenImpl(final String ticket, final RefreshableAccessTokenHolder ticketToken,
+            final Predicate<RefreshableAccessTokenHolder> refreshRequired, final UnaryOperator<RefreshableAccessTokenHolder> refresher)
+    {
+        RefreshableAccessTokenHolder currentToken = this.getCurrentToken(ticket, ticketToken);
+        if (!refreshRequired.test(currentToken))
+        {
+            LOGGER.debug("Access token for ticket {} has already been refreshed by a concurrent thread", ticket);
+            return currentToken;
+        }
+
+        // waiting for a lease only blocks the current flight - concurrent threads for the same ticket wait on its result
+        final boolean leaseAcquired = this.acquireLease(ticket);
+        try
+        {
+            currentToken = this.getCurrentToken(ticket, ticketToken);
+            if (!refreshRequired.test(currentToken))
+            {
+                LOGGER.debug("Access token for ticket {} has already been refreshed by another server", ticket);
+                return currentToken;
+            }
+
+            final RefreshableAccessTokenHolder refreshedToken = refresher.apply(currentToken);
+            if (refreshedToken != null)
+            {
+                this.keycloakTicketTokenCache.put(ticket, refreshedToken);
+            }
+            return refreshedToken;
+        }
+        finally
+        {
+            if (leaseAcquired)
+            {
+                this.releaseLease(ticket);
+            }
+        }
+    }
+
+    protected RefreshableAccessTokenHolder getCurrentToken(final String ticket, final RefreshableAccessTokenHolder fallbackToken)
+    {
+        final RefreshableAccessTokenHolder cachedToken = this.keycloakTicketTokenCache.get(ticket);
+        return cachedToken != null ? cachedToken : fallbackToken;
+    }
+
+    protected boolean acquireLease(final String ticket)
+    {
+        final long deadline = System.currentTimeMillis() + this.leaseWaitMillis;
+        boolean acquired = this.tryAcquireLease(ticket);
+        while (!acquired && System.currentTimeMillis() < deadline)
+        {
+            try
+            {
+                Thread.sleep(this.leasePollMillis);
+            }
+            catch (final InterruptedException iex)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            acquired = this.tryAcquireLease(ticket);
+        }
+
+        if (!acquired)
+        {
+            LOGGER.debug("Failed to acquire refresh lease for ticket {} within {} ms - proceeding without lease", ticket,
+                    this.leaseWaitMillis);
+        }
+        return acquired;
+    }
+
+    protected boolean tryAcquireLease(final String ticket)
+    {
+        final long now = System.currentTimeMillis();
+        final RefreshLease existingLease = this.ticketTokenRefreshLeaseCache.get(ticket);
+        if (existingLease != null && !existingLease.isOwnedBy(this.leaseOwner) && !existingLease.isExpired(now))
+        {
+            return false;
+        }
+
+        this.ticketTokenRefreshLeaseCache.put(ticket, new RefreshLease(this.leaseOwner, now + this.leaseSeconds * 1000L));
+
+        // read back to detect a competing lease recorded by another server at the same time
+        final RefreshLease effectiveLease = this.ticketTokenRefreshLeaseCache.get(ticket);
+        return effectiveLease != null && effectiveLease.isOwnedBy(this.leaseOwner);
+    }
+
+    protected void releaseLease(final String ticket)
+    {
+        final RefreshLease lease = this.ticketTokenRefreshLeaseCache.get(ticket);
+        if (lease != null && lease.isOwnedBy(this.leaseOwner))
+        {
+            this.ticketTokenRefreshLeaseCache.remove(ticket);
+        }
+    }
+
+    /**
+     * Instances of this class record which server is currently refreshing the access token of a specific authentication ticket.
+     *
+     * @author Axel Faust
+     */
+    public static class RefreshLease implements Serializable
+    {
+
+        private static final long serialVersionUID = 4127561304960327468L;
+
+        private final String owner;
+
+        private final long expiry;
+
+        /**
+         * Creates a new instance of this class.
+         *
+         * @param owner
+         *     the identifier of the owner of the lease
+         * @param expiry
+         *     the timestamp (epoch milliseconds) at which the lease expires
+         */
+        public RefreshLease(final String owner, final long expiry)
+        {
+            this.owner = owner;
+            this.expiry = expiry;
+        }
+
+        /**
+         * Checks whether this lease is owned by a specific owner.
+         *
+         * @param owner
+         *     the identifier of the owner
+         * @return {@code true} if the lease is owned by the specified owner, {@code false} otherwise
+         */
+        public boolean isOwnedBy(final String owner)
+        {
+            return this.owner.equals(owner);
+        }
+
+        /**
+         * Checks whether this lease has expired.
+         *
+         * @param now
+         *     the current timestamp (epoch milliseconds)
+         * @return {@code true} if the lease has expired, {@code false} otherwise
+         */
+        public boolean isExpired(final long now)
+        {
+            return this.expiry <= now;
+        }
+    }
+}
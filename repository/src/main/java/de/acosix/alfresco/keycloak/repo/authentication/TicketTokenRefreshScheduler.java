@@ -0,0 +1,345 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.authentication;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.security.authentication.AuthenticationException;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.PropertyCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.acosix.alfresco.keycloak.repo.util.RefreshableAccessTokenHolder;
+
+/**
+ * Instances of this class periodically scan the access tokens associated with authentication tickets and refresh those approaching their
+ * expiration ahead of time, so that requests using the ticket do not have to wait on the Keycloak token endpoint. Refreshes are
+ * distributed over a configurable jitter window and performed with bounded concurrency. Entries for which the access token has expired and
+ * the refresh token can no longer be used are dropped, unless expired tokens are configured to fail ticket validation, in which case they
+ * are retained so that validation can fail as configured.
+ *
+ * In a cluster, only the server holding a cluster-wide job lock scans and refreshes tokens, so that tickets are neither scanned by all
+ * servers nor refreshed by multiple servers at the same time. The lock is kept by the same server for as long as it keeps scanning, and
+ * taken over by another server once it expires, e.g. after the server holding it has been shut down.
+ *
+ * Since refreshing a token constitutes activity in the Keycloak SSO session, background refreshes keep sessions alive for as long as the
+ * associated Alfresco authentication ticket is cached. For this reason, this feature needs to be explicitly enabled.
+ *
+ * @author Axel Faust
+ */
+public class TicketTokenRefreshScheduler implements InitializingBean, DisposableBean
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TicketTokenRefreshScheduler.class);
+
+    private static final QName LOCK_QNAME = QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI,
+            TicketTokenRefreshScheduler.class.getSimpleName());
+
+    protected final Set<String> scheduledTickets = ConcurrentHashMap.newKeySet();
+
+    protected final Map<String, String> failedRefreshTokenByTicket = new ConcurrentHashMap<>();
+
+    protected boolean enabled;
+
+    protected boolean failExpiredTicketTokens;
+
+    protected int scanIntervalSeconds = 30;
+
+    protected int lookAheadSeconds = 60;
+
+    protected int maxConcurrentRefreshes = 4;
+
+    protected int maxJitterMillis = 5000;
+
+    protected KeycloakAuthenticationComponent keycloakAuthenticationComponent;
+
+    protected SimpleCache<String, RefreshableAccessTokenHolder> keycloakTicketTokenCache;
+
+    protected JobLockService jobLockService;
+
+    protected ScheduledThreadPoolExecutor executor;
+
+    protected volatile String lockToken;
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet()
+    {
+        PropertyCheck.mandatory(this, "keycloakAuthenticationComponent", this.keycloakAuthenticationComponent);
+        PropertyCheck.mandatory(this, "keycloakTicketTokenCache", this.keycloakTicketTokenCache);
+        PropertyCheck.mandatory(this, "jobLockService", this.jobLockService);
+
+        if (this.enabled)
+        {
+            final AtomicInteger threadCount = new AtomicInteger(0);
+            this.executor = new ScheduledThreadPoolExecutor(Math.max(1, this.maxConcurrentRefreshes), r -> {
+                final Thread thread = new Thread(r, TicketTokenRefreshScheduler.class.getSimpleName() + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.executor.setRemoveOnCancelPolicy(true);
+            this.executor.scheduleWithFixedDelay(this::scan, this.scanIntervalSeconds, Math.max(1, this.scanIntervalSeconds),
+                    TimeUnit.SECONDS);
+            LOGGER.info("Scheduled background refresh of ticket-associated access tokens every {} seconds", this.scanIntervalSeconds);
+        }
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy()
+    {
+        if (this.executor != null)
+        {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+
+        final String lockToken = this.lockToken;
+        if (lockToken != null)
+        {
+            this.lockToken = null;
+            try
+            {
+                this.jobLockService.releaseLock(lockToken, LOCK_QNAME);
+            }
+            catch (final RuntimeException rex)
+            {
+                LOGGER.debug("Failed to release job lock for background refresh of ticket-associated access tokens", rex);
+            }
+        }
+        this.scheduledTickets.clear();
+        this.failedRefreshTokenByTicket.clear();
+    }
+
+    /**
+     * @param enabled
+     *     the enabled to set
+     */
+    public void setEnabled(final boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param failExpiredTicketTokens
+     *     the failExpiredTicketTokens to set
+     */
+    public void setFailExpiredTicketTokens(final boolean failExpiredTicketTokens)
+    {
+        this.failExpiredTicketTokens = failExpiredTicketTokens;
+    }
+
+    /**
+     * @param scanIntervalSeconds
+     *     the scanIntervalSeconds to set
+     */
+    public void setScanIntervalSeconds(final int scanIntervalSeconds)
+    {
+        this.scanIntervalSeconds = scanIntervalSeconds;
+    }
+
+    /**
+     * @param lookAheadSeconds
+     *     the lookAheadSeconds to set
+     */
+    public void setLookAheadSeconds(final int lookAheadSeconds)
+    {
+        this.lookAheadSeconds = lookAheadSeconds;
+    }
+
+    /**
+     * @param maxConcurrentRefreshes
+     *     the maxConcurrentRefreshes to set
+     */
+    public void setMaxConcurrentRefreshes(final int maxConcurrentRefreshes)
+    {
+        this.maxConcurrentRefreshes = maxConcurrentRefreshes;
+    }
+
+    /**
+     * @param maxJitterMillis
+     *     the maxJitterMillis to set
+     */
+    public void setMaxJitterMillis(final int maxJitterMillis)
+    {
+        this.maxJitterMillis = maxJitterMillis;
+    }
+
+    /**
+     * @param keycloakAuthenticationComponent
+     *     the keycloakAuthenticationComponent to set
+     */
+    public void setKeycloakAuthenticationComponent(final KeycloakAuthenticationComponent keycloakAuthenticationComponent)
+    {
+        this.keycloakAuthenticationComponent = keycloakAuthenticationComponent;
+    }
+
+    /**
+     * @param keycloakTicketTokenCache
+     *     the keycloakTicketTokenCache to set
+     */
+    public void setKeycloakTicketTokenCache(final SimpleCache<String, RefreshableAccessTokenHolder> keycloakTicketTokenCache)
+    {
+        this.keycloakTicketTokenCache = keycloakTicketTokenCache;
+    }
+
+    /**
+     * @param jobLockService
+     *     the jobLockService to set
+     */
+    public void setJobLockService(final JobLockService jobLockService)
+    {
+        this.jobLockService = jobLockService;
+    }
+
+    protected void scan()
+    {
+        try
+        {
+            if (!this.obtainOrRefreshLock())
+            {
+                LOGGER.trace("Not scanning ticket-associated access tokens as another server holds the job lock");
+                return;
+            }
+
+            final Collection<String> tickets = new ArrayList<>(this.keycloakTicketTokenCache.getKeys());
+            this.failedRefreshTokenByTicket.keySet().retainAll(tickets);
+
+            int scheduled = 0;
+            int dropped = 0;
+            for (final String ticket : tickets)
+            {
+                final RefreshableAccessTokenHolder token = this.keycloakTicketTokenCache.get(ticket);
+                if (token == null || this.scheduledTickets.contains(ticket))
+                {
+                    continue;
+                }
+
+                if (!token.canRefresh())
+                {
+                    if (!token.isActive() && !this.failExpiredTicketTokens)
+                    {
+                        LOGGER.debug("Dropping expired, non-refreshable access token associated with ticket {}", ticket);
+                        this.keycloakTicketTokenCache.remove(ticket);
+                        dropped++;
+                    }
+                }
+                else if (this.keycloakAuthenticationComponent.isTicketTokenRefreshRequired(token, this.lookAheadSeconds)
+                        && !token.getRefreshToken().equals(this.failedRefreshTokenByTicket.get(ticket))
+                        && this.scheduledTickets.add(ticket))
+                {
+                    final long jitter = this.maxJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(this.maxJitterMillis) : 0;
+                    this.executor.schedule(() -> this.refresh(ticket), jitter, TimeUnit.MILLISECONDS);
+                    scheduled++;
+                }
+            }
+
+            LOGGER.debug("Scanned {} ticket-associated access tokens - scheduled {} for refresh and dropped {}", tickets.size(), scheduled,
+                    dropped);
+        }
+        catch (final RuntimeException rex)
+        {
+            // must not propagate as it would cancel any subsequent scans
+            LOGGER.warn("Error scanning ticket-associated access tokens for background refresh", rex);
+        }
+    }
+
+    protected boolean obtainOrRefreshLock()
+    {
+        // lock needs to outlive the interval between two scans so that the same server keeps scanning
+        final long timeToLive = Math.max(1, this.scanIntervalSeconds) * 3000L;
+        final String lockToken = this.lockToken;
+        boolean locked = false;
+        try
+        {
+            if (lockToken != null)
+            {
+                this.jobLockService.refreshLock(lockToken, LOCK_QNAME, timeToLive);
+            }
+            else
+            {
+                this.lockToken = this.jobLockService.getLock(LOCK_QNAME, timeToLive);
+                LOGGER.debug("Obtained job lock for background refresh of ticket-associated access tokens");
+            }
+            locked = true;
+        }
+        catch (final LockAcquisitionException laex)
+        {
+            if (lockToken != null)
+            {
+                LOGGER.debug("Lost job lock for background refresh of ticket-associated access tokens", laex);
+            }
+            this.lockToken = null;
+        }
+        return locked;
+    }
+
+    protected void refresh(final String ticket)
+    {
+        try
+        {
+            final RefreshableAccessTokenHolder token = this.keycloakTicketTokenCache.get(ticket);
+            // ticket may have been invalidated in the meantime
+            if (token != null)
+            {
+                try
+                {
+                    final RefreshableAccessTokenHolder refreshedToken = this.keycloakAuthenticationComponent.refreshTicketTokenAhead(ticket,
+                            token, this.lookAheadSeconds);
+                    if (refreshedToken != null)
+                    {
+                        LOGGER.debug("Refreshed access token associated with ticket {} in background", ticket);
+                    }
+                }
+                catch (final AuthenticationException aex)
+                {
+                    // leave entry for request-based validation to handle, but do not retry with the same refresh token
+                    LOGGER.debug("Failed to refresh access token associated with ticket {} in background", ticket, aex);
+                    this.failedRefreshTokenByTicket.put(ticket, token.getRefreshToken());
+                }
+            }
+        }
+        catch (final RuntimeException rex)
+        {
+            LOGGER.warn("Error refreshing access token associated with ticket {} in background", ticket, rex);
+        }
+        finally
+        {
+            this.scheduledTickets.remove(ticket);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.authentication;
+
+import org.alfresco.util.ParameterCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.extensions.webscripts.Description.RequiredAuthentication;
+import org.springframework.extensions.webscripts.Match;
+import org.springframework.extensions.webscripts.Registry;
+import org.springframework.extensions.webscripts.WebScript;
+
+import de.acosix.alfresco.keycloak.repo.util.BoundedConcurrentCache;
+
+/**
+ * Instances of this class cache the required authentication of individual web scripts, keyed by their web script ID. Since the number of
+ * web scripts is limited, the cache does not grow with the number of distinct request paths (e.g. paths containing node IDs). The cache is
+ * bounded in size, evicting (approximately) the least recently used entries without contending on a global lock, and is invalidated as a
+ * whole as soon as a reset of the web script registry is detected, i.e. when the web script instance matched for a request differs from
+ * the instance cached for the same web script ID.
+ *
+ * @author Axel Faust
+ */
+public class WebScriptAuthenticationDecisionCache
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebScriptAuthenticationDecisionCache.class);
+
+    protected final BoundedConcurrentCache<String, CachedDecision> decisions;
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param maxSize
+     *     the maximum number of decisions to cache
+     */
+    public WebScriptAuthenticationDecisionCache(final int maxSize)
+    {
+        this.decisions = new BoundedConcurrentCache<>(maxSize);
+    }
+
+    /**
+     * Retrieves the required authentication of the web script matching a specific request.
+     *
+     * @param registry
+     *     the web script registry
+     * @param method
+     *     the HTTP method of the request
+     * @param scriptUrl
+     *     the URL of the request relative to the web script runtime
+     * @return the required authentication of the matched web script, or {@code null} if no web script matches the request
+     */
+    public RequiredAuthentication getRequiredAuthentication(final Registry registry, final String method, final String scriptUrl)
+    {
+        ParameterCheck.mandatory("registry", registry);
+        ParameterCheck.mandatoryString("method", method);
+        ParameterCheck.mandatory("scriptUrl", scriptUrl);
+
+        RequiredAuthentication requiredAuthentication = null;
+
+        final Match match = registry.findWebScript(method, scriptUrl);
+        final WebScript webScript = match != null ? match.getWebScript() : null;
+        if (webScript != null)
+        {
+            final String webScriptId = webScript.getDescription().getId();
+            final CachedDecision cachedDecision = this.decisions.get(webScriptId);
+
+            if (cachedDecision != null && cachedDecision.webScript == webScript)
+            {
+                requiredAuthentication = cachedDecision.requiredAuthentication;
+            }
+            else
+            {
+                if (cachedDecision != null)
+                {
+                    LOGGER.debug("Detected reset of web script registry - invalidating all cached authentication decisions");
+                    this.clear();
+                }
+
+                requiredAuthentication = webScript.getDescription().getRequiredAuthentication();
+                this.decisions.put(webScriptId, new CachedDecision(webScript, requiredAuthentication));
+            }
+        }
+
+        return requiredAuthentication;
+    }
+
+    /**
+     * Clears all cached decisions.
+     */
+    public void clear()
+    {
+        this.decisions.clear();
+    }
+
+    /**
+     * Simple holder for a cached decision.
+     *
+     * @author Axel Faust
+     */
+    protected static class CachedDecision
+    {
+
+        protected final WebScript webScript;
+
+        protected final RequiredAuthentication requiredAuthentication;
+
+        protected CachedDecision(final WebScript webScript, final RequiredAuthentication requiredAuthentication)
+        {
+            this.webScript = webScript;
+            this.requiredAuthentication = requiredAuthentication;
+        }
+    }
+}
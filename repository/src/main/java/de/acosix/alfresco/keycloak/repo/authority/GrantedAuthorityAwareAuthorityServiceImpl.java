@@ -15,10 +15,20 @@
  */
 package de.acosix.alfresco.keycloak.repo.authority;
 
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.security.authority.AuthorityServiceImpl;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport.TxnReadState;
 import org.alfresco.service.cmr.security.AuthorityService;
 import org.alfresco.service.cmr.security.PermissionService;
 
@@ -31,11 +41,20 @@ import net.sf.acegisecurity.GrantedAuthority;
  * checks} work correctly, where as permission checks performed by the {@link PermissionService permission service} already take granted
  * authorities into account.
  *
+ * Since the permission service may request the authorities of the current user for every single node it evaluates, the merged set of
+ * authorities is memoised for the duration of the active transaction, keyed by the user name and the identity of the authentication (and
+ * its granted authorities) it was derived from. The memoised set is a view over the lazily evaluated set of the default service, which
+ * only memoises the results of individual membership checks, and only loads all authorities when iterated. Any change in authority
+ * membership via this service discards the memoised sets of the current transaction.
+ *
  * @author Axel Faust
  */
 public class GrantedAuthorityAwareAuthorityServiceImpl extends AuthorityServiceImpl
 {
 
+    private static final String AUTHORITIES_FOR_USER_MEMO_KEY = GrantedAuthorityAwareAuthorityServiceImpl.class.getName()
+            + ".authoritiesForUser";
+
     /**
      *
      * {@inheritDoc}
@@ -43,30 +62,252 @@ public class GrantedAuthorityAwareAuthorityServiceImpl extends AuthorityServiceI
     @Override
     public Set<String> getAuthoritiesForUser(final String currentUserName)
     {
-        final Set<String> authoritiesForUser = super.getAuthoritiesForUser(currentUserName);
-
         final String runAsUser = AuthenticationUtil.getRunAsUser();
         final String fullUser = AuthenticationUtil.getFullyAuthenticatedUser();
 
         final Authentication runAsAuthentication = AuthenticationUtil.getRunAsAuthentication();
         final Authentication fullAuthentication = AuthenticationUtil.getFullAuthentication();
 
+        final Authentication effectiveAuthentication;
         if (runAsAuthentication != null && currentUserName.equals(runAsUser))
         {
-            for (final GrantedAuthority authority : runAsAuthentication.getAuthorities())
+            effectiveAuthentication = runAsAuthentication;
+        }
+        else if (fullAuthentication != null && currentUserName.equals(fullUser))
+        {
+            effectiveAuthentication = fullAuthentication;
+        }
+        else
+        {
+            effectiveAuthentication = null;
+        }
+        final GrantedAuthority[] grantedAuthorities = effectiveAuthentication != null ? effectiveAuthentication.getAuthorities() : null;
+
+        final Map<String, MemoisedAuthorities> memo = this.getAuthoritiesForUserMemo();
+        MemoisedAuthorities memoised = memo != null ? memo.get(currentUserName) : null;
+        if (memoised == null || !memoised.isFor(effectiveAuthentication, grantedAuthorities))
+        {
+            final Set<String> grantedAuthorityNames = new HashSet<>();
+            if (grantedAuthorities != null)
+            {
+                for (final GrantedAuthority authority : grantedAuthorities)
+                {
+                    grantedAuthorityNames.add(authority.getAuthority());
+                }
+            }
+
+            // keep the (lazily evaluated) set of the default service as-is to avoid loading all authorities just for contains checks
+            memoised = new MemoisedAuthorities(effectiveAuthentication, grantedAuthorities,
+                    new GrantedAuthorityAwareAuthoritySet(super.getAuthoritiesForUser(currentUserName), grantedAuthorityNames));
+            if (memo != null)
             {
-                authoritiesForUser.add(authority.getAuthority());
+                memo.put(currentUserName, memoised);
             }
         }
-        else if (fullAuthentication != null && currentUserName.equals(fullUser))
+
+        return memoised.getAuthorities();
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void addAuthority(final String parentName, final String childName)
+    {
+        this.discardAuthoritiesForUserMemo();
+        super.addAuthority(parentName, childName);
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void addAuthority(final Collection<String> parentNames, final String childName)
+    {
+        this.discardAuthoritiesForUserMemo();
+        super.addAuthority(parentNames, childName);
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeAuthority(final String parentName, final String childName)
+    {
+        this.discardAuthoritiesForUserMemo();
+        super.removeAuthority(parentName, childName);
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void deleteAuthority(final String name, final boolean cascade)
+    {
+        this.discardAuthoritiesForUserMemo();
+        super.deleteAuthority(name, cascade);
+    }
+
+    /**
+     * Retrieves the transaction-scoped memo of merged authority sets, binding a new one if necessary.
+     *
+     * @return the memo of the active transaction or {@code null} if no transaction is active
+     */
+    protected Map<String, MemoisedAuthorities> getAuthoritiesForUserMemo()
+    {
+        Map<String, MemoisedAuthorities> memo = null;
+        if (AlfrescoTransactionSupport.getTransactionReadState() != TxnReadState.TXN_NONE)
+        {
+            memo = AlfrescoTransactionSupport.getResource(AUTHORITIES_FOR_USER_MEMO_KEY);
+            if (memo == null)
+            {
+                memo = new HashMap<>();
+                AlfrescoTransactionSupport.bindResource(AUTHORITIES_FOR_USER_MEMO_KEY, memo);
+            }
+        }
+        return memo;
+    }
+
+    /**
+     * Discards the transaction-scoped memo of merged authority sets, if one exists.
+     */
+    protected void discardAuthoritiesForUserMemo()
+    {
+        if (AlfrescoTransactionSupport.getTransactionReadState() != TxnReadState.TXN_NONE)
+        {
+            AlfrescoTransactionSupport.unbindResource(AUTHORITIES_FOR_USER_MEMO_KEY);
+        }
+    }
+
+    /**
+     * Instances of this class provide an immutable view of the union of the lazily evaluated authorities of a user and the authorities
+     * granted to the current authentication. Results of membership checks are memoised, while the full union is only computed when
+     * required for iteration or size checks.
+     *
+     * @author Axel Faust
+     */
+    protected static class GrantedAuthorityAwareAuthoritySet extends AbstractSet<String>
+    {
+
+        private final Set<String> authorities;
+
+        private final Set<String> grantedAuthorities;
+
+        private final Map<String, Boolean> containsResults = new ConcurrentHashMap<>();
+
+        private volatile Set<String> union;
+
+        protected GrantedAuthorityAwareAuthoritySet(final Set<String> authorities, final Set<String> grantedAuthorities)
         {
-            for (final GrantedAuthority authority : fullAuthentication.getAuthorities())
+            this.authorities = authorities;
+            this.grantedAuthorities = grantedAuthorities;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean contains(final Object o)
+        {
+            boolean contains;
+            if (!(o instanceof String))
+            {
+                contains = false;
+            }
+            else if (this.union != null)
+            {
+                contains = this.union.contains(o);
+            }
+            else
             {
-                authoritiesForUser.add(authority.getAuthority());
+                contains = this.grantedAuthorities.contains(o)
+                        || this.containsResults.computeIfAbsent((String) o, this.authorities::contains).booleanValue();
             }
+            return contains;
         }
 
-        return authoritiesForUser;
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public Iterator<String> iterator()
+        {
+            return this.getUnion().iterator();
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public int size()
+        {
+            return this.getUnion().size();
+        }
+
+        protected Set<String> getUnion()
+        {
+            Set<String> union = this.union;
+            if (union == null)
+            {
+                final Set<String> authorities = new HashSet<>(this.authorities);
+                authorities.addAll(this.grantedAuthorities);
+                union = Collections.unmodifiableSet(authorities);
+                this.union = union;
+            }
+            return union;
+        }
     }
 
+    /**
+     * Instances of this class hold a merged set of authorities alongside the authentication it was derived from.
+     *
+     * @author Axel Faust
+     */
+    protected static class MemoisedAuthorities
+    {
+
+        private final Authentication authentication;
+
+        private final GrantedAuthority[] grantedAuthorities;
+
+        private final Set<String> authorities;
+
+        protected MemoisedAuthorities(final Authentication authentication, final GrantedAuthority[] grantedAuthorities,
+                final Set<String> authorities)
+        {
+            this.authentication = authentication;
+            this.grantedAuthorities = grantedAuthorities;
+            this.authorities = authorities;
+        }
+
+        /**
+         * Checks whether this instance was derived from a specific authentication state.
+         *
+         * @param authentication
+         *     the authentication
+         * @param grantedAuthorities
+         *     the granted authorities of the authentication
+         * @return {@code true} if this instance was derived from the same authentication / granted authorities instances, {@code false}
+         *     otherwise
+         */
+        protected boolean isFor(final Authentication authentication, final GrantedAuthority[] grantedAuthorities)
+        {
+            return this.authentication == authentication && this.grantedAuthorities == grantedAuthorities;
+        }
+
+        /**
+         * @return the immutable view of the set of authorities
+         */
+        protected Set<String> getAuthorities()
+        {
+            return this.authorities;
+        }
+    }
 }
@@ -34,6 +34,7 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.util.EntityUtils;
 import org.keycloak.adapters.KeycloakDeployment;
 import org.keycloak.util.JsonSerialization;
@@ -43,6 +44,7 @@ import org.springframework.beans.factory.InitializingBean;
 
 import de.acosix.alfresco.keycloak.repo.token.AccessTokenHolder;
 import de.acosix.alfresco.keycloak.repo.token.AccessTokenService;
+import de.acosix.alfresco.keycloak.repo.util.CircuitBreaker;
 
 /**
  * Implements the abstract base for a client to the Keycloak admin ReST API specific to IDM structures.
@@ -72,6 +74,8 @@ public abstract class AbstractIDMClientImpl implements InitializingBean
 
     protected AccessTokenHolder accessToken;
 
+    protected CircuitBreaker circuitBreaker;
+
     /**
      * {@inheritDoc}
      */
@@ -100,6 +104,15 @@ public abstract class AbstractIDMClientImpl implements InitializingBean
         this.accessTokenService = accessTokenService;
     }
 
+    /**
+     * @param circuitBreaker
+     *     the circuitBreaker to set
+     */
+    public void setCircuitBreaker(final CircuitBreaker circuitBreaker)
+    {
+        this.circuitBreaker = circuitBreaker;
+    }
+
     /**
      * @param userName
      *     the userName to set
@@ -153,7 +166,7 @@ public abstract class AbstractIDMClientImpl implements InitializingBean
         try
         {
             final HttpClient client = this.deployment.getClient();
-            final HttpResponse response = client.execute(get);
+            final HttpResponse response = this.executeRequest(client, get);
 
             final int status = response.getStatusLine().getStatusCode();
             final HttpEntity httpEntity = response.getEntity();
@@ -217,7 +230,7 @@ public abstract class AbstractIDMClientImpl implements InitializingBean
         try
         {
             final HttpClient client = this.deployment.getClient();
-            final HttpResponse response = client.execute(get);
+            final HttpResponse response = this.executeRequest(client, get);
 
             final int status = response.getStatusLine().getStatusCode();
             final HttpEntity httpEntity = response.getEntity();
@@ -277,7 +290,7 @@ public abstract class AbstractIDMClientImpl implements InitializingBean
         try
         {
             final HttpClient client = this.deployment.getClient();
-            final HttpResponse response = client.execute(get);
+            final HttpResponse response = this.executeRequest(client, get);
 
             final int status = response.getStatusLine().getStatusCode();
             final HttpEntity httpEntity = response.getEntity();
@@ -316,6 +329,31 @@ public abstract class AbstractIDMClientImpl implements InitializingBean
         }
     }
 
+    /**
+     * Executes a request to the admin ReST API, guarded by the circuit breaker for the API if one has been configured.
+     *
+     * @param client
+     *     the HTTP client to use
+     * @param request
+     *     the request to execute
+     * @return the response to the request
+     * @throws IOException
+     *     if the request failed or has been rejected by the circuit breaker
+     */
+    protected HttpResponse executeRequest(final HttpClient client, final HttpUriRequest request) throws IOException
+    {
+        final HttpResponse response;
+        if (this.circuitBreaker != null)
+        {
+            response = this.circuitBreaker.execute(() -> client.execute(request), r -> r.getStatusLine().getStatusCode() >= 500);
+        }
+        else
+        {
+            response = client.execute(request);
+        }
+        return response;
+    }
+
     /**
      * Retrieves / determines a valid access token for a request to the admin ReST API.
      *
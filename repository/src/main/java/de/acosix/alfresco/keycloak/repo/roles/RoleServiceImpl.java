@@ -24,12 +24,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 import java.util.function.UnaryOperator;
 import java.util.regex.Pattern;
 
+import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.service.cmr.security.AuthorityType;
 import org.alfresco.util.ParameterCheck;
 import org.alfresco.util.PropertyCheck;
@@ -80,6 +82,9 @@ public class RoleServiceImpl implements RoleService, InitializingBean
 
     protected final ReentrantReadWriteLock clientIdByResourceNameLock = new ReentrantReadWriteLock(true);
 
+    // last successfully loaded roles per client ID (or sentinel for realm) as fallback if Keycloak is temporarily unavailable
+    protected final Map<String, List<RoleRepresentation>> lastKnownRoles = new ConcurrentHashMap<>();
+
     /**
      *
      * {@inheritDoc}
@@ -615,15 +620,33 @@ public class RoleServiceImpl implements RoleService, InitializingBean
                     });
         };
 
-        if (clientId != null)
+        final String catalogueKey = clientId != null ? clientId : SENTINEL;
+        List<RoleRepresentation> roles = new ArrayList<>();
+        try
         {
-            this.rolesClient.processClientRoles(clientId, 0, Integer.MAX_VALUE, processor);
+            if (clientId != null)
+            {
+                this.rolesClient.processClientRoles(clientId, 0, Integer.MAX_VALUE, roles::add);
+            }
+            else
+            {
+                this.rolesClient.processRealmRoles(0, Integer.MAX_VALUE, roles::add);
+            }
+            this.lastKnownRoles.put(catalogueKey, Collections.unmodifiableList(roles));
         }
-        else
+        catch (final AlfrescoRuntimeException arex)
         {
-            this.rolesClient.processRealmRoles(0, Integer.MAX_VALUE, processor);
+            roles = this.lastKnownRoles.get(catalogueKey);
+            if (roles == null)
+            {
+                throw arex;
+            }
+            LOGGER.warn("Failed to load roles {} - using last known roles", clientId != null ? "of client " + clientId : "of realm",
+                    arex);
         }
 
+        roles.forEach(processor);
+
         return results;
     }
 
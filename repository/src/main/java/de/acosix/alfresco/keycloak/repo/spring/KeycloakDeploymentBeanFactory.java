@@ -29,9 +29,12 @@ import org.apache.http.params.HttpParams;
 import org.keycloak.adapters.HttpClientBuilder;
 import org.keycloak.adapters.KeycloakDeployment;
 import org.keycloak.adapters.KeycloakDeploymentBuilder;
+import org.keycloak.adapters.rotation.PublicKeyLocator;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
 
+import de.acosix.alfresco.keycloak.repo.token.PrefetchingPublicKeyLocator;
+
 /**
  * @author Axel Faust
  */
@@ -47,6 +50,8 @@ public class KeycloakDeploymentBeanFactory implements FactoryBean<KeycloakDeploy
 
     protected ExtendedAdapterConfig adapterConfig;
 
+    protected PublicKeyLocator publicKeyLocator;
+
     /**
      *
      * {@inheritDoc}
@@ -66,6 +71,15 @@ public class KeycloakDeploymentBeanFactory implements FactoryBean<KeycloakDeploy
         this.adapterConfig = adapterConfig;
     }
 
+    /**
+     * @param publicKeyLocator
+     *     the publicKeyLocator to set
+     */
+    public void setPublicKeyLocator(final PublicKeyLocator publicKeyLocator)
+    {
+        this.publicKeyLocator = publicKeyLocator;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -77,6 +91,18 @@ public class KeycloakDeploymentBeanFactory implements FactoryBean<KeycloakDeploy
         final HttpClient client = httpClientBuilder.build(this.adapterConfig);
         this.configureForcedRouteIfNecessary(client, this.adapterConfig.getForcedRouteUrl());
         keycloakDeployment.setClient(client);
+
+        // a statically configured realm key always takes precedence
+        final String realmKey = this.adapterConfig.getRealmKey();
+        if (this.publicKeyLocator != null && (realmKey == null || realmKey.isBlank()))
+        {
+            keycloakDeployment.setPublicKeyLocator(this.publicKeyLocator);
+            if (this.publicKeyLocator instanceof PrefetchingPublicKeyLocator)
+            {
+                // locator reuses the HTTP client of the (first) deployment instead of requiring a separate deployment / client
+                ((PrefetchingPublicKeyLocator) this.publicKeyLocator).bindDeployment(keycloakDeployment);
+            }
+        }
         return keycloakDeployment;
     }
 
@@ -7,7 +7,15 @@ import java.io.InputStream;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.alfresco.util.ParameterCheck;
 import org.apache.http.Header;
@@ -17,14 +25,14 @@ import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair;
 import org.keycloak.OAuth2Constants;
-import org.keycloak.TokenVerifier;
 import org.keycloak.adapters.KeycloakDeployment;
 import org.keycloak.adapters.ServerRequest;
 import org.keycloak.adapters.ServerRequest.HttpFailure;
-import org.keycloak.adapters.rotation.AdapterTokenVerifier;
 import org.keycloak.adapters.rotation.AdapterTokenVerifier.VerifiedTokens;
 import org.keycloak.common.VerificationException;
 import org.keycloak.common.util.KeycloakUriBuilder;
@@ -33,10 +41,12 @@ import org.keycloak.constants.ServiceUrlConstants;
 import org.keycloak.protocol.oidc.client.authentication.ClientCredentialsProviderUtils;
 import org.keycloak.representations.AccessToken;
 import org.keycloak.representations.AccessTokenResponse;
+import org.keycloak.representations.IDToken;
 import org.keycloak.util.JsonSerialization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.acosix.alfresco.keycloak.repo.util.CircuitBreaker;
 import de.acosix.alfresco.keycloak.repo.util.NameValueMapAdapter;
 import de.acosix.alfresco.keycloak.repo.util.RefreshableAccessTokenHolder;
 
@@ -44,6 +54,15 @@ import de.acosix.alfresco.keycloak.repo.util.RefreshableAccessTokenHolder;
  * Instances of this class provide the most common, low-level access token client logic that may be used across multiple higher-level
  * components in this module.
  *
+ * If constructed with an executor, instances of this class also provide non-blocking variants of all operations, which run the HTTP
+ * interaction with Keycloak on that executor and allow callers to pipeline token operations alongside other work, e.g. exchanging a token
+ * for multiple clients in parallel. These variants support a per-call timeout, and both timeouts and cancellation of the returned future
+ * abort the underlying HTTP request to the token endpoint if it is still in progress (refresh operations are delegated to the Keycloak
+ * adapter library and can only be abandoned, not aborted).
+ *
+ * If constructed with a circuit breaker, all calls to the token endpoint are guarded by it, so that a slow or unavailable Keycloak server
+ * results in calls being rejected quickly instead of blocking the calling threads for the full socket timeout.
+ *
  * @author Axel Faust
  */
 public class AccessTokenClient
@@ -53,10 +72,126 @@ public class AccessTokenClient
 
     protected final KeycloakDeployment deployment;
 
+    protected final Executor asyncExecutor;
+
+    protected final CircuitBreaker circuitBreaker;
+
+    protected final TokenVerificationEngine tokenVerificationEngine;
+
+    protected final ThreadLocal<AtomicReference<HttpRequestBase>> asyncRequestHandle = new ThreadLocal<>();
+
     public AccessTokenClient(final KeycloakDeployment deployment)
+    {
+        this(deployment, null, null);
+    }
+
+    /**
+     * Creates a new instance of this class supporting non-blocking operations.
+     *
+     * @param deployment
+     *     the Keycloak deployment
+     * @param asyncExecutor
+     *     the (bounded) executor on which to run non-blocking operations
+     */
+    public AccessTokenClient(final KeycloakDeployment deployment, final Executor asyncExecutor)
+    {
+        this(deployment, asyncExecutor, null);
+    }
+
+    /**
+     * Creates a new instance of this class supporting non-blocking operations and guarding calls to the token endpoint.
+     *
+     * @param deployment
+     *     the Keycloak deployment
+     * @param asyncExecutor
+     *     the (bounded) executor on which to run non-blocking operations - may be {@code null}
+     * @param circuitBreaker
+     *     the circuit breaker guarding calls to the token endpoint - may be {@code null}
+     */
+    public AccessTokenClient(final KeycloakDeployment deployment, final Executor asyncExecutor, final CircuitBreaker circuitBreaker)
     {
         ParameterCheck.mandatory("deployment", deployment);
         this.deployment = deployment;
+        this.asyncExecutor = asyncExecutor;
+        this.circuitBreaker = circuitBreaker;
+        // tokens obtained from the token endpoint are unique, so caching their claims would never yield a hit
+        this.tokenVerificationEngine = new TokenVerificationEngine(deployment);
+    }
+
+    /**
+     * Obtains an access token for the service account of the client used to integrate this Alfresco instance with Keycloak without blocking
+     * the calling thread.
+     *
+     * @param scopes
+     *     the optional scopes to request for the access token
+     * @param timeoutMillis
+     *     the timeout for the operation in milliseconds - a value less than or equal to zero does not apply a timeout
+     * @return the future for the access token, which will fail with an {@link AccessTokenException} if the access token cannot be obtained
+     */
+    public CompletableFuture<RefreshableAccessTokenHolder> obtainAccessTokenAsync(final Collection<String> scopes, final long timeoutMillis)
+    {
+        ParameterCheck.mandatory("scopes", scopes);
+        return this.runAsync(() -> this.obtainAccessToken(scopes), timeoutMillis);
+    }
+
+    /**
+     * Obtains an access token for a specific user using a direct access grant without blocking the calling thread.
+     *
+     * @param user
+     *     the name of the user
+     * @param password
+     *     the password provided by / for the user
+     * @param scopes
+     *     the optional scopes to request for the access token
+     * @param timeoutMillis
+     *     the timeout for the operation in milliseconds - a value less than or equal to zero does not apply a timeout
+     * @return the future for the access token, which will fail with an {@link AccessTokenException} if the access token cannot be obtained
+     */
+    public CompletableFuture<RefreshableAccessTokenHolder> obtainAccessTokenAsync(final String user, final String password,
+            final Collection<String> scopes, final long timeoutMillis)
+    {
+        ParameterCheck.mandatoryString("user", user);
+        ParameterCheck.mandatoryString("password", password);
+        ParameterCheck.mandatory("scopes", scopes);
+        return this.runAsync(() -> this.obtainAccessToken(user, password, scopes), timeoutMillis);
+    }
+
+    /**
+     * Exchanges an access token for an access token to another client / service without blocking the calling thread.
+     *
+     * @param accessToken
+     *     the access token to exchange
+     * @param client
+     *     the client / service for which to obtain an access token
+     * @param scopes
+     *     the optional scopes to request for the access token
+     * @param timeoutMillis
+     *     the timeout for the operation in milliseconds - a value less than or equal to zero does not apply a timeout
+     * @return the future for the access token to the requested client / service, which will fail with an {@link AccessTokenException} if
+     *     the token cannot be exchanged
+     */
+    public CompletableFuture<RefreshableAccessTokenHolder> exchangeTokenAsync(final String accessToken, final String client,
+            final Collection<String> scopes, final long timeoutMillis)
+    {
+        ParameterCheck.mandatoryString("accessToken", accessToken);
+        ParameterCheck.mandatoryString("client", client);
+        ParameterCheck.mandatory("scopes", scopes);
+        return this.runAsync(() -> this.exchangeToken(accessToken, client, scopes), timeoutMillis);
+    }
+
+    /**
+     * Refreshes an access token via a previously obtained refresh token without blocking the calling thread.
+     *
+     * @param refreshToken
+     *     the refresh token with which to retrieve a fresh access token
+     * @param timeoutMillis
+     *     the timeout for the operation in milliseconds - a value less than or equal to zero does not apply a timeout
+     * @return the future for the fresh access token, which will fail with an {@link AccessTokenRefreshException} if the refresh failed
+     */
+    public CompletableFuture<RefreshableAccessTokenHolder> refreshAccessTokenAsync(final String refreshToken, final long timeoutMillis)
+    {
+        ParameterCheck.mandatoryString("refreshToken", refreshToken);
+        return this.runAsync(() -> this.refreshAccessToken(refreshToken), timeoutMillis);
     }
 
     /**
@@ -185,7 +320,7 @@ public class AccessTokenClient
         LOGGER.debug("Performing direct refresh via refresh token {}", refreshToken);
         try
         {
-            final AccessTokenResponse response = ServerRequest.invokeRefresh(this.deployment, refreshToken);
+            final AccessTokenResponse response = this.invokeRefresh(refreshToken);
             final VerifiedTokens verifiedTokens = this.verifyAccessTokenResponse(response);
             final RefreshableAccessTokenHolder refreshableToken = new RefreshableAccessTokenHolder(response, verifiedTokens);
             LOGGER.debug("Refreshed access token {}", response.getToken());
@@ -203,6 +338,105 @@ public class AccessTokenClient
         }
     }
 
+    protected CompletableFuture<RefreshableAccessTokenHolder> runAsync(final Supplier<RefreshableAccessTokenHolder> operation,
+            final long timeoutMillis)
+    {
+        if (this.asyncExecutor == null)
+        {
+            throw new IllegalStateException("Client has not been set up to support non-blocking operations");
+        }
+
+        final CompletableFuture<RefreshableAccessTokenHolder> result = new CompletableFuture<>();
+        final AtomicReference<HttpRequestBase> requestHandle = new AtomicReference<>();
+        try
+        {
+            this.asyncExecutor.execute(() -> {
+                // may have timed out / been cancelled while queued
+                if (!result.isDone())
+                {
+                    this.asyncRequestHandle.set(requestHandle);
+                    try
+                    {
+                        result.complete(operation.get());
+                    }
+                    catch (final RuntimeException ex)
+                    {
+                        result.completeExceptionally(ex);
+                    }
+                    finally
+                    {
+                        this.asyncRequestHandle.remove();
+                        requestHandle.set(null);
+                    }
+                }
+            });
+        }
+        catch (final RejectedExecutionException rex)
+        {
+            result.completeExceptionally(
+                    new AccessTokenException("Non-blocking access token operation has been rejected due to capacity limits", rex));
+        }
+
+        if (timeoutMillis > 0)
+        {
+            result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        result.whenComplete((token, ex) -> {
+            // timed out or cancelled - abort any in-progress HTTP interaction
+            if (ex instanceof TimeoutException || ex instanceof CancellationException)
+            {
+                final HttpRequestBase request = requestHandle.getAndSet(null);
+                if (request != null)
+                {
+                    LOGGER.debug("Aborting access token request {} due to {}", request.getURI(), ex.getClass().getSimpleName());
+                    request.abort();
+                }
+            }
+        });
+
+        return result;
+    }
+
+    protected AccessTokenResponse invokeRefresh(final String refreshToken) throws IOException, HttpFailure
+    {
+        if (this.circuitBreaker == null)
+        {
+            return ServerRequest.invokeRefresh(this.deployment, refreshToken);
+        }
+
+        try
+        {
+            // client errors (e.g. expired / revoked refresh token) do not indicate an issue with the endpoint
+            return this.circuitBreaker.<AccessTokenResponse, Exception> execute(
+                    () -> ServerRequest.invokeRefresh(this.deployment, refreshToken), response -> false,
+                    ex -> !(ex instanceof HttpFailure) || ((HttpFailure) ex).getStatus() >= 500);
+        }
+        catch (final IOException | HttpFailure | RuntimeException ex)
+        {
+            throw ex;
+        }
+        catch (final Exception ex)
+        {
+            // cannot happen - invokeRefresh does not throw any other checked exceptions
+            throw new IOException(ex);
+        }
+    }
+
+    protected HttpResponse executeRequest(final HttpClient client, final HttpUriRequest request) throws IOException
+    {
+        final HttpResponse response;
+        if (this.circuitBreaker != null)
+        {
+            response = this.circuitBreaker.execute(() -> client.execute(request), r -> r.getStatusLine().getStatusCode() >= 500);
+        }
+        else
+        {
+            response = client.execute(request);
+        }
+        return response;
+    }
+
     protected void processScopes(final Collection<String> scopes, final List<NameValuePair> formParams)
     {
         if (!scopes.isEmpty())
@@ -225,7 +459,14 @@ public class AccessTokenClient
         final VerifiedTokens tokens;
         try
         {
-            tokens = AdapterTokenVerifier.verifyTokens(response.getToken(), response.getIdToken(), this.deployment);
+            final AccessToken accessToken = this.tokenVerificationEngine.verifyAccessToken(response.getToken(),
+                    this.deployment.isVerifyTokenAudience() ? this.deployment.getResourceName() : null, null);
+            final String idTokenString = response.getIdToken();
+            final IDToken idToken = idTokenString != null
+                    ? this.tokenVerificationEngine.verifyIdToken(idTokenString, this.deployment.getResourceName(),
+                            this.deployment.getResourceName())
+                    : null;
+            tokens = new VerifiedTokens(accessToken, idToken);
         }
         catch (final VerificationException vex)
         {
@@ -246,12 +487,9 @@ public class AccessTokenClient
         final VerifiedTokens tokens;
         try
         {
-            final TokenVerifier<AccessToken> tokenVerifier = AdapterTokenVerifier.createVerifier(response.getToken(), this.deployment, true,
-                    AccessToken.class);
-            tokenVerifier.audience(client);
-            tokenVerifier.issuedFor(this.deployment.getResourceName());
-
-            tokens = new VerifiedTokens(tokenVerifier.verify().getToken(), null);
+            final AccessToken accessToken = this.tokenVerificationEngine.verifyAccessToken(response.getToken(), client,
+                    this.deployment.getResourceName());
+            tokens = new VerifiedTokens(accessToken, null);
         }
         catch (final VerificationException vex)
         {
@@ -302,7 +540,14 @@ public class AccessTokenClient
         final UrlEncodedFormEntity form = new UrlEncodedFormEntity(formParams, "UTF-8");
         post.setEntity(form);
 
-        final HttpResponse response = client.execute(post);
+        // allow non-blocking callers to abort the request on timeout / cancellation
+        final AtomicReference<HttpRequestBase> requestHandle = this.asyncRequestHandle.get();
+        if (requestHandle != null)
+        {
+            requestHandle.set(post);
+        }
+
+        final HttpResponse response = this.executeRequest(client, post);
         final int status = response.getStatusLine().getStatusCode();
         final HttpEntity entity = response.getEntity();
         if (status != 200)
@@ -15,29 +15,42 @@
  */
 package de.acosix.alfresco.keycloak.repo.token;
 
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import de.acosix.alfresco.keycloak.repo.util.RefreshableAccessTokenHolder;
 
 /**
  * Instances of this class provide the technical implementation of the holder interface.
  *
+ * The current access token is held as an immutable snapshot, so that retrieving a still valid token only requires a single volatile read.
+ * When the token needs to be refreshed, exactly one thread is elected to perform the refresh and publish the new token. Other threads
+ * continue to use the current token for as long as it is still active (i.e. only within the minimum time-to-live before its expiration),
+ * and only wait for the result of the elected thread's refresh when no valid token is left. If a refresh fails while the current token is
+ * still active, that token continues to be used until it actually expires.
+ *
  * @author Axel Faust
  */
 public class AccessTokenHolderImpl implements AccessTokenHolder
 {
 
-    private final ReentrantReadWriteLock tokenLock = new ReentrantReadWriteLock(true);
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessTokenHolderImpl.class);
 
-    private RefreshableAccessTokenHolder token;
+    private final AtomicReference<CompletableFuture<RefreshableAccessTokenHolder>> inFlightRefresh = new AtomicReference<>();
+
+    private volatile RefreshableAccessTokenHolder token;
 
     private final int minimumTimeToLive;
 
     private final Function<String, RefreshableAccessTokenHolder> refresher;
 
-    private Supplier<RefreshableAccessTokenHolder> obtainer;
+    private final Supplier<RefreshableAccessTokenHolder> obtainer;
 
     /**
      * Constructs a new instance of this class to wrap the provided initial access token.
@@ -52,9 +65,7 @@ public class AccessTokenHolderImpl implements AccessTokenHolder
     public AccessTokenHolderImpl(final RefreshableAccessTokenHolder token, final int minimumTimeToLive,
             final Function<String, RefreshableAccessTokenHolder> refresher)
     {
-        this.token = token;
-        this.minimumTimeToLive = minimumTimeToLive;
-        this.refresher = refresher;
+        this(token, minimumTimeToLive, refresher, null);
     }
 
     /**
@@ -81,58 +92,103 @@ public class AccessTokenHolderImpl implements AccessTokenHolder
     @Override
     public String getAccessToken()
     {
+        final RefreshableAccessTokenHolder current = this.token;
         String validToken = null;
 
-        this.tokenLock.readLock().lock();
-        try
+        if (this.isValid(current))
         {
-            if (this.token != null && this.token.isActive()
-                    && (!this.token.canRefresh() || !this.token.shouldRefresh(this.minimumTimeToLive)))
-            {
-                validToken = this.token.getToken();
-            }
+            validToken = current.getToken();
         }
-        finally
+        else
         {
-            this.tokenLock.readLock().unlock();
-        }
+            final CompletableFuture<RefreshableAccessTokenHolder> newRefresh = new CompletableFuture<>();
+            final CompletableFuture<RefreshableAccessTokenHolder> refresh = this.inFlightRefresh.compareAndExchange(null, newRefresh);
 
-        if (validToken == null)
-        {
-            this.tokenLock.writeLock().lock();
-            try
+            if (refresh == null)
             {
-                if (this.token != null && this.token.isActive()
-                        && (!this.token.canRefresh() || !this.token.shouldRefresh(this.minimumTimeToLive)))
+                // elected as refresher
+                try
                 {
-                    validToken = this.token.getToken();
+                    validToken = this.refresh(current, newRefresh).getToken();
                 }
-
-                if (validToken == null)
+                catch (final AccessTokenException atex)
                 {
-                    if (this.token != null && this.token.canRefresh())
+                    // e.g. Keycloak being temporarily unavailable - fall back to token as long as it is still valid
+                    if (current == null || !current.isActive())
                     {
-                        this.token = this.refresher.apply(this.token.getRefreshToken());
+                        throw atex;
                     }
-                    else if (this.obtainer != null)
-                    {
-                        this.token = this.obtainer.get();
-                    }
-                    else
-                    {
-                        throw new AccessTokenRefreshException(
-                                "The way this access token was originally obtained does not allow to re-obtain it after expiration of the token and its associated refresh token");
-                    }
-
-                    validToken = this.token.getToken();
+                    LOGGER.warn("Failed to refresh access token - continuing to use current token until it expires", atex);
+                    validToken = current.getToken();
                 }
             }
-            finally
+            else if (current != null && current.isActive())
             {
-                this.tokenLock.writeLock().unlock();
+                // still usable while another thread refreshes it
+                validToken = current.getToken();
+            }
+            else
+            {
+                try
+                {
+                    validToken = refresh.join().getToken();
+                }
+                catch (final CompletionException cex)
+                {
+                    final Throwable cause = cex.getCause();
+                    if (cause instanceof RuntimeException)
+                    {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new AccessTokenRefreshException("Failed to refresh access token", cause);
+                }
             }
         }
 
         return validToken;
     }
+
+    private boolean isValid(final RefreshableAccessTokenHolder token)
+    {
+        return token != null && token.isActive() && (!token.canRefresh() || !token.shouldRefresh(this.minimumTimeToLive));
+    }
+
+    private RefreshableAccessTokenHolder refresh(final RefreshableAccessTokenHolder current,
+            final CompletableFuture<RefreshableAccessTokenHolder> refresh)
+    {
+        try
+        {
+            RefreshableAccessTokenHolder newToken = this.token;
+            // another thread may have published a new token since we last checked
+            if (newToken == current || !this.isValid(newToken))
+            {
+                if (newToken != null && newToken.canRefresh())
+                {
+                    newToken = this.refresher.apply(newToken.getRefreshToken());
+                }
+                else if (this.obtainer != null)
+                {
+                    newToken = this.obtainer.get();
+                }
+                else
+                {
+                    throw new AccessTokenRefreshException(
+                            "The way this access token was originally obtained does not allow to re-obtain it after expiration of the token and its associated refresh token");
+                }
+                this.token = newToken;
+            }
+
+            refresh.complete(newToken);
+            return newToken;
+        }
+        catch (final RuntimeException | Error ex)
+        {
+            refresh.completeExceptionally(ex);
+            throw ex;
+        }
+        finally
+        {
+            this.inFlightRefresh.compareAndSet(refresh, null);
+        }
+    }
 }
@@ -17,6 +17,7 @@ package de.acosix.alfresco.keycloak.repo.token;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Instances of this interface allow for the retrieval of access tokens in the Keycloak realm to which this Alfresco instance is connected.
@@ -112,4 +113,38 @@ public interface AccessTokenService
      *     if the access token cannot be exchanged for the client
      */
     AccessTokenHolder exchangeToken(String accessToken, String client, Collection<String> scopes);
+
+    /**
+     * Performs a token exchange operation to obtain an access token for a specific client without blocking the calling thread, e.g. to
+     * exchange an access token for multiple clients in parallel. Cancelling the returned future aborts the exchange if it is still in
+     * progress. The default implementation of this operation performs the exchange synchronously on the calling thread and returns an
+     * already completed future, without applying the timeout.
+     *
+     * @param accessToken
+     *     the access token to exchange for token to another client
+     * @param client
+     *     the client for which to obtain an access token
+     * @param scopes
+     *     the optional scopes to request for the access token
+     * @param timeoutMillis
+     *     the timeout for the operation in milliseconds - a value less than or equal to zero does not apply a timeout
+     * @return the future for the holder for the access token, which will fail if the access token cannot be exchanged for the client or the
+     *     operation times out
+     */
+    default CompletableFuture<AccessTokenHolder> exchangeTokenAsync(final String accessToken, final String client,
+            final Collection<String> scopes, final long timeoutMillis)
+    {
+        // implementations should override this to use their own, bounded resources and support aborting the exchange on cancellation
+        // default runs synchronously on the calling thread instead of occupying threads of a shared, unbounded pool
+        CompletableFuture<AccessTokenHolder> token;
+        try
+        {
+            token = CompletableFuture.completedFuture(this.exchangeToken(accessToken, client, scopes));
+        }
+        catch (final RuntimeException ex)
+        {
+            token = CompletableFuture.failedFuture(ex);
+        }
+        return token;
+    }
 }
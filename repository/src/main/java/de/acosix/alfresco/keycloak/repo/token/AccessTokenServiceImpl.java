@@ -15,27 +15,82 @@
  */
 package de.acosix.alfresco.keycloak.repo.token;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
+import java.util.HexFormat;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.cache.SimpleCache;
 import org.alfresco.util.ParameterCheck;
 import org.alfresco.util.PropertyCheck;
 import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.common.util.Time;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.JWSInputException;
+import org.keycloak.representations.JsonWebToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 
+import de.acosix.alfresco.keycloak.repo.util.CircuitBreaker;
 import de.acosix.alfresco.keycloak.repo.util.RefreshableAccessTokenHolder;
 
 /**
  * Instances of this class provide the technical implementation of the service interface.
  *
+ * Results of token exchange operations can optionally be cached, keyed by a digest of the subject token, the target client and the
+ * requested scopes, so that repeated exchanges of the same subject token for the same client - e.g. when calling downstream services on
+ * behalf of a user multiple times within the same request / session - do not each require a round-trip to the Keycloak token endpoint.
+ * Cached exchange results are only used for as long as both the exchanged and the subject token are active, and are refreshed proactively
+ * via their refresh token when they are about to expire.
+ *
+ * Non-blocking operations are executed on a bounded pool of threads owned by this instance. Requests exceeding the capacity of that pool
+ * fail immediately instead of queueing without limit.
+ *
  * @author Axel Faust
  */
-public class AccessTokenServiceImpl implements AccessTokenService, InitializingBean
+public class AccessTokenServiceImpl implements AccessTokenService, InitializingBean, DisposableBean
 {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessTokenServiceImpl.class);
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final int DEFAULT_REFRESH_AHEAD_SECONDS = 30;
+
+    private static final int DEFAULT_ASYNC_THREADS = 4;
+
+    private static final int DEFAULT_ASYNC_QUEUE_SIZE = 100;
+
+    private static final int ASYNC_THREAD_KEEP_ALIVE_SECONDS = 60;
+
     protected KeycloakDeployment deployment;
 
     protected AccessTokenClient accessTokenClient;
 
+    protected boolean exchangeCacheEnabled;
+
+    protected int exchangeCacheRefreshAheadSeconds = DEFAULT_REFRESH_AHEAD_SECONDS;
+
+    protected SimpleCache<String, RefreshableAccessTokenHolder> exchangedTokenCache;
+
+    protected int asyncThreads = DEFAULT_ASYNC_THREADS;
+
+    protected int asyncQueueSize = DEFAULT_ASYNC_QUEUE_SIZE;
+
+    protected ThreadPoolExecutor asyncExecutor;
+
+    protected CircuitBreaker tokenEndpointCircuitBreaker;
+
     /**
      *
      * {@inheritDoc}
@@ -44,7 +99,34 @@ public class AccessTokenServiceImpl implements AccessTokenService, InitializingB
     public void afterPropertiesSet()
     {
         PropertyCheck.mandatory(this, "deployment", this.deployment);
-        this.accessTokenClient = new AccessTokenClient(this.deployment);
+        if (this.exchangeCacheEnabled)
+        {
+            PropertyCheck.mandatory(this, "exchangedTokenCache", this.exchangedTokenCache);
+        }
+
+        this.asyncExecutor = new ThreadPoolExecutor(Math.max(1, this.asyncThreads), Math.max(1, this.asyncThreads),
+                ASYNC_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, this.asyncQueueSize)), r -> {
+                    final Thread thread = new Thread(r, AccessTokenServiceImpl.class.getSimpleName() + "-async");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.asyncExecutor.allowCoreThreadTimeOut(true);
+
+        this.accessTokenClient = new AccessTokenClient(this.deployment, this.asyncExecutor, this.tokenEndpointCircuitBreaker);
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy()
+    {
+        if (this.asyncExecutor != null)
+        {
+            this.asyncExecutor.shutdownNow();
+            this.asyncExecutor = null;
+        }
     }
 
     /**
@@ -56,6 +138,60 @@ public class AccessTokenServiceImpl implements AccessTokenService, InitializingB
         this.deployment = deployment;
     }
 
+    /**
+     * @param exchangeCacheEnabled
+     *     the exchangeCacheEnabled to set
+     */
+    public void setExchangeCacheEnabled(final boolean exchangeCacheEnabled)
+    {
+        this.exchangeCacheEnabled = exchangeCacheEnabled;
+    }
+
+    /**
+     * @param exchangeCacheRefreshAheadSeconds
+     *     the exchangeCacheRefreshAheadSeconds to set
+     */
+    public void setExchangeCacheRefreshAheadSeconds(final int exchangeCacheRefreshAheadSeconds)
+    {
+        this.exchangeCacheRefreshAheadSeconds = exchangeCacheRefreshAheadSeconds;
+    }
+
+    /**
+     * @param exchangedTokenCache
+     *     the exchangedTokenCache to set
+     */
+    public void setExchangedTokenCache(final SimpleCache<String, RefreshableAccessTokenHolder> exchangedTokenCache)
+    {
+        this.exchangedTokenCache = exchangedTokenCache;
+    }
+
+    /**
+     * @param asyncThreads
+     *     the asyncThreads to set
+     */
+    public void setAsyncThreads(final int asyncThreads)
+    {
+        this.asyncThreads = asyncThreads;
+    }
+
+    /**
+     * @param asyncQueueSize
+     *     the asyncQueueSize to set
+     */
+    public void setAsyncQueueSize(final int asyncQueueSize)
+    {
+        this.asyncQueueSize = asyncQueueSize;
+    }
+
+    /**
+     * @param tokenEndpointCircuitBreaker
+     *     the tokenEndpointCircuitBreaker to set
+     */
+    public void setTokenEndpointCircuitBreaker(final CircuitBreaker tokenEndpointCircuitBreaker)
+    {
+        this.tokenEndpointCircuitBreaker = tokenEndpointCircuitBreaker;
+    }
+
     /**
      *
      * {@inheritDoc}
@@ -112,20 +248,202 @@ public class AccessTokenServiceImpl implements AccessTokenService, InitializingB
     {
         ParameterCheck.mandatoryString("accessToken", accessToken);
         ParameterCheck.mandatoryString("client", client);
+        ParameterCheck.mandatory("scopes", scopes);
+
+        final AccessTokenHolder token;
+        if (!this.exchangeCacheEnabled)
+        {
+            final RefreshableAccessTokenHolder refreshableToken = this.accessTokenClient.exchangeToken(accessToken, client, scopes);
+            token = this.wrapExchangedToken(refreshableToken, accessToken, client, scopes, null, 0);
+        }
+        else
+        {
+            final long subjectTokenExpiration = this.getTokenExpiration(accessToken);
+            final String cacheKey = this.buildExchangeCacheKey(accessToken, client, scopes);
+            final RefreshableAccessTokenHolder refreshableToken = this.getOrExchangeToken(cacheKey, accessToken, subjectTokenExpiration,
+                    client, scopes);
+            token = this.wrapExchangedToken(refreshableToken, accessToken, client, scopes, cacheKey, subjectTokenExpiration);
+        }
+        return token;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<AccessTokenHolder> exchangeTokenAsync(final String accessToken, final String client,
+            final Collection<String> scopes, final long timeoutMillis)
+    {
+        ParameterCheck.mandatoryString("accessToken", accessToken);
+        ParameterCheck.mandatoryString("client", client);
+        ParameterCheck.mandatory("scopes", scopes);
 
-        final RefreshableAccessTokenHolder refreshableToken = this.accessTokenClient.exchangeToken(accessToken, client, scopes);
+        final CompletableFuture<AccessTokenHolder> token;
+        if (!this.exchangeCacheEnabled)
+        {
+            final CompletableFuture<RefreshableAccessTokenHolder> exchange = this.accessTokenClient.exchangeTokenAsync(accessToken, client,
+                    scopes, timeoutMillis);
+            token = this.propagateCancellation(exchange, exchange
+                    .thenApply(refreshableToken -> this.wrapExchangedToken(refreshableToken, accessToken, client, scopes, null, 0)));
+        }
+        else
+        {
+            final long subjectTokenExpiration = this.getTokenExpiration(accessToken);
+            final String cacheKey = this.buildExchangeCacheKey(accessToken, client, scopes);
+            final boolean subjectTokenActive = subjectTokenExpiration == 0 || Time.currentTime() < subjectTokenExpiration;
+            final int minTokenTTL = Math.max(this.deployment.getTokenMinimumTimeToLive(), this.exchangeCacheRefreshAheadSeconds);
+
+            final RefreshableAccessTokenHolder cachedToken = subjectTokenActive ? this.exchangedTokenCache.get(cacheKey) : null;
+            if (cachedToken != null && cachedToken.isActive() && !cachedToken.shouldRefresh(minTokenTTL))
+            {
+                LOGGER.debug("Re-using cached token exchange result for client {}", client);
+                token = CompletableFuture.completedFuture(
+                        this.wrapExchangedToken(cachedToken, accessToken, client, scopes, cacheKey, subjectTokenExpiration));
+            }
+            else
+            {
+                // any refresh of a cached result is left to the sync path - a fresh exchange costs the same single round-trip
+                final CompletableFuture<RefreshableAccessTokenHolder> exchange = this.accessTokenClient.exchangeTokenAsync(accessToken,
+                        client, scopes, timeoutMillis);
+                token = this.propagateCancellation(exchange, exchange.thenApply(refreshableToken -> {
+                    if (subjectTokenActive && subjectTokenExpiration != 0)
+                    {
+                        this.exchangedTokenCache.put(cacheKey, refreshableToken);
+                    }
+                    return this.wrapExchangedToken(refreshableToken, accessToken, client, scopes, cacheKey, subjectTokenExpiration);
+                }));
+            }
+        }
+        return token;
+    }
+
+    protected <T> CompletableFuture<T> propagateCancellation(final CompletableFuture<?> source, final CompletableFuture<T> dependent)
+    {
+        // cancellation of a dependent future does not propagate to its source by default
+        dependent.whenComplete((result, ex) -> {
+            if (ex instanceof CancellationException)
+            {
+                source.cancel(true);
+            }
+        });
+        return dependent;
+    }
 
+    protected AccessTokenHolder wrapExchangedToken(final RefreshableAccessTokenHolder refreshableToken, final String accessToken,
+            final String client, final Collection<String> scopes, final String cacheKey, final long subjectTokenExpiration)
+    {
         return new AccessTokenHolderImpl(refreshableToken, this.deployment.getTokenMinimumTimeToLive(), refreshToken -> {
-            try
+            final RefreshableAccessTokenHolder refreshedToken;
+            if (cacheKey != null && (subjectTokenExpiration == 0 || Time.currentTime() < subjectTokenExpiration))
             {
-                final String newAccessToken = this.accessTokenClient.refreshAccessToken(refreshToken).getToken();
-                return this.accessTokenClient.exchangeToken(newAccessToken, client, scopes);
+                try
+                {
+                    refreshedToken = this.getOrExchangeToken(cacheKey, accessToken, subjectTokenExpiration, client, scopes);
+                }
+                catch (final AccessTokenException atex)
+                {
+                    throw new AccessTokenRefreshException("Error re-obtaining access token as part of refresh", atex);
+                }
             }
-            catch (final AccessTokenException atex)
+            else
             {
-                throw new AccessTokenRefreshException("Error re-obtaining access token as part of refresh", atex);
+                refreshedToken = this.refreshExchangedToken(refreshToken, client, scopes);
             }
+            return refreshedToken;
         });
     }
 
+    protected RefreshableAccessTokenHolder refreshExchangedToken(final String refreshToken, final String client,
+            final Collection<String> scopes)
+    {
+        try
+        {
+            final String newAccessToken = this.accessTokenClient.refreshAccessToken(refreshToken).getToken();
+            return this.accessTokenClient.exchangeToken(newAccessToken, client, scopes);
+        }
+        catch (final AccessTokenException atex)
+        {
+            throw new AccessTokenRefreshException("Error re-obtaining access token as part of refresh", atex);
+        }
+    }
+
+    protected RefreshableAccessTokenHolder getOrExchangeToken(final String cacheKey, final String accessToken,
+            final long subjectTokenExpiration, final String client, final Collection<String> scopes)
+    {
+        final int minTokenTTL = Math.max(this.deployment.getTokenMinimumTimeToLive(), this.exchangeCacheRefreshAheadSeconds);
+        final boolean subjectTokenActive = subjectTokenExpiration == 0 || Time.currentTime() < subjectTokenExpiration;
+
+        RefreshableAccessTokenHolder token = null;
+        final RefreshableAccessTokenHolder cachedHolder = this.exchangedTokenCache.get(cacheKey);
+        if (cachedHolder != null)
+        {
+            if (!subjectTokenActive || !cachedHolder.isActive() && !cachedHolder.canRefresh())
+            {
+                LOGGER.debug("Cached token exchange result for client {} has expired", client);
+                this.exchangedTokenCache.remove(cacheKey);
+            }
+            else if (cachedHolder.isActive() && !cachedHolder.shouldRefresh(minTokenTTL))
+            {
+                LOGGER.debug("Re-using cached token exchange result for client {}", client);
+                token = cachedHolder;
+            }
+            else if (cachedHolder.canRefresh())
+            {
+                LOGGER.debug("Proactively refreshing cached token exchange result for client {}", client);
+                try
+                {
+                    token = this.accessTokenClient.refreshAccessToken(cachedHolder.getRefreshToken());
+                    this.exchangedTokenCache.put(cacheKey, token);
+                }
+                catch (final AccessTokenRefreshException atrex)
+                {
+                    LOGGER.debug("Failed to refresh cached token exchange result for client {} - exchanging subject token again", client,
+                            atrex);
+                    this.exchangedTokenCache.remove(cacheKey);
+                }
+            }
+        }
+
+        if (token == null)
+        {
+            token = this.accessTokenClient.exchangeToken(accessToken, client, scopes);
+            // opaque subject tokens with unknown expiration are never cached
+            if (subjectTokenActive && subjectTokenExpiration != 0)
+            {
+                this.exchangedTokenCache.put(cacheKey, token);
+            }
+        }
+
+        return token;
+    }
+
+    protected long getTokenExpiration(final String accessToken)
+    {
+        long expiration = 0;
+        try
+        {
+            final Long exp = new JWSInput(accessToken).readJsonContent(JsonWebToken.class).getExp();
+            expiration = exp != null ? exp.longValue() : 0;
+        }
+        catch (final JWSInputException | RuntimeException ex)
+        {
+            LOGGER.debug("Failed to determine expiration of subject token", ex);
+        }
+        return expiration;
+    }
+
+    protected String buildExchangeCacheKey(final String accessToken, final String client, final Collection<String> scopes)
+    {
+        try
+        {
+            final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            final String tokenDigest = HexFormat.of().formatHex(digest.digest(accessToken.getBytes(StandardCharsets.UTF_8)));
+            // scopes are order-insensitive
+            return tokenDigest + "|" + client + "|" + String.join(" ", new TreeSet<>(scopes));
+        }
+        catch (final NoSuchAlgorithmException nsaex)
+        {
+            throw new AlfrescoRuntimeException("Failed to digest subject token", nsaex);
+        }
+    }
 }
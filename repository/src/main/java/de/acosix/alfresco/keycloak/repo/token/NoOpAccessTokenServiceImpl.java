@@ -16,6 +16,7 @@
 package de.acosix.alfresco.keycloak.repo.token;
 
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This no-op implementation class of an access token service may be used as a default implemenation in a subsystem proxy to avoid failing
@@ -58,4 +59,15 @@ public class NoOpAccessTokenServiceImpl implements AccessTokenService
         throw new AccessTokenUnsupportedException(UNSUPPORTED_MESSAGE);
     }
 
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<AccessTokenHolder> exchangeTokenAsync(final String accessToken, final String client,
+            final Collection<String> scopes, final long timeoutMillis)
+    {
+        return CompletableFuture.failedFuture(new AccessTokenUnsupportedException(UNSUPPORTED_MESSAGE));
+    }
+
 }
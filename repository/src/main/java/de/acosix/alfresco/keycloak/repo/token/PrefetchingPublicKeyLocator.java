@@ -0,0 +1,468 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.token;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.util.ParameterCheck;
+import org.alfresco.util.PropertyCheck;
+import org.apache.http.client.methods.HttpGet;
+import org.keycloak.adapters.HttpAdapterUtils;
+import org.keycloak.adapters.HttpClientAdapterException;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.rotation.PublicKeyLocator;
+import org.keycloak.jose.jwk.JSONWebKeySet;
+import org.keycloak.jose.jwk.JWK;
+import org.keycloak.jose.jwk.JWKParser;
+import org.keycloak.util.JsonSerialization;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Instances of this class locate the public keys of a Keycloak realm for token verification, without requiring request threads to block on
+ * the retrieval of the realm's JSON Web Key Set (JWKS) for known key IDs. The key set is retrieved using the HTTP client of the first
+ * Keycloak deployment {@link #bindDeployment(KeycloakDeployment) bound} to this instance, so that no separate client / connection pool is
+ * needed. The key set is prefetched on a background thread as soon as that deployment has been bound,
+ * periodically refreshed according to the {@code public-key-cache-ttl} of the adapter configuration, and shared with other servers in the
+ * cluster via a (distributed) cache. Both the prefetch and the periodic refresh read through the shared cache, and only retrieve the key
+ * set from Keycloak if no other server has retrieved it within the refresh interval, so that not every server needs to retrieve the key
+ * set itself.
+ *
+ * Lookups of unknown key IDs first check whether another server has already retrieved a more recent key set, and otherwise trigger a
+ * refetch - just like the default Keycloak locator - rate-limited according to the {@code min-time-between-jwks-requests} of the adapter
+ * configuration. The refetch is performed in the background, and the lookup fails immediately, so that tokens with arbitrary key IDs cannot
+ * block request threads. Only lookups before any key set has been retrieved, e.g. before the prefetch at startup completed, wait for a
+ * limited time for the result of the refetch. Since all keys contained in the key set are retained, keys pre-announced by
+ * Keycloak ahead of their use for signing tokens are immediately available once they are actually used.
+ *
+ * @author Axel Faust
+ */
+public class PrefetchingPublicKeyLocator implements PublicKeyLocator, InitializingBean, DisposableBean
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrefetchingPublicKeyLocator.class);
+
+    private static final int DEFAULT_FETCH_WAIT_MILLIS = 5000;
+
+    private static final int DEFAULT_REFRESH_INTERVAL_SECONDS = 86400;
+
+    protected final AtomicReference<CompletableFuture<KeySnapshot>> inFlightFetch = new AtomicReference<>();
+
+    protected volatile KeySnapshot snapshot = KeySnapshot.EMPTY;
+
+    protected volatile long lastFetchAttempt;
+
+    protected volatile KeycloakDeployment deployment;
+
+    protected SimpleCache<String, SharedKeySet> sharedKeyCache;
+
+    protected int fetchWaitMillis = DEFAULT_FETCH_WAIT_MILLIS;
+
+    protected ScheduledThreadPoolExecutor executor;
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet()
+    {
+        PropertyCheck.mandatory(this, "sharedKeyCache", this.sharedKeyCache);
+
+        this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, PrefetchingPublicKeyLocator.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy()
+    {
+        if (this.executor != null)
+        {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Binds this instance to a Keycloak deployment using it, so that the realm public keys can be retrieved using the HTTP client of that
+     * deployment. Since all deployments using the same instance are built from the same adapter configuration, only the first deployment
+     * is actually bound, which also starts the prefetch and periodic refresh of the realm public keys.
+     *
+     * @param deployment
+     *     the deployment to bind
+     */
+    public void bindDeployment(final KeycloakDeployment deployment)
+    {
+        ParameterCheck.mandatory("deployment", deployment);
+
+        if (this.deployment == null)
+        {
+            synchronized (this)
+            {
+                if (this.deployment == null)
+                {
+                    this.deployment = deployment;
+
+                    final ScheduledThreadPoolExecutor executor = this.executor;
+                    if (executor != null)
+                    {
+                        final int publicKeyCacheTtl = deployment.getPublicKeyCacheTtl();
+                        final int refreshInterval = publicKeyCacheTtl > 0 ? publicKeyCacheTtl : DEFAULT_REFRESH_INTERVAL_SECONDS;
+                        // initial run acts as prefetch
+                        executor.scheduleWithFixedDelay(() -> this.triggerFetch(refreshInterval * 1000L), 0, refreshInterval,
+                                TimeUnit.SECONDS);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param sharedKeyCache
+     *     the sharedKeyCache to set
+     */
+    public void setSharedKeyCache(final SimpleCache<String, SharedKeySet> sharedKeyCache)
+    {
+        this.sharedKeyCache = sharedKeyCache;
+    }
+
+    /**
+     * @param fetchWaitMillis
+     *     the fetchWaitMillis to set
+     */
+    public void setFetchWaitMillis(final int fetchWaitMillis)
+    {
+        this.fetchWaitMillis = fetchWaitMillis;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public PublicKey getPublicKey(final String kid, final KeycloakDeployment deployment)
+    {
+        if (deployment != null)
+        {
+            this.bindDeployment(deployment);
+        }
+
+        KeySnapshot current = this.snapshot;
+        PublicKey publicKey = current.getKey(kid);
+
+        if (publicKey == null)
+        {
+            current = this.adoptSharedKeySet(current);
+            publicKey = current.getKey(kid);
+        }
+
+        if (publicKey == null)
+        {
+            // same as the default Keycloak locator, an unknown key ID triggers a refetch, unless one has been performed too recently
+            // the refetch runs in the background, so that tokens with arbitrary key IDs cannot block request processing
+            final CompletableFuture<KeySnapshot> fetch = this.triggerFetch(this.deployment.getMinTimeBetweenJwksRequests() * 1000L);
+            // only wait if no realm public keys have been retrieved yet, e.g. on the first requests before the prefetch completed
+            if (fetch != null && current.getFetchedAt() == 0 && this.fetchWaitMillis > 0)
+            {
+                LOGGER.debug("No realm public keys retrieved yet - waiting up to {} ms for their retrieval", this.fetchWaitMillis);
+                try
+                {
+                    publicKey = fetch.get(this.fetchWaitMillis, TimeUnit.MILLISECONDS).getKey(kid);
+                }
+                catch (final InterruptedException iex)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                catch (final ExecutionException | TimeoutException ex)
+                {
+                    LOGGER.warn("Retrieval of realm public keys failed or did not complete in time", ex);
+                }
+            }
+
+            if (publicKey == null)
+            {
+                LOGGER.debug("No public key available for kid {}{}", kid,
+                        fetch != null ? " - refetch of the realm public keys triggered in the background"
+                                : " - refetch of the realm public keys is currently rate-limited");
+            }
+        }
+
+        return publicKey;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset(final KeycloakDeployment deployment)
+    {
+        if (deployment != null)
+        {
+            this.bindDeployment(deployment);
+        }
+        this.triggerFetch(this.deployment.getMinTimeBetweenJwksRequests() * 1000L);
+    }
+
+    /**
+     * Triggers an asynchronous retrieval of the realm public keys, unless a retrieval is already in progress or the last retrieval has been
+     * attempted less than the {@code min-time-between-jwks-requests} of the adapter configuration ago.
+     *
+     * @param maxKeySetAgeMillis
+     *     the maximum age of an already retrieved key set which makes the actual retrieval unnecessary
+     * @return the retrieval in progress, or {@code null} if the retrieval is currently rate-limited
+     */
+    protected CompletableFuture<KeySnapshot> triggerFetch(final long maxKeySetAgeMillis)
+    {
+        CompletableFuture<KeySnapshot> fetch = this.inFlightFetch.get();
+        if (fetch == null)
+        {
+            final long now = System.currentTimeMillis();
+            if (now - this.lastFetchAttempt >= this.deployment.getMinTimeBetweenJwksRequests() * 1000L)
+            {
+                final CompletableFuture<KeySnapshot> newFetch = new CompletableFuture<>();
+                if (this.inFlightFetch.compareAndSet(null, newFetch))
+                {
+                    this.lastFetchAttempt = now;
+                    final ScheduledThreadPoolExecutor executor = this.executor;
+                    if (executor != null)
+                    {
+                        executor.execute(() -> this.runFetch(newFetch, maxKeySetAgeMillis));
+                    }
+                    else
+                    {
+                        this.inFlightFetch.set(null);
+                        newFetch.completeExceptionally(new IllegalStateException("Public key locator has been shut down"));
+                    }
+                    fetch = newFetch;
+                }
+                else
+                {
+                    fetch = this.inFlightFetch.get();
+                }
+            }
+        }
+        return fetch;
+    }
+
+    protected void runFetch(final CompletableFuture<KeySnapshot> fetch, final long maxKeySetAgeMillis)
+    {
+        try
+        {
+            // another server may have retrieved the key set recently enough
+            KeySnapshot result = this.adoptSharedKeySet(this.snapshot);
+            if (System.currentTimeMillis() - result.getFetchedAt() >= maxKeySetAgeMillis)
+            {
+                result = this.fetchKeySet();
+            }
+            else
+            {
+                LOGGER.debug("Realm public keys were retrieved recently enough - not retrieving them again");
+            }
+
+            fetch.complete(result);
+        }
+        catch (final RuntimeException ex)
+        {
+            LOGGER.error("Failed to retrieve realm public keys", ex);
+            fetch.completeExceptionally(ex);
+        }
+        finally
+        {
+            this.inFlightFetch.compareAndSet(fetch, null);
+        }
+    }
+
+    protected KeySnapshot fetchKeySet()
+    {
+        LOGGER.debug("Retrieving realm public keys from {}", this.deployment.getJwksUrl());
+        try
+        {
+            final JSONWebKeySet jwks = HttpAdapterUtils.sendJsonHttpRequest(this.deployment, new HttpGet(this.deployment.getJwksUrl()),
+                    JSONWebKeySet.class);
+            final SharedKeySet sharedKeySet = new SharedKeySet(JsonSerialization.writeValueAsString(jwks), System.currentTimeMillis());
+            final KeySnapshot fetched = this.toSnapshot(jwks, sharedKeySet.getFetchedAt());
+
+            this.snapshot = fetched;
+            this.sharedKeyCache.put(this.deployment.getJwksUrl(), sharedKeySet);
+
+            LOGGER.debug("Retrieved {} realm public keys", fetched.getKeyCount());
+            return fetched;
+        }
+        catch (final HttpClientAdapterException | IOException ex)
+        {
+            throw new AlfrescoRuntimeException("Failed to retrieve realm public keys", ex);
+        }
+    }
+
+    protected KeySnapshot adoptSharedKeySet(final KeySnapshot current)
+    {
+        KeySnapshot result = current;
+        final SharedKeySet sharedKeySet = this.sharedKeyCache.get(this.deployment.getJwksUrl());
+        if (sharedKeySet != null && sharedKeySet.getFetchedAt() > current.getFetchedAt())
+        {
+            try
+            {
+                final JSONWebKeySet jwks = JsonSerialization.readValue(sharedKeySet.getJwks(), JSONWebKeySet.class);
+                result = this.toSnapshot(jwks, sharedKeySet.getFetchedAt());
+                this.snapshot = result;
+                LOGGER.debug("Adopted {} realm public keys retrieved by another server", result.getKeyCount());
+            }
+            catch (final IOException ioex)
+            {
+                LOGGER.warn("Failed to read shared realm public keys", ioex);
+            }
+        }
+        return result;
+    }
+
+    protected KeySnapshot toSnapshot(final JSONWebKeySet jwks, final long fetchedAt)
+    {
+        final Map<String, PublicKey> keys = new HashMap<>();
+        if (jwks.getKeys() != null)
+        {
+            for (final JWK jwk : jwks.getKeys())
+            {
+                final String use = jwk.getPublicKeyUse();
+                final JWKParser parser = JWKParser.create(jwk);
+                if ((use == null || JWK.Use.SIG.asString().equals(use)) && parser.isKeyTypeSupported(jwk.getKeyType()))
+                {
+                    keys.put(jwk.getKeyId(), parser.toPublicKey());
+                }
+            }
+        }
+        return new KeySnapshot(keys, fetchedAt);
+    }
+
+    /**
+     * Instances of this class hold an immutable snapshot of realm public keys.
+     *
+     * @author Axel Faust
+     */
+    protected static class KeySnapshot
+    {
+
+        protected static final KeySnapshot EMPTY = new KeySnapshot(Collections.emptyMap(), 0);
+
+        protected final Map<String, PublicKey> keys;
+
+        protected final long fetchedAt;
+
+        protected KeySnapshot(final Map<String, PublicKey> keys, final long fetchedAt)
+        {
+            this.keys = Collections.unmodifiableMap(keys);
+            this.fetchedAt = fetchedAt;
+        }
+
+        protected PublicKey getKey(final String kid)
+        {
+            PublicKey key;
+            if (kid != null)
+            {
+                key = this.keys.get(kid);
+            }
+            else
+            {
+                // same as default Keycloak locator - tokens without kid can only be verified if the realm has a single key
+                key = this.keys.size() == 1 ? this.keys.values().iterator().next() : null;
+            }
+            return key;
+        }
+
+        protected boolean isEmpty()
+        {
+            return this.keys.isEmpty();
+        }
+
+        protected int getKeyCount()
+        {
+            return this.keys.size();
+        }
+
+        protected long getFetchedAt()
+        {
+            return this.fetchedAt;
+        }
+    }
+
+    /**
+     * Instances of this class hold the textual representation of a realm's JSON Web Key Set for sharing with other servers.
+     *
+     * @author Axel Faust
+     */
+    public static class SharedKeySet implements Serializable
+    {
+
+        private static final long serialVersionUID = 2964802542386370927L;
+
+        private final String jwks;
+
+        private final long fetchedAt;
+
+        /**
+         * Creates a new instance of this class.
+         *
+         * @param jwks
+         *     the textual representation of the JSON Web Key Set
+         * @param fetchedAt
+         *     the timestamp (epoch milliseconds) at which the key set was retrieved
+         */
+        public SharedKeySet(final String jwks, final long fetchedAt)
+        {
+            this.jwks = jwks;
+            this.fetchedAt = fetchedAt;
+        }
+
+        /**
+         * @return the jwks
+         */
+        public String getJwks()
+        {
+            return this.jwks;
+        }
+
+        /**
+         * @return the fetchedAt
+         */
+        public long getFetchedAt()
+        {
+            return this.fetchedAt;
+        }
+    }
+}
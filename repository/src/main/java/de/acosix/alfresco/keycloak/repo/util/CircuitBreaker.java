@@ -0,0 +1,507 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.util;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.alfresco.util.PropertyCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Instances of this class guard calls to a specific Keycloak endpoint against the endpoint becoming slow or unavailable, so that request
+ * threads do not pile up waiting for socket timeouts and exhaust the thread pool of the servlet container.
+ *
+ * Two mechanisms are combined:
+ * <ul>
+ * <li>a bulkhead, limiting the number of concurrent calls to the endpoint - calls exceeding the limit wait for a short time at most before
+ * being rejected</li>
+ * <li>a circuit breaker, tracking the outcome of the most recent calls in a sliding window - if the rate of failed calls exceeds a
+ * threshold, the circuit is opened and all calls are rejected immediately for a configured duration, after which a single probe call is
+ * let through to determine whether the endpoint has recovered</li>
+ * </ul>
+ *
+ * Rejected calls fail with an {@link EndpointUnavailableException} so that callers can apply any fallbacks they support. The state of the
+ * circuit and counters for the outcome of calls are logged whenever the state of the circuit changes, and exposed to administrators via
+ * the {@link CircuitBreakerRegistry circuit breaker registry}.
+ *
+ * @author Axel Faust
+ */
+public class CircuitBreaker implements InitializingBean, BeanNameAware
+{
+
+    /**
+     * The possible states of a circuit breaker.
+     *
+     * @author Axel Faust
+     */
+    public static enum State
+    {
+        CLOSED, OPEN, HALF_OPEN;
+    }
+
+    /**
+     * Instances of this interface represent a guarded call.
+     *
+     * @param <T>
+     *     the type of the result of the call
+     * @param <E>
+     *     the type of checked exception the call may throw
+     *
+     * @author Axel Faust
+     */
+    @FunctionalInterface
+    public static interface GuardedCall<T, E extends Exception>
+    {
+
+        /**
+         * Performs the call.
+         *
+         * @return the result of the call
+         * @throws E
+         *     if the call fails
+         */
+        T call() throws E;
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private static final int DEFAULT_MAX_CONCURRENT_CALLS = 20;
+
+    private static final int DEFAULT_MAX_WAIT_MILLIS = 100;
+
+    private static final int DEFAULT_SLIDING_WINDOW_SIZE = 20;
+
+    private static final int DEFAULT_MINIMUM_CALLS = 10;
+
+    private static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+
+    private static final int DEFAULT_OPEN_STATE_MILLIS = 30000;
+
+    protected final AtomicLong successfulCalls = new AtomicLong();
+
+    protected final AtomicLong failedCalls = new AtomicLong();
+
+    protected final AtomicLong rejectedCalls = new AtomicLong();
+
+    protected final AtomicLong shortCircuitedCalls = new AtomicLong();
+
+    protected String name;
+
+    protected boolean enabled = true;
+
+    protected int maxConcurrentCalls = DEFAULT_MAX_CONCURRENT_CALLS;
+
+    protected int maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+
+    protected int slidingWindowSize = DEFAULT_SLIDING_WINDOW_SIZE;
+
+    protected int minimumCalls = DEFAULT_MINIMUM_CALLS;
+
+    protected int failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+
+    protected int openStateMillis = DEFAULT_OPEN_STATE_MILLIS;
+
+    protected Semaphore bulkhead;
+
+    // state and sliding window are guarded by synchronisation on this instance
+    protected State state = State.CLOSED;
+
+    protected long openUntil;
+
+    protected boolean probeInFlight;
+
+    protected boolean[] window;
+
+    protected int windowPosition;
+
+    protected int windowCalls;
+
+    protected int windowFailures;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setBeanName(final String name)
+    {
+        if (this.name == null)
+        {
+            this.name = name;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet()
+    {
+        PropertyCheck.mandatory(this, "name", this.name);
+
+        this.bulkhead = new Semaphore(Math.max(1, this.maxConcurrentCalls));
+        this.window = new boolean[Math.max(1, this.slidingWindowSize)];
+    }
+
+    /**
+     * @param name
+     *     the name to set
+     */
+    public void setName(final String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * @param enabled
+     *     the enabled to set
+     */
+    public void setEnabled(final boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param maxConcurrentCalls
+     *     the maxConcurrentCalls to set
+     */
+    public void setMaxConcurrentCalls(final int maxConcurrentCalls)
+    {
+        this.maxConcurrentCalls = maxConcurrentCalls;
+    }
+
+    /**
+     * @param maxWaitMillis
+     *     the maxWaitMillis to set
+     */
+    public void setMaxWaitMillis(final int maxWaitMillis)
+    {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * @param slidingWindowSize
+     *     the slidingWindowSize to set
+     */
+    public void setSlidingWindowSize(final int slidingWindowSize)
+    {
+        this.slidingWindowSize = slidingWindowSize;
+    }
+
+    /**
+     * @param minimumCalls
+     *     the minimumCalls to set
+     */
+    public void setMinimumCalls(final int minimumCalls)
+    {
+        this.minimumCalls = minimumCalls;
+    }
+
+    /**
+     * @param failureRateThreshold
+     *     the failureRateThreshold to set
+     */
+    public void setFailureRateThreshold(final int failureRateThreshold)
+    {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * @param openStateMillis
+     *     the openStateMillis to set
+     */
+    public void setOpenStateMillis(final int openStateMillis)
+    {
+        this.openStateMillis = openStateMillis;
+    }
+
+    /**
+     * Performs a guarded call, treating any exception as a failure of the endpoint.
+     *
+     * @param <T>
+     *     the type of the result of the call
+     * @param <E>
+     *     the type of checked exception the call may throw
+     * @param call
+     *     the call to perform
+     * @param failedResult
+     *     the predicate determining whether a result of the call represents a failure of the endpoint
+     * @return the result of the call
+     * @throws E
+     *     if the call fails
+     * @throws EndpointUnavailableException
+     *     if the call has been rejected
+     */
+    public <T, E extends Exception> T execute(final GuardedCall<T, E> call, final Predicate<? super T> failedResult)
+            throws E, EndpointUnavailableException
+    {
+        return this.execute(call, failedResult, ex -> true);
+    }
+
+    /**
+     * Performs a guarded call.
+     *
+     * @param <T>
+     *     the type of the result of the call
+     * @param <E>
+     *     the type of checked exception the call may throw
+     * @param call
+     *     the call to perform
+     * @param failedResult
+     *     the predicate determining whether a result of the call represents a failure of the endpoint
+     * @param failedException
+     *     the predicate determining whether an exception thrown by the call represents a failure of the endpoint, e.g. to exclude
+     *     exceptions caused by invalid client input
+     * @return the result of the call
+     * @throws E
+     *     if the call fails
+     * @throws EndpointUnavailableException
+     *     if the call has been rejected
+     */
+    public <T, E extends Exception> T execute(final GuardedCall<T, E> call, final Predicate<? super T> failedResult,
+            final Predicate<? super Exception> failedException) throws E, EndpointUnavailableException
+    {
+        if (!this.enabled)
+        {
+            return call.call();
+        }
+
+        final boolean probe = this.acquirePermission();
+        boolean acquired = false;
+        try
+        {
+            acquired = this.maxWaitMillis > 0 ? this.bulkhead.tryAcquire(this.maxWaitMillis, TimeUnit.MILLISECONDS)
+                    : this.bulkhead.tryAcquire();
+        }
+        catch (final InterruptedException iex)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!acquired)
+        {
+            this.releaseProbe(probe);
+            this.rejectedCalls.incrementAndGet();
+            LOGGER.debug("Rejecting call to {} as the limit of {} concurrent calls has been reached", this.name, this.maxConcurrentCalls);
+            throw new EndpointUnavailableException("Limit of concurrent calls to " + this.name + " has been reached");
+        }
+
+        try
+        {
+            final T result = call.call();
+            this.recordOutcome(failedResult.test(result), probe);
+            return result;
+        }
+        catch (final Exception ex)
+        {
+            this.recordOutcome(failedException.test(ex), probe);
+            throw ex;
+        }
+        finally
+        {
+            this.bulkhead.release();
+        }
+    }
+
+    /**
+     * @return the name of the guarded endpoint
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * @return the current state of the circuit
+     */
+    public synchronized State getState()
+    {
+        return this.state;
+    }
+
+    /**
+     * @return the failure rate (in percent) within the current sliding window
+     */
+    public synchronized int getFailureRate()
+    {
+        return this.windowCalls > 0 ? this.windowFailures * 100 / this.windowCalls : 0;
+    }
+
+    /**
+     * @return the number of calls currently in progress
+     */
+    public int getActiveCalls()
+    {
+        return this.bulkhead != null ? Math.max(1, this.maxConcurrentCalls) - this.bulkhead.availablePermits() : 0;
+    }
+
+    /**
+     * @return the total number of successful calls
+     */
+    public long getSuccessfulCalls()
+    {
+        return this.successfulCalls.get();
+    }
+
+    /**
+     * @return the total number of failed calls
+     */
+    public long getFailedCalls()
+    {
+        return this.failedCalls.get();
+    }
+
+    /**
+     * @return the total number of calls rejected due to the limit of concurrent calls
+     */
+    public long getRejectedCalls()
+    {
+        return this.rejectedCalls.get();
+    }
+
+    /**
+     * @return the total number of calls rejected due to an open circuit
+     */
+    public long getShortCircuitedCalls()
+    {
+        return this.shortCircuitedCalls.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("CircuitBreaker [");
+        builder.append("name=");
+        builder.append(this.name);
+        builder.append(", state=");
+        builder.append(this.getState());
+        builder.append(", failureRate=");
+        builder.append(this.getFailureRate());
+        builder.append(", activeCalls=");
+        builder.append(this.getActiveCalls());
+        builder.append(", successfulCalls=");
+        builder.append(this.getSuccessfulCalls());
+        builder.append(", failedCalls=");
+        builder.append(this.getFailedCalls());
+        builder.append(", rejectedCalls=");
+        builder.append(this.getRejectedCalls());
+        builder.append(", shortCircuitedCalls=");
+        builder.append(this.getShortCircuitedCalls());
+        builder.append("]");
+        return builder.toString();
+    }
+
+    protected synchronized boolean acquirePermission() throws EndpointUnavailableException
+    {
+        boolean probe = false;
+        if (this.state == State.OPEN && System.currentTimeMillis() >= this.openUntil)
+        {
+            LOGGER.info("Circuit for {} is half-open - letting probe call through", this.name);
+            this.state = State.HALF_OPEN;
+        }
+
+        if (this.state == State.HALF_OPEN && !this.probeInFlight)
+        {
+            this.probeInFlight = true;
+            probe = true;
+        }
+        else if (this.state != State.CLOSED)
+        {
+            this.shortCircuitedCalls.incrementAndGet();
+            LOGGER.debug("Rejecting call to {} as the circuit is {}", this.name, this.state);
+            throw new EndpointUnavailableException("Circuit for " + this.name + " is open");
+        }
+        return probe;
+    }
+
+    protected synchronized void releaseProbe(final boolean probe)
+    {
+        if (probe)
+        {
+            this.probeInFlight = false;
+        }
+    }
+
+    protected synchronized void recordOutcome(final boolean failed, final boolean probe)
+    {
+        (failed ? this.failedCalls : this.successfulCalls).incrementAndGet();
+
+        if (probe)
+        {
+            this.probeInFlight = false;
+            if (failed)
+            {
+                this.open();
+            }
+            else
+            {
+                this.resetWindow();
+                this.state = State.CLOSED;
+                LOGGER.info("Circuit for {} has been closed after successful probe call - {}", this.name, this);
+            }
+        }
+        else if (this.state == State.CLOSED)
+        {
+            if (this.windowCalls == this.window.length)
+            {
+                if (this.window[this.windowPosition])
+                {
+                    this.windowFailures--;
+                }
+            }
+            else
+            {
+                this.windowCalls++;
+            }
+
+            this.window[this.windowPosition] = failed;
+            if (failed)
+            {
+                this.windowFailures++;
+            }
+            this.windowPosition = (this.windowPosition + 1) % this.window.length;
+
+            if (this.windowCalls >= this.minimumCalls && this.windowFailures * 100 >= this.failureRateThreshold * this.windowCalls)
+            {
+                this.open();
+            }
+        }
+    }
+
+    protected void open()
+    {
+        this.state = State.OPEN;
+        this.openUntil = System.currentTimeMillis() + this.openStateMillis;
+        this.resetWindow();
+        LOGGER.warn("Circuit for {} has been opened - rejecting calls for {} ms - {}", this.name, this.openStateMillis, this);
+    }
+
+    protected void resetWindow()
+    {
+        this.windowCalls = 0;
+        this.windowFailures = 0;
+        this.windowPosition = 0;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.util;
+
+import java.util.List;
+
+/**
+ * Instances of this interface provide access to the circuit breakers guarding calls to Keycloak endpoints, e.g. to inspect their state.
+ *
+ * @author Axel Faust
+ */
+public interface CircuitBreakerRegistry
+{
+
+    /**
+     * Retrieves the circuit breakers guarding calls to Keycloak endpoints.
+     *
+     * @return the list of circuit breakers
+     */
+    List<CircuitBreaker> getCircuitBreakers();
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.util;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Instances of this class provide the technical implementation of the registry interface. Without any configured circuit breakers, this
+ * class may also be used as a default implementation in a subsystem proxy to avoid failing if no Keycloak subsystem instance is active.
+ *
+ * @author Axel Faust
+ */
+public class CircuitBreakerRegistryImpl implements CircuitBreakerRegistry
+{
+
+    protected List<CircuitBreaker> circuitBreakers = Collections.emptyList();
+
+    /**
+     * @param circuitBreakers
+     *     the circuitBreakers to set
+     */
+    public void setCircuitBreakers(final List<CircuitBreaker> circuitBreakers)
+    {
+        this.circuitBreakers = circuitBreakers != null ? Collections.unmodifiableList(circuitBreakers) : Collections.emptyList();
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public List<CircuitBreaker> getCircuitBreakers()
+    {
+        return this.circuitBreakers;
+    }
+}
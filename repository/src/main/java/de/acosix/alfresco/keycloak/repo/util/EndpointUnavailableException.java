@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.util;
+
+import java.io.IOException;
+
+/**
+ * Instances of this exception signal that a call to a Keycloak endpoint has been rejected without being attempted, either because the
+ * circuit breaker for the endpoint is open or because the limit of concurrent calls to the endpoint has been reached. As a sub-class of
+ * {@link IOException}, it is handled by any existing error handling for failed HTTP interactions.
+ *
+ * @author Axel Faust
+ */
+public class EndpointUnavailableException extends IOException
+{
+
+    private static final long serialVersionUID = 4217094632361270915L;
+
+    /**
+     * Creates a new instance of this exception.
+     *
+     * @param message
+     *     the message detailing the reason for the rejection
+     */
+    public EndpointUnavailableException(final String message)
+    {
+        super(message);
+    }
+}
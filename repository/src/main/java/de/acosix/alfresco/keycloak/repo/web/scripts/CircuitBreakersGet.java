@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.web.scripts;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.alfresco.util.PropertyCheck;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.DeclarativeWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+
+import de.acosix.alfresco.keycloak.repo.util.CircuitBreakerRegistry;
+
+/**
+ * This web script controller provides the circuit breakers guarding calls to Keycloak endpoints to the FreeMarker response template of the
+ * {@code circuitBreakers.get} web script.
+ *
+ * @author Axel Faust
+ */
+public class CircuitBreakersGet extends DeclarativeWebScript implements InitializingBean
+{
+
+    protected CircuitBreakerRegistry circuitBreakerRegistry;
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet()
+    {
+        PropertyCheck.mandatory(this, "circuitBreakerRegistry", this.circuitBreakerRegistry);
+    }
+
+    /**
+     * @param circuitBreakerRegistry
+     *            the circuitBreakerRegistry to set
+     */
+    public void setCircuitBreakerRegistry(final CircuitBreakerRegistry circuitBreakerRegistry)
+    {
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Map<String, Object> executeImpl(final WebScriptRequest req, final Status status, final Cache cache)
+    {
+        Map<String, Object> model = super.executeImpl(req, status, cache);
+        if (model == null)
+        {
+            model = new HashMap<>();
+        }
+
+        model.put("circuitBreakers", this.circuitBreakerRegistry.getCircuitBreakers());
+        return model;
+    }
+}
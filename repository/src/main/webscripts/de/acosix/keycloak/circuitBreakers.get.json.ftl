@@ -0,0 +1,12 @@
+<#compress><#escape x as jsonUtils.encodeJSONString(x)>{
+    "data": [<#list circuitBreakers as circuitBreaker>{
+        "name": "${circuitBreaker.name}",
+        "state": "${circuitBreaker.state}",
+        "failureRate": ${circuitBreaker.failureRate?c},
+        "activeCalls": ${circuitBreaker.activeCalls?c},
+        "successfulCalls": ${circuitBreaker.successfulCalls?c},
+        "failedCalls": ${circuitBreaker.failedCalls?c},
+        "rejectedCalls": ${circuitBreaker.rejectedCalls?c},
+        "shortCircuitedCalls": ${circuitBreaker.shortCircuitedCalls?c}
+    }<#if circuitBreaker_has_next>,</#if></#list>]
+}</#escape></#compress>
\ No newline at end of file
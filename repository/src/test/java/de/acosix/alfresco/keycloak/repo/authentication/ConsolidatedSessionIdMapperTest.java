@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.authentication;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.repo.cache.DefaultSimpleCache;
+import org.alfresco.repo.cache.SimpleCache;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.acosix.alfresco.keycloak.repo.authentication.ConsolidatedSessionIdMapper.SessionRecord;
+
+/**
+ * @author Axel Faust
+ */
+public class ConsolidatedSessionIdMapperTest
+{
+
+    private final AtomicInteger cacheOperations = new AtomicInteger(0);
+
+    private ConsolidatedSessionIdMapper mapper;
+
+    @Before
+    public void setup()
+    {
+        this.mapper = new ConsolidatedSessionIdMapper();
+        this.mapper.setSessionRecords(new CountingCache<>(new DefaultSimpleCache<String, SessionRecord>(100, "sessionRecords")));
+        this.mapper.setSsoToSession(new CountingCache<>(new DefaultSimpleCache<String, String>(100, "ssoToSession")));
+        this.mapper.afterPropertiesSet();
+    }
+
+    @Test
+    public void mappedSessionCanBeLookedUp()
+    {
+        this.mapper.map("sso-1", "user1", "session-1");
+
+        Assert.assertTrue(this.mapper.hasSession("session-1"));
+        Assert.assertEquals("session-1", this.mapper.getSessionFromSSO("sso-1"));
+        Assert.assertEquals("user1", this.mapper.getSessionPrincipal("session-1"));
+        Assert.assertEquals(Collections.singleton("session-1"), this.mapper.getUserSessions("user1"));
+        Assert.assertFalse(this.mapper.hasSession("session-2"));
+    }
+
+    @Test
+    public void removedSessionIsRemovedFromAllLookups()
+    {
+        this.mapper.map("sso-1", "user1", "session-1");
+        this.mapper.map("sso-2", "user1", "session-2");
+        this.mapper.removeSession("session-1");
+
+        Assert.assertFalse(this.mapper.hasSession("session-1"));
+        Assert.assertNull(this.mapper.getSessionFromSSO("sso-1"));
+        Assert.assertNull(this.mapper.getSessionPrincipal("session-1"));
+        Assert.assertEquals(Collections.singleton("session-2"), this.mapper.getUserSessions("user1"));
+
+        this.mapper.removeSession("session-2");
+        Assert.assertTrue(this.mapper.getUserSessions("user1").isEmpty());
+    }
+
+    @Test
+    public void userSessionsAreDerivedFromSessionRecords()
+    {
+        this.mapper.map("sso-1", "user1", "session-1");
+        this.mapper.map(null, "user1", "session-2");
+        this.mapper.map("sso-3", "user2", "session-3");
+        this.mapper.map("sso-4", null, "session-4");
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("session-1", "session-2")), this.mapper.getUserSessions("user1"));
+        Assert.assertEquals(Collections.singleton("session-3"), this.mapper.getUserSessions("user2"));
+        Assert.assertTrue(this.mapper.getUserSessions("user3").isEmpty());
+    }
+
+    @Test
+    public void sessionsOfSamePrincipalMappedViaDifferentInstancesAreNotLost()
+    {
+        // simulates two servers sharing the same caches
+        final ConsolidatedSessionIdMapper otherMapper = new ConsolidatedSessionIdMapper();
+        otherMapper.setSessionRecords(this.mapper.sessionRecords);
+        otherMapper.setSsoToSession(this.mapper.ssoToSession);
+        otherMapper.afterPropertiesSet();
+
+        this.mapper.map("sso-1", "user1", "session-1");
+        otherMapper.map("sso-2", "user1", "session-2");
+        this.mapper.map("sso-3", "user1", "session-3");
+        otherMapper.removeSession("session-3");
+
+        final Set<String> expected = new HashSet<>(Arrays.asList("session-1", "session-2"));
+        Assert.assertEquals(expected, this.mapper.getUserSessions("user1"));
+        Assert.assertEquals(expected, otherMapper.getUserSessions("user1"));
+    }
+
+    @Test
+    public void frequentOperationsUseMinimalCacheOperations()
+    {
+        this.cacheOperations.set(0);
+        this.mapper.map("sso-1", "user1", "session-1");
+        Assert.assertEquals(2, this.cacheOperations.get());
+
+        this.cacheOperations.set(0);
+        this.mapper.map(null, "user1", "session-2");
+        Assert.assertEquals(1, this.cacheOperations.get());
+
+        this.cacheOperations.set(0);
+        Assert.assertTrue(this.mapper.hasSession("session-1"));
+        Assert.assertEquals(1, this.cacheOperations.get());
+
+        this.cacheOperations.set(0);
+        this.mapper.removeSession("session-1");
+        Assert.assertEquals(3, this.cacheOperations.get());
+
+        this.cacheOperations.set(0);
+        this.mapper.removeSession("session-2");
+        Assert.assertEquals(2, this.cacheOperations.get());
+    }
+
+    /**
+     * Counts all operations on a cache to verify the cost of mapper operations.
+     *
+     * @author Axel Faust
+     */
+    private class CountingCache<K extends Serializable, V> implements SimpleCache<K, V>
+    {
+
+        private final SimpleCache<K, V> delegate;
+
+        private CountingCache(final SimpleCache<K, V> delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean contains(final K key)
+        {
+            ConsolidatedSessionIdMapperTest.this.cacheOperations.incrementAndGet();
+            return this.delegate.contains(key);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Collection<K> getKeys()
+        {
+            ConsolidatedSessionIdMapperTest.this.cacheOperations.incrementAndGet();
+            return this.delegate.getKeys();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public V get(final K key)
+        {
+            ConsolidatedSessionIdMapperTest.this.cacheOperations.incrementAndGet();
+            return this.delegate.get(key);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void put(final K key, final V value)
+        {
+            ConsolidatedSessionIdMapperTest.this.cacheOperations.incrementAndGet();
+            this.delegate.put(key, value);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void remove(final K key)
+        {
+            ConsolidatedSessionIdMapperTest.this.cacheOperations.incrementAndGet();
+            this.delegate.remove(key);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void clear()
+        {
+            ConsolidatedSessionIdMapperTest.this.cacheOperations.incrementAndGet();
+            this.delegate.clear();
+        }
+    }
+}
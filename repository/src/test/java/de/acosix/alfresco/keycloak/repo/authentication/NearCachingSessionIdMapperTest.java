@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.authentication;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.repo.cache.DefaultSimpleCache;
+import org.alfresco.repo.cache.SimpleCache;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.acosix.alfresco.keycloak.repo.authentication.ConsolidatedSessionIdMapper.SessionRecord;
+
+/**
+ * @author Axel Faust
+ */
+public class NearCachingSessionIdMapperTest
+{
+
+    private final AtomicInteger delegateChecks = new AtomicInteger(0);
+
+    private Runnable duringDelegateCheck;
+
+    private SimpleCache<String, Boolean> liveSessionCache;
+
+    private NearCachingSessionIdMapper mapper;
+
+    @Before
+    public void setup()
+    {
+        final ConsolidatedSessionIdMapper delegate = new ConsolidatedSessionIdMapper()
+        {
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public boolean hasSession(final String id)
+            {
+                NearCachingSessionIdMapperTest.this.delegateChecks.incrementAndGet();
+                final boolean hasSession = super.hasSession(id);
+
+                final Runnable duringDelegateCheck = NearCachingSessionIdMapperTest.this.duringDelegateCheck;
+                NearCachingSessionIdMapperTest.this.duringDelegateCheck = null;
+                if (duringDelegateCheck != null)
+                {
+                    duringDelegateCheck.run();
+                }
+                return hasSession;
+            }
+        };
+        delegate.setSessionRecords(new DefaultSimpleCache<String, SessionRecord>(100, "sessionRecords"));
+        delegate.setSsoToSession(new DefaultSimpleCache<String, String>(100, "ssoToSession"));
+        delegate.afterPropertiesSet();
+
+        this.liveSessionCache = new DefaultSimpleCache<>(100, "liveSessionCache");
+
+        this.mapper = new NearCachingSessionIdMapper();
+        this.mapper.setDelegate(delegate);
+        this.mapper.setLiveSessionCache(this.liveSessionCache);
+        this.mapper.afterPropertiesSet();
+    }
+
+    @Test
+    public void liveSessionIsAnsweredFromNearCache()
+    {
+        this.mapper.map("sso-1", "user1", "session-1");
+
+        Assert.assertTrue(this.mapper.hasSession("session-1"));
+        Assert.assertTrue(this.mapper.hasSession("session-1"));
+        Assert.assertEquals(0, this.delegateChecks.get());
+    }
+
+    @Test
+    public void liveSessionMappedOnOtherServerIsCachedAfterFirstCheck()
+    {
+        this.mapper.map("sso-1", "user1", "session-1");
+        // simulate a check on a different server with an empty near-cache
+        this.liveSessionCache.clear();
+
+        Assert.assertTrue(this.mapper.hasSession("session-1"));
+        Assert.assertTrue(this.mapper.hasSession("session-1"));
+        Assert.assertEquals(1, this.delegateChecks.get());
+        Assert.assertTrue(this.liveSessionCache.contains("session-1"));
+    }
+
+    @Test
+    public void unknownSessionIsNeverCached()
+    {
+        Assert.assertFalse(this.mapper.hasSession("session-1"));
+        Assert.assertFalse(this.mapper.hasSession("session-1"));
+        Assert.assertEquals(2, this.delegateChecks.get());
+        Assert.assertFalse(this.liveSessionCache.contains("session-1"));
+    }
+
+    @Test
+    public void removedSessionIsRemovedFromNearCache()
+    {
+        this.mapper.map("sso-1", "user1", "session-1");
+        Assert.assertTrue(this.mapper.hasSession("session-1"));
+
+        this.mapper.removeSession("session-1");
+
+        Assert.assertFalse(this.liveSessionCache.contains("session-1"));
+        Assert.assertFalse(this.mapper.hasSession("session-1"));
+        Assert.assertEquals(1, this.delegateChecks.get());
+    }
+
+    @Test
+    public void removalDuringNearCachePopulationIsNotUndone()
+    {
+        this.mapper.map("sso-1", "user1", "session-1");
+        this.liveSessionCache.clear();
+
+        this.duringDelegateCheck = () -> this.mapper.removeSession("session-1");
+
+        // the check itself may still report the session as live, but must not cache it as such
+        Assert.assertTrue(this.mapper.hasSession("session-1"));
+        Assert.assertFalse(this.liveSessionCache.contains("session-1"));
+        Assert.assertFalse(this.mapper.hasSession("session-1"));
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.authentication;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.extensions.webscripts.Description;
+import org.springframework.extensions.webscripts.Description.RequiredAuthentication;
+import org.springframework.extensions.webscripts.Match;
+import org.springframework.extensions.webscripts.Registry;
+import org.springframework.extensions.webscripts.WebScript;
+
+import de.acosix.alfresco.keycloak.repo.util.MicroBenchmark;
+
+/**
+ * Compares the routing checks of the skip-decision path of {@link KeycloakAuthenticationFilter} with the previous implementation, which
+ * recompiled the Keycloak action URL pattern and lower-cased the authorization header on every request, and measures the lookup of
+ * cached web script authentication decisions. See {@link MicroBenchmark} on how to run this benchmark.
+ *
+ * @author Axel Faust
+ */
+public class SkipDecisionBenchmark
+{
+
+    private static final int WARMUP_ITERATIONS = 200_000;
+
+    private static final int ITERATIONS = 1_000_000;
+
+    private static final int THREADS = 8;
+
+    // same pattern as used by the filter
+    private static final String KEYCLOAK_ACTION_URL_REGEX = "^(?:/wcs(?:ervice)?)?/keycloak/k_[^/]+$";
+
+    private static final Pattern KEYCLOAK_ACTION_URL_PATTERN = Pattern.compile(KEYCLOAK_ACTION_URL_REGEX);
+
+    private static final String[] REQUEST_URIS = { "/api/-default-/public/alfresco/versions/1/nodes/-my-/children",
+            "/wcs/api/solr/aclchangesets", "/service/api/login", "/wcs/keycloak/k_push_not_before", "/s/index" };
+
+    private static final String[] AUTH_HEADERS = { "Bearer eyJhbGciOiJSUzI1NiIsInR5cCI6IkpXVCJ9", "Basic YWRtaW46YWRtaW4=",
+            "bearer eyJhbGciOiJSUzI1NiIsInR5cCI6IkpXVCJ9", "Negotiate YIIFzQYGKwYBBQUCoIIFwTCCBb2gMDAu" };
+
+    @Test
+    public void routingChecks() throws Exception
+    {
+        final int[] counter = new int[1];
+        MicroBenchmark.measureAverageTime("routing checks (recompiled pattern, lower-cased header)", WARMUP_ITERATIONS, ITERATIONS, () -> {
+            final int idx = counter[0]++;
+            final String uri = REQUEST_URIS[idx % REQUEST_URIS.length];
+            final String authHeader = AUTH_HEADERS[idx % AUTH_HEADERS.length];
+
+            final String lowerCaseAuthHeader = authHeader.toLowerCase(Locale.ENGLISH);
+            return Boolean.valueOf(uri.matches(KEYCLOAK_ACTION_URL_REGEX) || lowerCaseAuthHeader.startsWith("bearer ")
+                    || lowerCaseAuthHeader.startsWith("basic "));
+        });
+        MicroBenchmark.measureAverageTime("routing checks (precompiled pattern, region match on header)", WARMUP_ITERATIONS, ITERATIONS,
+                () -> {
+                    final int idx = counter[0]++;
+                    final String uri = REQUEST_URIS[idx % REQUEST_URIS.length];
+                    final String authHeader = AUTH_HEADERS[idx % AUTH_HEADERS.length];
+
+                    return Boolean.valueOf(KEYCLOAK_ACTION_URL_PATTERN.matcher(uri).matches()
+                            || KeycloakAuthenticationFilter.hasAuthorizationScheme(authHeader, "bearer ")
+                            || KeycloakAuthenticationFilter.hasAuthorizationScheme(authHeader, "basic "));
+                });
+    }
+
+    @Test
+    public void webScriptAuthenticationDecisions() throws Exception
+    {
+        final Registry registry = createRegistry();
+        final WebScriptAuthenticationDecisionCache decisionCache = new WebScriptAuthenticationDecisionCache(100);
+        Assert.assertEquals(RequiredAuthentication.none, decisionCache.getRequiredAuthentication(registry, "GET", "/discovery"));
+
+        MicroBenchmark.measureAverageTime("web script authentication decision (cached)", WARMUP_ITERATIONS, ITERATIONS,
+                () -> decisionCache.getRequiredAuthentication(registry, "GET", "/discovery"));
+        MicroBenchmark.measureThroughput("web script authentication decision (cached)", THREADS, 1_000, 3_000,
+                () -> decisionCache.getRequiredAuthentication(registry, "GET", "/discovery"));
+    }
+
+    private static Registry createRegistry()
+    {
+        final Description description = (Description) Proxy.newProxyInstance(SkipDecisionBenchmark.class.getClassLoader(),
+                new Class<?>[] { Description.class }, (proxy, method, args) -> {
+                    switch (method.getName())
+                    {
+                        case "getId":
+                            return "org/alfresco/api/discovery.get";
+                        case "getRequiredAuthentication":
+                            return RequiredAuthentication.none;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        final WebScript webScript = (WebScript) Proxy.newProxyInstance(SkipDecisionBenchmark.class.getClassLoader(),
+                new Class<?>[] { WebScript.class }, (proxy, method, args) -> {
+                    if ("getDescription".equals(method.getName()))
+                    {
+                        return description;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        final Match match = new Match("/discovery", Collections.emptyMap(), "/discovery", webScript);
+        return (Registry) Proxy.newProxyInstance(SkipDecisionBenchmark.class.getClassLoader(), new Class<?>[] { Registry.class },
+                (proxy, method, args) -> {
+                    if ("findWebScript".equals(method.getName()))
+                    {
+                        return match;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
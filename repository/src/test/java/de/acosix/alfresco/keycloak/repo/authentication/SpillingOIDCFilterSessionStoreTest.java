@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.authentication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.servlet.ReadListener;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.acosix.alfresco.keycloak.repo.authentication.SpillingOIDCFilterSessionStore.ByteBufferServletInputStream;
+import de.acosix.alfresco.keycloak.repo.authentication.SpillingOIDCFilterSessionStore.SpilledRequestBody;
+
+/**
+ * @author Axel Faust
+ */
+public class SpillingOIDCFilterSessionStoreTest
+{
+
+    @Test
+    public void spilledBodyIsMapped() throws Exception
+    {
+        final byte[] content = "spilled-body".getBytes(StandardCharsets.UTF_8);
+        final Path file = Files.createTempFile("keycloak-saved-request-", ".bin");
+        try
+        {
+            Files.write(file, content);
+            final SpilledRequestBody body = new SpilledRequestBody(file.toString(), content.length);
+
+            final ByteBuffer buffer = body.map();
+            final byte[] mapped = new byte[buffer.remaining()];
+            buffer.get(mapped);
+            Assert.assertArrayEquals(content, mapped);
+
+            body.delete();
+            Assert.assertFalse(Files.exists(file));
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void missingSpilledBodyFileFails()
+    {
+        new SpilledRequestBody("/does-not-exist/keycloak-saved-request.bin", 10).map();
+    }
+
+    @Test
+    public void deserialisedSpilledBodyDoesNotReferenceFile() throws Exception
+    {
+        final Path file = Files.createTempFile("keycloak-saved-request-", ".bin");
+        try
+        {
+            Files.write(file, new byte[10]);
+            final SpilledRequestBody body = new SpilledRequestBody(file.toString(), 10);
+
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bos))
+            {
+                oos.writeObject(body);
+            }
+            Assert.assertFalse(new String(bos.toByteArray(), StandardCharsets.ISO_8859_1).contains(file.toString()));
+
+            final SpilledRequestBody copy;
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())))
+            {
+                copy = (SpilledRequestBody) ois.readObject();
+            }
+            Assert.assertEquals(10, copy.getLength());
+
+            // must neither delete the file of the original server nor replay an empty body
+            copy.delete();
+            Assert.assertTrue(Files.exists(file));
+            try
+            {
+                copy.map();
+                Assert.fail("Deserialised spilled body should not be restorable");
+            }
+            catch (final IllegalStateException isex)
+            {
+                // expected
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void replayedBodySupportsNonBlockingRead()
+    {
+        final byte[] content = "replayed-body".getBytes(StandardCharsets.UTF_8);
+        final ByteBufferServletInputStream inputStream = new ByteBufferServletInputStream(ByteBuffer.wrap(content));
+
+        final ByteArrayOutputStream read = new ByteArrayOutputStream();
+        final List<String> events = new ArrayList<>();
+        inputStream.setReadListener(new ReadListener()
+        {
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void onDataAvailable() throws IOException
+            {
+                events.add("dataAvailable");
+                final byte[] chunk = new byte[4];
+                while (inputStream.isReady() && !inputStream.isFinished())
+                {
+                    final int count = inputStream.read(chunk);
+                    read.write(chunk, 0, count);
+                }
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void onAllDataRead()
+            {
+                events.add("allDataRead");
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void onError(final Throwable t)
+            {
+                events.add("error");
+            }
+        });
+
+        Assert.assertEquals(List.of("dataAvailable", "allDataRead"), events);
+        Assert.assertArrayEquals(content, read.toByteArray());
+    }
+}
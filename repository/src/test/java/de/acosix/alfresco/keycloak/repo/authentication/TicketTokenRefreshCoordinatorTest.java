@@ -0,0 +1,285 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.authentication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.alfresco.repo.cache.DefaultSimpleCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.IDToken;
+
+import de.acosix.alfresco.keycloak.repo.authentication.TicketTokenRefreshCoordinator.RefreshLease;
+import de.acosix.alfresco.keycloak.repo.util.RefreshableAccessTokenHolder;
+
+/**
+ * @author Axel Faust
+ */
+public class TicketTokenRefreshCoordinatorTest
+{
+
+    private static final Predicate<RefreshableAccessTokenHolder> REFRESH_REQUIRED = token -> token.getAccessTokenExpiration()
+            - Time.currentTime() < 60;
+
+    private DefaultSimpleCache<String, RefreshableAccessTokenHolder> ticketTokenCache;
+
+    private TicketTokenRefreshCoordinator coordinator;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup()
+    {
+        this.ticketTokenCache = new DefaultSimpleCache<>(100, "ticketTokenCache");
+
+        this.coordinator = new TicketTokenRefreshCoordinator();
+        this.coordinator.setKeycloakTicketTokenCache(this.ticketTokenCache);
+        this.coordinator.setTicketTokenRefreshLeaseCache(new DefaultSimpleCache<String, RefreshLease>(100, "ticketTokenRefreshLeaseCache"));
+        this.coordinator.afterPropertiesSet();
+
+        this.executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentRefreshesOfSameTicketResultInSingleRefresh() throws Exception
+    {
+        final RefreshableAccessTokenHolder expiringToken = createToken(10);
+        final RefreshableAccessTokenHolder refreshedToken = createToken(3600);
+        this.ticketTokenCache.put("ticket", expiringToken);
+
+        final AtomicInteger refreshCount = new AtomicInteger(0);
+        final CountDownLatch refreshStarted = new CountDownLatch(1);
+        final CountDownLatch refreshMayComplete = new CountDownLatch(1);
+
+        final List<Future<RefreshableAccessTokenHolder>> results = new ArrayList<>();
+        for (int idx = 0; idx < 8; idx++)
+        {
+            results.add(this.executor.submit(() -> this.coordinator.refreshTicketToken("ticket", expiringToken, REFRESH_REQUIRED, token -> {
+                refreshCount.incrementAndGet();
+                refreshStarted.countDown();
+                try
+                {
+                    refreshMayComplete.await(5, TimeUnit.SECONDS);
+                }
+                catch (final InterruptedException iex)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return refreshedToken;
+            })));
+        }
+
+        Assert.assertTrue(refreshStarted.await(5, TimeUnit.SECONDS));
+        // give the other threads time to join the active refresh
+        Thread.sleep(200);
+        refreshMayComplete.countDown();
+
+        for (final Future<RefreshableAccessTokenHolder> result : results)
+        {
+            Assert.assertSame(refreshedToken, result.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(1, refreshCount.get());
+        Assert.assertSame(refreshedToken, this.ticketTokenCache.get("ticket"));
+    }
+
+    @Test
+    public void refreshNotPerformedIfAlreadyRefreshed()
+    {
+        final RefreshableAccessTokenHolder expiringToken = createToken(10);
+        final RefreshableAccessTokenHolder refreshedToken = createToken(3600);
+        this.ticketTokenCache.put("ticket", refreshedToken);
+
+        final RefreshableAccessTokenHolder result = this.coordinator.refreshTicketToken("ticket", expiringToken, REFRESH_REQUIRED,
+                token -> {
+                    throw new AssertionError("Refresh should not have been performed");
+                });
+        Assert.assertSame(refreshedToken, result);
+    }
+
+    @Test
+    public void nestedSessionAndTicketOperationsDoNotDeadlock() throws Exception
+    {
+        // two threads each processing a session while concurrently associating a token with the ticket of the other
+        // (the keys are identical so that any kind of key-based locking would collide)
+        final CyclicBarrier bothInSessionOperation = new CyclicBarrier(2);
+        final RefreshableAccessTokenHolder token1 = createToken(3600);
+        final RefreshableAccessTokenHolder token2 = createToken(3600);
+
+        final Future<Object> result1 = this.executor.submit(() -> this.coordinator.runSingleFlight("key-1", () -> {
+            awaitBarrier(bothInSessionOperation);
+            this.coordinator.offerRefreshedTicketToken("key-2", token1);
+            return "done-1";
+        }));
+        final Future<Object> result2 = this.executor.submit(() -> this.coordinator.runSingleFlight("key-2", () -> {
+            awaitBarrier(bothInSessionOperation);
+            this.coordinator.offerRefreshedTicketToken("key-1", token2);
+            return "done-2";
+        }));
+
+        Assert.assertEquals("done-1", result1.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("done-2", result2.get(5, TimeUnit.SECONDS));
+        Assert.assertSame(token1, this.ticketTokenCache.get("key-2"));
+        Assert.assertSame(token2, this.ticketTokenCache.get("key-1"));
+    }
+
+    @Test
+    public void ticketRefreshWithinSessionOperationForSameKeyDoesNotBlock() throws Exception
+    {
+        final RefreshableAccessTokenHolder expiringToken = createToken(10);
+        final RefreshableAccessTokenHolder refreshedToken = createToken(3600);
+
+        final Future<RefreshableAccessTokenHolder> result = this.executor
+                .submit(() -> this.coordinator.runSingleFlight("key", () -> this.coordinator.refreshTicketToken("key", expiringToken,
+                        REFRESH_REQUIRED, token -> refreshedToken)));
+
+        Assert.assertSame(refreshedToken, result.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void concurrentSingleFlightsShareResult() throws Exception
+    {
+        final AtomicInteger runCount = new AtomicInteger(0);
+        final CountDownLatch operationStarted = new CountDownLatch(1);
+        final CountDownLatch operationMayComplete = new CountDownLatch(1);
+
+        final Future<Object> leader = this.executor.submit(() -> this.coordinator.runSingleFlight("session", () -> {
+            runCount.incrementAndGet();
+            operationStarted.countDown();
+            try
+            {
+                operationMayComplete.await(5, TimeUnit.SECONDS);
+            }
+            catch (final InterruptedException iex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            return "leader";
+        }));
+        Assert.assertTrue(operationStarted.await(5, TimeUnit.SECONDS));
+
+        final Future<Object> follower = this.executor.submit(() -> this.coordinator.runSingleFlight("session", () -> {
+            runCount.incrementAndGet();
+            return "follower";
+        }));
+        // give the follower time to join the active operation
+        Thread.sleep(200);
+        operationMayComplete.countDown();
+
+        Assert.assertEquals("leader", leader.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("leader", follower.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, runCount.get());
+
+        // once completed, a new operation is run again
+        Assert.assertEquals("next", this.coordinator.runSingleFlight("session", () -> "next"));
+    }
+
+    @Test
+    public void failedSingleFlightPropagatesToWaitersAndIsNotRemembered() throws Exception
+    {
+        final CountDownLatch operationStarted = new CountDownLatch(1);
+        final CountDownLatch operationMayComplete = new CountDownLatch(1);
+
+        final Future<Object> leader = this.executor.submit(() -> this.coordinator.runSingleFlight("session", () -> {
+            operationStarted.countDown();
+            try
+            {
+                operationMayComplete.await(5, TimeUnit.SECONDS);
+            }
+            catch (final InterruptedException iex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            throw new IllegalStateException("refresh failed");
+        }));
+        Assert.assertTrue(operationStarted.await(5, TimeUnit.SECONDS));
+
+        final Future<Object> follower = this.executor.submit(() -> this.coordinator.runSingleFlight("session", () -> "follower"));
+        Thread.sleep(200);
+        operationMayComplete.countDown();
+
+        assertFailure(leader, IllegalStateException.class);
+        assertFailure(follower, IllegalStateException.class);
+
+        Assert.assertEquals("next", this.coordinator.runSingleFlight("session", () -> "next"));
+    }
+
+    @Test
+    public void offeredTokenOnlyReplacesShorterLivedToken()
+    {
+        final RefreshableAccessTokenHolder shortLivedToken = createToken(600);
+        final RefreshableAccessTokenHolder longLivedToken = createToken(3600);
+
+        this.coordinator.offerRefreshedTicketToken("ticket", longLivedToken);
+        this.coordinator.offerRefreshedTicketToken("ticket", shortLivedToken);
+        Assert.assertSame(longLivedToken, this.ticketTokenCache.get("ticket"));
+
+        final RefreshableAccessTokenHolder longerLivedToken = createToken(7200);
+        this.coordinator.offerRefreshedTicketToken("ticket", longerLivedToken);
+        Assert.assertSame(longerLivedToken, this.ticketTokenCache.get("ticket"));
+    }
+
+    private static RefreshableAccessTokenHolder createToken(final int expiresInSeconds)
+    {
+        final AccessToken accessToken = new AccessToken();
+        accessToken.exp(Long.valueOf(Time.currentTime() + expiresInSeconds));
+        return new RefreshableAccessTokenHolder(accessToken, new IDToken(), "access-token", "refresh-token");
+    }
+
+    private static void awaitBarrier(final CyclicBarrier barrier)
+    {
+        try
+        {
+            barrier.await(5, TimeUnit.SECONDS);
+        }
+        catch (final Exception ex)
+        {
+            throw new IllegalStateException("Failed to await barrier", ex);
+        }
+    }
+
+    private static void assertFailure(final Future<?> future, final Class<? extends Throwable> expectedCause) throws Exception
+    {
+        try
+        {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("Operation should have failed");
+        }
+        catch (final ExecutionException eex)
+        {
+            Assert.assertTrue(expectedCause.isInstance(eex.getCause()));
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.token;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+import org.junit.Test;
+import org.keycloak.adapters.rotation.AdapterTokenVerifier.VerifiedTokens;
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.AccessTokenResponse;
+import org.keycloak.representations.IDToken;
+
+import de.acosix.alfresco.keycloak.repo.util.MicroBenchmark;
+import de.acosix.alfresco.keycloak.repo.util.RefreshableAccessTokenHolder;
+
+/**
+ * Compares the throughput of {@link AccessTokenHolderImpl} with the previous implementation based on a fair read-write lock when 64
+ * threads share the same holder, as e.g. for the service account of the Keycloak IDM client. See {@link MicroBenchmark} on how to run this
+ * benchmark.
+ *
+ * @author Axel Faust
+ */
+public class AccessTokenHolderImplBenchmark
+{
+
+    private static final int THREADS = 64;
+
+    private static final int MINIMUM_TIME_TO_LIVE = 60;
+
+    private static final long WARMUP_MILLIS = 1_000;
+
+    private static final long MEASUREMENT_MILLIS = 3_000;
+
+    @Test
+    public void validToken() throws Exception
+    {
+        final Function<String, RefreshableAccessTokenHolder> refresher = refreshToken -> {
+            throw new AssertionError("Token should not have been refreshed");
+        };
+
+        final AccessTokenHolder holder = new AccessTokenHolderImpl(createToken(3600), MINIMUM_TIME_TO_LIVE, refresher);
+        MicroBenchmark.measureThroughput("valid token (immutable snapshot)", THREADS, WARMUP_MILLIS, MEASUREMENT_MILLIS,
+                holder::getAccessToken);
+
+        final AccessTokenHolder lockingHolder = new LockingAccessTokenHolder(createToken(3600), refresher);
+        MicroBenchmark.measureThroughput("valid token (read-write lock)", THREADS, WARMUP_MILLIS, MEASUREMENT_MILLIS,
+                lockingHolder::getAccessToken);
+    }
+
+    @Test
+    public void tokenNearExpiry() throws Exception
+    {
+        // each refresh takes 1ms and again yields a token within the minimum time-to-live, so refreshes happen continuously
+        final Function<String, RefreshableAccessTokenHolder> refresher = refreshToken -> {
+            try
+            {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+            catch (final InterruptedException iex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            return createToken(MINIMUM_TIME_TO_LIVE / 2);
+        };
+
+        final AccessTokenHolder holder = new AccessTokenHolderImpl(createToken(MINIMUM_TIME_TO_LIVE / 2), MINIMUM_TIME_TO_LIVE,
+                refresher);
+        MicroBenchmark.measureThroughput("token near expiry (immutable snapshot)", THREADS, WARMUP_MILLIS, MEASUREMENT_MILLIS,
+                holder::getAccessToken);
+
+        final AccessTokenHolder lockingHolder = new LockingAccessTokenHolder(createToken(MINIMUM_TIME_TO_LIVE / 2), refresher);
+        MicroBenchmark.measureThroughput("token near expiry (read-write lock)", THREADS, WARMUP_MILLIS, MEASUREMENT_MILLIS,
+                lockingHolder::getAccessToken);
+    }
+
+    private static RefreshableAccessTokenHolder createToken(final int expiresInSeconds)
+    {
+        final AccessToken accessToken = new AccessToken();
+        accessToken.exp(Long.valueOf(Time.currentTime() + expiresInSeconds));
+
+        final AccessTokenResponse tokenResponse = new AccessTokenResponse();
+        tokenResponse.setToken("access-token");
+        tokenResponse.setRefreshToken("refresh-token");
+        tokenResponse.setRefreshExpiresIn(7200);
+
+        return new RefreshableAccessTokenHolder(tokenResponse, new VerifiedTokens(accessToken, new IDToken()));
+    }
+
+    /**
+     * Replicates the previous implementation of {@link AccessTokenHolderImpl}, which performed refreshes while holding the write lock of a
+     * fair read-write lock.
+     *
+     * @author Axel Faust
+     */
+    private static class LockingAccessTokenHolder implements AccessTokenHolder
+    {
+
+        private final ReentrantReadWriteLock tokenLock = new ReentrantReadWriteLock(true);
+
+        private final Function<String, RefreshableAccessTokenHolder> refresher;
+
+        private RefreshableAccessTokenHolder token;
+
+        private LockingAccessTokenHolder(final RefreshableAccessTokenHolder token,
+                final Function<String, RefreshableAccessTokenHolder> refresher)
+        {
+            this.token = token;
+            this.refresher = refresher;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getAccessToken()
+        {
+            String validToken = null;
+
+            this.tokenLock.readLock().lock();
+            try
+            {
+                if (this.isValid())
+                {
+                    validToken = this.token.getToken();
+                }
+            }
+            finally
+            {
+                this.tokenLock.readLock().unlock();
+            }
+
+            if (validToken == null)
+            {
+                this.tokenLock.writeLock().lock();
+                try
+                {
+                    if (!this.isValid())
+                    {
+                        this.token = this.refresher.apply(this.token.getRefreshToken());
+                    }
+                    validToken = this.token.getToken();
+                }
+                finally
+                {
+                    this.tokenLock.writeLock().unlock();
+                }
+            }
+
+            return validToken;
+        }
+
+        private boolean isValid()
+        {
+            return this.token.isActive() && (!this.token.canRefresh() || !this.token.shouldRefresh(MINIMUM_TIME_TO_LIVE));
+        }
+    }
+}
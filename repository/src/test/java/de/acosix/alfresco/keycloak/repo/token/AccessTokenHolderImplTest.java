@@ -0,0 +1,243 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.token;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.adapters.rotation.AdapterTokenVerifier.VerifiedTokens;
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.AccessTokenResponse;
+import org.keycloak.representations.IDToken;
+
+import de.acosix.alfresco.keycloak.repo.util.RefreshableAccessTokenHolder;
+
+/**
+ * @author Axel Faust
+ */
+public class AccessTokenHolderImplTest
+{
+
+    private static final int MINIMUM_TIME_TO_LIVE = 60;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup()
+    {
+        this.executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void validTokenIsNotRefreshed()
+    {
+        final AccessTokenHolderImpl holder = new AccessTokenHolderImpl(createToken("access-1", 3600, 7200), MINIMUM_TIME_TO_LIVE,
+                refreshToken -> {
+                    throw new AssertionError("Token should not have been refreshed");
+                });
+        Assert.assertEquals("access-1", holder.getAccessToken());
+    }
+
+    @Test
+    public void concurrentCallersWithExpiredTokenShareSingleRefresh() throws Exception
+    {
+        final AtomicInteger refreshCount = new AtomicInteger(0);
+        final CountDownLatch refreshStarted = new CountDownLatch(1);
+        final CountDownLatch refreshMayComplete = new CountDownLatch(1);
+
+        final AccessTokenHolderImpl holder = new AccessTokenHolderImpl(createToken("access-1", -10, 7200), MINIMUM_TIME_TO_LIVE,
+                blockingRefresher(refreshCount, refreshStarted, refreshMayComplete, createToken("access-2", 3600, 7200)));
+
+        final List<Future<String>> results = new ArrayList<>();
+        for (int idx = 0; idx < 8; idx++)
+        {
+            results.add(this.executor.submit(holder::getAccessToken));
+        }
+
+        Assert.assertTrue(refreshStarted.await(5, TimeUnit.SECONDS));
+        // give the other threads time to join the active refresh
+        Thread.sleep(200);
+        refreshMayComplete.countDown();
+
+        for (final Future<String> result : results)
+        {
+            Assert.assertEquals("access-2", result.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(1, refreshCount.get());
+        Assert.assertEquals("access-2", holder.getAccessToken());
+    }
+
+    @Test
+    public void activeTokenIsUsedWhileRefreshIsInProgress() throws Exception
+    {
+        final AtomicInteger refreshCount = new AtomicInteger(0);
+        final CountDownLatch refreshStarted = new CountDownLatch(1);
+        final CountDownLatch refreshMayComplete = new CountDownLatch(1);
+
+        // active, but within minimum time-to-live
+        final AccessTokenHolderImpl holder = new AccessTokenHolderImpl(createToken("access-1", 30, 7200), MINIMUM_TIME_TO_LIVE,
+                blockingRefresher(refreshCount, refreshStarted, refreshMayComplete, createToken("access-2", 3600, 7200)));
+
+        final Future<String> refresher = this.executor.submit(holder::getAccessToken);
+        Assert.assertTrue(refreshStarted.await(5, TimeUnit.SECONDS));
+
+        // must neither block nor trigger a second refresh
+        Assert.assertEquals("access-1", this.executor.submit(holder::getAccessToken).get(5, TimeUnit.SECONDS));
+
+        refreshMayComplete.countDown();
+        Assert.assertEquals("access-2", refresher.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("access-2", holder.getAccessToken());
+        Assert.assertEquals(1, refreshCount.get());
+    }
+
+    @Test
+    public void failedRefreshFallsBackToActiveToken()
+    {
+        final AtomicInteger refreshCount = new AtomicInteger(0);
+        final AccessTokenHolderImpl holder = new AccessTokenHolderImpl(createToken("access-1", 30, 7200), MINIMUM_TIME_TO_LIVE,
+                refreshToken -> {
+                    refreshCount.incrementAndGet();
+                    throw new AccessTokenRefreshException("Keycloak unavailable");
+                });
+
+        Assert.assertEquals("access-1", holder.getAccessToken());
+        // failed refresh is not remembered, so next call tries again
+        Assert.assertEquals("access-1", holder.getAccessToken());
+        Assert.assertEquals(2, refreshCount.get());
+    }
+
+    @Test(expected = AccessTokenRefreshException.class)
+    public void failedRefreshOfExpiredTokenPropagates()
+    {
+        final AccessTokenHolderImpl holder = new AccessTokenHolderImpl(createToken("access-1", -10, 7200), MINIMUM_TIME_TO_LIVE,
+                refreshToken -> {
+                    throw new AccessTokenRefreshException("Keycloak unavailable");
+                });
+        holder.getAccessToken();
+    }
+
+    @Test
+    public void failedRefreshPropagatesToWaitingCallers() throws Exception
+    {
+        final CountDownLatch refreshStarted = new CountDownLatch(1);
+        final CountDownLatch refreshMayComplete = new CountDownLatch(1);
+
+        final AccessTokenHolderImpl holder = new AccessTokenHolderImpl(createToken("access-1", -10, 7200), MINIMUM_TIME_TO_LIVE,
+                refreshToken -> {
+                    refreshStarted.countDown();
+                    awaitLatch(refreshMayComplete);
+                    throw new AccessTokenRefreshException("Keycloak unavailable");
+                });
+
+        final Future<String> refresher = this.executor.submit(holder::getAccessToken);
+        Assert.assertTrue(refreshStarted.await(5, TimeUnit.SECONDS));
+        final Future<String> waiter = this.executor.submit(holder::getAccessToken);
+        Thread.sleep(200);
+        refreshMayComplete.countDown();
+
+        assertRefreshFailure(refresher);
+        assertRefreshFailure(waiter);
+    }
+
+    @Test
+    public void tokenIsReObtainedWhenRefreshTokenHasExpired()
+    {
+        final AccessTokenHolderImpl holder = new AccessTokenHolderImpl(createToken("access-1", -10, -10), MINIMUM_TIME_TO_LIVE,
+                refreshToken -> {
+                    throw new AssertionError("Expired refresh token should not have been used");
+                }, () -> createToken("access-2", 3600, 7200));
+        Assert.assertEquals("access-2", holder.getAccessToken());
+    }
+
+    @Test(expected = AccessTokenRefreshException.class)
+    public void tokenCannotBeReObtainedWithoutObtainer()
+    {
+        final AccessTokenHolderImpl holder = new AccessTokenHolderImpl(createToken("access-1", -10, -10), MINIMUM_TIME_TO_LIVE,
+                refreshToken -> {
+                    throw new AssertionError("Expired refresh token should not have been used");
+                });
+        holder.getAccessToken();
+    }
+
+    private static Function<String, RefreshableAccessTokenHolder> blockingRefresher(final AtomicInteger refreshCount,
+            final CountDownLatch refreshStarted, final CountDownLatch refreshMayComplete, final RefreshableAccessTokenHolder refreshedToken)
+    {
+        return refreshToken -> {
+            refreshCount.incrementAndGet();
+            refreshStarted.countDown();
+            awaitLatch(refreshMayComplete);
+            return refreshedToken;
+        };
+    }
+
+    private static RefreshableAccessTokenHolder createToken(final String token, final int expiresInSeconds,
+            final int refreshExpiresInSeconds)
+    {
+        final AccessToken accessToken = new AccessToken();
+        accessToken.exp(Long.valueOf(Time.currentTime() + expiresInSeconds));
+
+        final AccessTokenResponse tokenResponse = new AccessTokenResponse();
+        tokenResponse.setToken(token);
+        tokenResponse.setRefreshToken("refresh-" + token);
+        tokenResponse.setRefreshExpiresIn(refreshExpiresInSeconds);
+
+        return new RefreshableAccessTokenHolder(tokenResponse, new VerifiedTokens(accessToken, new IDToken()));
+    }
+
+    private static void awaitLatch(final CountDownLatch latch)
+    {
+        try
+        {
+            latch.await(5, TimeUnit.SECONDS);
+        }
+        catch (final InterruptedException iex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void assertRefreshFailure(final Future<?> future) throws Exception
+    {
+        try
+        {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("Refresh should have failed");
+        }
+        catch (final ExecutionException eex)
+        {
+            Assert.assertTrue(eex.getCause() instanceof AccessTokenRefreshException);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.token;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.rotation.HardcodedPublicKeyLocator;
+import org.keycloak.common.VerificationException;
+import org.keycloak.common.util.Base64Url;
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.util.JsonSerialization;
+
+import de.acosix.alfresco.keycloak.repo.util.MicroBenchmark;
+
+/**
+ * Measures the verification of RS256 and ES256 access tokens via {@link TokenVerificationEngine}, comparing retained signature instances
+ * with the creation of a new signature instance per token (as done by the default Keycloak token verifier), and measuring verifications
+ * answered from the claims cache as well as the rejection of expired tokens. See {@link MicroBenchmark} on how to run this benchmark.
+ *
+ * @author Axel Faust
+ */
+public class TokenVerificationEngineBenchmark
+{
+
+    private static final String REALM_URL = "https://keycloak.example.com/realms/alfresco";
+
+    private static final int WARMUP_ITERATIONS = 10_000;
+
+    private static final int ITERATIONS = 20_000;
+
+    @Test
+    public void rs256() throws Exception
+    {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        this.benchmark("RS256", "SHA256withRSA", generator.generateKeyPair(), 0);
+    }
+
+    @Test
+    public void es256() throws Exception
+    {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        this.benchmark("ES256", "SHA256withECDSA", generator.generateKeyPair(), 32);
+    }
+
+    private void benchmark(final String algorithm, final String jcaAlgorithm, final KeyPair keyPair, final int ecdsaComponentLength)
+            throws Exception
+    {
+        final KeycloakDeployment deployment = createDeployment(keyPair.getPublic());
+        final String token = createToken(algorithm, jcaAlgorithm, keyPair, ecdsaComponentLength, 300);
+        final String expiredToken = createToken(algorithm, jcaAlgorithm, keyPair, ecdsaComponentLength, -10);
+
+        final TokenVerificationEngine engine = new TokenVerificationEngine(deployment);
+        final TokenVerificationEngine cachingEngine = new TokenVerificationEngine(deployment, 100);
+        final TokenVerificationEngine nonRetainingEngine = new TokenVerificationEngine(deployment)
+        {
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            protected Signature getSignature(final String jcaAlgorithm, final String kid, final PublicKey publicKey)
+                    throws GeneralSecurityException
+            {
+                final Signature signature = Signature.getInstance(jcaAlgorithm);
+                signature.initVerify(publicKey);
+                return signature;
+            }
+        };
+        Assert.assertEquals("jdoe", engine.verifyAccessToken(token, null, null).getPreferredUsername());
+        Assert.assertEquals("jdoe", nonRetainingEngine.verifyAccessToken(token, null, null).getPreferredUsername());
+
+        MicroBenchmark.measureAverageTime(algorithm + " verification (new signature instance per token)", WARMUP_ITERATIONS, ITERATIONS,
+                () -> nonRetainingEngine.verifyAccessToken(token, null, null));
+        MicroBenchmark.measureAverageTime(algorithm + " verification (retained signature instance)", WARMUP_ITERATIONS, ITERATIONS,
+                () -> engine.verifyAccessToken(token, null, null));
+        MicroBenchmark.measureAverageTime(algorithm + " verification (cached claims)", WARMUP_ITERATIONS, ITERATIONS,
+                () -> cachingEngine.verifyAccessToken(token, null, null));
+        MicroBenchmark.measureAverageTime(algorithm + " rejection of expired token", WARMUP_ITERATIONS, ITERATIONS, () -> {
+            try
+            {
+                engine.verifyAccessToken(expiredToken, null, null);
+                throw new AssertionError("Expired token should have been rejected");
+            }
+            catch (final VerificationException vex)
+            {
+                return vex;
+            }
+        });
+    }
+
+    private static KeycloakDeployment createDeployment(final PublicKey publicKey)
+    {
+        final KeycloakDeployment deployment = new KeycloakDeployment()
+        {
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public String getRealmInfoUrl()
+            {
+                return REALM_URL;
+            }
+        };
+        deployment.setPublicKeyLocator(new HardcodedPublicKeyLocator(publicKey));
+        return deployment;
+    }
+
+    private static String createToken(final String algorithm, final String jcaAlgorithm, final KeyPair keyPair,
+            final int ecdsaComponentLength, final int expiresInSeconds) throws Exception
+    {
+        final AccessToken accessToken = new AccessToken();
+        accessToken.issuedNow();
+        accessToken.exp(Long.valueOf(Time.currentTime() + expiresInSeconds));
+        accessToken.issuer(REALM_URL);
+        accessToken.subject("0b3a7c52-9e4d-4a61-8f2b-5c7e1d9a3f84");
+        accessToken.type("Bearer");
+        accessToken.issuedFor("alfresco");
+        accessToken.setPreferredUsername("jdoe");
+        accessToken.setRealmAccess(new AccessToken.Access().addRole("offline_access", "uma_authorization"));
+
+        final String header = Base64Url
+                .encode(("{\"alg\":\"" + algorithm + "\",\"typ\":\"JWT\",\"kid\":\"kid\"}").getBytes(StandardCharsets.UTF_8));
+        final String content = Base64Url.encode(JsonSerialization.writeValueAsBytes(accessToken));
+        final String signatureInput = header + "." + content;
+
+        final Signature signer = Signature.getInstance(jcaAlgorithm);
+        signer.initSign(keyPair.getPrivate());
+        signer.update(signatureInput.getBytes(StandardCharsets.UTF_8));
+        byte[] signature = signer.sign();
+        if (ecdsaComponentLength > 0)
+        {
+            signature = toConcatenatedSignature(signature, ecdsaComponentLength);
+        }
+
+        return signatureInput + "." + Base64Url.encode(signature);
+    }
+
+    private static byte[] toConcatenatedSignature(final byte[] derSignature, final int componentLength)
+    {
+        // SEQUENCE (short form length for ES256) of two INTEGER components
+        final byte[] signature = new byte[2 * componentLength];
+        int offset = 2;
+        for (int component = 0; component < 2; component++)
+        {
+            final int length = derSignature[offset + 1];
+            final byte[] value = Arrays.copyOfRange(derSignature, offset + 2, offset + 2 + length);
+            final int significantOffset = Math.max(0, value.length - componentLength);
+            final int significantLength = value.length - significantOffset;
+            System.arraycopy(value, significantOffset, signature, (component + 1) * componentLength - significantLength, significantLength);
+            offset += 2 + length;
+        }
+        return signature;
+    }
+}
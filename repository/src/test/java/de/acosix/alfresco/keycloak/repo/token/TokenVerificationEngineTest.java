@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.token;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.adapters.KeycloakDeployment;
+
+/**
+ * @author Axel Faust
+ */
+public class TokenVerificationEngineTest
+{
+
+    @Test
+    public void componentsWithHighBitAreZeroPadded()
+    {
+        final byte[] signature = new byte[64];
+        Arrays.fill(signature, 0, 32, (byte) 0x80);
+        Arrays.fill(signature, 32, 64, (byte) 0xff);
+
+        final byte[] der = TokenVerificationEngine.toDerSignature(signature);
+
+        Assert.assertEquals(2 + 2 + 33 + 2 + 33, der.length);
+        Assert.assertEquals(0x30, der[0]);
+        Assert.assertEquals(2 + 33 + 2 + 33, der[1]);
+        Assert.assertEquals(0x02, der[2]);
+        Assert.assertEquals(33, der[3]);
+        Assert.assertEquals(0x00, der[4]);
+        Assert.assertEquals((byte) 0x80, der[5]);
+        Assert.assertEquals(0x02, der[37]);
+        Assert.assertEquals(33, der[38]);
+        Assert.assertEquals(0x00, der[39]);
+        Assert.assertEquals((byte) 0xff, der[40]);
+    }
+
+    @Test
+    public void leadingZerosAreStripped()
+    {
+        final byte[] signature = new byte[64];
+        Arrays.fill(signature, 2, 32, (byte) 0x7f);
+        // leading zero followed by high bit must retain a single zero byte
+        Arrays.fill(signature, 33, 64, (byte) 0x80);
+
+        final byte[] der = TokenVerificationEngine.toDerSignature(signature);
+
+        Assert.assertEquals(2 + 2 + 30 + 2 + 32, der.length);
+        Assert.assertEquals(30, der[3]);
+        Assert.assertEquals(0x7f, der[4]);
+        Assert.assertEquals(0x02, der[34]);
+        Assert.assertEquals(32, der[35]);
+        Assert.assertEquals(0x00, der[36]);
+        Assert.assertEquals((byte) 0x80, der[37]);
+    }
+
+    @Test
+    public void zeroComponentRetainsSingleByte()
+    {
+        final byte[] signature = new byte[64];
+        signature[63] = 0x01;
+
+        final byte[] der = TokenVerificationEngine.toDerSignature(signature);
+
+        Assert.assertArrayEquals(new byte[] { 0x30, 0x06, 0x02, 0x01, 0x00, 0x02, 0x01, 0x01 }, der);
+    }
+
+    @Test
+    public void longSequencesUseLongFormLength()
+    {
+        // ES512 components with high bit set exceed the short form length limit
+        final byte[] signature = new byte[132];
+        Arrays.fill(signature, (byte) 0x81);
+
+        final byte[] der = TokenVerificationEngine.toDerSignature(signature);
+
+        Assert.assertEquals(3 + 2 + 67 + 2 + 67, der.length);
+        Assert.assertEquals(0x30, der[0]);
+        Assert.assertEquals((byte) 0x81, der[1]);
+        Assert.assertEquals((byte) (2 + 67 + 2 + 67), der[2]);
+        Assert.assertEquals(0x02, der[3]);
+        Assert.assertEquals(67, der[4]);
+    }
+
+    @Test
+    public void convertedSignaturesVerify() throws Exception
+    {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        final KeyPair keyPair = generator.generateKeyPair();
+
+        final Signature signer = Signature.getInstance("SHA256withECDSAinP1363Format");
+        final Signature verifier = Signature.getInstance("SHA256withECDSA");
+
+        // enough signatures to statistically cover components with leading zeros and high bits
+        for (int idx = 0; idx < 500; idx++)
+        {
+            final byte[] data = ("token-" + idx).getBytes(StandardCharsets.UTF_8);
+            signer.initSign(keyPair.getPrivate());
+            signer.update(data);
+            final byte[] signature = signer.sign();
+
+            verifier.initVerify(keyPair.getPublic());
+            verifier.update(data);
+            Assert.assertTrue(verifier.verify(TokenVerificationEngine.toDerSignature(signature)));
+        }
+    }
+
+    @Test
+    public void signaturesAreRetainedPerThreadAndReinitialisedForNewKeys() throws Exception
+    {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        final KeyPair keyPair = generator.generateKeyPair();
+        final KeyPair rotatedKeyPair = generator.generateKeyPair();
+
+        final TokenVerificationEngine engine = new TokenVerificationEngine(new KeycloakDeployment());
+        final Signature signature = engine.getSignature("SHA256withRSA", "kid", keyPair.getPublic());
+        Assert.assertSame(signature, engine.getSignature("SHA256withRSA", "kid", keyPair.getPublic()));
+        Assert.assertNotSame(signature, engine.getSignature("SHA256withRSA", "otherKid", keyPair.getPublic()));
+
+        final Signature otherThreadSignature = CompletableFuture.supplyAsync(() -> {
+            try
+            {
+                return engine.getSignature("SHA256withRSA", "kid", keyPair.getPublic());
+            }
+            catch (final Exception ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+        }).get();
+        Assert.assertNotSame(signature, otherThreadSignature);
+
+        final byte[] data = "token".getBytes(StandardCharsets.UTF_8);
+        final Signature signer = Signature.getInstance("SHA256withRSA");
+        signer.initSign(rotatedKeyPair.getPrivate());
+        signer.update(data);
+        final byte[] signatureBytes = signer.sign();
+
+        // rotated key for same key ID re-initialises the retained instance
+        final Signature rotatedSignature = engine.getSignature("SHA256withRSA", "kid", rotatedKeyPair.getPublic());
+        Assert.assertSame(signature, rotatedSignature);
+        for (int idx = 0; idx < 2; idx++)
+        {
+            rotatedSignature.update(data);
+            Assert.assertTrue(rotatedSignature.verify(signatureBytes));
+        }
+    }
+}
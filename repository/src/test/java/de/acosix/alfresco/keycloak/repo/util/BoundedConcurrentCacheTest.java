@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Axel Faust
+ */
+public class BoundedConcurrentCacheTest
+{
+
+    @Test
+    public void putAndGet()
+    {
+        final BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<>(10);
+        Assert.assertNull(cache.get("a"));
+
+        cache.put("a", "1");
+        Assert.assertEquals("1", cache.get("a"));
+
+        cache.put("a", "2");
+        Assert.assertEquals("2", cache.get("a"));
+        Assert.assertEquals(1, cache.size());
+
+        cache.remove("a");
+        Assert.assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void getWithLoader()
+    {
+        final BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<>(10);
+        Assert.assertEquals("A", cache.get("a", String::toUpperCase));
+        Assert.assertEquals("A", cache.get("a", key -> {
+            throw new AssertionError("Value should have been cached");
+        }));
+
+        Assert.assertNull(cache.get("b", key -> null));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void putIfAbsent()
+    {
+        final BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<>(10);
+        Assert.assertNull(cache.putIfAbsent("a", "1"));
+        Assert.assertEquals("1", cache.putIfAbsent("a", "2"));
+        Assert.assertEquals("1", cache.get("a"));
+    }
+
+    @Test
+    public void expiredEntriesAreNotReturned() throws Exception
+    {
+        final BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<>(10, 60000);
+        cache.put("a", "1", 1);
+        cache.put("b", "2");
+        Thread.sleep(10);
+
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals("2", cache.get("b"));
+
+        cache.put("a", "1", 1);
+        Thread.sleep(10);
+        Assert.assertNull(cache.putIfAbsent("a", "3"));
+        Assert.assertEquals("3", cache.get("a"));
+    }
+
+    @Test
+    public void sizeIsBounded()
+    {
+        final BoundedConcurrentCache<Integer, Integer> cache = new BoundedConcurrentCache<>(100);
+        for (int idx = 0; idx < 1000; idx++)
+        {
+            cache.put(Integer.valueOf(idx), Integer.valueOf(idx));
+        }
+        Assert.assertEquals(100, cache.size());
+
+        // oldest entries evicted first
+        Assert.assertNull(cache.get(Integer.valueOf(0)));
+        Assert.assertEquals(Integer.valueOf(999), cache.get(Integer.valueOf(999)));
+    }
+
+    @Test
+    public void referencedEntriesGetSecondChance()
+    {
+        final BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<>(3);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+
+        cache.get("a");
+        cache.put("d", "4");
+
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals("1", cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("3", cache.get("c"));
+        Assert.assertEquals("4", cache.get("d"));
+    }
+
+    @Test
+    public void concurrentAccessKeepsSizeBounded() throws Exception
+    {
+        final BoundedConcurrentCache<Integer, Integer> cache = new BoundedConcurrentCache<>(50);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            final List<Future<?>> results = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++)
+            {
+                final int offset = thread * 1000;
+                results.add(executor.submit(() -> {
+                    for (int idx = 0; idx < 1000; idx++)
+                    {
+                        final Integer key = Integer.valueOf(offset + idx);
+                        cache.put(key, key);
+                        cache.get(Integer.valueOf(offset + idx / 2));
+                    }
+                }));
+            }
+            for (final Future<?> result : results)
+            {
+                result.get(10, TimeUnit.SECONDS);
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        // a final put evicts any excess left over by puts concurrent with an active eviction
+        cache.put(Integer.valueOf(-1), Integer.valueOf(-1));
+        Assert.assertTrue(cache.size() <= 50);
+    }
+}
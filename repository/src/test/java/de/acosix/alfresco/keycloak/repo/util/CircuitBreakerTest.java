@@ -0,0 +1,251 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.util;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Axel Faust
+ */
+public class CircuitBreakerTest
+{
+
+    private static final int OPEN_STATE_MILLIS = 100;
+
+    private CircuitBreaker circuitBreaker;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup()
+    {
+        this.circuitBreaker = new CircuitBreaker();
+        this.circuitBreaker.setName("test");
+        this.circuitBreaker.setMaxConcurrentCalls(2);
+        this.circuitBreaker.setMaxWaitMillis(0);
+        this.circuitBreaker.setSlidingWindowSize(4);
+        this.circuitBreaker.setMinimumCalls(4);
+        this.circuitBreaker.setFailureRateThreshold(50);
+        this.circuitBreaker.setOpenStateMillis(OPEN_STATE_MILLIS);
+        this.circuitBreaker.afterPropertiesSet();
+
+        this.executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void circuitOpensAtFailureRateThreshold() throws Exception
+    {
+        this.succeed();
+        this.succeed();
+        this.fail();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, this.circuitBreaker.getState());
+
+        // 2 out of 4 calls failed
+        this.fail();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, this.circuitBreaker.getState());
+
+        this.assertRejected();
+        Assert.assertEquals(1, this.circuitBreaker.getShortCircuitedCalls());
+        Assert.assertEquals(2, this.circuitBreaker.getSuccessfulCalls());
+        Assert.assertEquals(2, this.circuitBreaker.getFailedCalls());
+    }
+
+    @Test
+    public void failuresBelowMinimumCallsDoNotOpenCircuit() throws Exception
+    {
+        this.fail();
+        this.fail();
+        this.fail();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, this.circuitBreaker.getState());
+    }
+
+    @Test
+    public void successfulProbeClosesCircuit() throws Exception
+    {
+        this.openCircuit();
+        Thread.sleep(OPEN_STATE_MILLIS + 50);
+
+        Assert.assertEquals("probe", this.circuitBreaker.execute(() -> "probe", result -> false));
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, this.circuitBreaker.getState());
+        Assert.assertEquals(0, this.circuitBreaker.getFailureRate());
+
+        // window was reset, so a single failure does not immediately re-open the circuit
+        this.fail();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, this.circuitBreaker.getState());
+    }
+
+    @Test
+    public void failedProbeReopensCircuit() throws Exception
+    {
+        this.openCircuit();
+        Thread.sleep(OPEN_STATE_MILLIS + 50);
+
+        this.fail();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, this.circuitBreaker.getState());
+        this.assertRejected();
+
+        // re-opened for the full duration
+        Thread.sleep(OPEN_STATE_MILLIS + 50);
+        this.succeed();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, this.circuitBreaker.getState());
+    }
+
+    @Test
+    public void probeResultCountsAsFailure() throws Exception
+    {
+        this.openCircuit();
+        Thread.sleep(OPEN_STATE_MILLIS + 50);
+
+        Assert.assertEquals("error", this.circuitBreaker.execute(() -> "error", "error"::equals));
+        Assert.assertEquals(CircuitBreaker.State.OPEN, this.circuitBreaker.getState());
+    }
+
+    @Test
+    public void onlySingleProbeWhileHalfOpen() throws Exception
+    {
+        this.openCircuit();
+        Thread.sleep(OPEN_STATE_MILLIS + 50);
+
+        final CountDownLatch probeStarted = new CountDownLatch(1);
+        final CountDownLatch probeMayComplete = new CountDownLatch(1);
+        final Future<String> probe = this.executor.submit(() -> this.circuitBreaker.execute(() -> {
+            probeStarted.countDown();
+            probeMayComplete.await(5, TimeUnit.SECONDS);
+            return "probe";
+        }, result -> false));
+
+        Assert.assertTrue(probeStarted.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, this.circuitBreaker.getState());
+        this.assertRejected();
+
+        probeMayComplete.countDown();
+        Assert.assertEquals("probe", probe.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, this.circuitBreaker.getState());
+        this.succeed();
+    }
+
+    @Test
+    public void probeRejectedByBulkheadDoesNotBlockFurtherProbes() throws Exception
+    {
+        final CountDownLatch callsStarted = new CountDownLatch(2);
+        final CountDownLatch callsMayComplete = new CountDownLatch(1);
+        final Runnable blockingCall = () -> {
+            try
+            {
+                this.circuitBreaker.execute(() -> {
+                    callsStarted.countDown();
+                    callsMayComplete.await(5, TimeUnit.SECONDS);
+                    return "blocking";
+                }, result -> false);
+            }
+            catch (final Exception ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+        };
+
+        // occupy all slots of the bulkhead before the circuit is opened
+        final Future<?> call1 = this.executor.submit(blockingCall);
+        final Future<?> call2 = this.executor.submit(blockingCall);
+        Assert.assertTrue(callsStarted.await(5, TimeUnit.SECONDS));
+
+        this.circuitBreaker.open();
+        Thread.sleep(OPEN_STATE_MILLIS + 50);
+
+        // probe permitted by the circuit, but rejected due to the limit of concurrent calls
+        this.assertRejected();
+        Assert.assertEquals(1, this.circuitBreaker.getRejectedCalls());
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, this.circuitBreaker.getState());
+
+        callsMayComplete.countDown();
+        call1.get(5, TimeUnit.SECONDS);
+        call2.get(5, TimeUnit.SECONDS);
+
+        // a new probe must be let through
+        this.succeed();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, this.circuitBreaker.getState());
+    }
+
+    @Test
+    public void disabledCircuitBreakerNeverRejects() throws Exception
+    {
+        this.circuitBreaker.setEnabled(false);
+        for (int idx = 0; idx < 10; idx++)
+        {
+            this.fail();
+        }
+        this.succeed();
+        Assert.assertEquals(0, this.circuitBreaker.getFailedCalls());
+    }
+
+    private void openCircuit() throws Exception
+    {
+        for (int idx = 0; idx < 4; idx++)
+        {
+            this.fail();
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, this.circuitBreaker.getState());
+    }
+
+    private void succeed() throws Exception
+    {
+        Assert.assertEquals("ok", this.circuitBreaker.execute(() -> "ok", result -> false));
+    }
+
+    private void fail()
+    {
+        try
+        {
+            this.circuitBreaker.execute(() -> {
+                throw new IOException("Connection refused");
+            }, result -> false);
+            Assert.fail("Call should have failed");
+        }
+        catch (final IOException ioex)
+        {
+            Assert.assertFalse("Call should not have been rejected", ioex instanceof EndpointUnavailableException);
+        }
+    }
+
+    private void assertRejected() throws Exception
+    {
+        try
+        {
+            this.circuitBreaker.execute(() -> "rejected", result -> false);
+            Assert.fail("Call should have been rejected");
+        }
+        catch (final EndpointUnavailableException euex)
+        {
+            // expected
+        }
+    }
+}
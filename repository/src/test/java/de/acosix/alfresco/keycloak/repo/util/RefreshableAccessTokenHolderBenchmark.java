@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.keycloak.common.util.Base64Url;
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.IDToken;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * Compares the serialised size and serialisation throughput of the compact form of {@link RefreshableAccessTokenHolder} with the
+ * previous form, which serialised the fully parsed token object graphs alongside the raw token strings, e.g. for each put into the
+ * clustered ticket token cache. See {@link MicroBenchmark} on how to run this benchmark.
+ *
+ * @author Axel Faust
+ */
+public class RefreshableAccessTokenHolderBenchmark
+{
+
+    private static final int WARMUP_ITERATIONS = 20_000;
+
+    private static final int ITERATIONS = 50_000;
+
+    private static RefreshableAccessTokenHolder compactHolder;
+
+    private static ParsedTokenHolder parsedHolder;
+
+    @BeforeClass
+    public static void setup() throws IOException
+    {
+        final AccessToken accessToken = new AccessToken();
+        populateClaims(accessToken);
+        accessToken.type("Bearer");
+        accessToken.setScope("openid profile email");
+        accessToken.setRealmAccess(new AccessToken.Access().addRole("offline_access", "uma_authorization", "default-roles-alfresco"));
+        accessToken.addAccess("alfresco").addRole("admin", "user", "site-manager");
+        accessToken.addAccess("account").addRole("manage-account", "manage-account-links", "view-profile");
+
+        final IDToken idToken = new IDToken();
+        populateClaims(idToken);
+        idToken.type("ID");
+
+        final String token = toTokenString(accessToken);
+        final String idTokenString = toTokenString(idToken);
+        final String refreshToken = toTokenString(accessToken);
+
+        compactHolder = new RefreshableAccessTokenHolder(accessToken, idToken, token, idTokenString, refreshToken);
+        parsedHolder = new ParsedTokenHolder(accessToken, idToken, token, idTokenString, refreshToken);
+    }
+
+    @Test
+    public void serialisedSize() throws Exception
+    {
+        final int compactSize = serialise(compactHolder).length;
+        final int parsedSize = serialise(parsedHolder).length;
+
+        MicroBenchmark.report(String.format(Locale.ENGLISH, "%-70s %14d bytes", "serialised size (compact)", compactSize));
+        MicroBenchmark.report(String.format(Locale.ENGLISH, "%-70s %14d bytes", "serialised size (parsed object graphs)", parsedSize));
+        Assert.assertTrue("Compact form should be smaller than the parsed object graphs", compactSize < parsedSize);
+    }
+
+    @Test
+    public void serialisationThroughput() throws Exception
+    {
+        MicroBenchmark.measureAverageTime("serialise (compact)", WARMUP_ITERATIONS, ITERATIONS, () -> serialise(compactHolder));
+        MicroBenchmark.measureAverageTime("serialise (parsed object graphs)", WARMUP_ITERATIONS, ITERATIONS, () -> serialise(parsedHolder));
+
+        final byte[] compactBytes = serialise(compactHolder);
+        final byte[] parsedBytes = serialise(parsedHolder);
+        MicroBenchmark.measureAverageTime("deserialise (compact)", WARMUP_ITERATIONS, ITERATIONS, () -> deserialise(compactBytes));
+        MicroBenchmark.measureAverageTime("deserialise (parsed object graphs)", WARMUP_ITERATIONS, ITERATIONS,
+                () -> deserialise(parsedBytes));
+
+        // lazy parsing shifts the cost to the first access of claims
+        MicroBenchmark.measureAverageTime("deserialise + access claims (compact)", WARMUP_ITERATIONS, ITERATIONS,
+                () -> ((RefreshableAccessTokenHolder) deserialise(compactBytes)).getAccessToken());
+        MicroBenchmark.measureAverageTime("deserialise + access claims (parsed object graphs)", WARMUP_ITERATIONS, ITERATIONS,
+                () -> ((ParsedTokenHolder) deserialise(parsedBytes)).accessToken);
+    }
+
+    private static void populateClaims(final IDToken token)
+    {
+        token.id("4f1c9a3e-2b7d-4e0a-9c51-7d3f2e8b6a10");
+        token.issuedNow();
+        token.exp(Long.valueOf(Time.currentTime() + 300));
+        token.issuer("https://keycloak.example.com/realms/alfresco");
+        token.subject("0b3a7c52-9e4d-4a61-8f2b-5c7e1d9a3f84");
+        token.audience("alfresco", "account");
+        token.issuedFor("alfresco");
+        token.setNonce("9d2e5f71-3c8a-4b06-a4e7-1f6b8c2d0e93");
+        token.setPreferredUsername("jdoe");
+        token.setName("John Doe");
+        token.setGivenName("John");
+        token.setFamilyName("Doe");
+        token.setEmail("jdoe@example.com");
+        token.setEmailVerified(Boolean.TRUE);
+    }
+
+    private static String toTokenString(final Object token) throws IOException
+    {
+        final String header = Base64Url.encode("{\"alg\":\"RS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8));
+        final String content = Base64Url.encode(JsonSerialization.writeValueAsBytes(token));
+        // typical size of a RS256 signature
+        return header + "." + content + "." + Base64Url.encode(new byte[256]);
+    }
+
+    private static byte[] serialise(final Object holder) throws IOException
+    {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos))
+        {
+            oos.writeObject(holder);
+        }
+        return bos.toByteArray();
+    }
+
+    private static Object deserialise(final byte[] bytes) throws IOException, ClassNotFoundException
+    {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes)))
+        {
+            return ois.readObject();
+        }
+    }
+
+    /**
+     * Replicates the previous, default serialised form of {@link RefreshableAccessTokenHolder}.
+     *
+     * @author Axel Faust
+     */
+    private static class ParsedTokenHolder implements Serializable
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AccessToken accessToken;
+
+        private final IDToken idToken;
+
+        private final String token;
+
+        private final String idTokenString;
+
+        private final String refreshToken;
+
+        private final long refreshExpiration;
+
+        private ParsedTokenHolder(final AccessToken accessToken, final IDToken idToken, final String token, final String idTokenString,
+                final String refreshToken)
+        {
+            this.accessToken = accessToken;
+            this.idToken = idToken;
+            this.token = token;
+            this.idTokenString = idTokenString;
+            this.refreshToken = refreshToken;
+            this.refreshExpiration = accessToken.getExp().longValue();
+        }
+    }
+}
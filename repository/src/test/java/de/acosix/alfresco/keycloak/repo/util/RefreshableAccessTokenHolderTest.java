@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.repo.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.common.util.Base64Url;
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.IDToken;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * @author Axel Faust
+ */
+public class RefreshableAccessTokenHolderTest
+{
+
+    @Test
+    public void roundTripWithSeparateIdToken() throws Exception
+    {
+        final AccessToken accessToken = createAccessToken();
+        final IDToken idToken = new IDToken();
+        idToken.setEmail("jdoe@example.com");
+        idToken.setPreferredUsername("jdoe");
+
+        final String tokenString = toTokenString(accessToken);
+        final RefreshableAccessTokenHolder original = new RefreshableAccessTokenHolder(accessToken, idToken, tokenString,
+                toTokenString(idToken), "refresh-token");
+        final RefreshableAccessTokenHolder copy = roundTrip(original);
+
+        Assert.assertEquals(tokenString, copy.getToken());
+        Assert.assertEquals("refresh-token", copy.getRefreshToken());
+        Assert.assertEquals(original.getAccessTokenExpiration(), copy.getAccessTokenExpiration());
+        Assert.assertEquals(original.isActive(), copy.isActive());
+        Assert.assertEquals(original.canRefresh(), copy.canRefresh());
+        Assert.assertEquals("jdoe", copy.getAccessToken().getPreferredUsername());
+        Assert.assertEquals("jdoe@example.com", copy.getIdToken().getEmail());
+    }
+
+    @Test
+    public void roundTripWithIdTokenWithoutTextualRepresentation() throws Exception
+    {
+        final AccessToken accessToken = createAccessToken();
+        final IDToken idToken = new IDToken();
+        idToken.setEmail("jdoe@example.com");
+
+        final RefreshableAccessTokenHolder original = new RefreshableAccessTokenHolder(accessToken, idToken, toTokenString(accessToken),
+                "refresh-token");
+        final RefreshableAccessTokenHolder copy = roundTrip(original);
+
+        Assert.assertEquals("jdoe@example.com", copy.getIdToken().getEmail());
+    }
+
+    @Test
+    public void roundTripWithAccessTokenAsIdToken() throws Exception
+    {
+        final AccessToken accessToken = createAccessToken();
+
+        final RefreshableAccessTokenHolder original = new RefreshableAccessTokenHolder(accessToken, accessToken, toTokenString(accessToken),
+                null);
+        final RefreshableAccessTokenHolder copy = roundTrip(original);
+
+        Assert.assertNull(copy.getRefreshToken());
+        Assert.assertFalse(copy.canRefresh());
+        Assert.assertSame(copy.getAccessToken(), copy.getIdToken());
+        Assert.assertEquals("jdoe", copy.getIdToken().getPreferredUsername());
+    }
+
+    @Test
+    public void roundTripOfExpiredToken() throws Exception
+    {
+        final AccessToken accessToken = createAccessToken();
+        accessToken.exp(Long.valueOf(Time.currentTime() - 10));
+
+        final RefreshableAccessTokenHolder original = new RefreshableAccessTokenHolder(accessToken, accessToken, toTokenString(accessToken),
+                "refresh-token");
+        final RefreshableAccessTokenHolder copy = roundTrip(original);
+
+        Assert.assertTrue(copy.isExpired());
+        Assert.assertFalse(copy.isActive());
+    }
+
+    @Test
+    public void copyWithoutRefreshToken() throws Exception
+    {
+        final AccessToken accessToken = createAccessToken();
+        final String tokenString = toTokenString(accessToken);
+        final RefreshableAccessTokenHolder original = new RefreshableAccessTokenHolder(accessToken, accessToken, tokenString,
+                "refresh-token");
+        final RefreshableAccessTokenHolder copy = original.copyWithoutRefreshToken();
+
+        Assert.assertEquals(tokenString, copy.getToken());
+        Assert.assertNull(copy.getRefreshToken());
+        Assert.assertFalse(copy.canRefresh());
+        Assert.assertTrue(copy.isActive());
+        Assert.assertEquals(original.getAccessTokenExpiration(), copy.getAccessTokenExpiration());
+        Assert.assertEquals("refresh-token", original.getRefreshToken());
+
+        final RefreshableAccessTokenHolder deserialisedCopy = roundTrip(copy);
+        Assert.assertNull(deserialisedCopy.getRefreshToken());
+        Assert.assertEquals("jdoe", deserialisedCopy.getIdToken().getPreferredUsername());
+    }
+
+    private static AccessToken createAccessToken()
+    {
+        final AccessToken accessToken = new AccessToken();
+        accessToken.exp(Long.valueOf(Time.currentTime() + 300));
+        accessToken.setPreferredUsername("jdoe");
+        return accessToken;
+    }
+
+    private static String toTokenString(final Object token) throws IOException
+    {
+        // signature is not verified when tokens are parsed after deserialisation
+        final String header = Base64Url.encode("{\"alg\":\"RS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8));
+        final String content = Base64Url.encode(JsonSerialization.writeValueAsBytes(token));
+        return header + "." + content + "." + Base64Url.encode("signature".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static RefreshableAccessTokenHolder roundTrip(final RefreshableAccessTokenHolder holder) throws Exception
+    {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos))
+        {
+            oos.writeObject(holder);
+        }
+
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())))
+        {
+            return (RefreshableAccessTokenHolder) ois.readObject();
+        }
+    }
+}
@@ -31,7 +31,8 @@ import org.keycloak.representations.adapters.config.AdapterConfig;
         "connection-timeout-millis", "allow-any-hostname", "disable-trust-manager", "truststore", "truststore-password", "client-keystore",
         "client-keystore-password", "client-key-password", "always-refresh-token", "register-node-at-startup", "register-node-period",
         "token-store", "adapter-state-cookie-path", "principal-attribute", "proxy-url", "forced-route-url",
-        "turn-off-change-session-id-on-login", "token-minimum-time-to-live", "min-time-between-jwks-requests", "public-key-cache-ttl",
+        "max-pooled-per-route", "connection-idle-timeout-millis", "connection-validate-after-inactivity-millis",
+        "connection-request-timeout-millis", "turn-off-change-session-id-on-login", "token-minimum-time-to-live", "min-time-between-jwks-requests", "public-key-cache-ttl",
         "policy-enforcer", "ignore-oauth-query-parameter", "verify-token-audience" })
 public class ExtendedAdapterConfig extends AdapterConfig
 {
@@ -39,6 +40,18 @@ public class ExtendedAdapterConfig extends AdapterConfig
     @JsonProperty("forced-route-url")
     protected String forcedRouteUrl;
 
+    @JsonProperty("max-pooled-per-route")
+    protected int maxPooledPerRoute = 0;
+
+    @JsonProperty("connection-idle-timeout-millis")
+    protected long connectionIdleTimeout = -1L;
+
+    @JsonProperty("connection-validate-after-inactivity-millis")
+    protected long connectionValidateAfterInactivity = -1L;
+
+    @JsonProperty("connection-request-timeout-millis")
+    protected long connectionRequestTimeout = -1L;
+
     /**
      * @return the forcedRouteUrl
      */
@@ -56,4 +69,72 @@ public class ExtendedAdapterConfig extends AdapterConfig
         this.forcedRouteUrl = forcedRouteUrl;
     }
 
+    /**
+     * @return the maxPooledPerRoute
+     */
+    public int getMaxPooledPerRoute()
+    {
+        return this.maxPooledPerRoute;
+    }
+
+    /**
+     * @param maxPooledPerRoute
+     *     the maxPooledPerRoute to set
+     */
+    public void setMaxPooledPerRoute(final int maxPooledPerRoute)
+    {
+        this.maxPooledPerRoute = maxPooledPerRoute;
+    }
+
+    /**
+     * @return the connectionIdleTimeout
+     */
+    public long getConnectionIdleTimeout()
+    {
+        return this.connectionIdleTimeout;
+    }
+
+    /**
+     * @param connectionIdleTimeout
+     *     the connectionIdleTimeout to set
+     */
+    public void setConnectionIdleTimeout(final long connectionIdleTimeout)
+    {
+        this.connectionIdleTimeout = connectionIdleTimeout;
+    }
+
+    /**
+     * @return the connectionValidateAfterInactivity
+     */
+    public long getConnectionValidateAfterInactivity()
+    {
+        return this.connectionValidateAfterInactivity;
+    }
+
+    /**
+     * @param connectionValidateAfterInactivity
+     *     the connectionValidateAfterInactivity to set
+     */
+    public void setConnectionValidateAfterInactivity(final long connectionValidateAfterInactivity)
+    {
+        this.connectionValidateAfterInactivity = connectionValidateAfterInactivity;
+    }
+
+    /**
+     * @return the connectionRequestTimeout
+     */
+    public long getConnectionRequestTimeout()
+    {
+        return this.connectionRequestTimeout;
+    }
+
+    /**
+     * @param connectionRequestTimeout
+     *     the connectionRequestTimeout to set
+     */
+    public void setConnectionRequestTimeout(final long connectionRequestTimeout)
+    {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
 }
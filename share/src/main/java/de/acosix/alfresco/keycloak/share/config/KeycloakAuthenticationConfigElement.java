@@ -41,6 +41,8 @@ public class KeycloakAuthenticationConfigElement extends BaseCustomConfigElement
 
     protected final ConfigValueHolder<Integer> bodyBufferLimit = new ConfigValueHolder<>();
 
+    protected final ConfigValueHolder<Integer> bodyBufferThreshold = new ConfigValueHolder<>();
+
     protected final ConfigValueHolder<Integer> sessionMapperLimit = new ConfigValueHolder<>();
 
     protected final ConfigValueHolder<Boolean> ignoreDefaultFilter = new ConfigValueHolder<>();
@@ -142,6 +144,23 @@ public class KeycloakAuthenticationConfigElement extends BaseCustomConfigElement
         return this.bodyBufferLimit.getValue();
     }
 
+    /**
+     * @param bodyBufferThreshold
+     *     the bodyBufferThreshold to set
+     */
+    public void setBodyBufferThreshold(final Integer bodyBufferThreshold)
+    {
+        this.bodyBufferThreshold.setValue(bodyBufferThreshold);
+    }
+
+    /**
+     * @return the bodyBufferThreshold
+     */
+    public Integer getBodyBufferThreshold()
+    {
+        return this.bodyBufferThreshold.getValue();
+    }
+
     /**
      * @param sessionMapperLimit
      *     the sessionMapperLimit to set
@@ -276,6 +295,17 @@ public class KeycloakAuthenticationConfigElement extends BaseCustomConfigElement
                     otherConfigElement.getBodyBufferLimit() != null ? otherConfigElement.getBodyBufferLimit() : this.getBodyBufferLimit());
         }
 
+        if (otherConfigElement.bodyBufferThreshold.isUnset())
+        {
+            combined.bodyBufferThreshold.unset();
+        }
+        else
+        {
+            combined.setBodyBufferThreshold(otherConfigElement.getBodyBufferThreshold() != null
+                    ? otherConfigElement.getBodyBufferThreshold()
+                    : this.getBodyBufferThreshold());
+        }
+
         if (otherConfigElement.sessionMapperLimit.isUnset())
         {
             combined.sessionMapperLimit.unset();
@@ -345,6 +375,9 @@ public class KeycloakAuthenticationConfigElement extends BaseCustomConfigElement
         builder.append("bodyBufferLimit=");
         builder.append(this.bodyBufferLimit);
         builder.append(", ");
+        builder.append("bodyBufferThreshold=");
+        builder.append(this.bodyBufferThreshold);
+        builder.append(", ");
         builder.append("sessionMapperLimit=");
         builder.append(this.sessionMapperLimit);
         builder.append(", ");
@@ -72,6 +72,13 @@ public class KeycloakAuthenticationConfigElementReader implements ConfigElementR
             configElement.setBodyBufferLimit(value.isEmpty() ? null : Integer.valueOf(value));
         }
 
+        final Element bodyBufferThreshold = element.element("body-buffer-threshold");
+        if (bodyBufferThreshold != null)
+        {
+            final String value = bodyBufferThreshold.getTextTrim();
+            configElement.setBodyBufferThreshold(value.isEmpty() ? null : Integer.valueOf(value));
+        }
+
         final Element sessionMapperLimit = element.element("session-mapper-limit");
         if (sessionMapperLimit != null)
         {
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.config;
+
+import org.springframework.extensions.config.Config;
+import org.springframework.extensions.config.ConfigElement;
+import org.springframework.extensions.config.ConfigService;
+
+/**
+ * Instances of this class provide an immutable snapshot of the Keycloak-related configuration values which are accessed on a per-request
+ * basis, so that request processing does not need to look up and walk configuration elements of the {@link ConfigService config service}.
+ *
+ * @author Axel Faust
+ */
+public class KeycloakConfigSnapshot
+{
+
+    private final boolean authConfigAvailable;
+
+    private final boolean enhanceLoginForm;
+
+    private final boolean enableSsoFilter;
+
+    private final boolean forceKeycloakSso;
+
+    private final boolean rememberKeycloakSso;
+
+    private final Integer bodyBufferLimit;
+
+    private final Integer bodyBufferThreshold;
+
+    private final Integer sessionMapperLimit;
+
+    private final boolean ignoreDefaultFilter;
+
+    private final boolean performTokenExchange;
+
+    private final String alfrescoResourceName;
+
+    private final Long cachedUserGroupsTimeout;
+
+    /**
+     * Builds a snapshot of the current configuration of a config service.
+     *
+     * @param configService
+     *     the config service from which to build the snapshot
+     * @return the configuration snapshot
+     */
+    public static KeycloakConfigSnapshot build(final ConfigService configService)
+    {
+        final Config keycloakConfig = configService.getConfig(KeycloakConfigConstants.KEYCLOAK_CONFIG_SECTION_NAME);
+        final KeycloakAuthenticationConfigElement keycloakAuthConfig = keycloakConfig != null
+                ? (KeycloakAuthenticationConfigElement) keycloakConfig.getConfigElement(KeycloakAuthenticationConfigElement.NAME)
+                : null;
+
+        Long cachedUserGroupsTimeout = null;
+        final Config globalConfig = configService.getGlobalConfig();
+        final ConfigElement userConfig = globalConfig != null ? globalConfig.getConfigElement("user") : null;
+        if (userConfig != null)
+        {
+            final String timeoutConfig = userConfig.getChildValue("cached-user-groups-timeout");
+            if (timeoutConfig != null)
+            {
+                cachedUserGroupsTimeout = Long.valueOf(timeoutConfig.trim());
+            }
+        }
+
+        return new KeycloakConfigSnapshot(keycloakAuthConfig, cachedUserGroupsTimeout);
+    }
+
+    protected KeycloakConfigSnapshot(final KeycloakAuthenticationConfigElement keycloakAuthConfig, final Long cachedUserGroupsTimeout)
+    {
+        this.authConfigAvailable = keycloakAuthConfig != null;
+        this.enhanceLoginForm = keycloakAuthConfig != null && Boolean.TRUE.equals(keycloakAuthConfig.getEnhanceLoginForm());
+        this.enableSsoFilter = keycloakAuthConfig != null && Boolean.TRUE.equals(keycloakAuthConfig.getEnableSsoFilter());
+        this.forceKeycloakSso = keycloakAuthConfig != null && Boolean.TRUE.equals(keycloakAuthConfig.getForceKeycloakSso());
+        this.rememberKeycloakSso = keycloakAuthConfig != null && Boolean.TRUE.equals(keycloakAuthConfig.getRememberKeycloakSso());
+        this.bodyBufferLimit = keycloakAuthConfig != null ? keycloakAuthConfig.getBodyBufferLimit() : null;
+        this.bodyBufferThreshold = keycloakAuthConfig != null ? keycloakAuthConfig.getBodyBufferThreshold() : null;
+        this.sessionMapperLimit = keycloakAuthConfig != null ? keycloakAuthConfig.getSessionMapperLimit() : null;
+        this.ignoreDefaultFilter = keycloakAuthConfig != null && Boolean.TRUE.equals(keycloakAuthConfig.getIgnoreDefaultFilter());
+        this.performTokenExchange = keycloakAuthConfig != null && Boolean.TRUE.equals(keycloakAuthConfig.getPerformTokenExchange());
+        this.alfrescoResourceName = keycloakAuthConfig != null ? keycloakAuthConfig.getAlfrescoResourceName() : null;
+        this.cachedUserGroupsTimeout = cachedUserGroupsTimeout;
+    }
+
+    /**
+     * @return {@code true} if the Keycloak authentication configuration element is available, {@code false} otherwise
+     */
+    public boolean isAuthConfigAvailable()
+    {
+        return this.authConfigAvailable;
+    }
+
+    /**
+     * @return the enhanceLoginForm
+     */
+    public boolean isEnhanceLoginForm()
+    {
+        return this.enhanceLoginForm;
+    }
+
+    /**
+     * @return the enableSsoFilter
+     */
+    public boolean isEnableSsoFilter()
+    {
+        return this.enableSsoFilter;
+    }
+
+    /**
+     * @return the forceKeycloakSso
+     */
+    public boolean isForceKeycloakSso()
+    {
+        return this.forceKeycloakSso;
+    }
+
+    /**
+     * @return the rememberKeycloakSso
+     */
+    public boolean isRememberKeycloakSso()
+    {
+        return this.rememberKeycloakSso;
+    }
+
+    /**
+     * @return the bodyBufferLimit
+     */
+    public Integer getBodyBufferLimit()
+    {
+        return this.bodyBufferLimit;
+    }
+
+    /**
+     * @return the bodyBufferThreshold
+     */
+    public Integer getBodyBufferThreshold()
+    {
+        return this.bodyBufferThreshold;
+    }
+
+    /**
+     * @return the sessionMapperLimit
+     */
+    public Integer getSessionMapperLimit()
+    {
+        return this.sessionMapperLimit;
+    }
+
+    /**
+     * @return the ignoreDefaultFilter
+     */
+    public boolean isIgnoreDefaultFilter()
+    {
+        return this.ignoreDefaultFilter;
+    }
+
+    /**
+     * @return the performTokenExchange
+     */
+    public boolean isPerformTokenExchange()
+    {
+        return this.performTokenExchange;
+    }
+
+    /**
+     * @return the alfrescoResourceName
+     */
+    public String getAlfrescoResourceName()
+    {
+        return this.alfrescoResourceName;
+    }
+
+    /**
+     * @return the cachedUserGroupsTimeout
+     */
+    public Long getCachedUserGroupsTimeout()
+    {
+        return this.cachedUserGroupsTimeout;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("KeycloakConfigSnapshot [");
+        builder.append("authConfigAvailable=");
+        builder.append(this.authConfigAvailable);
+        builder.append(", ");
+        builder.append("enhanceLoginForm=");
+        builder.append(this.enhanceLoginForm);
+        builder.append(", ");
+        builder.append("enableSsoFilter=");
+        builder.append(this.enableSsoFilter);
+        builder.append(", ");
+        builder.append("forceKeycloakSso=");
+        builder.append(this.forceKeycloakSso);
+        builder.append(", ");
+        builder.append("rememberKeycloakSso=");
+        builder.append(this.rememberKeycloakSso);
+        builder.append(", ");
+        builder.append("bodyBufferLimit=");
+        builder.append(this.bodyBufferLimit);
+        builder.append(", ");
+        builder.append("bodyBufferThreshold=");
+        builder.append(this.bodyBufferThreshold);
+        builder.append(", ");
+        builder.append("sessionMapperLimit=");
+        builder.append(this.sessionMapperLimit);
+        builder.append(", ");
+        builder.append("ignoreDefaultFilter=");
+        builder.append(this.ignoreDefaultFilter);
+        builder.append(", ");
+        builder.append("performTokenExchange=");
+        builder.append(this.performTokenExchange);
+        builder.append(", ");
+        builder.append("alfrescoResourceName=");
+        builder.append(this.alfrescoResourceName);
+        builder.append(", ");
+        builder.append("cachedUserGroupsTimeout=");
+        builder.append(this.cachedUserGroupsTimeout);
+        builder.append("]");
+        return builder.toString();
+    }
+}
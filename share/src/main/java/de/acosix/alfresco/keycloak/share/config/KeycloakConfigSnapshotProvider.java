@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.config;
+
+import org.alfresco.util.PropertyCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.extensions.config.Config;
+import org.springframework.extensions.config.ConfigService;
+
+/**
+ * Instances of this class provide the current {@link KeycloakConfigSnapshot configuration snapshot} to components processing requests. The
+ * snapshot is built once on startup and rebuilt whenever the application context is refreshed, when {@link #reset() explicitly reset}, or
+ * when the configuration service is detected to have been reset since the snapshot was built. The latter check is performed at most once
+ * per configurable interval, so that retrieving the snapshot is typically just a field read.
+ *
+ * @author Axel Faust
+ */
+public class KeycloakConfigSnapshotProvider implements InitializingBean, ApplicationListener<ContextRefreshedEvent>
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeycloakConfigSnapshotProvider.class);
+
+    private static final long DEFAULT_RESET_CHECK_INTERVAL_MILLIS = 10000;
+
+    protected ConfigService configService;
+
+    protected long resetCheckIntervalMillis = DEFAULT_RESET_CHECK_INTERVAL_MILLIS;
+
+    protected volatile SnapshotState state;
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet()
+    {
+        PropertyCheck.mandatory(this, "configService", this.configService);
+
+        this.reset();
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void onApplicationEvent(final ContextRefreshedEvent event)
+    {
+        this.reset();
+    }
+
+    /**
+     * @param configService
+     *     the configService to set
+     */
+    public void setConfigService(final ConfigService configService)
+    {
+        this.configService = configService;
+    }
+
+    /**
+     * @param resetCheckIntervalMillis
+     *     the resetCheckIntervalMillis to set
+     */
+    public void setResetCheckIntervalMillis(final long resetCheckIntervalMillis)
+    {
+        this.resetCheckIntervalMillis = resetCheckIntervalMillis;
+    }
+
+    /**
+     * Retrieves the current configuration snapshot.
+     *
+     * @return the configuration snapshot
+     */
+    public KeycloakConfigSnapshot getSnapshot()
+    {
+        SnapshotState state = this.state;
+        if (state == null)
+        {
+            state = this.rebuild();
+        }
+        else if (this.resetCheckIntervalMillis >= 0 && state.nextResetCheck <= System.currentTimeMillis())
+        {
+            // a reset of the config service replaces the global config object
+            final Config globalConfig = this.configService.getGlobalConfig();
+            if (globalConfig != state.globalConfig)
+            {
+                LOGGER.debug("Detected reset of config service - rebuilding configuration snapshot");
+                state = this.rebuild();
+            }
+            else
+            {
+                state = new SnapshotState(state.snapshot, state.globalConfig,
+                        System.currentTimeMillis() + this.resetCheckIntervalMillis);
+                this.state = state;
+            }
+        }
+        return state.snapshot;
+    }
+
+    /**
+     * Rebuilds the configuration snapshot from the current configuration.
+     */
+    public void reset()
+    {
+        this.rebuild();
+    }
+
+    protected SnapshotState rebuild()
+    {
+        final Config globalConfig = this.configService.getGlobalConfig();
+        final KeycloakConfigSnapshot snapshot = KeycloakConfigSnapshot.build(this.configService);
+        LOGGER.debug("Built configuration snapshot {}", snapshot);
+
+        final SnapshotState state = new SnapshotState(snapshot, globalConfig,
+                System.currentTimeMillis() + Math.max(0, this.resetCheckIntervalMillis));
+        this.state = state;
+        return state;
+    }
+
+    /**
+     * Simple immutable holder of a snapshot and the state it was built from.
+     *
+     * @author Axel Faust
+     */
+    protected static class SnapshotState
+    {
+
+        protected final KeycloakConfigSnapshot snapshot;
+
+        protected final Config globalConfig;
+
+        protected final long nextResetCheck;
+
+        protected SnapshotState(final KeycloakConfigSnapshot snapshot, final Config globalConfig, final long nextResetCheck)
+        {
+            this.snapshot = snapshot;
+            this.globalConfig = globalConfig;
+            this.nextResetCheck = nextResetCheck;
+        }
+    }
+}
@@ -30,11 +30,18 @@ import org.springframework.extensions.surf.ServletUtil;
 import org.springframework.extensions.webscripts.connector.ConnectorContext;
 import org.springframework.extensions.webscripts.connector.RemoteClient;
 
+import de.acosix.alfresco.keycloak.share.util.AuthorizationHeaderHolder;
+import de.acosix.alfresco.keycloak.share.util.AuthorizationHeaderHolder.HeaderValue;
 import de.acosix.alfresco.keycloak.share.util.RefreshableAccessTokenHolder;
 import de.acosix.alfresco.keycloak.share.web.KeycloakAuthenticationFilter;
 import de.acosix.alfresco.utility.share.connector.MutableSlingshotRemoteClient;
 
 /**
+ * Instances of this class apply Keycloak access tokens held in the session of the current user to calls to the Alfresco backend. The
+ * {@code Authorization} header value is computed once per access token and held in the session via an {@link AuthorizationHeaderHolder},
+ * so that the many calls made during the processing of a single request do not need to look up and check the various token holders. The
+ * use of cached header values is tracked per endpoint via {@link ConnectorMetrics}.
+ *
  * @author Axel Faust
  */
 public class AccessTokenAwareSlingshotAlfrescoConnector extends SlingshotAlfrescoConnector
@@ -42,6 +49,8 @@ public class AccessTokenAwareSlingshotAlfrescoConnector extends SlingshotAlfresc
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AccessTokenAwareSlingshotAlfrescoConnector.class);
 
+    protected final ConnectorMetrics metrics;
+
     /**
      * Constructs a new instance of this class.
      *
@@ -53,6 +62,7 @@ public class AccessTokenAwareSlingshotAlfrescoConnector extends SlingshotAlfresc
     public AccessTokenAwareSlingshotAlfrescoConnector(final ConnectorDescriptor descriptor, final String endpoint)
     {
         super(descriptor, endpoint);
+        this.metrics = ConnectorMetrics.forEndpoint(endpoint);
     }
 
     /**
@@ -63,6 +73,49 @@ public class AccessTokenAwareSlingshotAlfrescoConnector extends SlingshotAlfresc
     protected void applyRequestAuthentication(final RemoteClient remoteClient, final ConnectorContext context)
     {
         final HttpSession session = ServletUtil.getSession();
+        final Object holderCandidate = session != null ? session.getAttribute(AuthorizationHeaderHolder.SESSION_KEY) : null;
+        AuthorizationHeaderHolder holder = null;
+        if (holderCandidate instanceof AuthorizationHeaderHolder)
+        {
+            holder = (AuthorizationHeaderHolder) holderCandidate;
+            final HeaderValue headerValue = holder.getHeaderValue();
+            if (headerValue.isUsable())
+            {
+                LOGGER.trace("Using cached authorization header for request");
+                this.metrics.recordCachedAuthorizationHeaderUse();
+                this.applyAuthorizationHeader(remoteClient, headerValue.getValue());
+                return;
+            }
+        }
+
+        this.metrics.recordAuthorizationHeaderComputation();
+        if (session != null && holder == null)
+        {
+            holder = new AuthorizationHeaderHolder();
+            session.setAttribute(AuthorizationHeaderHolder.SESSION_KEY, holder);
+        }
+        this.computeRequestAuthentication(remoteClient, context, session, holder);
+    }
+
+    /**
+     * Computes and applies the request authentication for a call to the Alfresco backend based on the Keycloak-related authentication
+     * data held in the session, updating the cached {@code Authorization} header value if an access token is used.
+     *
+     * @param remoteClient
+     *            the remote client for the call
+     * @param context
+     *            the connector context for the call
+     * @param session
+     *            the session of the current user - may be {@code null}
+     * @param holder
+     *            the holder of the cached authorization header for the session - may be {@code null} if there is no session
+     */
+    protected void computeRequestAuthentication(final RemoteClient remoteClient, final ConnectorContext context,
+            final HttpSession session, final AuthorizationHeaderHolder holder)
+    {
+        // retrieve state before looking up tokens so that an invalidation in between is not lost
+        final HeaderValue expectedHeaderValue = holder != null ? holder.getHeaderValue() : null;
+
         final KeycloakAccount keycloakAccount = (KeycloakAccount) (session != null
                 ? session.getAttribute(KeycloakAuthenticationFilter.KEYCLOAK_ACCOUNT_SESSION_KEY)
                 : null);
@@ -73,26 +126,15 @@ public class AccessTokenAwareSlingshotAlfrescoConnector extends SlingshotAlfresc
                 ? session.getAttribute(KeycloakAuthenticationFilter.BACKEND_ACCESS_TOKEN_SESSION_KEY)
                 : null);
 
-        final MutableSlingshotRemoteClient mrc = remoteClient instanceof MutableSlingshotRemoteClient
-                ? (MutableSlingshotRemoteClient) remoteClient
-                : null;
-
+        String tokenString = null;
+        long expiration = 0;
         if (endpointSpecificAccessToken != null)
         {
             if (endpointSpecificAccessToken.isActive())
             {
                 LOGGER.debug("Using access token for backend found in session for request");
-                final String tokenString = endpointSpecificAccessToken.getToken();
-                if (mrc != null)
-                {
-                    mrc.addRemoveResponseHeader("WWW-Authenticate");
-                    // must be request property to be a final override (other Alfresco components sets Authorization=null)
-                    mrc.addRequestProperty("Authorization", "Bearer " + tokenString);
-                }
-                else
-                {
-                    remoteClient.setRequestProperties(Collections.singletonMap("Authorization", "Bearer " + tokenString));
-                }
+                tokenString = endpointSpecificAccessToken.getToken();
+                expiration = endpointSpecificAccessToken.getAccessTokenExpiration();
             }
             else
             {
@@ -104,38 +146,55 @@ public class AccessTokenAwareSlingshotAlfrescoConnector extends SlingshotAlfresc
             LOGGER.debug(
                     "Did not find access token for backend in session - using regularly authenticated Keycloak account access token for request instead");
             final KeycloakSecurityContext keycloakSecurityContext = ((OidcKeycloakAccount) keycloakAccount).getKeycloakSecurityContext();
-            final String tokenString = keycloakSecurityContext.getTokenString();
-            if (mrc != null)
-            {
-                mrc.addRemoveResponseHeader("WWW-Authenticate");
-                // must be request property to be a final override (other Alfresco components sets Authorization=null)
-                mrc.addRequestProperty("Authorization", "Bearer " + tokenString);
-            }
-            else
-            {
-                remoteClient.setRequestProperties(Collections.singletonMap("Authorization", "Bearer " + tokenString));
-            }
+            tokenString = keycloakSecurityContext.getTokenString();
+            final Long exp = keycloakSecurityContext.getToken().getExp();
+            expiration = exp != null ? exp.longValue() : 0;
         }
         else if (accessToken != null)
         {
             LOGGER.debug(
                     "Did not find access token for backend in session - using Bearer access token provided in original authentication request for request instead");
-            final String tokenString = accessToken.getToken();
-            if (mrc != null)
-            {
-                mrc.addRemoveResponseHeader("WWW-Authenticate");
-                // must be request property to be a final override (other Alfresco components sets Authorization=null)
-                mrc.addRequestProperty("Authorization", "Bearer " + tokenString);
-            }
-            else
-            {
-                remoteClient.setRequestProperties(Collections.singletonMap("Authorization", "Bearer " + tokenString));
-            }
+            tokenString = accessToken.getToken();
+            expiration = accessToken.getAccessTokenExpiration();
         }
         else
         {
             LOGGER.debug("Did not find Keycloak-related authentication data in session - applying regular request authentication");
             super.applyRequestAuthentication(remoteClient, context);
         }
+
+        if (tokenString != null)
+        {
+            final String authorizationHeader = "Bearer " + tokenString;
+            // tokens without expiration are not cached as the cached value could never be determined to be outdated
+            if (holder != null && expiration != 0)
+            {
+                holder.update(expectedHeaderValue, authorizationHeader, expiration);
+            }
+            this.applyAuthorizationHeader(remoteClient, authorizationHeader);
+        }
+    }
+
+    /**
+     * Applies an {@code Authorization} header value to a call to the Alfresco backend.
+     *
+     * @param remoteClient
+     *            the remote client for the call
+     * @param authorizationHeader
+     *            the value of the authorization header
+     */
+    protected void applyAuthorizationHeader(final RemoteClient remoteClient, final String authorizationHeader)
+    {
+        if (remoteClient instanceof MutableSlingshotRemoteClient)
+        {
+            final MutableSlingshotRemoteClient mrc = (MutableSlingshotRemoteClient) remoteClient;
+            mrc.addRemoveResponseHeader("WWW-Authenticate");
+            // must be request property to be a final override (other Alfresco components sets Authorization=null)
+            mrc.addRequestProperty("Authorization", authorizationHeader);
+        }
+        else
+        {
+            remoteClient.setRequestProperties(Collections.singletonMap("Authorization", authorizationHeader));
+        }
     }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.remote;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.alfresco.util.ParameterCheck;
+
+/**
+ * Instances of this class track the calls made via {@link AccessTokenAwareSlingshotAlfrescoConnector connectors} to a specific backend
+ * endpoint and how the request authentication for these calls was applied. Since connector instances are created by Surf for each use,
+ * instances of this class are held in a registry keyed by the endpoint URL, so that all connectors for the same endpoint share the same
+ * counters.
+ *
+ * @author Axel Faust
+ */
+public class ConnectorMetrics
+{
+
+    private static final ConcurrentMap<String, ConnectorMetrics> METRICS_BY_ENDPOINT = new ConcurrentHashMap<>();
+
+    protected final String endpoint;
+
+    protected final LongAdder calls = new LongAdder();
+
+    protected final LongAdder cachedAuthorizationHeaderUses = new LongAdder();
+
+    protected final LongAdder authorizationHeaderComputations = new LongAdder();
+
+    protected ConnectorMetrics(final String endpoint)
+    {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Retrieves the metrics for a specific endpoint, creating them if no call to the endpoint has yet been tracked.
+     *
+     * @param endpoint
+     *     the URL of the endpoint
+     * @return the metrics of the endpoint
+     */
+    public static ConnectorMetrics forEndpoint(final String endpoint)
+    {
+        ParameterCheck.mandatoryString("endpoint", endpoint);
+
+        ConnectorMetrics metrics = METRICS_BY_ENDPOINT.get(endpoint);
+        if (metrics == null)
+        {
+            metrics = METRICS_BY_ENDPOINT.computeIfAbsent(endpoint, ConnectorMetrics::new);
+        }
+        return metrics;
+    }
+
+    /**
+     * Retrieves the metrics of all endpoints to which calls have been tracked.
+     *
+     * @return the metrics of all endpoints, sorted by their URL
+     */
+    public static List<ConnectorMetrics> getAll()
+    {
+        final List<ConnectorMetrics> metrics = new ArrayList<>(METRICS_BY_ENDPOINT.values());
+        metrics.sort(Comparator.comparing(ConnectorMetrics::getEndpoint));
+        return metrics;
+    }
+
+    /**
+     * Records a call to the endpoint which used a cached {@code Authorization} header value.
+     */
+    public void recordCachedAuthorizationHeaderUse()
+    {
+        this.calls.increment();
+        this.cachedAuthorizationHeaderUses.increment();
+    }
+
+    /**
+     * Records a call to the endpoint which required the request authentication to be (re-)computed.
+     */
+    public void recordAuthorizationHeaderComputation()
+    {
+        this.calls.increment();
+        this.authorizationHeaderComputations.increment();
+    }
+
+    /**
+     * @return the endpoint
+     */
+    public String getEndpoint()
+    {
+        return this.endpoint;
+    }
+
+    /**
+     * @return the number of calls to the endpoint for which request authentication has been applied
+     */
+    public long getCalls()
+    {
+        return this.calls.sum();
+    }
+
+    /**
+     * @return the number of calls to the endpoint which used a cached {@code Authorization} header value
+     */
+    public long getCachedAuthorizationHeaderUses()
+    {
+        return this.cachedAuthorizationHeaderUses.sum();
+    }
+
+    /**
+     * @return the number of calls to the endpoint which required the request authentication to be (re-)computed
+     */
+    public long getAuthorizationHeaderComputations()
+    {
+        return this.authorizationHeaderComputations.sum();
+    }
+}
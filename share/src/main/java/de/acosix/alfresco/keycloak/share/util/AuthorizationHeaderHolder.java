@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jakarta.servlet.http.HttpSession;
+
+import org.keycloak.common.util.Time;
+
+/**
+ * Instances of this class hold the pre-computed value of the {@code Authorization} header to use in calls to the Alfresco backend on
+ * behalf of the user of a session. The value is replaced atomically whenever the underlying access token changes, and any value which
+ * was computed concurrently with an {@link #invalidate() invalidation} is discarded, so that a value derived from a stale access token
+ * cannot overwrite the invalidation.
+ *
+ * The header value is not part of the serialised form of instances of this class, so that it does not add to the size of replicated or
+ * persisted sessions. It is simply re-computed on first use after deserialisation.
+ *
+ * @author Axel Faust
+ */
+public class AuthorizationHeaderHolder implements Serializable
+{
+
+    public static final String SESSION_KEY = AuthorizationHeaderHolder.class.getName();
+
+    private static final long serialVersionUID = 2586400471938467137L;
+
+    protected transient AtomicReference<HeaderValue> headerValue = new AtomicReference<>(new HeaderValue(null, 0));
+
+    /**
+     * Invalidates the authorization header held for a session, if any.
+     *
+     * @param session
+     *     the session for which to invalidate the held authorization header
+     */
+    public static void invalidate(final HttpSession session)
+    {
+        final Object holder = session != null ? session.getAttribute(SESSION_KEY) : null;
+        if (holder instanceof AuthorizationHeaderHolder)
+        {
+            ((AuthorizationHeaderHolder) holder).invalidate();
+        }
+    }
+
+    /**
+     * Retrieves the current state of the authorization header held in this instance.
+     *
+     * @return the current state of the authorization header
+     */
+    public HeaderValue getHeaderValue()
+    {
+        return this.headerValue.get();
+    }
+
+    /**
+     * Updates the authorization header held in this instance, provided the held state has not been changed since it was retrieved.
+     *
+     * @param expectedHeaderValue
+     *     the state of the authorization header which was retrieved before the new value was computed
+     * @param value
+     *     the new value of the authorization header
+     * @param expiration
+     *     the time (in seconds since the epoch) at which the access token used in the authorization header expires
+     * @return {@code true} if the authorization header was updated, {@code false} if the held state had been changed concurrently
+     */
+    public boolean update(final HeaderValue expectedHeaderValue, final String value, final long expiration)
+    {
+        return this.headerValue.compareAndSet(expectedHeaderValue, new HeaderValue(value, expiration));
+    }
+
+    /**
+     * Invalidates the authorization header held in this instance.
+     */
+    public void invalidate()
+    {
+        // new instance each time so that concurrent updates based on a previous state fail
+        this.headerValue.set(new HeaderValue(null, 0));
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        this.headerValue = new AtomicReference<>(new HeaderValue(null, 0));
+    }
+
+    /**
+     * Instances of this class represent an immutable state of an authorization header.
+     *
+     * @author Axel Faust
+     */
+    public static class HeaderValue
+    {
+
+        protected final String value;
+
+        protected final long expiration;
+
+        protected HeaderValue(final String value, final long expiration)
+        {
+            this.value = value;
+            this.expiration = expiration;
+        }
+
+        /**
+         * Checks whether this state holds an authorization header value which can be used.
+         *
+         * @return {@code true} if this state holds a header value based on a still active access token, {@code false} otherwise
+         */
+        public boolean isUsable()
+        {
+            return this.value != null && this.expiration > Time.currentTime();
+        }
+
+        /**
+         * @return the value
+         */
+        public String getValue()
+        {
+            return this.value;
+        }
+
+        /**
+         * @return the expiration
+         */
+        public long getExpiration()
+        {
+            return this.expiration;
+        }
+    }
+}
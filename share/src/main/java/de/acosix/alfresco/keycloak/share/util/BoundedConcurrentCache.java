@@ -0,0 +1,348 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.alfresco.util.ParameterCheck;
+
+/**
+ * Instances of this class provide a simple, node-local cache of bounded size for use on request processing paths, optionally limiting the
+ * time-to-live of individual entries. All entries are held in a concurrent map, so that neither lookups nor modifications contend on a
+ * global lock. The least-recently used order is approximated using the CLOCK (second chance) algorithm: lookups only mark an entry as
+ * referenced, and when the configured size is exceeded, entries are evicted in order of their insertion, skipping (and un-marking) any
+ * entry referenced since it was last considered for eviction. Eviction is performed by at most one thread at a time, with any other thread
+ * simply continuing without waiting for it.
+ *
+ * @param <K>
+ *     the type of the keys of the cache
+ * @param <V>
+ *     the type of the values of the cache
+ * @author Axel Faust
+ */
+public class BoundedConcurrentCache<K, V>
+{
+
+    protected final ConcurrentMap<K, CacheEntry<K, V>> entries = new ConcurrentHashMap<>();
+
+    protected final Queue<CacheEntry<K, V>> evictionQueue = new ConcurrentLinkedQueue<>();
+
+    protected final AtomicInteger evictionQueueSize = new AtomicInteger(0);
+
+    protected final ReentrantLock evictionLock = new ReentrantLock();
+
+    protected final int maxSize;
+
+    protected final long timeToLiveMillis;
+
+    /**
+     * Creates a new instance of this class without a limit on the time-to-live of entries.
+     *
+     * @param maxSize
+     *     the maximum number of entries to cache
+     */
+    public BoundedConcurrentCache(final int maxSize)
+    {
+        this(maxSize, 0);
+    }
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param maxSize
+     *     the maximum number of entries to cache
+     * @param timeToLiveMillis
+     *     the default time-to-live of entries in milliseconds - a value of {@code 0} or less means entries do not expire
+     */
+    public BoundedConcurrentCache(final int maxSize, final long timeToLiveMillis)
+    {
+        this.maxSize = Math.max(1, maxSize);
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * Retrieves the value cached for a key.
+     *
+     * @param key
+     *     the key
+     * @return the cached value, or {@code null} if no value is cached or the cached value has expired
+     */
+    public V get(final K key)
+    {
+        ParameterCheck.mandatory("key", key);
+
+        final CacheEntry<K, V> entry = this.entries.get(key);
+        V value = null;
+        if (entry != null)
+        {
+            if (entry.isExpired(System.currentTimeMillis()))
+            {
+                this.entries.remove(key, entry);
+            }
+            else
+            {
+                // avoid redundant volatile writes (and cache line invalidation) for frequently accessed entries
+                if (!entry.referenced)
+                {
+                    entry.referenced = true;
+                }
+                value = entry.value;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Retrieves the value cached for a key, loading and caching it if no value is cached. The value is loaded without holding any lock, so
+     * concurrent threads may load the value for the same key at the same time.
+     *
+     * @param key
+     *     the key
+     * @param loader
+     *     the operation to load the value - if the operation returns {@code null}, nothing will be cached
+     * @return the cached or loaded value
+     */
+    public V get(final K key, final Function<K, V> loader)
+    {
+        ParameterCheck.mandatory("loader", loader);
+
+        V value = this.get(key);
+        if (value == null)
+        {
+            value = loader.apply(key);
+            if (value != null)
+            {
+                this.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Caches a value for a key using the default time-to-live of this cache.
+     *
+     * @param key
+     *     the key
+     * @param value
+     *     the value
+     */
+    public void put(final K key, final V value)
+    {
+        this.put(key, value, this.timeToLiveMillis);
+    }
+
+    /**
+     * Caches a value for a key using a specific time-to-live.
+     *
+     * @param key
+     *     the key
+     * @param value
+     *     the value
+     * @param timeToLiveMillis
+     *     the time-to-live of the entry in milliseconds - a value of {@code 0} or less means the entry does not expire
+     */
+    public void put(final K key, final V value, final long timeToLiveMillis)
+    {
+        ParameterCheck.mandatory("key", key);
+        ParameterCheck.mandatory("value", value);
+
+        final CacheEntry<K, V> entry = new CacheEntry<>(key, value,
+                timeToLiveMillis > 0 ? System.currentTimeMillis() + timeToLiveMillis : Long.MAX_VALUE);
+        this.entries.put(key, entry);
+        this.enqueue(entry);
+    }
+
+    /**
+     * Caches a value for a key using the default time-to-live of this cache, unless a value is already cached.
+     *
+     * @param key
+     *     the key
+     * @param value
+     *     the value
+     * @return the value already cached for the key, or {@code null} if the provided value was cached
+     */
+    public V putIfAbsent(final K key, final V value)
+    {
+        ParameterCheck.mandatory("key", key);
+        ParameterCheck.mandatory("value", value);
+
+        final long now = System.currentTimeMillis();
+        final CacheEntry<K, V> entry = new CacheEntry<>(key, value,
+                this.timeToLiveMillis > 0 ? now + this.timeToLiveMillis : Long.MAX_VALUE);
+
+        V existingValue = null;
+        boolean added = false;
+        while (!added && existingValue == null)
+        {
+            final CacheEntry<K, V> existingEntry = this.entries.putIfAbsent(key, entry);
+            if (existingEntry == null)
+            {
+                added = true;
+            }
+            else if (existingEntry.isExpired(now))
+            {
+                added = this.entries.replace(key, existingEntry, entry);
+            }
+            else
+            {
+                existingValue = existingEntry.value;
+            }
+        }
+
+        if (added)
+        {
+            this.enqueue(entry);
+        }
+        return existingValue;
+    }
+
+    /**
+     * Removes the value cached for a key.
+     *
+     * @param key
+     *     the key
+     */
+    public void remove(final K key)
+    {
+        ParameterCheck.mandatory("key", key);
+
+        // eviction queue is cleaned lazily as removed entries are encountered
+        this.entries.remove(key);
+    }
+
+    /**
+     * Removes all cached values.
+     */
+    public void clear()
+    {
+        this.evictionLock.lock();
+        try
+        {
+            this.entries.clear();
+            this.evictionQueue.clear();
+            this.evictionQueueSize.set(0);
+        }
+        finally
+        {
+            this.evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the number of entries in this cache. This may include expired entries which have not yet been evicted.
+     *
+     * @return the number of entries
+     */
+    public int size()
+    {
+        return this.entries.size();
+    }
+
+    protected void enqueue(final CacheEntry<K, V> entry)
+    {
+        this.evictionQueue.offer(entry);
+        this.evictionQueueSize.incrementAndGet();
+        this.evictIfNecessary();
+    }
+
+    protected void evictIfNecessary()
+    {
+        // no need for more than one thread to evict at the same time - any other thread just continues
+        if ((this.entries.size() > this.maxSize || this.evictionQueueSize.get() > 2 * this.maxSize) && this.evictionLock.tryLock())
+        {
+            try
+            {
+                // entries may have been removed / replaced, leaving entries no longer active in the queue
+                if (this.evictionQueueSize.get() > 2 * this.maxSize)
+                {
+                    this.evictionQueue.removeIf(entry -> {
+                        final boolean stale = this.entries.get(entry.key) != entry;
+                        if (stale)
+                        {
+                            this.evictionQueueSize.decrementAndGet();
+                        }
+                        return stale;
+                    });
+                }
+
+                final long now = System.currentTimeMillis();
+                while (this.entries.size() > this.maxSize)
+                {
+                    final CacheEntry<K, V> candidate = this.evictionQueue.poll();
+                    if (candidate == null)
+                    {
+                        break;
+                    }
+
+                    if (this.entries.get(candidate.key) != candidate)
+                    {
+                        this.evictionQueueSize.decrementAndGet();
+                    }
+                    else if (candidate.referenced && !candidate.isExpired(now))
+                    {
+                        // second chance
+                        candidate.referenced = false;
+                        this.evictionQueue.offer(candidate);
+                    }
+                    else
+                    {
+                        this.evictionQueueSize.decrementAndGet();
+                        this.entries.remove(candidate.key, candidate);
+                    }
+                }
+            }
+            finally
+            {
+                this.evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Instances of this class hold a single cached value.
+     *
+     * @author Axel Faust
+     */
+    protected static class CacheEntry<K, V>
+    {
+
+        protected final K key;
+
+        protected final V value;
+
+        protected final long expiresAt;
+
+        protected volatile boolean referenced;
+
+        protected CacheEntry(final K key, final V value, final long expiresAt)
+        {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        protected boolean isExpired(final long now)
+        {
+            return this.expiresAt <= now;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.util;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpSession;
+
+/**
+ * This class bundles static utility operations to provide minimal request objects for use in background operations, which require
+ * backend connectors to be able to look up authentication details via the "current request".
+ *
+ * @author Axel Faust
+ */
+public class DetachedRequestUtil
+{
+
+    /**
+     * Creates a minimal request exposing only the session and user of a request, detached from the state of that request so that it can be
+     * used after the request has been completed.
+     *
+     * @param request
+     *            the request from which to detach
+     * @param session
+     *            the session to expose
+     * @param userId
+     *            the ID of the user to expose as the remote user
+     * @return the detached request
+     */
+    public static HttpServletRequest createDetachedRequest(final HttpServletRequest request, final HttpSession session,
+            final String userId)
+    {
+        return new DetachedRequest(request, session, userId);
+    }
+
+    /**
+     * Instances of this class expose the session and user of a request, as well as basic information about the server / context of the
+     * request, captured at the time of creation. Headers, cookies and parameters of the request are not exposed, and attributes are only
+     * held in the detached request itself. Any other operation is delegated to the original request, and as such must not be used after
+     * the original request has been completed, as containers may recycle request objects.
+     *
+     * @author Axel Faust
+     */
+    protected static class DetachedRequest extends HttpServletRequestWrapper
+    {
+
+        protected final HttpSession session;
+
+        protected final String userId;
+
+        protected final String scheme;
+
+        protected final String serverName;
+
+        protected final int serverPort;
+
+        protected final String contextPath;
+
+        protected final boolean secure;
+
+        protected final Locale locale;
+
+        protected final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+        protected DetachedRequest(final HttpServletRequest request, final HttpSession session, final String userId)
+        {
+            super(request);
+            this.session = session;
+            this.userId = userId;
+            this.scheme = request.getScheme();
+            this.serverName = request.getServerName();
+            this.serverPort = request.getServerPort();
+            this.contextPath = request.getContextPath();
+            this.secure = request.isSecure();
+            this.locale = request.getLocale();
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public HttpSession getSession()
+        {
+            return this.session;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public HttpSession getSession(final boolean create)
+        {
+            return this.session;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public String getRemoteUser()
+        {
+            return this.userId;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public String getScheme()
+        {
+            return this.scheme;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public String getServerName()
+        {
+            return this.serverName;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public int getServerPort()
+        {
+            return this.serverPort;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public String getContextPath()
+        {
+            return this.contextPath;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isSecure()
+        {
+            return this.secure;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public Locale getLocale()
+        {
+            return this.locale;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public Enumeration<Locale> getLocales()
+        {
+            return Collections.enumeration(Collections.singleton(this.locale));
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public Cookie[] getCookies()
+        {
+            return null;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public String getHeader(final String name)
+        {
+            return null;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public Enumeration<String> getHeaders(final String name)
+        {
+            return Collections.emptyEnumeration();
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public Enumeration<String> getHeaderNames()
+        {
+            return Collections.emptyEnumeration();
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public int getIntHeader(final String name)
+        {
+            return -1;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public long getDateHeader(final String name)
+        {
+            return -1;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public String getParameter(final String name)
+        {
+            return null;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public Enumeration<String> getParameterNames()
+        {
+            return Collections.emptyEnumeration();
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public String[] getParameterValues(final String name)
+        {
+            return null;
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public Map<String, String[]> getParameterMap()
+        {
+            return Collections.emptyMap();
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public Object getAttribute(final String name)
+        {
+            return this.attributes.get(name);
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public Enumeration<String> getAttributeNames()
+        {
+            return Collections.enumeration(this.attributes.keySet());
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public void setAttribute(final String name, final Object value)
+        {
+            if (value == null)
+            {
+                this.attributes.remove(name);
+            }
+            else
+            {
+                this.attributes.put(name, value);
+            }
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public void removeAttribute(final String name)
+        {
+            this.attributes.remove(name);
+        }
+
+        /**
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString()
+        {
+            return "DetachedRequest [userId=" + this.userId + "]";
+        }
+    }
+}
@@ -18,7 +18,10 @@
  * Copied from Keycloak source: https://raw.githubusercontent.com/keycloak/keycloak/24.0.6/adapters/oidc/adapter-core/src/main/java/org/keycloak/adapters/HttpClientBuilder.java
  * 
  * The original is not extensible enough to configure the HttpClient with a
- * custom HttpRoutePlanner.  This copy adds that capability.
+ * custom HttpRoutePlanner.  This copy adds that capability, as well as
+ * tuning options for the connection pool (per-route limit, idle connection
+ * eviction, validation after inactivity, lease timeout) and access to the
+ * connection pool for retrieval of statistics.
  */
 
 package de.acosix.alfresco.keycloak.share.util;
@@ -58,6 +61,8 @@ import org.keycloak.common.util.EnvUtil;
 import org.keycloak.common.util.KeystoreUtil;
 import org.keycloak.representations.adapters.config.AdapterHttpClientConfig;
 
+import de.acosix.alfresco.keycloak.share.config.ExtendedAdapterConfig;
+
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLException;
@@ -131,6 +136,12 @@ public class HttpClientBuilder {
     protected int maxPooledPerRoute = 0;
     protected long connectionTTL = -1;
     protected TimeUnit connectionTTLUnit = TimeUnit.MILLISECONDS;
+    protected long connectionIdleTimeout = -1;
+    protected TimeUnit connectionIdleTimeoutUnit = TimeUnit.MILLISECONDS;
+    protected long validateAfterInactivity = -1;
+    protected TimeUnit validateAfterInactivityUnit = TimeUnit.MILLISECONDS;
+    protected long connectionRequestTimeout = -1;
+    protected TimeUnit connectionRequestTimeoutUnits = TimeUnit.MILLISECONDS;
     protected HostnameVerifier verifier = null;
     protected long socketTimeout = -1;
     protected TimeUnit socketTimeoutUnits = TimeUnit.MILLISECONDS;
@@ -140,6 +151,7 @@ public class HttpClientBuilder {
     private SPNegoSchemeFactory spNegoSchemeFactory;
     private boolean useSpNego;
     private HttpRoutePlanner routePlanner;
+    private PoolingHttpClientConnectionManager connectionPool;
 
     /**
      * Socket inactivity timeout
@@ -173,6 +185,45 @@ public class HttpClientBuilder {
         return this;
     }
 
+    /**
+     * Maximum time a pooled connection may remain idle before it is evicted by a background thread
+    *
+    * @param timeout
+    * @param unit
+    * @return
+    */
+    public HttpClientBuilder connectionIdleTimeout(long timeout, TimeUnit unit) {
+        this.connectionIdleTimeout = timeout;
+        this.connectionIdleTimeoutUnit = unit;
+        return this;
+    }
+
+    /**
+     * Period of inactivity after which a pooled connection is validated before being leased again
+    *
+    * @param inactivity
+    * @param unit
+    * @return
+    */
+    public HttpClientBuilder validateAfterInactivity(long inactivity, TimeUnit unit) {
+        this.validateAfterInactivity = inactivity;
+        this.validateAfterInactivityUnit = unit;
+        return this;
+    }
+
+    /**
+     * When trying to lease a connection from the pool, what is the timeout?
+    *
+    * @param timeout
+    * @param unit
+    * @return
+    */
+    public HttpClientBuilder connectionRequestTimeout(long timeout, TimeUnit unit) {
+        this.connectionRequestTimeout = timeout;
+        this.connectionRequestTimeoutUnits = unit;
+        return this;
+    }
+
     public HttpClientBuilder maxPooledPerRoute(int maxPooledPerRoute) {
         this.maxPooledPerRoute = maxPooledPerRoute;
         return this;
@@ -238,6 +289,16 @@ public class HttpClientBuilder {
     }
 
 
+    /**
+     * Retrieves the connection pool of the last client {@link #build() built} by this instance, e.g. to retrieve statistics.
+    *
+    * @return the connection pool, or {@code null} if no client has been built yet or the client does not use connection pooling
+    */
+    public PoolingHttpClientConnectionManager getConnectionPool() {
+        return connectionPool;
+    }
+
+
     static class VerifierWrapper implements X509HostnameVerifier {
         protected HostnameVerifier verifier;
 
@@ -323,10 +384,15 @@ public class HttpClientBuilder {
                 tcm.setMaxTotal(connectionPoolSize);
                 if (maxPooledPerRoute == 0) maxPooledPerRoute = connectionPoolSize;
                 tcm.setDefaultMaxPerRoute(maxPooledPerRoute);
+                if (validateAfterInactivity > -1) {
+                    tcm.setValidateAfterInactivity((int) validateAfterInactivityUnit.toMillis(validateAfterInactivity));
+                }
                 cm = tcm;
+                connectionPool = tcm;
 
             } else {
                 cm = new BasicHttpClientConnectionManager(sf.build());
+                connectionPool = null;
             }
 
             SocketConfig.Builder socketConfig = SocketConfig.copy(SocketConfig.DEFAULT);
@@ -344,6 +410,9 @@ public class HttpClientBuilder {
             if (establishConnectionTimeout > -1) {
                 requestConfig.setConnectTimeout((int) establishConnectionTimeoutUnits.toMillis(establishConnectionTimeout));
             }
+            if (connectionRequestTimeout > -1) {
+                requestConfig.setConnectionRequestTimeout((int) connectionRequestTimeoutUnits.toMillis(connectionRequestTimeout));
+            }
 
             Registry<CookieSpecProvider> cookieSpecs = CookieSpecRegistries.createDefaultBuilder()
                     .register(CookieSpecs.DEFAULT, new DefaultCookieSpecProvider()).build();
@@ -416,6 +485,14 @@ public class HttpClientBuilder {
                 clientBuilder.setRoutePlanner(this.routePlanner);
             }
 
+            if (connectionPool != null && connectionIdleTimeout > 0) {
+                // starts a daemon thread which periodically closes idle and (if a TTL is set) expired connections
+                clientBuilder.evictIdleConnections(connectionIdleTimeout, connectionIdleTimeoutUnit);
+                if (connectionTTL > 0) {
+                    clientBuilder.evictExpiredConnections();
+                }
+            }
+
             return clientBuilder.build();
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -472,6 +549,26 @@ public class HttpClientBuilder {
             connectionTTL(adapterConfig.getConnectionTTL(), TimeUnit.MILLISECONDS);
         }
 
+        if (adapterConfig instanceof ExtendedAdapterConfig) {
+            ExtendedAdapterConfig extendedAdapterConfig = (ExtendedAdapterConfig) adapterConfig;
+
+            if (maxPooledPerRoute == 0 && extendedAdapterConfig.getMaxPooledPerRoute() > 0) {
+                maxPooledPerRoute(extendedAdapterConfig.getMaxPooledPerRoute());
+            }
+
+            if (connectionIdleTimeout == -1 && extendedAdapterConfig.getConnectionIdleTimeout() > 0) {
+                connectionIdleTimeout(extendedAdapterConfig.getConnectionIdleTimeout(), TimeUnit.MILLISECONDS);
+            }
+
+            if (validateAfterInactivity == -1 && extendedAdapterConfig.getConnectionValidateAfterInactivity() > -1) {
+                validateAfterInactivity(extendedAdapterConfig.getConnectionValidateAfterInactivity(), TimeUnit.MILLISECONDS);
+            }
+
+            if (connectionRequestTimeout == -1 && extendedAdapterConfig.getConnectionRequestTimeout() > -1) {
+                connectionRequestTimeout(extendedAdapterConfig.getConnectionRequestTimeout(), TimeUnit.MILLISECONDS);
+            }
+        }
+
         return build();
     }
 
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.util;
+
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.util.ParameterCheck;
+import org.apache.http.client.methods.HttpGet;
+import org.keycloak.adapters.HttpAdapterUtils;
+import org.keycloak.adapters.HttpClientAdapterException;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.rotation.PublicKeyLocator;
+import org.keycloak.jose.jwk.JSONWebKeySet;
+import org.keycloak.jose.jwk.JWK;
+import org.keycloak.jose.jwk.JWKParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of this class locate the public keys of a Keycloak realm for token verification, without requiring request threads to block on
+ * the retrieval of the realm's JSON Web Key Set (JWKS) for known key IDs. The key set is prefetched on a background thread when the locator
+ * is started, and periodically refreshed according to the {@code public-key-cache-ttl} of the adapter configuration, unless it has already
+ * been refreshed within that interval.
+ *
+ * Lookups of unknown key IDs trigger a refetch - just like the default Keycloak locator - rate-limited according to the
+ * {@code min-time-between-jwks-requests} of the adapter configuration. The refetch is performed in the background, and the lookup fails
+ * immediately, so that tokens with arbitrary key IDs cannot block request threads. Only lookups before any key set has been retrieved, e.g.
+ * before the prefetch completed, wait for a limited time for the result of the refetch. Since all keys contained
+ * in the key set are retained, keys pre-announced by Keycloak ahead of their use for signing tokens are immediately available once they are
+ * actually used.
+ *
+ * @author Axel Faust
+ */
+public class PrefetchingPublicKeyLocator implements PublicKeyLocator
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrefetchingPublicKeyLocator.class);
+
+    private static final int DEFAULT_FETCH_WAIT_MILLIS = 5000;
+
+    private static final int DEFAULT_REFRESH_INTERVAL_SECONDS = 86400;
+
+    protected final AtomicReference<CompletableFuture<KeySnapshot>> inFlightFetch = new AtomicReference<>();
+
+    protected volatile KeySnapshot snapshot = KeySnapshot.EMPTY;
+
+    protected volatile long lastFetchAttempt;
+
+    protected final KeycloakDeployment deployment;
+
+    protected final int fetchWaitMillis;
+
+    protected ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param deployment
+     *     the deployment for which to retrieve realm public keys
+     */
+    public PrefetchingPublicKeyLocator(final KeycloakDeployment deployment)
+    {
+        this(deployment, DEFAULT_FETCH_WAIT_MILLIS);
+    }
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param deployment
+     *     the deployment for which to retrieve realm public keys
+     * @param fetchWaitMillis
+     *     the maximum time to wait for the retrieval of realm public keys triggered by a lookup before any key set has been retrieved
+     */
+    public PrefetchingPublicKeyLocator(final KeycloakDeployment deployment, final int fetchWaitMillis)
+    {
+        ParameterCheck.mandatory("deployment", deployment);
+        this.deployment = deployment;
+        this.fetchWaitMillis = fetchWaitMillis;
+    }
+
+    /**
+     * Starts the prefetch and periodic background refresh of realm public keys.
+     */
+    public void start()
+    {
+        this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, PrefetchingPublicKeyLocator.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+
+        final int publicKeyCacheTtl = this.deployment.getPublicKeyCacheTtl();
+        final int refreshInterval = publicKeyCacheTtl > 0 ? publicKeyCacheTtl : DEFAULT_REFRESH_INTERVAL_SECONDS;
+        // initial run acts as prefetch
+        this.executor.scheduleWithFixedDelay(() -> this.triggerFetch(refreshInterval * 1000L), 0, refreshInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the background refresh of realm public keys.
+     */
+    public void shutdown()
+    {
+        if (this.executor != null)
+        {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public PublicKey getPublicKey(final String kid, final KeycloakDeployment deployment)
+    {
+        final KeySnapshot current = this.snapshot;
+        PublicKey publicKey = current.getKey(kid);
+
+        if (publicKey == null)
+        {
+            // same as the default Keycloak locator, an unknown key ID triggers a refetch, unless one has been performed too recently
+            // the refetch runs in the background, so that tokens with arbitrary key IDs cannot block request processing
+            final CompletableFuture<KeySnapshot> fetch = this.triggerFetch(this.deployment.getMinTimeBetweenJwksRequests() * 1000L);
+            // only wait if no realm public keys have been retrieved yet, e.g. on the first requests before the prefetch completed
+            if (fetch != null && current.getFetchedAt() == 0 && this.fetchWaitMillis > 0)
+            {
+                LOGGER.debug("No realm public keys retrieved yet - waiting up to {} ms for their retrieval", this.fetchWaitMillis);
+                try
+                {
+                    publicKey = fetch.get(this.fetchWaitMillis, TimeUnit.MILLISECONDS).getKey(kid);
+                }
+                catch (final InterruptedException iex)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                catch (final ExecutionException | TimeoutException ex)
+                {
+                    LOGGER.warn("Retrieval of realm public keys failed or did not complete in time", ex);
+                }
+            }
+
+            if (publicKey == null)
+            {
+                LOGGER.debug("No public key available for kid {}{}", kid,
+                        fetch != null ? " - refetch of the realm public keys triggered in the background"
+                                : " - refetch of the realm public keys is currently rate-limited");
+            }
+        }
+
+        return publicKey;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset(final KeycloakDeployment deployment)
+    {
+        this.triggerFetch(this.deployment.getMinTimeBetweenJwksRequests() * 1000L);
+    }
+
+    /**
+     * Triggers an asynchronous retrieval of the realm public keys, unless a retrieval is already in progress or the last retrieval has been
+     * attempted less than the {@code min-time-between-jwks-requests} of the adapter configuration ago.
+     *
+     * @param maxKeySetAgeMillis
+     *     the maximum age of an already retrieved key set which makes the actual retrieval unnecessary
+     * @return the retrieval in progress, or {@code null} if the retrieval is currently rate-limited
+     */
+    protected CompletableFuture<KeySnapshot> triggerFetch(final long maxKeySetAgeMillis)
+    {
+        CompletableFuture<KeySnapshot> fetch = this.inFlightFetch.get();
+        if (fetch == null)
+        {
+            final long now = System.currentTimeMillis();
+            if (now - this.lastFetchAttempt >= this.deployment.getMinTimeBetweenJwksRequests() * 1000L)
+            {
+                final CompletableFuture<KeySnapshot> newFetch = new CompletableFuture<>();
+                if (this.inFlightFetch.compareAndSet(null, newFetch))
+                {
+                    this.lastFetchAttempt = now;
+                    final ScheduledThreadPoolExecutor executor = this.executor;
+                    if (executor != null)
+                    {
+                        executor.execute(() -> this.runFetch(newFetch, maxKeySetAgeMillis));
+                    }
+                    else
+                    {
+                        this.inFlightFetch.set(null);
+                        newFetch.completeExceptionally(new IllegalStateException("Public key locator has been shut down"));
+                    }
+                    fetch = newFetch;
+                }
+                else
+                {
+                    fetch = this.inFlightFetch.get();
+                }
+            }
+        }
+        return fetch;
+    }
+
+    protected void runFetch(final CompletableFuture<KeySnapshot> fetch, final long maxKeySetAgeMillis)
+    {
+        try
+        {
+            KeySnapshot result = this.snapshot;
+            // e.g. a lookup of an unknown key ID may have triggered a retrieval since the last scheduled refresh
+            if (System.currentTimeMillis() - result.getFetchedAt() >= maxKeySetAgeMillis)
+            {
+                result = this.fetchKeySet();
+            }
+            else
+            {
+                LOGGER.debug("Realm public keys were retrieved recently enough - not retrieving them again");
+            }
+            fetch.complete(result);
+        }
+        catch (final RuntimeException ex)
+        {
+            LOGGER.error("Failed to retrieve realm public keys", ex);
+            fetch.completeExceptionally(ex);
+        }
+        finally
+        {
+            this.inFlightFetch.compareAndSet(fetch, null);
+        }
+    }
+
+    protected KeySnapshot fetchKeySet()
+    {
+        LOGGER.debug("Retrieving realm public keys from {}", this.deployment.getJwksUrl());
+        try
+        {
+            final JSONWebKeySet jwks = HttpAdapterUtils.sendJsonHttpRequest(this.deployment, new HttpGet(this.deployment.getJwksUrl()),
+                    JSONWebKeySet.class);
+            final KeySnapshot fetched = this.toSnapshot(jwks, System.currentTimeMillis());
+            this.snapshot = fetched;
+
+            LOGGER.debug("Retrieved {} realm public keys", fetched.getKeyCount());
+            return fetched;
+        }
+        catch (final HttpClientAdapterException ex)
+        {
+            throw new AlfrescoRuntimeException("Failed to retrieve realm public keys", ex);
+        }
+    }
+
+    protected KeySnapshot toSnapshot(final JSONWebKeySet jwks, final long fetchedAt)
+    {
+        final Map<String, PublicKey> keys = new HashMap<>();
+        if (jwks.getKeys() != null)
+        {
+            for (final JWK jwk : jwks.getKeys())
+            {
+                final String use = jwk.getPublicKeyUse();
+                final JWKParser parser = JWKParser.create(jwk);
+                if ((use == null || JWK.Use.SIG.asString().equals(use)) && parser.isKeyTypeSupported(jwk.getKeyType()))
+                {
+                    keys.put(jwk.getKeyId(), parser.toPublicKey());
+                }
+            }
+        }
+        return new KeySnapshot(keys, fetchedAt);
+    }
+
+    /**
+     * Instances of this class hold an immutable snapshot of realm public keys.
+     *
+     * @author Axel Faust
+     */
+    protected static class KeySnapshot
+    {
+
+        protected static final KeySnapshot EMPTY = new KeySnapshot(Collections.emptyMap(), 0);
+
+        protected final Map<String, PublicKey> keys;
+
+        protected final long fetchedAt;
+
+        protected KeySnapshot(final Map<String, PublicKey> keys, final long fetchedAt)
+        {
+            this.keys = Collections.unmodifiableMap(keys);
+            this.fetchedAt = fetchedAt;
+        }
+
+        protected PublicKey getKey(final String kid)
+        {
+            PublicKey key;
+            if (kid != null)
+            {
+                key = this.keys.get(kid);
+            }
+            else
+            {
+                // same as default Keycloak locator - tokens without kid can only be verified if the realm has a single key
+                key = this.keys.size() == 1 ? this.keys.values().iterator().next() : null;
+            }
+            return key;
+        }
+
+        protected boolean isEmpty()
+        {
+            return this.keys.isEmpty();
+        }
+
+        protected int getKeyCount()
+        {
+            return this.keys.size();
+        }
+
+        protected long getFetchedAt()
+        {
+            return this.fetchedAt;
+        }
+    }
+}
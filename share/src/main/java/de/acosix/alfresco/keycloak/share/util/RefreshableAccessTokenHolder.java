@@ -15,34 +15,79 @@
  */
 package de.acosix.alfresco.keycloak.share.util;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
 
+import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.util.ParameterCheck;
 import org.keycloak.adapters.rotation.AdapterTokenVerifier.VerifiedTokens;
 import org.keycloak.common.util.Time;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.JWSInputException;
 import org.keycloak.representations.AccessToken;
 import org.keycloak.representations.AccessTokenResponse;
 import org.keycloak.representations.IDToken;
+import org.keycloak.util.JsonSerialization;
 
 /**
  * Instances of this class encapsulate a potentially refreshable access token.
  *
+ * Since instances of this class are stored in HTTP sessions, which may be replicated or persisted, they use a compact serialised form
+ * which only contains the textual representations of the tokens and the relevant expiration timestamps. The parsed access and ID tokens
+ * are only re-created lazily on first access after deserialisation, without repeating the signature verification that was performed
+ * before the instance was originally constructed.
+ *
+ * The compact serialised form is not compatible with the form used by earlier versions of this class. Its serial version UID differs from
+ * those versions, so that any instance serialised by an earlier version fails to deserialise with an {@link java.io.InvalidClassException}
+ * instead of silently resulting in an inconsistent state.
+ *
  * @author Axel Faust
  */
-public class RefreshableAccessTokenHolder implements Serializable
+public class RefreshableAccessTokenHolder implements Externalizable
 {
 
-    private static final long serialVersionUID = -3230026569734591820L;
+    private static final long serialVersionUID = -4242037017064584695L;
+
+    private static final byte SERIAL_FORMAT_VERSION = 1;
+
+    private static final byte ID_TOKEN_NONE = 0;
+
+    private static final byte ID_TOKEN_RAW = 1;
+
+    private static final byte ID_TOKEN_ACCESS_TOKEN = 2;
 
-    protected final AccessToken accessToken;
+    private static final byte ID_TOKEN_JSON = 3;
 
-    protected final IDToken idToken;
+    protected transient volatile AccessToken accessToken;
 
-    protected final String token;
+    protected transient volatile IDToken idToken;
 
-    protected final String refreshToken;
+    protected String token;
 
-    protected final long refreshExpiration;
+    protected String refreshToken;
+
+    protected long refreshExpiration;
+
+    protected long accessTokenExpiration;
+
+    protected long accessTokenNotBefore;
+
+    protected byte idTokenMode;
+
+    protected String idTokenValue;
+
+    /**
+     * Constructs a new, empty instance of this class. This constructor only exists to support deserialisation and should not be used
+     * otherwise.
+     */
+    public RefreshableAccessTokenHolder()
+    {
+        // NO-OP
+    }
 
     /**
      * Constructs a new instance of this class from an access token response, typically from an initial authentication or token refresh
@@ -64,6 +109,8 @@ public class RefreshableAccessTokenHolder implements Serializable
         this.token = tokenResponse.getToken();
         this.refreshToken = tokenResponse.getRefreshToken();
         this.refreshExpiration = Time.currentTime() + tokenResponse.getRefreshExpiresIn();
+
+        this.initSerialState(tokenResponse.getIdToken());
     }
 
     /**
@@ -93,6 +140,8 @@ public class RefreshableAccessTokenHolder implements Serializable
         this.refreshToken = refreshToken;
         // no explicit refresh expiration, so assume validity period is 1/100th
         this.refreshExpiration = Time.currentTime() - (accessToken.getExp() - Time.currentTime()) / 100;
+
+        this.initSerialState(null);
     }
 
     /**
@@ -102,7 +151,8 @@ public class RefreshableAccessTokenHolder implements Serializable
      */
     public boolean isActive()
     {
-        final boolean isActive = this.accessToken.isActive();
+        // same semantics as JsonWebToken.isActive() without requiring the parsed token
+        final boolean isActive = !this.isExpired() && (this.accessTokenNotBefore == 0 || Time.currentTime() >= this.accessTokenNotBefore);
         return isActive;
     }
 
@@ -113,7 +163,8 @@ public class RefreshableAccessTokenHolder implements Serializable
      */
     public boolean isExpired()
     {
-        final boolean isExpired = this.accessToken.isExpired();
+        // same semantics as JsonWebToken.isExpired() without requiring the parsed token
+        final boolean isExpired = this.accessTokenExpiration != 0 && Time.currentTime() > this.accessTokenExpiration;
         return isExpired;
     }
 
@@ -138,7 +189,7 @@ public class RefreshableAccessTokenHolder implements Serializable
      */
     public boolean shouldRefresh(final int minTokenTTL)
     {
-        final boolean shouldRefresh = this.refreshToken != null && this.accessToken.getExp() - minTokenTTL < Time.currentTime();
+        final boolean shouldRefresh = this.refreshToken != null && this.accessTokenExpiration - minTokenTTL < Time.currentTime();
         return shouldRefresh;
     }
 
@@ -158,12 +209,26 @@ public class RefreshableAccessTokenHolder implements Serializable
         return this.refreshToken;
     }
 
+    /**
+     * @return the expiration timestamp (epoch seconds) of the access token
+     */
+    public long getAccessTokenExpiration()
+    {
+        return this.accessTokenExpiration;
+    }
+
     /**
      * @return the access token
      */
     public AccessToken getAccessToken()
     {
-        return this.accessToken;
+        AccessToken accessToken = this.accessToken;
+        if (accessToken == null)
+        {
+            accessToken = this.parseToken(this.token, AccessToken.class);
+            this.accessToken = accessToken;
+        }
+        return accessToken;
     }
 
     /**
@@ -171,7 +236,145 @@ public class RefreshableAccessTokenHolder implements Serializable
      */
     public IDToken getIdToken()
     {
-        return this.idToken;
+        IDToken idToken = this.idToken;
+        if (idToken == null && this.idTokenMode != ID_TOKEN_NONE)
+        {
+            switch (this.idTokenMode)
+            {
+                case ID_TOKEN_RAW:
+                    idToken = this.parseToken(this.idTokenValue, IDToken.class);
+                    break;
+                case ID_TOKEN_ACCESS_TOKEN:
+                    idToken = this.getAccessToken();
+                    break;
+                case ID_TOKEN_JSON:
+                    try
+                    {
+                        idToken = JsonSerialization.readValue(this.idTokenValue, IDToken.class);
+                    }
+                    catch (final IOException ioex)
+                    {
+                        throw new AlfrescoRuntimeException("Failed to read ID token from serialised state", ioex);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported ID token mode " + this.idTokenMode);
+            }
+            this.idToken = idToken;
+        }
+        return idToken;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeExternal(final ObjectOutput out) throws IOException
+    {
+        out.writeByte(SERIAL_FORMAT_VERSION);
+        writeString(out, this.token);
+        writeString(out, this.refreshToken);
+        out.writeLong(this.refreshExpiration);
+        out.writeLong(this.accessTokenExpiration);
+        out.writeLong(this.accessTokenNotBefore);
+        out.writeByte(this.idTokenMode);
+        writeString(out, this.idTokenValue);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readExternal(final ObjectInput in) throws IOException
+    {
+        final byte version = in.readByte();
+        if (version != SERIAL_FORMAT_VERSION)
+        {
+            throw new InvalidObjectException("Unsupported serial format version " + version);
+        }
+
+        this.token = readString(in);
+        this.refreshToken = readString(in);
+        this.refreshExpiration = in.readLong();
+        this.accessTokenExpiration = in.readLong();
+        this.accessTokenNotBefore = in.readLong();
+        this.idTokenMode = in.readByte();
+        this.idTokenValue = readString(in);
+    }
+
+    protected void initSerialState(final String idTokenString)
+    {
+        final Long exp = this.accessToken.getExp();
+        final Long nbf = this.accessToken.getNbf();
+        this.accessTokenExpiration = exp != null ? exp.longValue() : 0;
+        this.accessTokenNotBefore = nbf != null ? nbf.longValue() : 0;
+
+        if (this.idToken == null)
+        {
+            this.idTokenMode = ID_TOKEN_NONE;
+        }
+        else if (this.idToken == this.accessToken)
+        {
+            // e.g. bearer-token authentication where no separate ID token exists
+            this.idTokenMode = ID_TOKEN_ACCESS_TOKEN;
+        }
+        else if (idTokenString != null && !idTokenString.isEmpty())
+        {
+            this.idTokenMode = ID_TOKEN_RAW;
+            this.idTokenValue = idTokenString;
+        }
+        else
+        {
+            try
+            {
+                this.idTokenMode = ID_TOKEN_JSON;
+                this.idTokenValue = JsonSerialization.writeValueAsString(this.idToken);
+            }
+            catch (final IOException ioex)
+            {
+                throw new AlfrescoRuntimeException("Failed to write ID token for serialised state", ioex);
+            }
+        }
+    }
+
+    protected <T> T parseToken(final String tokenString, final Class<T> tokenClass)
+    {
+        try
+        {
+            // token was already verified before the original instance was constructed
+            return new JWSInput(tokenString).readJsonContent(tokenClass);
+        }
+        catch (final JWSInputException jwsiex)
+        {
+            throw new AlfrescoRuntimeException("Failed to parse token from serialised state", jwsiex);
+        }
+    }
+
+    private static void writeString(final ObjectOutput out, final String value) throws IOException
+    {
+        // not using writeUTF as tokens with many claims may exceed its 64 KiB limit
+        if (value == null)
+        {
+            out.writeInt(-1);
+        }
+        else
+        {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(final ObjectInput in) throws IOException
+    {
+        final int length = in.readInt();
+        String value = null;
+        if (length >= 0)
+        {
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
 }
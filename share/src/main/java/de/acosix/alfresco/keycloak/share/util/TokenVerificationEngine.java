@@ -0,0 +1,413 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+import org.alfresco.util.ParameterCheck;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.rotation.AdapterTokenVerifier;
+import org.keycloak.common.VerificationException;
+import org.keycloak.exceptions.TokenNotActiveException;
+import org.keycloak.exceptions.TokenSignatureInvalidException;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.JWSInputException;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.IDToken;
+import org.keycloak.representations.JsonWebToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of this class verify JSON Web Tokens issued by the Keycloak realm of a deployment, applying the same checks as the default
+ * {@link AdapterTokenVerifier adapter token verifier}, but with less overhead on repeated verifications:
+ * <ul>
+ * <li>the expiration of a token is checked before its signature, so that expired tokens are rejected without any cryptographic work</li>
+ * <li>{@link Signature} instances are retained per thread, signature algorithm and key, avoiding the costly provider lookup and key
+ * initialisation on each verification</li>
+ * <li>the parsed claims of successfully verified tokens are optionally cached, keyed by a digest of the token, so that tokens presented
+ * repeatedly (e.g. bearer tokens of API clients) only need to be parsed and verified once for as long as they are active</li>
+ * <li>the cache of verified claims is a bounded, concurrent cache, so that lookups on request processing paths do not contend on a global
+ * lock, and entries expire together with the token they were cached for</li>
+ * </ul>
+ *
+ * Tokens signed with algorithms not directly supported by this class are verified using the default adapter token verifier. Failed checks
+ * are reported with the same exception types as the default adapter token verifier uses, e.g. {@link TokenNotActiveException} for expired
+ * tokens.
+ *
+ * @author Axel Faust
+ */
+public class TokenVerificationEngine
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TokenVerificationEngine.class);
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final String TOKEN_TYPE_BEARER = "Bearer";
+
+    private static final String TOKEN_TYPE_ID = "ID";
+
+    private static final Map<String, String> JCA_ALGORITHMS;
+
+    private static final Map<String, Integer> ECDSA_COMPONENT_LENGTHS;
+
+    static
+    {
+        final Map<String, String> jcaAlgorithms = new HashMap<>();
+        jcaAlgorithms.put("RS256", "SHA256withRSA");
+        jcaAlgorithms.put("RS384", "SHA384withRSA");
+        jcaAlgorithms.put("RS512", "SHA512withRSA");
+        jcaAlgorithms.put("ES256", "SHA256withECDSA");
+        jcaAlgorithms.put("ES384", "SHA384withECDSA");
+        jcaAlgorithms.put("ES512", "SHA512withECDSA");
+        JCA_ALGORITHMS = jcaAlgorithms;
+
+        final Map<String, Integer> ecdsaComponentLengths = new HashMap<>();
+        ecdsaComponentLengths.put("ES256", 32);
+        ecdsaComponentLengths.put("ES384", 48);
+        ecdsaComponentLengths.put("ES512", 66);
+        ECDSA_COMPONENT_LENGTHS = ecdsaComponentLengths;
+    }
+
+    protected final KeycloakDeployment deployment;
+
+    protected final int claimsCacheSize;
+
+    protected final BoundedConcurrentCache<String, JsonWebToken> verifiedClaims;
+
+    // Signature instances are not thread-safe, but can be re-used for any number of verifications with the same key
+    // not static, so that retained instances become eligible for garbage collection together with this instance
+    protected final ThreadLocal<Map<String, SignatureHolder>> signatures = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * Creates a new instance of this class without caching of verified claims.
+     *
+     * @param deployment
+     *     the Keycloak deployment
+     */
+    public TokenVerificationEngine(final KeycloakDeployment deployment)
+    {
+        this(deployment, 0);
+    }
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param deployment
+     *     the Keycloak deployment
+     * @param claimsCacheSize
+     *     the maximum number of verified tokens for which to cache the parsed claims - a value less than or equal to zero disables caching
+     */
+    public TokenVerificationEngine(final KeycloakDeployment deployment, final int claimsCacheSize)
+    {
+        ParameterCheck.mandatory("deployment", deployment);
+        this.deployment = deployment;
+        this.claimsCacheSize = claimsCacheSize;
+        this.verifiedClaims = claimsCacheSize > 0 ? new BoundedConcurrentCache<>(claimsCacheSize) : null;
+    }
+
+    /**
+     * Verifies an access token.
+     *
+     * @param tokenString
+     *     the serialised access token
+     * @param audience
+     *     the audience the token must have been issued for, or {@code null} if the audience should not be checked
+     * @param issuedFor
+     *     the client the token must have been issued to, or {@code null} if the authorised party should not be checked
+     * @return the verified access token
+     * @throws VerificationException
+     *     if the token is invalid
+     */
+    public AccessToken verifyAccessToken(final String tokenString, final String audience, final String issuedFor)
+            throws VerificationException
+    {
+        return this.verify(tokenString, AccessToken.class, TOKEN_TYPE_BEARER, audience, issuedFor);
+    }
+
+    /**
+     * Verifies an ID token.
+     *
+     * @param tokenString
+     *     the serialised ID token
+     * @param audience
+     *     the audience the token must have been issued for, or {@code null} if the audience should not be checked
+     * @param issuedFor
+     *     the client the token must have been issued to, or {@code null} if the authorised party should not be checked
+     * @return the verified ID token
+     * @throws VerificationException
+     *     if the token is invalid
+     */
+    public IDToken verifyIdToken(final String tokenString, final String audience, final String issuedFor) throws VerificationException
+    {
+        return this.verify(tokenString, IDToken.class, TOKEN_TYPE_ID, audience, issuedFor);
+    }
+
+    /**
+     * Clears all cached claims of verified tokens, as well as the signature instances retained for the current thread.
+     */
+    public void clear()
+    {
+        if (this.verifiedClaims != null)
+        {
+            this.verifiedClaims.clear();
+        }
+        this.signatures.remove();
+    }
+
+    protected <T extends JsonWebToken> T verify(final String tokenString, final Class<T> tokenClass, final String tokenType,
+            final String audience, final String issuedFor) throws VerificationException
+    {
+        ParameterCheck.mandatoryString("tokenString", tokenString);
+
+        final String cacheKey = this.verifiedClaims != null
+                ? this.digest(tokenString) + '|' + tokenClass.getName() + '|' + audience + '|' + issuedFor
+                : null;
+        if (cacheKey != null)
+        {
+            final JsonWebToken cachedToken = this.verifiedClaims.get(cacheKey);
+            if (cachedToken != null)
+            {
+                if (!cachedToken.isActive())
+                {
+                    this.verifiedClaims.remove(cacheKey);
+                    throw new TokenNotActiveException(cachedToken, "Token is not active");
+                }
+                return tokenClass.cast(cachedToken);
+            }
+        }
+
+        final JWSInput jws;
+        final T token;
+        try
+        {
+            jws = new JWSInput(tokenString);
+            token = jws.readJsonContent(tokenClass);
+        }
+        catch (final JWSInputException jwsiex)
+        {
+            throw new VerificationException("Failed to parse JWT", jwsiex);
+        }
+
+        // cheap claim checks before any cryptographic work
+        this.verifyClaims(token, tokenType, audience, issuedFor);
+        this.verifySignature(tokenString, token, jws);
+
+        if (cacheKey != null)
+        {
+            // entry expires together with the token, instead of lingering until evicted
+            final Long exp = token.getExp();
+            final long timeToLiveMillis = exp != null ? Math.max(1, exp.longValue() * 1000 - System.currentTimeMillis()) : 0;
+            this.verifiedClaims.put(cacheKey, token, timeToLiveMillis);
+        }
+
+        return token;
+    }
+
+    protected void verifyClaims(final JsonWebToken token, final String tokenType, final String audience, final String issuedFor)
+            throws VerificationException
+    {
+        if (!token.isActive())
+        {
+            throw new TokenNotActiveException(token, "Token is not active");
+        }
+        if (token.getSubject() == null)
+        {
+            throw new VerificationException("Subject missing in token");
+        }
+        if (!tokenType.equalsIgnoreCase(token.getType()))
+        {
+            throw new VerificationException("Token type is incorrect. Expected '" + tokenType + "' but was '" + token.getType() + "'");
+        }
+
+        final String realmUrl = this.deployment.getRealmInfoUrl();
+        if (realmUrl == null)
+        {
+            throw new VerificationException("Realm URL not set");
+        }
+        if (!realmUrl.equals(token.getIssuer()))
+        {
+            throw new VerificationException("Invalid token issuer. Expected '" + realmUrl + "'");
+        }
+
+        if (audience != null && !token.hasAudience(audience))
+        {
+            throw new VerificationException("Expected audience not available in the token");
+        }
+        if (issuedFor != null && !issuedFor.equals(token.getIssuedFor()))
+        {
+            throw new VerificationException("Expected issuedFor doesn't match");
+        }
+    }
+
+    protected void verifySignature(final String tokenString, final JsonWebToken token, final JWSInput jws) throws VerificationException
+    {
+        final String algorithm = jws.getHeader().getRawAlgorithm();
+        final String jcaAlgorithm = JCA_ALGORITHMS.get(algorithm);
+        if (jcaAlgorithm == null)
+        {
+            LOGGER.debug("Signature algorithm {} not directly supported - delegating to default token verifier", algorithm);
+            AdapterTokenVerifier.createVerifier(tokenString, this.deployment, false, token.getClass()).verify();
+            return;
+        }
+
+        final String kid = jws.getHeader().getKeyId();
+        final PublicKey publicKey = this.deployment.getPublicKeyLocator().getPublicKey(kid, this.deployment);
+        if (publicKey == null)
+        {
+            throw new VerificationException("Didn't find publicKey for kid: " + kid);
+        }
+
+        byte[] signatureBytes = jws.getSignature();
+        final Integer ecdsaComponentLength = ECDSA_COMPONENT_LENGTHS.get(algorithm);
+        if (ecdsaComponentLength != null)
+        {
+            if (signatureBytes.length != 2 * ecdsaComponentLength.intValue())
+            {
+                throw new TokenSignatureInvalidException(token, "Invalid token signature");
+            }
+            signatureBytes = toDerSignature(signatureBytes);
+        }
+
+        final boolean valid;
+        try
+        {
+            final Signature signature = this.getSignature(jcaAlgorithm, kid, publicKey);
+            signature.update(jws.getEncodedSignatureInput().getBytes(StandardCharsets.UTF_8));
+            valid = signature.verify(signatureBytes);
+        }
+        catch (final GeneralSecurityException gsex)
+        {
+            // instance state is undefined after failure
+            this.signatures.get().remove(jcaAlgorithm + '|' + kid);
+            throw new TokenSignatureInvalidException(token, "Failed to verify token signature", gsex);
+        }
+
+        if (!valid)
+        {
+            throw new TokenSignatureInvalidException(token, "Invalid token signature");
+        }
+    }
+
+    protected Signature getSignature(final String jcaAlgorithm, final String kid, final PublicKey publicKey) throws GeneralSecurityException
+    {
+        final Map<String, SignatureHolder> signatures = this.signatures.get();
+        final String key = jcaAlgorithm + '|' + kid;
+
+        SignatureHolder holder = signatures.get(key);
+        if (holder == null || holder.publicKey != publicKey)
+        {
+            final Signature signature = holder != null ? holder.signature : Signature.getInstance(jcaAlgorithm);
+            // a completed verify resets the instance to the state after initVerify, so initialisation is only needed for new keys
+            signature.initVerify(publicKey);
+            holder = new SignatureHolder(signature, publicKey);
+            signatures.put(key, holder);
+        }
+        return holder.signature;
+    }
+
+    protected String digest(final String tokenString)
+    {
+        try
+        {
+            final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            return HexFormat.of().formatHex(digest.digest(tokenString.getBytes(StandardCharsets.UTF_8)));
+        }
+        catch (final GeneralSecurityException gsex)
+        {
+            throw new IllegalStateException("Failed to digest token", gsex);
+        }
+    }
+
+    /**
+     * Converts a JWS ECDSA signature, consisting of the concatenated R and S values, into the ASN.1 DER encoding expected by the JCA.
+     *
+     * @param signature
+     *     the JWS signature
+     * @return the DER-encoded signature
+     */
+    protected static byte[] toDerSignature(final byte[] signature)
+    {
+        final int componentLength = signature.length / 2;
+        final byte[] r = toDerInteger(signature, 0, componentLength);
+        final byte[] s = toDerInteger(signature, componentLength, componentLength);
+
+        final int sequenceLength = 2 + r.length + 2 + s.length;
+        final boolean longForm = sequenceLength >= 128;
+        final byte[] der = new byte[(longForm ? 3 : 2) + sequenceLength];
+
+        int offset = 0;
+        der[offset++] = 0x30;
+        if (longForm)
+        {
+            der[offset++] = (byte) 0x81;
+        }
+        der[offset++] = (byte) sequenceLength;
+        der[offset++] = 0x02;
+        der[offset++] = (byte) r.length;
+        System.arraycopy(r, 0, der, offset, r.length);
+        offset += r.length;
+        der[offset++] = 0x02;
+        der[offset++] = (byte) s.length;
+        System.arraycopy(s, 0, der, offset, s.length);
+
+        return der;
+    }
+
+    private static byte[] toDerInteger(final byte[] source, final int offset, final int length)
+    {
+        int start = offset;
+        final int end = offset + length;
+        // strip leading zeros, but retain at least one byte
+        while (start < end - 1 && source[start] == 0)
+        {
+            start++;
+        }
+
+        // positive integers with high bit set require a leading zero
+        final boolean padding = (source[start] & 0x80) != 0;
+        final byte[] integer = new byte[end - start + (padding ? 1 : 0)];
+        System.arraycopy(source, start, integer, padding ? 1 : 0, end - start);
+        return integer;
+    }
+
+    /**
+     * Simple holder for a retained signature instance.
+     *
+     * @author Axel Faust
+     */
+    protected static class SignatureHolder
+    {
+
+        protected final Signature signature;
+
+        protected final PublicKey publicKey;
+
+        protected SignatureHolder(final Signature signature, final PublicKey publicKey)
+        {
+            this.signature = signature;
+            this.publicKey = publicKey;
+        }
+    }
+}
@@ -15,24 +15,23 @@
  */
 package de.acosix.alfresco.keycloak.share.web;
 
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
-import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.keycloak.adapters.spi.InMemorySessionIdMapper;
 import org.keycloak.adapters.spi.SessionIdMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
-import org.springframework.extensions.config.ConfigService;
 
-import de.acosix.alfresco.keycloak.share.config.KeycloakAuthenticationConfigElement;
+import de.acosix.alfresco.keycloak.share.config.KeycloakConfigSnapshotProvider;
 
 /**
  * This implementation of a {@link SessionIdMapper Keycloak session ID mapper} is based on the {@link InMemorySessionIdMapper in-memory
@@ -40,6 +39,13 @@ import de.acosix.alfresco.keycloak.share.config.KeycloakAuthenticationConfigElem
  * Activity of session with regards to being determined the "least-recently active" session is based upon validation calls to
  * {@link #hasSession(String) hasSession}.
  *
+ * All mappings are held in concurrent maps, with modifications for a particular session being atomic with regards to that session only,
+ * so that neither lookups nor modifications for different sessions contend on a global lock. The least-recently active order is
+ * approximated using the CLOCK (second chance) algorithm: validation calls only mark a session as referenced, and when the configured
+ * limit is exceeded, sessions are evicted in order of their mapping, skipping (and un-marking) any session referenced since it was last
+ * considered for eviction. Only complete mappings, i.e. sessions mapped to both an SSO session and a principal, count towards the
+ * configured limit.
+ *
  * @author Axel Faust
  */
 public class DefaultSessionIdMapper implements SessionIdMapper, InitializingBean
@@ -49,21 +55,23 @@ public class DefaultSessionIdMapper implements SessionIdMapper, InitializingBean
 
     private static final int DEFAULT_SESSION_COUNT_LIMIT = 1000;
 
-    protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    protected final Map<String, String> ssoToSession = new ConcurrentHashMap<>();
 
-    protected final Map<String, String> ssoToSession = new HashMap<>();
+    protected final Map<String, SessionMapping> sessionMappings = new ConcurrentHashMap<>();
 
-    protected final Map<String, String> sessionToSso = new HashMap<>();
+    protected final Map<String, Set<String>> principalToSession = new ConcurrentHashMap<>();
 
-    protected final Map<String, Set<String>> principalToSession = new HashMap<>();
+    protected final Queue<SessionMapping> evictionQueue = new ConcurrentLinkedQueue<>();
 
-    protected final Map<String, String> sessionToPrincipal = new HashMap<>();
+    protected final AtomicInteger evictionQueueSize = new AtomicInteger(0);
 
-    protected ConfigService configService;
+    protected final AtomicInteger completeMappingCount = new AtomicInteger(0);
 
-    protected int sessionCountLimit = DEFAULT_SESSION_COUNT_LIMIT;
+    protected final ReentrantLock evictionLock = new ReentrantLock();
 
-    protected Set<String> sessionUsedOrder;
+    protected KeycloakConfigSnapshotProvider configSnapshotProvider;
+
+    protected int sessionCountLimit = DEFAULT_SESSION_COUNT_LIMIT;
 
     /**
      *
@@ -72,11 +80,9 @@ public class DefaultSessionIdMapper implements SessionIdMapper, InitializingBean
     @Override
     public void afterPropertiesSet()
     {
-        if (this.configService != null)
+        if (this.configSnapshotProvider != null)
         {
-            final KeycloakAuthenticationConfigElement keycloakAuthConfig = (KeycloakAuthenticationConfigElement) this.configService
-                    .getConfig("Keycloak").getConfigElement(KeycloakAuthenticationConfigElement.NAME);
-            final Integer sessionMapperLimit = keycloakAuthConfig.getSessionMapperLimit();
+            final Integer sessionMapperLimit = this.configSnapshotProvider.getSnapshot().getSessionMapperLimit();
             if (sessionMapperLimit != null)
             {
                 this.sessionCountLimit = sessionMapperLimit.intValue();
@@ -89,19 +95,15 @@ public class DefaultSessionIdMapper implements SessionIdMapper, InitializingBean
                     "Session count limit is set to {} - session ID mapper will not restrict size of internal data structures (this can cause OOMEs)",
                     this.sessionCountLimit);
         }
-        else
-        {
-            this.sessionUsedOrder = new LinkedHashSet<>();
-        }
     }
 
     /**
-     * @param configService
-     *            the configService to set
+     * @param configSnapshotProvider
+     *            the configSnapshotProvider to set
      */
-    public void setConfigService(final ConfigService configService)
+    public void setConfigSnapshotProvider(final KeycloakConfigSnapshotProvider configSnapshotProvider)
     {
-        this.configService = configService;
+        this.configSnapshotProvider = configSnapshotProvider;
     }
 
     /**
@@ -116,27 +118,17 @@ public class DefaultSessionIdMapper implements SessionIdMapper, InitializingBean
     @Override
     public boolean hasSession(final String id)
     {
-        this.lock.readLock().lock();
-        try
-        {
-            LOGGER.debug("Checking hasSession for {}", id);
-            final boolean hasSession = this.sessionToSso.containsKey(id) || this.sessionToPrincipal.containsKey(id);
-            LOGGER.debug("Session {}", hasSession ? "is mapped" : "is not mapped");
+        LOGGER.debug("Checking hasSession for {}", id);
+        final SessionMapping mapping = this.sessionMappings.get(id);
+        final boolean hasSession = mapping != null;
+        LOGGER.debug("Session {}", hasSession ? "is mapped" : "is not mapped");
 
-            if (hasSession && this.sessionCountLimit > 0)
-            {
-                synchronized (this.sessionUsedOrder)
-                {
-                    this.sessionUsedOrder.remove(id);
-                    this.sessionUsedOrder.add(id);
-                }
-            }
-            return hasSession;
-        }
-        finally
+        // avoid redundant volatile writes (and cache line invalidation) for frequently validated sessions
+        if (hasSession && !mapping.referenced)
         {
-            this.lock.readLock().unlock();
+            mapping.referenced = true;
         }
+        return hasSession;
     }
 
     /**
@@ -146,18 +138,20 @@ public class DefaultSessionIdMapper implements SessionIdMapper, InitializingBean
     @Override
     public void clear()
     {
-        this.lock.writeLock().lock();
+        this.evictionLock.lock();
         try
         {
             LOGGER.info("Clearing all mappings");
+            this.sessionMappings.clear();
             this.ssoToSession.clear();
-            this.sessionToSso.clear();
             this.principalToSession.clear();
-            this.sessionToPrincipal.clear();
+            this.evictionQueue.clear();
+            this.evictionQueueSize.set(0);
+            this.completeMappingCount.set(0);
         }
         finally
         {
-            this.lock.writeLock().unlock();
+            this.evictionLock.unlock();
         }
     }
 
@@ -169,24 +163,16 @@ public class DefaultSessionIdMapper implements SessionIdMapper, InitializingBean
     public Set<String> getUserSessions(final String principal)
     {
         Set<String> userSessions;
-        this.lock.readLock().lock();
-        try
+        LOGGER.debug("Retrieving user sessions for {}", principal);
+        final Set<String> lookup = this.principalToSession.get(principal);
+        if (lookup != null)
         {
-            LOGGER.debug("Retrieving user sessions for {}", principal);
-            final Set<String> lookup = this.principalToSession.get(principal);
-            if (lookup != null)
-            {
-                userSessions = new HashSet<>();
-                userSessions.addAll(lookup);
-            }
-            else
-            {
-                userSessions = Collections.emptySet();
-            }
+            userSessions = new HashSet<>();
+            userSessions.addAll(lookup);
         }
-        finally
+        else
         {
-            this.lock.readLock().unlock();
+            userSessions = Collections.emptySet();
         }
         LOGGER.debug("Principal {} is mapped to sessions {}", principal, userSessions);
         return userSessions;
@@ -199,15 +185,7 @@ public class DefaultSessionIdMapper implements SessionIdMapper, InitializingBean
     @Override
     public String getSessionFromSSO(final String sso)
     {
-        this.lock.readLock().lock();
-        try
-        {
-            return this.ssoToSession.get(sso);
-        }
-        finally
-        {
-            this.lock.readLock().unlock();
-        }
+        return this.ssoToSession.get(sso);
     }
 
     /**
@@ -217,55 +195,51 @@ public class DefaultSessionIdMapper implements SessionIdMapper, InitializingBean
     @Override
     public void map(final String sso, final String principal, final String session)
     {
-        this.lock.writeLock().lock();
-        try
-        {
-            LOGGER.debug("Adding mapping ({}, {},  {})", sso, principal, session);
+        LOGGER.debug("Adding mapping ({}, {},  {})", sso, principal, session);
+
+        final boolean[] completed = new boolean[1];
+        final SessionMapping mapping = this.sessionMappings.compute(session, (key, value) -> {
+            if (value == null)
+            {
+                value = new SessionMapping(session);
+            }
+            final boolean wasComplete = value.isComplete();
 
             if (sso != null)
             {
+                if (value.sso != null && !value.sso.equals(sso))
+                {
+                    this.ssoToSession.remove(value.sso, session);
+                }
                 this.ssoToSession.put(sso, session);
-                this.sessionToSso.put(session, sso);
-
+                value.sso = sso;
             }
 
             if (principal != null)
             {
-                this.principalToSession.compute(principal, (key, value) -> {
-                    if (value == null)
-                    {
-                        value = new HashSet<>();
-                    }
-                    value.add(session);
-                    return value;
-                });
-                this.sessionToPrincipal.put(session, principal);
+                if (value.principal != null && !value.principal.equals(principal))
+                {
+                    this.removeFromPrincipal(value.principal, session);
+                }
+                this.principalToSession.computeIfAbsent(principal, k -> ConcurrentHashMap.newKeySet()).add(session);
+                value.principal = principal;
             }
 
-            if (this.sessionCountLimit > 0 && sso != null && principal != null)
+            // incomplete mappings do not count towards the limit, as they are not yet subject to eviction
+            if (!wasComplete && value.isComplete())
             {
-                synchronized (this.sessionUsedOrder)
-                {
-                    this.sessionUsedOrder.add(session);
-
-                    final int sessionsToRemove = this.sessionUsedOrder.size() - this.sessionCountLimit;
-                    if (sessionsToRemove == 1)
-                    {
-                        final String sessionToRemove = this.sessionUsedOrder.iterator().next();
-                        this.removeSession(sessionToRemove);
-                    }
-                    // should really not happen, but in place should we ever switch to a more bulk-handling
-                    else if (sessionsToRemove > 0)
-                    {
-                        final List<String> sessionsForRemoval = new ArrayList<>(this.sessionUsedOrder).subList(0, sessionsToRemove);
-                        sessionsForRemoval.forEach(this::removeSession);
-                    }
-                }
+                this.completeMappingCount.incrementAndGet();
+                completed[0] = true;
             }
-        }
-        finally
+
+            return value;
+        });
+
+        if (this.sessionCountLimit > 0 && completed[0])
         {
-            this.lock.writeLock().unlock();
+            this.evictionQueue.offer(mapping);
+            this.evictionQueueSize.incrementAndGet();
+            this.evictIfNecessary();
         }
     }
 
@@ -276,41 +250,126 @@ public class DefaultSessionIdMapper implements SessionIdMapper, InitializingBean
     @Override
     public void removeSession(final String session)
     {
-        this.lock.writeLock().lock();
-        try
-        {
-            LOGGER.debug("Removing session {}", session);
+        LOGGER.debug("Removing session {}", session);
 
-            final String sso = this.sessionToSso.remove(session);
-            if (sso != null)
+        this.removeSession(session, null);
+    }
+
+    protected void removeSession(final String session, final SessionMapping expectedMapping)
+    {
+        // computeIfPresent instead of simple remove to make reverse mapping updates atomic with regards to concurrent map calls
+        this.sessionMappings.computeIfPresent(session, (key, value) -> {
+            if (expectedMapping != null && value != expectedMapping)
             {
-                this.ssoToSession.remove(sso);
+                return value;
             }
 
-            final String principal = this.sessionToPrincipal.remove(session);
-            if (principal != null)
+            if (value.sso != null)
             {
-                this.principalToSession.computeIfPresent(principal, (key, value) -> {
-                    value.remove(session);
-                    if (value.isEmpty())
-                    {
-                        value = null;
-                    }
-                    return value;
-                });
+                this.ssoToSession.remove(value.sso, session);
+            }
+            if (value.principal != null)
+            {
+                this.removeFromPrincipal(value.principal, session);
+            }
+            if (value.isComplete())
+            {
+                this.completeMappingCount.decrementAndGet();
             }
+            return null;
+        });
+        // eviction queue is cleaned lazily as removed mappings are encountered
+    }
+
+    protected void removeFromPrincipal(final String principal, final String session)
+    {
+        this.principalToSession.computeIfPresent(principal, (key, value) -> {
+            value.remove(session);
+            if (value.isEmpty())
+            {
+                value = null;
+            }
+            return value;
+        });
+    }
 
-            if (this.sessionCountLimit > 0)
+    protected void evictIfNecessary()
+    {
+        if (this.completeMappingCount.get() > this.sessionCountLimit || this.evictionQueueSize.get() > 2 * this.sessionCountLimit)
+        {
+            this.evictionLock.lock();
+            try
             {
-                synchronized (this.sessionUsedOrder)
+                // sessions may have been removed concurrently, leaving mappings no longer active in the queue
+                if (this.evictionQueueSize.get() > 2 * this.sessionCountLimit)
+                {
+                    this.evictionQueue.removeIf(mapping -> {
+                        final boolean stale = this.sessionMappings.get(mapping.session) != mapping;
+                        if (stale)
+                        {
+                            this.evictionQueueSize.decrementAndGet();
+                        }
+                        return stale;
+                    });
+                }
+
+                while (this.completeMappingCount.get() > this.sessionCountLimit)
                 {
-                    this.sessionUsedOrder.remove(session);
+                    final SessionMapping candidate = this.evictionQueue.poll();
+                    if (candidate == null)
+                    {
+                        break;
+                    }
+
+                    if (this.sessionMappings.get(candidate.session) != candidate)
+                    {
+                        this.evictionQueueSize.decrementAndGet();
+                    }
+                    else if (candidate.referenced)
+                    {
+                        // second chance
+                        candidate.referenced = false;
+                        this.evictionQueue.offer(candidate);
+                    }
+                    else
+                    {
+                        this.evictionQueueSize.decrementAndGet();
+                        LOGGER.debug("Evicting least-recently active session {} due to session count limit", candidate.session);
+                        this.removeSession(candidate.session, candidate);
+                    }
                 }
             }
+            finally
+            {
+                this.evictionLock.unlock();
+            }
         }
-        finally
+    }
+
+    /**
+     * Instances of this class hold the mapping state of a single session.
+     *
+     * @author Axel Faust
+     */
+    protected static class SessionMapping
+    {
+
+        protected final String session;
+
+        protected String sso;
+
+        protected String principal;
+
+        protected volatile boolean referenced;
+
+        protected SessionMapping(final String session)
+        {
+            this.session = session;
+        }
+
+        protected boolean isComplete()
         {
-            this.lock.writeLock().unlock();
+            return this.sso != null && this.principal != null;
         }
     }
 }
@@ -18,6 +18,7 @@ package de.acosix.alfresco.keycloak.share.web;
 import static org.alfresco.web.site.SlingshotPageView.REDIRECT_QUERY;
 import static org.alfresco.web.site.SlingshotPageView.REDIRECT_URI;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
@@ -29,10 +30,22 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -55,13 +68,14 @@ import org.apache.http.conn.params.ConnRoutePNames;
 import org.apache.http.conn.params.ConnRouteParams;
 import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.HttpParams;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.EntityUtils;
 import org.keycloak.KeycloakSecurityContext;
 import org.keycloak.OAuth2Constants;
-import org.keycloak.TokenVerifier;
 import org.keycloak.adapters.AdapterDeploymentContext;
 import org.keycloak.adapters.AuthenticatedActionsHandler;
 import org.keycloak.adapters.BearerTokenRequestAuthenticator;
@@ -71,7 +85,6 @@ import org.keycloak.adapters.OAuthRequestAuthenticator;
 import org.keycloak.adapters.OIDCAuthenticationError;
 import org.keycloak.adapters.OidcKeycloakAccount;
 import org.keycloak.adapters.PreAuthActionsHandler;
-import org.keycloak.adapters.rotation.AdapterTokenVerifier;
 import org.keycloak.adapters.rotation.AdapterTokenVerifier.VerifiedTokens;
 import org.keycloak.adapters.servlet.FilterRequestAuthenticator;
 import org.keycloak.adapters.servlet.OIDCFilterSessionStore;
@@ -91,6 +104,7 @@ import org.keycloak.representations.AccessTokenResponse;
 import org.keycloak.util.JsonSerialization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
@@ -120,12 +134,18 @@ import org.springframework.web.context.request.ServletRequestAttributes;
 
 import de.acosix.alfresco.keycloak.share.config.ExtendedAdapterConfig;
 import de.acosix.alfresco.keycloak.share.config.KeycloakAdapterConfigElement;
-import de.acosix.alfresco.keycloak.share.config.KeycloakAuthenticationConfigElement;
 import de.acosix.alfresco.keycloak.share.config.KeycloakConfigConstants;
+import de.acosix.alfresco.keycloak.share.config.KeycloakConfigSnapshot;
+import de.acosix.alfresco.keycloak.share.config.KeycloakConfigSnapshotProvider;
 import de.acosix.alfresco.keycloak.share.remote.AccessTokenAwareSlingshotAlfrescoConnector;
+import de.acosix.alfresco.keycloak.share.util.AuthorizationHeaderHolder;
+import de.acosix.alfresco.keycloak.share.util.BoundedConcurrentCache;
+import de.acosix.alfresco.keycloak.share.util.DetachedRequestUtil;
 import de.acosix.alfresco.keycloak.share.util.HttpClientBuilder;
 import de.acosix.alfresco.keycloak.share.util.NameValueMapAdapter;
+import de.acosix.alfresco.keycloak.share.util.PrefetchingPublicKeyLocator;
 import de.acosix.alfresco.keycloak.share.util.RefreshableAccessTokenHolder;
+import de.acosix.alfresco.keycloak.share.util.TokenVerificationEngine;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletException;
@@ -144,7 +164,7 @@ import jakarta.servlet.http.HttpSession;
  * @author Axel Faust
  */
 @SuppressWarnings("deprecation")
-public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, InitializingBean, ApplicationContextAware
+public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, InitializingBean, DisposableBean, ApplicationContextAware
 {
 
     public static final String KEYCLOAK_AUTHENTICATED_COOKIE = "Acosix." + KeycloakAuthenticationFilter.class.getSimpleName();
@@ -173,6 +193,8 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
 
     private static final Pattern PROXY_URL_PATTERN_COMPILED = Pattern.compile(PROXY_URL_PATTERN);
 
+    private static final Pattern KEYCLOAK_ACTION_URL_PATTERN_COMPILED = Pattern.compile(KEYCLOAK_ACTION_URL_PATTERN);
+
     private static final String PAGE_SERVLET_PATH = "/page";
 
     private static final String LOGIN_PAGE_TYPE_PARAMETER_VALUE = "login";
@@ -190,6 +212,28 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
 
     private static final int DEFAULT_BODY_BUFFER_LIMIT = 32 * 1024;// 32 KiB
 
+    private static final int DEFAULT_BODY_BUFFER_THRESHOLD = 32 * 1024;// 32 KiB
+
+    private static final int DEFAULT_REQUEST_CLASSIFICATION_CACHE_SIZE = 1024;
+
+    private static final long DEFAULT_REQUEST_CLASSIFICATION_CACHE_TIME_TO_LIVE = 5 * 60000;
+
+    private static final int DEFAULT_BACKEND_TOKEN_REFRESH_AHEAD_SECONDS = 30;
+
+    private static final int DEFAULT_BACKEND_TOKEN_EXCHANGE_THREADS = 2;
+
+    private static final int DEFAULT_BACKEND_TOKEN_EXCHANGE_QUEUE_SIZE = 100;
+
+    private static final int BACKEND_TOKEN_EXCHANGE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private static final int DEFAULT_LOGIN_COMPLETION_THREADS = 4;
+
+    private static final int DEFAULT_LOGIN_COMPLETION_QUEUE_SIZE = 100;
+
+    private static final long DEFAULT_LOGIN_COMPLETION_TIMEOUT_MILLIS = 5000;
+
+    private static final int LOGIN_COMPLETION_THREAD_KEEP_ALIVE_SECONDS = 60;
+
     private static final ThreadLocal<String> LOGIN_REDIRECT_URL = new ThreadLocal<>();
 
     private static final BiFunction<HttpServletRequest, HttpServletResponse, ServletRequestAttributes> SERVLET_REQUEST_ATTRIBUTES_FACTORY;
@@ -229,6 +273,8 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
 
     protected ConfigService configService;
 
+    protected KeycloakConfigSnapshotProvider configSnapshotProvider;
+
     protected ConnectorService connectorService;
 
     protected PageViewResolver pageViewResolver;
@@ -255,6 +301,44 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
 
     protected AdapterDeploymentContext deploymentContext;
 
+    protected PrefetchingPublicKeyLocator publicKeyLocator;
+
+    protected volatile HttpClient httpClient;
+
+    protected volatile PoolingHttpClientConnectionManager connectionPool;
+
+    protected TokenVerificationEngine tokenVerificationEngine;
+
+    protected int requestClassificationCacheSize = DEFAULT_REQUEST_CLASSIFICATION_CACHE_SIZE;
+
+    protected long requestClassificationCacheTimeToLive = DEFAULT_REQUEST_CLASSIFICATION_CACHE_TIME_TO_LIVE;
+
+    protected BoundedConcurrentCache<String, RequestClassification> requestClassificationCache;
+
+    protected volatile KeycloakConfigSnapshot requestClassificationConfigSnapshot;
+
+    protected int backendTokenRefreshAheadSeconds = DEFAULT_BACKEND_TOKEN_REFRESH_AHEAD_SECONDS;
+
+    protected int backendTokenExchangeThreads = DEFAULT_BACKEND_TOKEN_EXCHANGE_THREADS;
+
+    protected int backendTokenExchangeQueueSize = DEFAULT_BACKEND_TOKEN_EXCHANGE_QUEUE_SIZE;
+
+    protected ThreadPoolExecutor backendTokenExchangeExecutor;
+
+    protected final Map<String, CompletableFuture<RefreshableAccessTokenHolder>> backendTokenExchanges = new ConcurrentHashMap<>();
+
+    protected final LongAdder backendTokenExchangeWaits = new LongAdder();
+
+    protected List<LoginCompletionStep> loginCompletionSteps = Collections.emptyList();
+
+    protected int loginCompletionThreads = DEFAULT_LOGIN_COMPLETION_THREADS;
+
+    protected int loginCompletionQueueSize = DEFAULT_LOGIN_COMPLETION_QUEUE_SIZE;
+
+    protected long loginCompletionTimeoutMillis = DEFAULT_LOGIN_COMPLETION_TIMEOUT_MILLIS;
+
+    protected ThreadPoolExecutor loginCompletionExecutor;
+
     /**
      * Retrieves the Keycloak login redirect URI set in the current thread's scope for use in any lazy redirect handling, e.g. as an action
      * in the login form.
@@ -304,12 +388,19 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
         PropertyCheck.mandatory(this, "applicationContext", this.applicationContext);
         PropertyCheck.mandatory(this, "primaryEndpoint", this.primaryEndpoint);
         PropertyCheck.mandatory(this, "configService", this.configService);
+        PropertyCheck.mandatory(this, "configSnapshotProvider", this.configSnapshotProvider);
         PropertyCheck.mandatory(this, "connectorService", this.connectorService);
         PropertyCheck.mandatory(this, "pageViewResolver", this.pageViewResolver);
         PropertyCheck.mandatory(this, "sessionIdMapper", this.sessionIdMapper);
 
         LOGGER.info("Setting up filter for primary endpoint {} and secondary endpoints {}", this.primaryEndpoint, this.secondaryEndpoints);
 
+        if (this.requestClassificationCacheSize > 0)
+        {
+            this.requestClassificationCache = new BoundedConcurrentCache<>(this.requestClassificationCacheSize,
+                    this.requestClassificationCacheTimeToLive);
+        }
+
         final RemoteConfigElement remoteConfig = (RemoteConfigElement) this.configService.getConfig("Remote").getConfigElement("remote");
         if (remoteConfig != null)
         {
@@ -331,15 +422,14 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
             LOGGER.error("No Keycloak adapter configuration has been defined for the application");
         }
 
-        final KeycloakAuthenticationConfigElement keycloakAuthConfig = (KeycloakAuthenticationConfigElement) this.configService
-                .getConfig(KeycloakConfigConstants.KEYCLOAK_CONFIG_SECTION_NAME).getConfigElement(KeycloakAuthenticationConfigElement.NAME);
-        if (keycloakAuthConfig != null)
+        final KeycloakConfigSnapshot configSnapshot = this.configSnapshotProvider.getSnapshot();
+        if (configSnapshot.isAuthConfigAvailable())
         {
-            this.filterEnabled = Boolean.TRUE.equals(keycloakAuthConfig.getEnableSsoFilter());
-            this.loginFormEnhancementEnabled = Boolean.TRUE.equals(keycloakAuthConfig.getEnhanceLoginForm());
-            this.forceSso = Boolean.TRUE.equals(keycloakAuthConfig.getForceKeycloakSso());
-            this.rememberSso = Boolean.TRUE.equals(keycloakAuthConfig.getRememberKeycloakSso());
-            this.ignoreDefaultFilter = Boolean.TRUE.equals(keycloakAuthConfig.getIgnoreDefaultFilter());
+            this.filterEnabled = configSnapshot.isEnableSsoFilter();
+            this.loginFormEnhancementEnabled = configSnapshot.isEnhanceLoginForm();
+            this.forceSso = configSnapshot.isForceKeycloakSso();
+            this.rememberSso = configSnapshot.isRememberKeycloakSso();
+            this.ignoreDefaultFilter = configSnapshot.isIgnoreDefaultFilter();
         }
         else
         {
@@ -350,6 +440,27 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
         {
             throw new IllegalStateException("The Keycloak adapter has not been properly configured");
         }
+
+        this.backendTokenExchangeExecutor = new ThreadPoolExecutor(Math.max(1, this.backendTokenExchangeThreads),
+                Math.max(1, this.backendTokenExchangeThreads), BACKEND_TOKEN_EXCHANGE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, this.backendTokenExchangeQueueSize)), r -> {
+                    final Thread thread = new Thread(r, KeycloakAuthenticationFilter.class.getSimpleName() + "-tokenExchange");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.backendTokenExchangeExecutor.allowCoreThreadTimeOut(true);
+
+        if (!this.loginCompletionSteps.isEmpty())
+        {
+            this.loginCompletionExecutor = new ThreadPoolExecutor(Math.max(1, this.loginCompletionThreads),
+                    Math.max(1, this.loginCompletionThreads), LOGIN_COMPLETION_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, this.loginCompletionQueueSize)), r -> {
+                        final Thread thread = new Thread(r, KeycloakAuthenticationFilter.class.getSimpleName() + "-loginCompletion");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            this.loginCompletionExecutor.allowCoreThreadTimeOut(true);
+        }
     }
 
     /**
@@ -370,6 +481,15 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
         this.configService = configService;
     }
 
+    /**
+     * @param configSnapshotProvider
+     *     the configSnapshotProvider to set
+     */
+    public void setConfigSnapshotProvider(final KeycloakConfigSnapshotProvider configSnapshotProvider)
+    {
+        this.configSnapshotProvider = configSnapshotProvider;
+    }
+
     /**
      * @param connectorService
      *     the connectorService to set
@@ -415,6 +535,87 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
         this.secondaryEndpoints = secondaryEndpoints != null ? new ArrayList<>(secondaryEndpoints) : null;
     }
 
+    /**
+     * @param requestClassificationCacheSize
+     *     the requestClassificationCacheSize to set
+     */
+    public void setRequestClassificationCacheSize(final int requestClassificationCacheSize)
+    {
+        this.requestClassificationCacheSize = requestClassificationCacheSize;
+    }
+
+    /**
+     * @param requestClassificationCacheTimeToLive
+     *     the requestClassificationCacheTimeToLive to set
+     */
+    public void setRequestClassificationCacheTimeToLive(final long requestClassificationCacheTimeToLive)
+    {
+        this.requestClassificationCacheTimeToLive = requestClassificationCacheTimeToLive;
+    }
+
+    /**
+     * @param backendTokenRefreshAheadSeconds
+     *     the backendTokenRefreshAheadSeconds to set
+     */
+    public void setBackendTokenRefreshAheadSeconds(final int backendTokenRefreshAheadSeconds)
+    {
+        this.backendTokenRefreshAheadSeconds = backendTokenRefreshAheadSeconds;
+    }
+
+    /**
+     * @param backendTokenExchangeThreads
+     *     the backendTokenExchangeThreads to set
+     */
+    public void setBackendTokenExchangeThreads(final int backendTokenExchangeThreads)
+    {
+        this.backendTokenExchangeThreads = backendTokenExchangeThreads;
+    }
+
+    /**
+     * @param backendTokenExchangeQueueSize
+     *     the backendTokenExchangeQueueSize to set
+     */
+    public void setBackendTokenExchangeQueueSize(final int backendTokenExchangeQueueSize)
+    {
+        this.backendTokenExchangeQueueSize = backendTokenExchangeQueueSize;
+    }
+
+    /**
+     * @param loginCompletionSteps
+     *     the loginCompletionSteps to set
+     */
+    public void setLoginCompletionSteps(final List<LoginCompletionStep> loginCompletionSteps)
+    {
+        this.loginCompletionSteps = loginCompletionSteps != null ? new ArrayList<>(loginCompletionSteps) : Collections.emptyList();
+    }
+
+    /**
+     * @param loginCompletionThreads
+     *     the loginCompletionThreads to set
+     */
+    public void setLoginCompletionThreads(final int loginCompletionThreads)
+    {
+        this.loginCompletionThreads = loginCompletionThreads;
+    }
+
+    /**
+     * @param loginCompletionQueueSize
+     *     the loginCompletionQueueSize to set
+     */
+    public void setLoginCompletionQueueSize(final int loginCompletionQueueSize)
+    {
+        this.loginCompletionQueueSize = loginCompletionQueueSize;
+    }
+
+    /**
+     * @param loginCompletionTimeoutMillis
+     *     the loginCompletionTimeoutMillis to set
+     */
+    public void setLoginCompletionTimeoutMillis(final long loginCompletionTimeoutMillis)
+    {
+        this.loginCompletionTimeoutMillis = loginCompletionTimeoutMillis;
+    }
+
     /**
      *
      * {@inheritDoc}
@@ -524,40 +725,124 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
         }
     }
 
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy()
+    {
+        if (this.publicKeyLocator != null)
+        {
+            this.publicKeyLocator.shutdown();
+            this.publicKeyLocator = null;
+        }
+        if (this.backendTokenExchangeExecutor != null)
+        {
+            this.backendTokenExchangeExecutor.shutdownNow();
+            this.backendTokenExchangeExecutor = null;
+        }
+        if (this.loginCompletionExecutor != null)
+        {
+            this.loginCompletionExecutor.shutdownNow();
+            this.loginCompletionExecutor = null;
+        }
+        // closing the client also stops any idle connection eviction thread
+        if (this.httpClient instanceof Closeable)
+        {
+            try
+            {
+                ((Closeable) this.httpClient).close();
+            }
+            catch (final IOException ioex)
+            {
+                LOGGER.warn("Error closing HTTP client for calls to Keycloak", ioex);
+            }
+            this.httpClient = null;
+            this.connectionPool = null;
+        }
+    }
+
+    /**
+     * Retrieves the number of requests which had to wait for the access token for the Alfresco backend to be retrieved or refreshed before
+     * any calls to the backend could be made.
+     *
+     * @return the number of requests which had to wait for a backend token exchange
+     */
+    public long getBackendTokenExchangeWaitCount()
+    {
+        return this.backendTokenExchangeWaits.sum();
+    }
+
+    /**
+     * Retrieves statistics about the connection pool of the HTTP client used for calls to Keycloak, e.g. to diagnose delays in calls to
+     * the token endpoint caused by requests waiting to lease a connection.
+     *
+     * @return the statistics (leased, pending, available and maximum number of connections) per route, as well as the totals across all
+     *     routes mapped to the key {@code total} - the map will be empty if no call to Keycloak has yet been made
+     */
+    public Map<String, PoolStats> getConnectionPoolStatistics()
+    {
+        final Map<String, PoolStats> statistics = new LinkedHashMap<>();
+        final PoolingHttpClientConnectionManager connectionPool = this.connectionPool;
+        if (connectionPool != null)
+        {
+            statistics.put("total", connectionPool.getTotalStats());
+            for (final HttpRoute route : connectionPool.getRoutes())
+            {
+                statistics.put(route.toString(), connectionPool.getStats(route));
+            }
+        }
+        return statistics;
+    }
+
     protected void initFromAdapterConfig(final KeycloakAdapterConfigElement keycloakAdapterConfig)
     {
         final ExtendedAdapterConfig adapterConfiguration = keycloakAdapterConfig.buildAdapterConfiguration();
         this.keycloakDeployment = KeycloakDeploymentBuilder.build(adapterConfiguration);
 
         final String forcedRouteUrl = adapterConfiguration.getForcedRouteUrl();
-        if (forcedRouteUrl != null && !forcedRouteUrl.isBlank())
+        // we need to recreate the HttpClient to configure connection pool tuning and the forced route URL
+        this.keycloakDeployment.setClient(new Callable<HttpClient>()
         {
-            // we need to recreate the HttpClient to configure the forced route URL
-            this.keycloakDeployment.setClient(new Callable<HttpClient>()
-            {
 
-                private HttpClient client;
+            private HttpClient client;
 
-                @Override
-                public HttpClient call() throws Exception
+            @Override
+            public HttpClient call() throws Exception
+            {
+                if (this.client == null)
                 {
-                    if (this.client == null)
+                    synchronized (this)
                     {
-                        synchronized (this)
+                        if (this.client == null)
                         {
-                            if (this.client == null)
+                            final HttpClientBuilder clientBuilder = new HttpClientBuilder();
+                            if (forcedRouteUrl != null && !forcedRouteUrl.isBlank())
                             {
-                                this.client = new HttpClientBuilder()
-                                        .routePlanner(KeycloakAuthenticationFilter.this.createForcedRoutePlanner(adapterConfiguration))
-                                        .build(adapterConfiguration);
+                                clientBuilder.routePlanner(
+                                        KeycloakAuthenticationFilter.this.createForcedRoutePlanner(adapterConfiguration));
                             }
+                            this.client = clientBuilder.build(adapterConfiguration);
+                            KeycloakAuthenticationFilter.this.httpClient = this.client;
+                            KeycloakAuthenticationFilter.this.connectionPool = clientBuilder.getConnectionPool();
                         }
                     }
-                    return this.client;
                 }
-            });
+                return this.client;
+            }
+        });
+
+        // statically configured realm key does not require any retrieval
+        final String realmKey = adapterConfiguration.getRealmKey();
+        if (realmKey == null || realmKey.isBlank())
+        {
+            this.publicKeyLocator = new PrefetchingPublicKeyLocator(this.keycloakDeployment);
+            this.keycloakDeployment.setPublicKeyLocator(this.publicKeyLocator);
+            this.publicKeyLocator.start();
         }
 
+        this.tokenVerificationEngine = new TokenVerificationEngine(this.keycloakDeployment);
         this.deploymentContext = new AdapterDeploymentContext(this.keycloakDeployment);
     }
 
@@ -573,12 +858,10 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
             LOGGER.debug("Processing logout for Keycloak-authenticated user {} in session {}", AuthenticationUtil.getUserId(req),
                     currentSession.getId());
 
-            final KeycloakAuthenticationConfigElement keycloakAuthConfig = (KeycloakAuthenticationConfigElement) this.configService
-                    .getConfig(KeycloakConfigConstants.KEYCLOAK_CONFIG_SECTION_NAME)
-                    .getConfigElement(KeycloakAuthenticationConfigElement.NAME);
+            final KeycloakConfigSnapshot configSnapshot = this.configSnapshotProvider.getSnapshot();
 
             final OIDCServletHttpFacade facade = new OIDCServletHttpFacade(req, res);
-            final Integer bodyBufferLimit = keycloakAuthConfig.getBodyBufferLimit();
+            final Integer bodyBufferLimit = configSnapshot.getBodyBufferLimit();
             final OIDCFilterSessionStore tokenStore = new OIDCFilterSessionStore(req, facade,
                     bodyBufferLimit != null ? bodyBufferLimit.intValue() : DEFAULT_BODY_BUFFER_LIMIT, this.keycloakDeployment, null);
 
@@ -624,17 +907,13 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
     {
         LOGGER.debug("Processing Keycloak authentication on request to {}", req.getRequestURL());
 
-        final KeycloakAuthenticationConfigElement keycloakAuthConfig = (KeycloakAuthenticationConfigElement) this.configService
-                .getConfig(KeycloakConfigConstants.KEYCLOAK_CONFIG_SECTION_NAME).getConfigElement(KeycloakAuthenticationConfigElement.NAME);
+        final KeycloakConfigSnapshot configSnapshot = this.configSnapshotProvider.getSnapshot();
 
-        final Integer bodyBufferLimit = keycloakAuthConfig.getBodyBufferLimit();
+        final Integer bodyBufferLimit = configSnapshot.getBodyBufferLimit();
 
         final OIDCServletHttpFacade facade = new OIDCServletHttpFacade(req, res);
 
-        final String servletPath = req.getServletPath();
-        final String pathInfo = req.getPathInfo();
-        final String servletRequestUri = servletPath + (pathInfo != null ? pathInfo : "");
-        if (servletRequestUri.matches(KEYCLOAK_ACTION_URL_PATTERN))
+        if (this.classifyRequest(req).isKeycloakActionUrl())
         {
             LOGGER.debug("Applying Keycloak pre-auth actions handler");
             final PreAuthActionsHandler preActions = new PreAuthActionsHandler(new UserSessionManagement()
@@ -671,11 +950,12 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
         final String authHeader = req.getHeader(HEADER_AUTHORIZATION);
         if (authHeader != null && authHeader.toLowerCase(Locale.ENGLISH).startsWith("bearer "))
         {
-            this.processBearerAuthentication(context, req, res, chain, keycloakAuthConfig.getPerformTokenExchange(), facade);
+            this.processBearerAuthentication(context, req, res, chain, Boolean.valueOf(configSnapshot.isPerformTokenExchange()), facade);
         }
         else
         {
-            this.processFilterAuthentication(context, req, res, chain, bodyBufferLimit, facade);
+            this.processFilterAuthentication(context, req, res, chain, bodyBufferLimit, configSnapshot.getBodyBufferThreshold(),
+                    facade);
         }
     }
 
@@ -760,6 +1040,9 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
      * @param bodyBufferLimit
      *     the configured size limit to apply to any HTTP POST/PUT body buffering that may need to be applied to process the
      *     authentication via an intermediary redirect
+     * @param bodyBufferThreshold
+     *     the configured size threshold up to which HTTP POST/PUT bodies are buffered in memory - larger bodies are buffered in a temporary
+     *     file
      * @param facade
      *     the Keycloak HTTP facade
      * @throws IOException
@@ -768,10 +1051,12 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
      *     if any error occurs during Keycloak authentication or processing of the filter chain
      */
     protected void processFilterAuthentication(final ServletContext context, final HttpServletRequest req, final HttpServletResponse res,
-            final FilterChain chain, final Integer bodyBufferLimit, final OIDCServletHttpFacade facade) throws IOException, ServletException
+            final FilterChain chain, final Integer bodyBufferLimit, final Integer bodyBufferThreshold, final OIDCServletHttpFacade facade)
+            throws IOException, ServletException
     {
-        final OIDCFilterSessionStore tokenStore = new OIDCFilterSessionStore(req, facade,
-                bodyBufferLimit != null ? bodyBufferLimit.intValue() : DEFAULT_BODY_BUFFER_LIMIT, this.keycloakDeployment,
+        final OIDCFilterSessionStore tokenStore = new SpillingOIDCFilterSessionStore(req, facade,
+                bodyBufferLimit != null ? bodyBufferLimit.intValue() : DEFAULT_BODY_BUFFER_LIMIT,
+                bodyBufferThreshold != null ? bodyBufferThreshold.intValue() : DEFAULT_BODY_BUFFER_THRESHOLD, this.keycloakDeployment,
                 this.sessionIdMapper);
 
         // use 8443 as default SSL redirect based on Tomcat default server.xml configuration
@@ -874,10 +1159,9 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
      */
     protected void prepareLoginFormEnhancement(final ServletContext context, final HttpServletRequest req, final HttpServletResponse res)
     {
-        final KeycloakAuthenticationConfigElement keycloakAuthConfig = (KeycloakAuthenticationConfigElement) this.configService
-                .getConfig(KeycloakConfigConstants.KEYCLOAK_CONFIG_SECTION_NAME).getConfigElement(KeycloakAuthenticationConfigElement.NAME);
+        final KeycloakConfigSnapshot configSnapshot = this.configSnapshotProvider.getSnapshot();
 
-        final Integer bodyBufferLimit = keycloakAuthConfig.getBodyBufferLimit();
+        final Integer bodyBufferLimit = configSnapshot.getBodyBufferLimit();
 
         // fake a request that will yield a redirect
         final HttpServletRequest wrappedReq = new HttpServletRequestWrapper(req)
@@ -982,8 +1266,11 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
 
             session.setAttribute(UserFactory.SESSION_ATTRIBUTE_EXTERNAL_AUTH, Boolean.TRUE);
             session.setAttribute(UserFactory.SESSION_ATTRIBUTE_KEY_USER_ID, userId);
+            AuthorizationHeaderHolder.invalidate(session);
 
+            // backend access token is a prerequisite for any login completion step calling the backend
             this.handleAlfrescoResourceAccessToken(session);
+            this.completeLogin(req, session, userId);
         }
 
         final String alfRedirectUrl = req.getParameter(ALF_REDIRECT_URL);
@@ -1002,10 +1289,7 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
             return;
         }
 
-        final String servletPath = req.getServletPath();
-        final String pathInfo = req.getPathInfo();
-        final String servletRequestUri = servletPath + (pathInfo != null ? pathInfo : "");
-        if (servletRequestUri.matches(KEYCLOAK_ACTION_URL_PATTERN))
+        if (this.classifyRequest(req).isKeycloakActionUrl())
         {
             LOGGER.debug("Applying Keycloak authenticated actions handler");
             final AuthenticatedActionsHandler actions = new AuthenticatedActionsHandler(this.keycloakDeployment, facade);
@@ -1050,6 +1334,7 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
         final HttpSession session = req.getSession();
 
         session.setAttribute(ACCESS_TOKEN_SESSION_KEY, tokenHolder);
+        AuthorizationHeaderHolder.invalidate(session);
 
         final String userId = tokenHolder.getAccessToken().getPreferredUsername();
         LOGGER.debug("User {} successfully authenticated via Keycloak", userId);
@@ -1057,6 +1342,8 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
         session.setAttribute(UserFactory.SESSION_ATTRIBUTE_EXTERNAL_AUTH, Boolean.TRUE);
         session.setAttribute(UserFactory.SESSION_ATTRIBUTE_KEY_USER_ID, userId);
 
+        this.completeLogin(req, session, userId);
+
         final String alfRedirectUrl = req.getParameter(ALF_REDIRECT_URL);
 
         if (facade.isEnded())
@@ -1073,10 +1360,7 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
             return;
         }
 
-        final String servletPath = req.getServletPath();
-        final String pathInfo = req.getPathInfo();
-        final String servletRequestUri = servletPath + (pathInfo != null ? pathInfo : "");
-        if (servletRequestUri.matches(KEYCLOAK_ACTION_URL_PATTERN))
+        if (this.classifyRequest(req).isKeycloakActionUrl())
         {
             LOGGER.debug("Applying Keycloak authenticated actions handler");
             final AuthenticatedActionsHandler actions = new AuthenticatedActionsHandler(this.keycloakDeployment, facade);
@@ -1091,6 +1375,135 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
         this.continueFilterChain(context, req, res, chain);
     }
 
+    /**
+     * Completes the login of a user by running all configured {@link LoginCompletionStep login completion steps} for the primary and all
+     * secondary endpoints concurrently, so that the login is delayed by the slowest step instead of the sum of all steps. The first step is
+     * run on the current thread to avoid a thread hop in the common case of a single step, while all other steps are run on a bounded
+     * executor, waiting at most for the configured timeout. Steps which have not completed by then continue to run in the background, and
+     * steps rejected by the executor are run on the current thread. Failures of individual steps are only logged, since any data pre-loaded
+     * by a step is otherwise loaded on demand.
+     *
+     * @param req
+     *     the servlet request
+     * @param session
+     *     the session of the authenticated user
+     * @param userId
+     *     the ID of the authenticated user
+     */
+    protected void completeLogin(final HttpServletRequest req, final HttpSession session, final String userId)
+    {
+        if (!this.loginCompletionSteps.isEmpty())
+        {
+            final List<String> endpointIds = new ArrayList<>();
+            endpointIds.add(this.primaryEndpoint);
+            if (this.secondaryEndpoints != null)
+            {
+                endpointIds.addAll(this.secondaryEndpoints);
+            }
+
+            final List<Runnable> inlineSteps = new ArrayList<>();
+            final List<CompletableFuture<Void>> stepFutures = new ArrayList<>();
+            // steps run in the background may still run after the request has been completed
+            final HttpServletRequest detachedRequest = endpointIds.size() * this.loginCompletionSteps.size() > 1
+                    ? DetachedRequestUtil.createDetachedRequest(req, session, userId)
+                    : null;
+
+            final long start = System.currentTimeMillis();
+            for (final String endpointId : endpointIds)
+            {
+                for (final LoginCompletionStep step : this.loginCompletionSteps)
+                {
+                    if (inlineSteps.isEmpty())
+                    {
+                        inlineSteps.add(() -> this.runLoginCompletionStep(step, endpointId, null, session, userId));
+                    }
+                    else
+                    {
+                        try
+                        {
+                            stepFutures.add(CompletableFuture.runAsync(
+                                    () -> this.runLoginCompletionStep(step, endpointId, detachedRequest, session, userId),
+                                    this.loginCompletionExecutor));
+                        }
+                        catch (final RejectedExecutionException reex)
+                        {
+                            LOGGER.debug("Login completion step {} for endpoint {} rejected - running it on the current thread", step,
+                                    endpointId);
+                            inlineSteps.add(() -> this.runLoginCompletionStep(step, endpointId, null, session, userId));
+                        }
+                    }
+                }
+            }
+
+            inlineSteps.forEach(Runnable::run);
+
+            if (!stepFutures.isEmpty())
+            {
+                final long remainingMillis = Math.max(0, this.loginCompletionTimeoutMillis - (System.currentTimeMillis() - start));
+                try
+                {
+                    CompletableFuture.allOf(stepFutures.toArray(new CompletableFuture<?>[0])).get(remainingMillis, TimeUnit.MILLISECONDS);
+                }
+                catch (final TimeoutException tex)
+                {
+                    LOGGER.debug("Login completion steps for user {} did not complete within {} ms - continuing while they complete",
+                            userId, this.loginCompletionTimeoutMillis);
+                }
+                catch (final ExecutionException eex)
+                {
+                    LOGGER.warn("Error during login completion for user {}", userId, eex.getCause());
+                }
+                catch (final InterruptedException iex)
+                {
+                    LOGGER.debug("Interrupted while waiting for login completion steps for user {}", userId);
+                    Thread.currentThread().interrupt();
+                }
+            }
+            LOGGER.debug("Completed login steps for user {} in {} ms", userId, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Runs a single login completion step, logging any failure.
+     *
+     * @param step
+     *     the step to run
+     * @param endpointId
+     *     the ID of the endpoint for which to run the step
+     * @param detachedRequest
+     *     the request detached from the request completing the login if the step is run on a background thread, or {@code null} if the
+     *     step is run on the thread processing the request
+     * @param session
+     *     the session of the authenticated user
+     * @param userId
+     *     the ID of the authenticated user
+     */
+    protected void runLoginCompletionStep(final LoginCompletionStep step, final String endpointId, final HttpServletRequest detachedRequest,
+            final HttpSession session, final String userId)
+    {
+        if (detachedRequest != null)
+        {
+            // backend connectors retrieve authentication details via the session of the current request
+            ServletUtil.setRequest(detachedRequest);
+        }
+        try
+        {
+            step.completeLogin(endpointId, session, userId);
+        }
+        catch (final RuntimeException ex)
+        {
+            // may fail e.g. if session has been invalidated in the meantime
+            LOGGER.warn("Login completion step {} failed for endpoint {} and user {}", step, endpointId, userId, ex);
+        }
+        finally
+        {
+            if (detachedRequest != null)
+            {
+                RequestContextHolder.resetRequestAttributes();
+            }
+        }
+    }
+
     protected void ensureKeycloakCookieSet(final HttpServletRequest req, final HttpServletResponse res)
     {
         final boolean hasKeycloakCookie = this.hasKeycloakCookie(req);
@@ -1297,11 +1710,7 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
 
         final String authHeader = req.getHeader(HEADER_AUTHORIZATION);
 
-        final String servletPath = req.getServletPath();
-        final String pathInfo = req.getPathInfo();
-        final String servletRequestUri = servletPath + (pathInfo != null ? pathInfo : "");
-
-        final Matcher proxyMatcher = PROXY_URL_PATTERN_COMPILED.matcher(servletRequestUri);
+        final RequestClassification classification = this.classifyRequest(req);
 
         HttpSession currentSession = req.getSession(false);
 
@@ -1342,7 +1751,7 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
             LOGGER.debug("Skipping processKeycloakAuthenticationAndActions as Keycloak adapter was not properly initialised");
             skip = true;
         }
-        else if (servletRequestUri.matches(KEYCLOAK_ACTION_URL_PATTERN))
+        else if (classification.isKeycloakActionUrl())
         {
             LOGGER.debug("Explicitly not skipping processKeycloakAuthenticationAndActions as Keycloak action URL is being called");
         }
@@ -1384,11 +1793,10 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
                 skip = true;
             }
         }
-        else if (proxyMatcher.matches())
+        else if (classification.getProxyEndpoint() != null)
         {
-            final String endpoint = proxyMatcher.group(1);
-            final String noauth = proxyMatcher.group(2);
-            if (noauth != null && !noauth.trim().isEmpty())
+            final String endpoint = classification.getProxyEndpoint();
+            if (classification.isProxyNoAuth())
             {
                 LOGGER.debug("Skipping processKeycloakAuthenticationAndActions as proxy servlet to noauth endpoint {} is being called",
                         endpoint);
@@ -1409,8 +1817,8 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
                         endpoint);
             }
         }
-        else if (PAGE_SERVLET_PATH.equals(servletPath) && (LOGIN_PATH_INFORMATION.equals(pathInfo)
-                || (pathInfo == null && LOGIN_PAGE_TYPE_PARAMETER_VALUE.equals(req.getParameter(PAGE_TYPE_PARAMETER_NAME)))))
+        else if (classification.isLoginPath() || (classification.isPageServletRoot()
+                && LOGIN_PAGE_TYPE_PARAMETER_VALUE.equals(req.getParameter(PAGE_TYPE_PARAMETER_NAME))))
         {
             LOGGER.debug("Skipping processKeycloakAuthenticationAndActions as login page was explicitly requested");
             skip = true;
@@ -1445,19 +1853,29 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
         HttpSession currentSession;
         final OIDCServletHttpFacade facade = new OIDCServletHttpFacade(req, res);
 
-        final KeycloakAuthenticationConfigElement keycloakAuthConfig = (KeycloakAuthenticationConfigElement) this.configService
-                .getConfig(KeycloakConfigConstants.KEYCLOAK_CONFIG_SECTION_NAME).getConfigElement(KeycloakAuthenticationConfigElement.NAME);
+        final KeycloakConfigSnapshot configSnapshot = this.configSnapshotProvider.getSnapshot();
 
-        final Integer bodyBufferLimit = keycloakAuthConfig.getBodyBufferLimit();
+        final Integer bodyBufferLimit = configSnapshot.getBodyBufferLimit();
         final OIDCFilterSessionStore tokenStore = new OIDCFilterSessionStore(req, facade,
                 bodyBufferLimit != null ? bodyBufferLimit.intValue() : DEFAULT_BODY_BUFFER_LIMIT, this.keycloakDeployment, null);
 
+        final String previousTokenString = keycloakAccount instanceof OidcKeycloakAccount
+                ? ((OidcKeycloakAccount) keycloakAccount).getKeycloakSecurityContext().getTokenString()
+                : null;
+
         tokenStore.checkCurrentToken();
 
         currentSession = req.getSession(false);
         boolean skip = false;
         if (currentSession != null)
         {
+            // token may have been refreshed in-place
+            if (keycloakAccount instanceof OidcKeycloakAccount && !EqualsHelper.nullSafeEquals(previousTokenString,
+                    ((OidcKeycloakAccount) keycloakAccount).getKeycloakSecurityContext().getTokenString()))
+            {
+                AuthorizationHeaderHolder.invalidate(currentSession);
+            }
+
             LOGGER.debug("Skipping processKeycloakAuthenticationAndActions as Keycloak-authentication session is still valid");
             this.ensureKeycloakCookieSet(req, res);
             this.handleAlfrescoResourceAccessToken(currentSession);
@@ -1482,31 +1900,7 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
      */
     protected boolean isNoAuthPage(final HttpServletRequest req) throws ServletException
     {
-        final String pathInfo = req.getPathInfo();
-
-        final RequestContext context = ThreadLocalRequestContext.getRequestContext();
-        Page page = context.getPage();
-        if (page == null && pathInfo != null)
-        {
-            try
-            {
-                if (this.pageViewResolver.resolveViewName(pathInfo, null) != null)
-                {
-                    page = context.getPage();
-                }
-            }
-            catch (final Exception e)
-            {
-                LOGGER.warn("Error during resolution of requested page view", e);
-            }
-        }
-
-        boolean noAuthPage = false;
-        if (page != null && page.getAuthentication() == RequiredAuthentication.none)
-        {
-            noAuthPage = true;
-        }
-
+        final boolean noAuthPage = this.resolvePageClassification(req, this.classifyRequest(req)).isNoAuthPage();
         return noAuthPage;
     }
 
@@ -1522,40 +1916,17 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
      */
     protected boolean isLoginPage(final HttpServletRequest req) throws ServletException
     {
-        final String servletPath = req.getServletPath();
-        final String pathInfo = req.getPathInfo();
+        final RequestClassification classification = this.classifyRequest(req);
 
         boolean isLoginPage;
-        if (PAGE_SERVLET_PATH.equals(servletPath)
-                && (pathInfo == null && LOGIN_PAGE_TYPE_PARAMETER_VALUE.equals(req.getParameter(PAGE_TYPE_PARAMETER_NAME))))
+        if (classification.isPageServletRoot() && LOGIN_PAGE_TYPE_PARAMETER_VALUE.equals(req.getParameter(PAGE_TYPE_PARAMETER_NAME)))
         {
             isLoginPage = true;
         }
         else
         {
             // check for custom login page
-            final RequestContext context = ThreadLocalRequestContext.getRequestContext();
-            Page page = context.getPage();
-            if (page == null && pathInfo != null)
-            {
-                try
-                {
-                    if (this.pageViewResolver.resolveViewName(pathInfo, null) != null)
-                    {
-                        page = context.getPage();
-                    }
-                }
-                catch (final Exception e)
-                {
-                    LOGGER.warn("Error during resolution of requested page view", e);
-                }
-            }
-
-            isLoginPage = false;
-            if (page != null && page.getPageType(context) != null && PageType.PAGETYPE_LOGIN.equals(page.getPageType(context).getId()))
-            {
-                isLoginPage = true;
-            }
+            isLoginPage = this.resolvePageClassification(req, classification).isLoginPage();
         }
         return isLoginPage;
     }
@@ -1571,12 +1942,136 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
      *     if any error occurs during inspection of the request
      */
     protected boolean isLogoutRequest(final HttpServletRequest req) throws ServletException
+    {
+        final boolean isLogoutRequest = this.classifyRequest(req).isLogoutRequest();
+        return isLogoutRequest;
+    }
+
+    /**
+     * Classifies a request based on its servlet path and path info, re-using any cached classification of an identical request.
+     *
+     * @param req
+     *     the request to classify
+     * @return the classification of the request
+     */
+    protected RequestClassification classifyRequest(final HttpServletRequest req)
     {
         final String servletPath = req.getServletPath();
         final String pathInfo = req.getPathInfo();
-        final boolean isLogoutRequest = (PAGE_SERVLET_PATH.equals(servletPath) && LOGOUT_PATH_INFORMATION.equals(pathInfo))
-                || LOGOUT_SERVICE_PATH.equals(servletPath);
-        return isLogoutRequest;
+        // distinguish null path info from empty path info
+        final String cacheKey = pathInfo != null ? servletPath + '\n' + pathInfo : servletPath;
+
+        RequestClassification classification = this.getCachedRequestClassification(cacheKey);
+        if (classification == null)
+        {
+            final String servletRequestUri = servletPath + (pathInfo != null ? pathInfo : "");
+            final Matcher proxyMatcher = PROXY_URL_PATTERN_COMPILED.matcher(servletRequestUri);
+
+            String proxyEndpoint = null;
+            boolean proxyNoAuth = false;
+            if (proxyMatcher.matches())
+            {
+                proxyEndpoint = proxyMatcher.group(1);
+                final String noauth = proxyMatcher.group(2);
+                proxyNoAuth = noauth != null && !noauth.trim().isEmpty();
+            }
+
+            final boolean pageServlet = PAGE_SERVLET_PATH.equals(servletPath);
+            classification = new RequestClassification(cacheKey, pathInfo,
+                    KEYCLOAK_ACTION_URL_PATTERN_COMPILED.matcher(servletRequestUri).matches(), proxyEndpoint, proxyNoAuth,
+                    (pageServlet && LOGOUT_PATH_INFORMATION.equals(pathInfo)) || LOGOUT_SERVICE_PATH.equals(servletPath),
+                    pageServlet && LOGIN_PATH_INFORMATION.equals(pathInfo), pageServlet && pathInfo == null);
+            this.cacheRequestClassification(classification);
+        }
+        return classification;
+    }
+
+    /**
+     * Resolves the target page of a request to determine its authentication requirement and page type, unless already resolved for the
+     * classification of the request.
+     *
+     * @param req
+     *     the request for which to resolve the target page
+     * @param classification
+     *     the classification of the request
+     * @return the classification of the request including the details about its target page
+     */
+    protected RequestClassification resolvePageClassification(final HttpServletRequest req, final RequestClassification classification)
+    {
+        if (classification.isPageResolved())
+        {
+            return classification;
+        }
+
+        final String pathInfo = classification.getPathInfo();
+
+        final RequestContext context = ThreadLocalRequestContext.getRequestContext();
+        Page page = context.getPage();
+        boolean cacheable = true;
+        if (page == null && pathInfo != null)
+        {
+            try
+            {
+                if (this.pageViewResolver.resolveViewName(pathInfo, null) != null)
+                {
+                    page = context.getPage();
+                }
+            }
+            catch (final Exception e)
+            {
+                LOGGER.warn("Error during resolution of requested page view", e);
+                cacheable = false;
+            }
+        }
+
+        final boolean noAuthPage = page != null && page.getAuthentication() == RequiredAuthentication.none;
+        final boolean loginPage = page != null && page.getPageType(context) != null
+                && PageType.PAGETYPE_LOGIN.equals(page.getPageType(context).getId());
+
+        final RequestClassification resolvedClassification = classification.withPage(noAuthPage, loginPage);
+        if (cacheable)
+        {
+            this.cacheRequestClassification(resolvedClassification);
+        }
+        return resolvedClassification;
+    }
+
+    protected RequestClassification getCachedRequestClassification(final String cacheKey)
+    {
+        RequestClassification classification = null;
+        if (this.requestClassificationCache != null)
+        {
+            // configuration reset may have changed the Surf model / remote configuration
+            final KeycloakConfigSnapshot configSnapshot = this.configSnapshotProvider.getSnapshot();
+            if (this.requestClassificationConfigSnapshot != configSnapshot)
+            {
+                LOGGER.debug("Clearing request classification cache after configuration reset");
+                this.clearRequestClassificationCache();
+                this.requestClassificationConfigSnapshot = configSnapshot;
+            }
+            classification = this.requestClassificationCache.get(cacheKey);
+        }
+        return classification;
+    }
+
+    protected void cacheRequestClassification(final RequestClassification classification)
+    {
+        if (this.requestClassificationCache != null)
+        {
+            this.requestClassificationCache.put(classification.getCacheKey(), classification);
+        }
+    }
+
+    /**
+     * Clears all cached request classifications, e.g. after a configuration reset. Changes to the Surf model which are not accompanied by a
+     * configuration reset are picked up once the cached classifications expire.
+     */
+    public void clearRequestClassificationCache()
+    {
+        if (this.requestClassificationCache != null)
+        {
+            this.requestClassificationCache.clear();
+        }
     }
 
     /**
@@ -1684,11 +2179,10 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
      */
     protected void handleAlfrescoResourceAccessToken(final HttpSession session)
     {
-        final KeycloakAuthenticationConfigElement keycloakAuthConfig = (KeycloakAuthenticationConfigElement) this.configService
-                .getConfig(KeycloakConfigConstants.KEYCLOAK_CONFIG_SECTION_NAME).getConfigElement(KeycloakAuthenticationConfigElement.NAME);
-        if (keycloakAuthConfig != null && Boolean.TRUE.equals(keycloakAuthConfig.getPerformTokenExchange()))
+        final KeycloakConfigSnapshot configSnapshot = this.configSnapshotProvider.getSnapshot();
+        if (configSnapshot.isPerformTokenExchange())
         {
-            final String alfrescoResourceName = keycloakAuthConfig.getAlfrescoResourceName();
+            final String alfrescoResourceName = configSnapshot.getAlfrescoResourceName();
             if (!EqualsHelper.nullSafeEquals(alfrescoResourceName, this.keycloakDeployment.getResourceName())
                     && alfrescoResourceName != null)
             {
@@ -1704,56 +2198,37 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
                     token = (RefreshableAccessTokenHolder) backendAccessTokenCandidate;
                 }
 
-                // not really feasible to synchronise / lock concurrent refresh on token, especially given that we cannot lock across
-                // potentially multiple Share instances
-                // not a big problem - apart from wasted CPU cycles / latency - since each concurrently refreshed token is valid
-                // independently
-                if (token == null || !token.isActive()
-                        || (token.canRefresh() && token.shouldRefresh(this.keycloakDeployment.getTokenMinimumTimeToLive())))
+                // exchanges are performed at most once concurrently per session on this Share instance
+                // concurrent exchanges across multiple Share instances are not a problem - apart from wasted CPU cycles / latency - since
+                // each exchanged token is valid independently
+                final int minimumTimeToLive = this.keycloakDeployment.getTokenMinimumTimeToLive();
+                if (token == null || !token.isActive() || (token.canRefresh() && token.shouldRefresh(minimumTimeToLive)))
                 {
-                    AccessTokenResponse response;
+                    // no usable token (incl. token with less than minimum time-to-live) - requests need to wait for the (single) exchange
+                    // in progress
+                    final CompletableFuture<RefreshableAccessTokenHolder> exchange = this.exchangeBackendAccessToken(session,
+                            alfrescoResourceName, null);
+                    this.backendTokenExchangeWaits.increment();
                     try
                     {
-                        // Note: we tried to simply just refresh with the refresh the already exchanged token for the target resource
-                        // but audience typically is not correct in the resulting token
-                        LOGGER.debug("Retrieving / refreshing access token for Alfresco backend resource {}", alfrescoResourceName);
-                        response = this.getAccessToken(alfrescoResourceName, session);
+                        exchange.join();
                     }
-                    catch (final IOException ioex)
+                    catch (final CompletionException cex)
                     {
-                        LOGGER.error("Error retrieving / refreshing access token for Alfresco backend", ioex);
-                        throw new AlfrescoRuntimeException("Error retrieving / refreshing access token for Alfresco backend", ioex);
-                    }
-
-                    final String tokenString = response.getToken();
-                    try
-                    {
-                        // cannot use simple AdapterTokenVerifier.verifyTokens as it checks for wrong audience
-                        // we also do not care about any IDToken retrieved (implicitly) with token exchange
-                        final TokenVerifier<AccessToken> tokenVerifier = AdapterTokenVerifier.createVerifier(tokenString,
-                                this.keycloakDeployment, true, AccessToken.class);
-                        tokenVerifier.audience(alfrescoResourceName);
-                        tokenVerifier.issuedFor(this.keycloakDeployment.getResourceName());
-
-                        final AccessToken accessToken = tokenVerifier.verify().getToken();
-
-                        if ((accessToken.getExp() - this.keycloakDeployment.getTokenMinimumTimeToLive()) <= Time.currentTime())
+                        final Throwable cause = cex.getCause();
+                        if (cause instanceof RuntimeException)
                         {
-                            throw new AlfrescoRuntimeException(
-                                    "Failed to retrieve / refresh the access token for the Alfresco backend with a longer time-to-live than the minimum");
+                            throw (RuntimeException) cause;
                         }
-
-                        token = new RefreshableAccessTokenHolder(response, new VerifiedTokens(accessToken, null));
-                        session.setAttribute(BACKEND_ACCESS_TOKEN_SESSION_KEY, token);
-                        LOGGER.debug("Successfully retrieved / refresh access token for Alfresco backend");
-                    }
-                    catch (final VerificationException vex)
-                    {
-                        LOGGER.error("Verification of access token for Alfresco backend failed in retry", vex);
-                        throw new AlfrescoRuntimeException("Keycloak token exchange for access to backend yielded invalid access token",
-                                vex);
+                        throw new AlfrescoRuntimeException("Error retrieving / refreshing access token for Alfresco backend", cause);
                     }
                 }
+                else if (this.backendTokenRefreshAheadSeconds > 0 && token.canRefresh()
+                        && token.shouldRefresh(minimumTimeToLive + this.backendTokenRefreshAheadSeconds))
+                {
+                    // still usable token - requests continue to use it while it is pre-emptively exchanged in the background
+                    this.exchangeBackendAccessToken(session, alfrescoResourceName, token);
+                }
             }
             else if (alfrescoResourceName == null)
             {
@@ -1772,6 +2247,128 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
         }
     }
 
+    /**
+     * Exchanges the access token of a session for an access token to the Alfresco backend, unless an exchange for the same session is
+     * already in progress. If a still usable current access token is provided, the exchange is performed in the background without
+     * blocking the calling thread, otherwise it is performed on the calling thread.
+     *
+     * @param session
+     *     the active session managing any persistent access token state
+     * @param alfrescoResourceName
+     *     the name of the Alfresco backend resource within the Keycloak realm
+     * @param currentToken
+     *     the current, still usable access token for the Alfresco backend, or {@code null} if no usable token exists
+     * @return the future for the exchanged access token
+     */
+    protected CompletableFuture<RefreshableAccessTokenHolder> exchangeBackendAccessToken(final HttpSession session,
+            final String alfrescoResourceName, final RefreshableAccessTokenHolder currentToken)
+    {
+        final String sessionId = session.getId();
+        final CompletableFuture<RefreshableAccessTokenHolder> exchange = new CompletableFuture<>();
+        final CompletableFuture<RefreshableAccessTokenHolder> inFlightExchange = this.backendTokenExchanges.putIfAbsent(sessionId,
+                exchange);
+        if (inFlightExchange != null)
+        {
+            LOGGER.debug("Access token for Alfresco backend is already being retrieved / refreshed for session {}", sessionId);
+            return inFlightExchange;
+        }
+
+        final Runnable exchangeOperation = () -> {
+            try
+            {
+                exchange.complete(this.doExchangeBackendAccessToken(session, alfrescoResourceName));
+            }
+            catch (final RuntimeException ex)
+            {
+                exchange.completeExceptionally(ex);
+            }
+            finally
+            {
+                this.backendTokenExchanges.remove(sessionId, exchange);
+            }
+        };
+
+        if (currentToken != null)
+        {
+            LOGGER.debug("Pre-emptively refreshing access token for Alfresco backend in the background for session {}", sessionId);
+            exchange.whenComplete((token, ex) -> {
+                if (ex != null)
+                {
+                    LOGGER.warn("Pre-emptive refresh of access token for Alfresco backend failed - will retry on a later request", ex);
+                }
+            });
+
+            try
+            {
+                this.backendTokenExchangeExecutor.execute(exchangeOperation);
+            }
+            catch (final RejectedExecutionException reex)
+            {
+                LOGGER.debug("Pre-emptive refresh of access token for Alfresco backend rejected - will retry on a later request");
+                this.backendTokenExchanges.remove(sessionId, exchange);
+                exchange.complete(currentToken);
+            }
+        }
+        else
+        {
+            exchangeOperation.run();
+        }
+
+        return exchange;
+    }
+
+    /**
+     * Exchanges the access token of a session for an access token to the Alfresco backend, storing it in the session.
+     *
+     * @param session
+     *     the active session managing any persistent access token state
+     * @param alfrescoResourceName
+     *     the name of the Alfresco backend resource within the Keycloak realm
+     * @return the exchanged access token
+     */
+    protected RefreshableAccessTokenHolder doExchangeBackendAccessToken(final HttpSession session, final String alfrescoResourceName)
+    {
+        AccessTokenResponse response;
+        try
+        {
+            // Note: we tried to simply just refresh with the refresh the already exchanged token for the target resource
+            // but audience typically is not correct in the resulting token
+            LOGGER.debug("Retrieving / refreshing access token for Alfresco backend resource {}", alfrescoResourceName);
+            response = this.getAccessToken(alfrescoResourceName, session);
+        }
+        catch (final IOException ioex)
+        {
+            LOGGER.error("Error retrieving / refreshing access token for Alfresco backend", ioex);
+            throw new AlfrescoRuntimeException("Error retrieving / refreshing access token for Alfresco backend", ioex);
+        }
+
+        final String tokenString = response.getToken();
+        try
+        {
+            // audience must be the Alfresco backend resource instead of the Share client
+            // we also do not care about any IDToken retrieved (implicitly) with token exchange
+            final AccessToken accessToken = this.tokenVerificationEngine.verifyAccessToken(tokenString, alfrescoResourceName,
+                    this.keycloakDeployment.getResourceName());
+
+            if ((accessToken.getExp() - this.keycloakDeployment.getTokenMinimumTimeToLive()) <= Time.currentTime())
+            {
+                throw new AlfrescoRuntimeException(
+                        "Failed to retrieve / refresh the access token for the Alfresco backend with a longer time-to-live than the minimum");
+            }
+
+            final RefreshableAccessTokenHolder token = new RefreshableAccessTokenHolder(response, new VerifiedTokens(accessToken, null));
+            session.setAttribute(BACKEND_ACCESS_TOKEN_SESSION_KEY, token);
+            AuthorizationHeaderHolder.invalidate(session);
+            LOGGER.debug("Successfully retrieved / refresh access token for Alfresco backend");
+            return token;
+        }
+        catch (final VerificationException vex)
+        {
+            LOGGER.error("Verification of access token for Alfresco backend failed in retry", vex);
+            throw new AlfrescoRuntimeException("Keycloak token exchange for access to backend yielded invalid access token", vex);
+        }
+    }
+
     /**
      * Obtains an access token for the Alfresco backend by exchanging the current user access token in the session for an access token to
      * that backend resource.
@@ -1789,6 +2386,21 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
         AccessTokenResponse tokenResponse = null;
         final HttpClient client = this.keycloakDeployment.getClient();
 
+        final PoolingHttpClientConnectionManager connectionPool = this.connectionPool;
+        if (connectionPool != null && LOGGER.isDebugEnabled())
+        {
+            // helps to diagnose delays in token exchanges caused by requests waiting to lease a connection
+            if (connectionPool.getTotalStats().getPending() > 0)
+            {
+                LOGGER.debug("Token exchange will wait to lease a connection - connection pool statistics: {}",
+                        this.getConnectionPoolStatistics());
+            }
+            else if (LOGGER.isTraceEnabled())
+            {
+                LOGGER.trace("Connection pool statistics before token exchange: {}", this.getConnectionPoolStatistics());
+            }
+        }
+
         final HttpPost post = new HttpPost(KeycloakUriBuilder.fromUri(this.keycloakDeployment.getAuthServerBaseUrl())
                 .path(ServiceUrlConstants.TOKEN_PATH).build(this.keycloakDeployment.getRealm()));
         final List<NameValuePair> formParams = new LinkedList<>();
@@ -1992,4 +2604,163 @@ public class KeycloakAuthenticationFilter implements DependencyInjectedFilter, I
             }
         };
     }
+
+    /**
+     * Instances of this class capture the routing-relevant classification of requests based on their servlet path and path info.
+     *
+     * @author Axel Faust
+     */
+    protected static class RequestClassification
+    {
+
+        private final String cacheKey;
+
+        private final String pathInfo;
+
+        private final boolean keycloakActionUrl;
+
+        private final String proxyEndpoint;
+
+        private final boolean proxyNoAuth;
+
+        private final boolean logoutRequest;
+
+        private final boolean loginPath;
+
+        private final boolean pageServletRoot;
+
+        private final boolean pageResolved;
+
+        private final boolean noAuthPage;
+
+        private final boolean loginPage;
+
+        protected RequestClassification(final String cacheKey, final String pathInfo, final boolean keycloakActionUrl,
+                final String proxyEndpoint, final boolean proxyNoAuth, final boolean logoutRequest, final boolean loginPath,
+                final boolean pageServletRoot)
+        {
+            this(cacheKey, pathInfo, keycloakActionUrl, proxyEndpoint, proxyNoAuth, logoutRequest, loginPath, pageServletRoot, false, false,
+                    false);
+        }
+
+        private RequestClassification(final String cacheKey, final String pathInfo, final boolean keycloakActionUrl,
+                final String proxyEndpoint, final boolean proxyNoAuth, final boolean logoutRequest, final boolean loginPath,
+                final boolean pageServletRoot, final boolean pageResolved, final boolean noAuthPage, final boolean loginPage)
+        {
+            this.cacheKey = cacheKey;
+            this.pathInfo = pathInfo;
+            this.keycloakActionUrl = keycloakActionUrl;
+            this.proxyEndpoint = proxyEndpoint;
+            this.proxyNoAuth = proxyNoAuth;
+            this.logoutRequest = logoutRequest;
+            this.loginPath = loginPath;
+            this.pageServletRoot = pageServletRoot;
+            this.pageResolved = pageResolved;
+            this.noAuthPage = noAuthPage;
+            this.loginPage = loginPage;
+        }
+
+        /**
+         * Creates a copy of this instance including the details about the target page.
+         *
+         * @param noAuthPage
+         *     {@code true} if the target page does not require authentication
+         * @param loginPage
+         *     {@code true} if the target page is a login page
+         * @return the new classification instance
+         */
+        protected RequestClassification withPage(final boolean noAuthPage, final boolean loginPage)
+        {
+            return new RequestClassification(this.cacheKey, this.pathInfo, this.keycloakActionUrl, this.proxyEndpoint, this.proxyNoAuth,
+                    this.logoutRequest, this.loginPath, this.pageServletRoot, true, noAuthPage, loginPage);
+        }
+
+        /**
+         * @return the cacheKey
+         */
+        public String getCacheKey()
+        {
+            return this.cacheKey;
+        }
+
+        /**
+         * @return the pathInfo
+         */
+        public String getPathInfo()
+        {
+            return this.pathInfo;
+        }
+
+        /**
+         * @return the keycloakActionUrl
+         */
+        public boolean isKeycloakActionUrl()
+        {
+            return this.keycloakActionUrl;
+        }
+
+        /**
+         * @return the proxyEndpoint
+         */
+        public String getProxyEndpoint()
+        {
+            return this.proxyEndpoint;
+        }
+
+        /**
+         * @return the proxyNoAuth
+         */
+        public boolean isProxyNoAuth()
+        {
+            return this.proxyNoAuth;
+        }
+
+        /**
+         * @return the logoutRequest
+         */
+        public boolean isLogoutRequest()
+        {
+            return this.logoutRequest;
+        }
+
+        /**
+         * @return the loginPath
+         */
+        public boolean isLoginPath()
+        {
+            return this.loginPath;
+        }
+
+        /**
+         * @return the pageServletRoot
+         */
+        public boolean isPageServletRoot()
+        {
+            return this.pageServletRoot;
+        }
+
+        /**
+         * @return the pageResolved
+         */
+        public boolean isPageResolved()
+        {
+            return this.pageResolved;
+        }
+
+        /**
+         * @return the noAuthPage
+         */
+        public boolean isNoAuthPage()
+        {
+            return this.noAuthPage;
+        }
+
+        /**
+         * @return the loginPage
+         */
+        public boolean isLoginPage()
+        {
+            return this.loginPage;
+        }
+    }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.web;
+
+import jakarta.servlet.http.HttpSession;
+
+/**
+ * Instances of this interface perform a step in the completion of a successful login via Keycloak for a specific backend endpoint, e.g.
+ * pre-loading user-specific data from that endpoint. Steps for different endpoints and different steps for the same endpoint are considered
+ * to be independent of each other and may be run concurrently, without access to the original servlet request. Any request-dependent
+ * backend connectors will only see a detached request exposing the session and user. Failures of a step are logged and do not affect other
+ * steps or the login itself.
+ *
+ * @author Axel Faust
+ */
+public interface LoginCompletionStep
+{
+
+    /**
+     * Performs this step for a specific endpoint after a user has been successfully authenticated.
+     *
+     * @param endpointId
+     *     the ID of the backend endpoint for which to perform the step - implementations may ignore endpoints they do not apply to
+     * @param session
+     *     the session of the authenticated user
+     * @param userId
+     *     the ID of the authenticated user
+     */
+    void completeLogin(String endpointId, HttpSession session, String userId);
+}
@@ -17,6 +17,13 @@ package de.acosix.alfresco.keycloak.share.web;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletContext;
@@ -35,9 +42,9 @@ import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
-import org.springframework.extensions.config.ConfigElement;
-import org.springframework.extensions.config.ConfigService;
+import org.springframework.extensions.surf.ServletUtil;
 import org.springframework.extensions.surf.UserFactory;
 import org.springframework.extensions.surf.exception.ConnectorServiceException;
 import org.springframework.extensions.surf.site.AuthenticationUtil;
@@ -51,6 +58,11 @@ import org.springframework.extensions.webscripts.connector.HttpMethod;
 import org.springframework.extensions.webscripts.connector.Response;
 import org.springframework.extensions.webscripts.connector.User;
 import org.springframework.extensions.webscripts.servlet.DependencyInjectedFilter;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import de.acosix.alfresco.keycloak.share.config.KeycloakConfigSnapshotProvider;
+import de.acosix.alfresco.keycloak.share.util.BoundedConcurrentCache;
+import de.acosix.alfresco.keycloak.share.util.DetachedRequestUtil;
 
 /**
  * This filter performs the initial load of user groups for any user authenticated by a filter preceeding it in the filter chain, and
@@ -59,9 +71,19 @@ import org.springframework.extensions.webscripts.servlet.DependencyInjectedFilte
  * initialisation inside {@link SlingshotLoginController} is inaccessible to custom authentication filters, and there is actually no refresh
  * functionality in default Alfresco at all, which can be problematic for SSO-authenticated sessions that may be active for a long time.
  *
+ * Loaded user groups are kept in a bounded cache shared by all sessions of the same user on this Share node. Once the cached groups of a
+ * user have become stale, they continue to be used while they are reloaded in the background, so that reloads do not add latency to
+ * interactive requests. Only the very first load for a user without any previously loaded groups is performed synchronously, and concurrent
+ * loads for the same user are coalesced into a single backend call. Cached groups of users without any activity for longer than the
+ * configured time-to-live of the cache are dropped, so that they are loaded synchronously on the next request instead of being used while
+ * reloaded. If all background threads are busy, a reload is performed on the thread of the request triggering it.
+ *
+ * As a {@link LoginCompletionStep login completion step}, this filter can also pre-load the user groups of a user immediately after a
+ * successful login, concurrently with any other steps, so that the first request of the session does not need to load them.
+ *
  * @author Axel Faust
  */
-public class UserGroupsLoadFilter implements DependencyInjectedFilter, InitializingBean
+public class UserGroupsLoadFilter implements DependencyInjectedFilter, LoginCompletionStep, InitializingBean, DisposableBean
 {
 
     public static final String SESSION_ATTRIBUTE_KEY_USER_GROUPS_LAST_LOADED = SlingshotLoginController.SESSION_ATTRIBUTE_KEY_USER_GROUPS
@@ -71,10 +93,36 @@ public class UserGroupsLoadFilter implements DependencyInjectedFilter, Initializ
 
     private static final long DEFAULT_CACHED_USER_GROUPS_TIMEOUT = 60000;
 
-    protected ConfigService configService;
+    private static final int DEFAULT_USER_GROUPS_CACHE_SIZE = 10000;
+
+    private static final long DEFAULT_USER_GROUPS_CACHE_TIME_TO_LIVE = 30 * 60000;
+
+    private static final int DEFAULT_REFRESH_THREADS = 2;
+
+    private static final int DEFAULT_REFRESH_QUEUE_SIZE = 100;
+
+    private static final int REFRESH_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private static final int REFRESH_SHUTDOWN_WAIT_SECONDS = 5;
+
+    protected KeycloakConfigSnapshotProvider configSnapshotProvider;
 
     protected ConnectorService connectorService;
 
+    protected int userGroupsCacheSize = DEFAULT_USER_GROUPS_CACHE_SIZE;
+
+    protected long userGroupsCacheTimeToLive = DEFAULT_USER_GROUPS_CACHE_TIME_TO_LIVE;
+
+    protected int refreshThreads = DEFAULT_REFRESH_THREADS;
+
+    protected int refreshQueueSize = DEFAULT_REFRESH_QUEUE_SIZE;
+
+    protected BoundedConcurrentCache<String, CachedUserGroups> userGroupsCache;
+
+    protected final Map<String, CompletableFuture<CachedUserGroups>> inFlightLoads = new ConcurrentHashMap<>();
+
+    protected ThreadPoolExecutor refreshExecutor;
+
     /**
      *
      * {@inheritDoc}
@@ -82,17 +130,55 @@ public class UserGroupsLoadFilter implements DependencyInjectedFilter, Initializ
     @Override
     public void afterPropertiesSet()
     {
-        PropertyCheck.mandatory(this, "configService", this.configService);
+        PropertyCheck.mandatory(this, "configSnapshotProvider", this.configSnapshotProvider);
         PropertyCheck.mandatory(this, "connectorService", this.connectorService);
+
+        this.userGroupsCache = new BoundedConcurrentCache<>(this.userGroupsCacheSize, this.userGroupsCacheTimeToLive);
+
+        this.refreshExecutor = new ThreadPoolExecutor(Math.max(1, this.refreshThreads), Math.max(1, this.refreshThreads),
+                REFRESH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, this.refreshQueueSize)), r -> {
+                    final Thread thread = new Thread(r, UserGroupsLoadFilter.class.getSimpleName() + "-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.refreshExecutor.allowCoreThreadTimeOut(true);
     }
 
     /**
-     * @param configService
-     *            the configService to set
+     *
+     * {@inheritDoc}
      */
-    public void setConfigService(final ConfigService configService)
+    @Override
+    public void destroy()
     {
-        this.configService = configService;
+        final ThreadPoolExecutor executor = this.refreshExecutor;
+        if (executor != null)
+        {
+            // any reload triggered after shutdown is rejected and performed on the triggering thread
+            executor.shutdown();
+            try
+            {
+                // reloads are only an optimisation - no need to hold up shutdown for long
+                if (!executor.awaitTermination(REFRESH_SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS))
+                {
+                    executor.shutdownNow();
+                }
+            }
+            catch (final InterruptedException iex)
+            {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @param configSnapshotProvider
+     *            the configSnapshotProvider to set
+     */
+    public void setConfigSnapshotProvider(final KeycloakConfigSnapshotProvider configSnapshotProvider)
+    {
+        this.configSnapshotProvider = configSnapshotProvider;
     }
 
     /**
@@ -104,6 +190,42 @@ public class UserGroupsLoadFilter implements DependencyInjectedFilter, Initializ
         this.connectorService = connectorService;
     }
 
+    /**
+     * @param userGroupsCacheSize
+     *            the userGroupsCacheSize to set
+     */
+    public void setUserGroupsCacheSize(final int userGroupsCacheSize)
+    {
+        this.userGroupsCacheSize = userGroupsCacheSize;
+    }
+
+    /**
+     * @param userGroupsCacheTimeToLive
+     *            the userGroupsCacheTimeToLive to set
+     */
+    public void setUserGroupsCacheTimeToLive(final long userGroupsCacheTimeToLive)
+    {
+        this.userGroupsCacheTimeToLive = userGroupsCacheTimeToLive;
+    }
+
+    /**
+     * @param refreshThreads
+     *            the refreshThreads to set
+     */
+    public void setRefreshThreads(final int refreshThreads)
+    {
+        this.refreshThreads = refreshThreads;
+    }
+
+    /**
+     * @param refreshQueueSize
+     *            the refreshQueueSize to set
+     */
+    public void setRefreshQueueSize(final int refreshQueueSize)
+    {
+        this.refreshQueueSize = refreshQueueSize;
+    }
+
     /**
      *
      * {@inheritDoc}
@@ -122,58 +244,250 @@ public class UserGroupsLoadFilter implements DependencyInjectedFilter, Initializ
                 final User user = (User) session.getAttribute(UserFactory.SESSION_ATTRIBUTE_KEY_USER_OBJECT);
 
                 final Date lastLoaded = (Date) session.getAttribute(SESSION_ATTRIBUTE_KEY_USER_GROUPS_LAST_LOADED);
-                long cachedUserGroupsTimeout = DEFAULT_CACHED_USER_GROUPS_TIMEOUT;
+                final Long configuredTimeout = this.configSnapshotProvider.getSnapshot().getCachedUserGroupsTimeout();
+                final long cachedUserGroupsTimeout = configuredTimeout != null ? configuredTimeout.longValue()
+                        : DEFAULT_CACHED_USER_GROUPS_TIMEOUT;
 
-                final ConfigElement userConfig = this.configService.getGlobalConfig().getConfigElement("user");
-                if (userConfig != null)
+                if (userId != null)
                 {
-                    final String timeoutConfig = userConfig.getChildValue("cached-user-groups-timeout");
-                    if (timeoutConfig != null)
-                    {
-                        cachedUserGroupsTimeout = Long.parseLong(timeoutConfig, 10);
-                    }
+                    this.processUserGroups((HttpServletRequest) request, session, userId, userGroupsCSVList, user, lastLoaded,
+                            cachedUserGroupsTimeout);
                 }
+            }
+        }
 
-                if (userId != null)
+        chain.doFilter(request, response);
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void completeLogin(final String endpointId, final HttpSession session, final String userId)
+    {
+        // user groups are always loaded from the default Alfresco endpoint
+        if (AlfrescoUserFactory.ALFRESCO_ENDPOINT_ID.equals(endpointId) && this.getCachedUserGroups(userId) == null)
+        {
+            LOGGER.debug("Pre-loading user groups for {} on login", userId);
+            this.loadUserGroups(null, session, userId);
+        }
+    }
+
+    /**
+     * Ensures the user groups of the current session are initialised and up-to-date with the groups cached for the user, triggering a
+     * background reload of the cached groups if they have become stale.
+     *
+     * @param request
+     *            the HTTP servlet request
+     * @param session
+     *            the current session
+     * @param userId
+     *            the ID of the current user
+     * @param userGroupsCSVList
+     *            the user groups currently set in the session
+     * @param user
+     *            the user object of the current session
+     * @param lastLoaded
+     *            the date when the user groups in the session were last loaded
+     * @param cachedUserGroupsTimeout
+     *            the timeout after which loaded user groups are considered stale
+     */
+    protected void processUserGroups(final HttpServletRequest request, final HttpSession session, final String userId,
+            final String userGroupsCSVList, final User user, final Date lastLoaded, final long cachedUserGroupsTimeout)
+    {
+        CachedUserGroups cachedUserGroups = this.getCachedUserGroups(userId);
+        if (cachedUserGroups == null && userGroupsCSVList != null)
+        {
+            // might have just been loaded by an authentication filter on initial login
+            cachedUserGroups = this.putCachedUserGroupsIfAbsent(userId,
+                    new CachedUserGroups(userGroupsCSVList, lastLoaded != null ? lastLoaded.getTime() : System.currentTimeMillis()));
+        }
+
+        if (cachedUserGroups == null)
+        {
+            // nothing to fall back to until loaded
+            cachedUserGroups = this.loadUserGroups(request, session, userId);
+        }
+
+        if (cachedUserGroups != null)
+        {
+            if (userGroupsCSVList == null || lastLoaded == null || lastLoaded.getTime() < cachedUserGroups.getLoaded())
+            {
+                session.setAttribute(SlingshotLoginController.SESSION_ATTRIBUTE_KEY_USER_GROUPS, cachedUserGroups.getUserGroupsCSVList());
+                if (user != null)
                 {
-                    if (userGroupsCSVList == null
-                            || (lastLoaded != null && lastLoaded.getTime() + cachedUserGroupsTimeout < System.currentTimeMillis()))
+                    user.setProperty(SlingshotUserFactory.ALF_USER_GROUPS, cachedUserGroups.getUserGroupsCSVList());
+                }
+                session.setAttribute(SESSION_ATTRIBUTE_KEY_USER_GROUPS_LAST_LOADED, new Date(cachedUserGroups.getLoaded()));
+            }
+
+            if (cachedUserGroups.getLoaded() + cachedUserGroupsTimeout < System.currentTimeMillis())
+            {
+                this.triggerBackgroundReload(request, session, userId);
+            }
+        }
+        else
+        {
+            LOGGER.debug("User groups session attribute cannot be updated after failure to load - will retry after next cache timeout");
+            // some scripts (*cough* faceted-search) can fail if attribute is not set
+            if (session.getAttribute(SlingshotLoginController.SESSION_ATTRIBUTE_KEY_USER_GROUPS) == null)
+            {
+                session.setAttribute(SlingshotLoginController.SESSION_ATTRIBUTE_KEY_USER_GROUPS, "");
+            }
+            if (user != null && user.getProperty(SlingshotUserFactory.ALF_USER_GROUPS) == null)
+            {
+                user.setProperty(SlingshotUserFactory.ALF_USER_GROUPS, "");
+            }
+            session.setAttribute(SESSION_ATTRIBUTE_KEY_USER_GROUPS_LAST_LOADED, new Date());
+        }
+    }
+
+    /**
+     * Loads the user groups of a user on the current thread, or waits for the completion of a load already in progress for the same user.
+     *
+     * @param request
+     *            the HTTP servlet request
+     * @param session
+     *            the current session
+     * @param userId
+     *            the ID of the user for which to load the group memberships
+     * @return the loaded user groups or {@code null} if the user groups could not be loaded
+     */
+    protected CachedUserGroups loadUserGroups(final HttpServletRequest request, final HttpSession session, final String userId)
+    {
+        final CompletableFuture<CachedUserGroups> loadFuture = new CompletableFuture<>();
+        final CompletableFuture<CachedUserGroups> inFlightLoad = this.inFlightLoads.putIfAbsent(userId, loadFuture);
+        if (inFlightLoad != null)
+        {
+            LOGGER.debug("Waiting for user groups of {} being loaded by concurrent request", userId);
+            return inFlightLoad.join();
+        }
+
+        try
+        {
+            final CachedUserGroups loaded = this.doLoadUserGroups(request, session, userId);
+            loadFuture.complete(loaded);
+            return loaded;
+        }
+        catch (final RuntimeException ex)
+        {
+            loadFuture.complete(null);
+            throw ex;
+        }
+        finally
+        {
+            this.inFlightLoads.remove(userId, loadFuture);
+        }
+    }
+
+    /**
+     * Triggers a reload of the user groups of a user in the background, unless a load is already in progress for the same user. If the
+     * reload cannot be scheduled as all background threads are busy, it is performed on the current thread.
+     *
+     * @param request
+     *            the HTTP servlet request triggering the reload
+     * @param session
+     *            the session with which to load the user groups
+     * @param userId
+     *            the ID of the user for which to load the group memberships
+     */
+    protected void triggerBackgroundReload(final HttpServletRequest request, final HttpSession session, final String userId)
+    {
+        final CompletableFuture<CachedUserGroups> loadFuture = new CompletableFuture<>();
+        if (this.inFlightLoads.putIfAbsent(userId, loadFuture) == null)
+        {
+            LOGGER.debug("Triggering background reload of stale user groups for {}", userId);
+            final HttpServletRequest detachedRequest = this.createDetachedRequest(request, session, userId);
+            try
+            {
+                this.refreshExecutor.execute(() -> {
+                    CachedUserGroups loaded = null;
+                    // backend connectors retrieve authentication details via the session of the current request
+                    ServletUtil.setRequest(detachedRequest);
+                    try
                     {
-                        final String reloadedUserGroupsCSVList = this.loadUserGroupsCSVList((HttpServletRequest) request, session, userId);
-                        if (reloadedUserGroupsCSVList != null)
-                        {
-                            session.setAttribute(SlingshotLoginController.SESSION_ATTRIBUTE_KEY_USER_GROUPS, reloadedUserGroupsCSVList);
-                            if (user != null)
-                            {
-                                user.setProperty(SlingshotUserFactory.ALF_USER_GROUPS, reloadedUserGroupsCSVList);
-                            }
-                        }
-                        else
-                        {
-                            LOGGER.debug(
-                                    "User groups session attribute cannot be updated after failure to load - will retry after next cache timeout");
-                            // some scripts (*cough* faceted-search) can fail if attribute is not set
-                            if (session.getAttribute(SlingshotLoginController.SESSION_ATTRIBUTE_KEY_USER_GROUPS) == null)
-                            {
-                                session.setAttribute(SlingshotLoginController.SESSION_ATTRIBUTE_KEY_USER_GROUPS, "");
-                            }
-                            if (user != null && user.getProperty(SlingshotUserFactory.ALF_USER_GROUPS) == null)
-                            {
-                                user.setProperty(SlingshotUserFactory.ALF_USER_GROUPS, "");
-                            }
-                        }
-                        session.setAttribute(SESSION_ATTRIBUTE_KEY_USER_GROUPS_LAST_LOADED, new Date());
+                        loaded = this.doLoadUserGroups(null, session, userId);
+                    }
+                    catch (final RuntimeException ex)
+                    {
+                        // may fail e.g. if session has been invalidated in the meantime
+                        LOGGER.warn("Failed to reload user groups for {} in the background", userId, ex);
                     }
-                    else if (lastLoaded == null)
+                    finally
                     {
-                        // might have just been loaded by an authentication filter on initial login
-                        session.setAttribute(SESSION_ATTRIBUTE_KEY_USER_GROUPS_LAST_LOADED, new Date());
+                        RequestContextHolder.resetRequestAttributes();
+                        this.inFlightLoads.remove(userId, loadFuture);
+                        loadFuture.complete(loaded);
                     }
+                });
+            }
+            catch (final RejectedExecutionException reex)
+            {
+                LOGGER.debug("Background reload of user groups for {} rejected - reloading on current thread", userId);
+                CachedUserGroups loaded = null;
+                try
+                {
+                    loaded = this.doLoadUserGroups(request, session, userId);
+                }
+                finally
+                {
+                    this.inFlightLoads.remove(userId, loadFuture);
+                    loadFuture.complete(loaded);
                 }
             }
         }
+    }
 
-        chain.doFilter(request, response);
+    protected CachedUserGroups doLoadUserGroups(final HttpServletRequest request, final HttpSession session, final String userId)
+    {
+        final String userGroupsCSVList = this.loadUserGroupsCSVList(request, session, userId);
+        final CachedUserGroups previous = this.getCachedUserGroups(userId);
+
+        CachedUserGroups loaded = null;
+        if (userGroupsCSVList != null)
+        {
+            loaded = new CachedUserGroups(userGroupsCSVList, System.currentTimeMillis());
+        }
+        else if (previous != null)
+        {
+            LOGGER.debug("Continuing to use stale user groups for {} after failure to load - will retry after next cache timeout", userId);
+            loaded = new CachedUserGroups(previous.getUserGroupsCSVList(), System.currentTimeMillis());
+        }
+
+        if (loaded != null)
+        {
+            this.userGroupsCache.put(userId, loaded);
+        }
+        return loaded;
+    }
+
+    protected CachedUserGroups getCachedUserGroups(final String userId)
+    {
+        return this.userGroupsCache.get(userId);
+    }
+
+    protected CachedUserGroups putCachedUserGroupsIfAbsent(final String userId, final CachedUserGroups userGroups)
+    {
+        final CachedUserGroups existing = this.userGroupsCache.putIfAbsent(userId, userGroups);
+        return existing != null ? existing : userGroups;
+    }
+
+    /**
+     * Creates a minimal request exposing only the session and user of a request, for use in background operations that require backend
+     * connectors to be able to look up authentication details via the "current request".
+     *
+     * @param request
+     *            the request from which to detach
+     * @param session
+     *            the session to expose
+     * @param userId
+     *            the ID of the user to expose as the remote user
+     * @return the detached request
+     */
+    protected HttpServletRequest createDetachedRequest(final HttpServletRequest request, final HttpSession session, final String userId)
+    {
+        return DetachedRequestUtil.createDetachedRequest(request, session, userId);
     }
 
     /**
@@ -256,4 +570,39 @@ public class UserGroupsLoadFilter implements DependencyInjectedFilter, Initializ
 
         return userGroupsCSVList;
     }
+
+    /**
+     * Instances of this class represent the user groups loaded for a specific user at a specific time.
+     *
+     * @author Axel Faust
+     */
+    protected static class CachedUserGroups
+    {
+
+        private final String userGroupsCSVList;
+
+        private final long loaded;
+
+        protected CachedUserGroups(final String userGroupsCSVList, final long loaded)
+        {
+            this.userGroupsCSVList = userGroupsCSVList;
+            this.loaded = loaded;
+        }
+
+        /**
+         * @return the userGroupsCSVList
+         */
+        public String getUserGroupsCSVList()
+        {
+            return this.userGroupsCSVList;
+        }
+
+        /**
+         * @return the loaded
+         */
+        public long getLoaded()
+        {
+            return this.loaded;
+        }
+    }
 }
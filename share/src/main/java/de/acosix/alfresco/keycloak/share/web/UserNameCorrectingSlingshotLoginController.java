@@ -43,20 +43,41 @@ import org.springframework.extensions.webscripts.connector.Credentials;
 import org.springframework.extensions.webscripts.connector.HttpMethod;
 import org.springframework.extensions.webscripts.connector.Response;
 
+import de.acosix.alfresco.keycloak.share.util.BoundedConcurrentCache;
+
 /**
  * This specialised variant of a login controller performs user name corrections upon successful authantication of a user, in case the
  * Repository tier authentication has resulted in any deviation from the user-provided user name. This may be the case because of case
  * matching or alternative login attributes (like email) being supported that resolve back to a preferred user name.
  *
+ * Effective user names loaded from the backend are kept in a bounded, node-local cache for a configurable time, including negative
+ * entries for users without a deviating effective user name, so that repeated logins of the same user do not require a backend call. As a
+ * {@link LoginCompletionStep login completion step}, this controller also pre-loads the effective user name of users authenticated via SSO.
+ *
  * @author Axel Faust
  */
-public class UserNameCorrectingSlingshotLoginController extends SlingshotLoginController implements InitializingBean
+public class UserNameCorrectingSlingshotLoginController extends SlingshotLoginController
+        implements LoginCompletionStep, InitializingBean
 {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(UserNameCorrectingSlingshotLoginController.class);
 
+    private static final int DEFAULT_EFFECTIVE_USER_NAME_CACHE_SIZE = 10000;
+
+    private static final long DEFAULT_EFFECTIVE_USER_NAME_CACHE_TTL_MILLIS = 300000;
+
+    private static final long DEFAULT_NEGATIVE_EFFECTIVE_USER_NAME_CACHE_TTL_MILLIS = 60000;
+
     protected ConnectorService connectorService;
 
+    protected int effectiveUserNameCacheSize = DEFAULT_EFFECTIVE_USER_NAME_CACHE_SIZE;
+
+    protected long effectiveUserNameCacheTtlMillis = DEFAULT_EFFECTIVE_USER_NAME_CACHE_TTL_MILLIS;
+
+    protected long negativeEffectiveUserNameCacheTtlMillis = DEFAULT_NEGATIVE_EFFECTIVE_USER_NAME_CACHE_TTL_MILLIS;
+
+    protected BoundedConcurrentCache<String, CachedEffectiveUserName> effectiveUserNameCache;
+
     /**
      *
      * {@inheritDoc}
@@ -65,6 +86,8 @@ public class UserNameCorrectingSlingshotLoginController extends SlingshotLoginCo
     public void afterPropertiesSet()
     {
         PropertyCheck.mandatory(this, "connectorService", this.connectorService);
+
+        this.effectiveUserNameCache = new BoundedConcurrentCache<>(this.effectiveUserNameCacheSize, this.effectiveUserNameCacheTtlMillis);
     }
 
     /**
@@ -76,6 +99,33 @@ public class UserNameCorrectingSlingshotLoginController extends SlingshotLoginCo
         this.connectorService = connectorService;
     }
 
+    /**
+     * @param effectiveUserNameCacheSize
+     *            the effectiveUserNameCacheSize to set
+     */
+    public void setEffectiveUserNameCacheSize(final int effectiveUserNameCacheSize)
+    {
+        this.effectiveUserNameCacheSize = effectiveUserNameCacheSize;
+    }
+
+    /**
+     * @param effectiveUserNameCacheTtlMillis
+     *            the effectiveUserNameCacheTtlMillis to set
+     */
+    public void setEffectiveUserNameCacheTtlMillis(final long effectiveUserNameCacheTtlMillis)
+    {
+        this.effectiveUserNameCacheTtlMillis = effectiveUserNameCacheTtlMillis;
+    }
+
+    /**
+     * @param negativeEffectiveUserNameCacheTtlMillis
+     *            the negativeEffectiveUserNameCacheTtlMillis to set
+     */
+    public void setNegativeEffectiveUserNameCacheTtlMillis(final long negativeEffectiveUserNameCacheTtlMillis)
+    {
+        this.negativeEffectiveUserNameCacheTtlMillis = negativeEffectiveUserNameCacheTtlMillis;
+    }
+
     /**
      *
      * {@inheritDoc}
@@ -161,7 +211,23 @@ public class UserNameCorrectingSlingshotLoginController extends SlingshotLoginCo
     }
 
     /**
-     * Attempts to load the effective user name for the authenticated user from the backend.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void completeLogin(final String endpointId, final HttpSession session, final String userId)
+    {
+        // effective user name is always loaded from the default Alfresco endpoint
+        if (AlfrescoUserFactory.ALFRESCO_ENDPOINT_ID.equals(endpointId) && this.getCachedEffectiveUserName(userId) == null)
+        {
+            LOGGER.debug("Pre-loading effective user name for {} on login", userId);
+            this.queryEffectiveUserName(session, userId);
+        }
+    }
+
+    /**
+     * Attempts to load the effective user name for the authenticated user, either from the cache of recently loaded effective user names or
+     * the backend.
      *
      * @param request
      *            the servlet request being processed
@@ -173,7 +239,31 @@ public class UserNameCorrectingSlingshotLoginController extends SlingshotLoginCo
      */
     protected String loadEffectiveUserName(final HttpServletRequest request, final HttpSession session, final String userId)
     {
-        String effectiveUserName;
+        CachedEffectiveUserName cached = this.getCachedEffectiveUserName(userId);
+        if (cached != null)
+        {
+            LOGGER.debug("Using cached effective user name {} for {}", cached.getEffectiveUserName(), userId);
+        }
+        else
+        {
+            cached = this.queryEffectiveUserName(session, userId);
+        }
+        return cached != null ? cached.getEffectiveUserName() : null;
+    }
+
+    /**
+     * Queries the effective user name for the authenticated user from the backend, caching the result unless the query failed due to a
+     * potentially transient error.
+     *
+     * @param session
+     *            the currently active session
+     * @param userId
+     *            the ID of the user as provided by the user themselves
+     * @return the result of the query or {@code null} if the query failed (will be logged)
+     */
+    protected CachedEffectiveUserName queryEffectiveUserName(final HttpSession session, final String userId)
+    {
+        CachedEffectiveUserName result;
         try
         {
             final Connector connector = this.connectorService.getConnector(AlfrescoUserFactory.ALFRESCO_ENDPOINT_ID, userId, session);
@@ -187,6 +277,7 @@ public class UserNameCorrectingSlingshotLoginController extends SlingshotLoginCo
                 final String responseText = res.getResponse();
                 final JSONParser jsonParser = new JSONParser();
                 final Object userData = jsonParser.parse(responseText.toString());
+                String effectiveUserName;
                 if (userData instanceof JSONObject)
                 {
                     effectiveUserName = (String) ((JSONObject) userData).get("userName");
@@ -196,6 +287,15 @@ public class UserNameCorrectingSlingshotLoginController extends SlingshotLoginCo
                     LOGGER.warn("Response in call to load effective user name for {} was not a proper JSON object", userId);
                     effectiveUserName = null;
                 }
+
+                // a response without an effective user name is cached as a negative entry
+                final long ttl = effectiveUserName != null ? this.effectiveUserNameCacheTtlMillis
+                        : this.negativeEffectiveUserNameCacheTtlMillis;
+                result = new CachedEffectiveUserName(effectiveUserName);
+                if (ttl > 0)
+                {
+                    this.effectiveUserNameCache.put(userId, result, ttl);
+                }
             }
             else
             {
@@ -209,15 +309,52 @@ public class UserNameCorrectingSlingshotLoginController extends SlingshotLoginCo
                     LOGGER.warn("Failed to load effective user name for {} with backend call resulting in HTTP response with status {} {}",
                             userId, res.getStatus().getCode(), res.getStatus().getMessage());
                 }
-                effectiveUserName = null;
+                result = null;
             }
         }
         catch (final ConnectorServiceException | ParseException ex)
         {
             LOGGER.error("Failed to load effective user name for {}", userId, ex);
-            effectiveUserName = null;
+            result = null;
+        }
+
+        return result;
+    }
+
+    protected CachedEffectiveUserName getCachedEffectiveUserName(final String userId)
+    {
+        return this.effectiveUserNameCache.get(userId);
+    }
+
+    /**
+     * Clears all cached effective user names.
+     */
+    public void clearEffectiveUserNameCache()
+    {
+        this.effectiveUserNameCache.clear();
+    }
+
+    /**
+     * Instances of this class hold the effective user name loaded for a user, which may be {@code null} for negative entries.
+     *
+     * @author Axel Faust
+     */
+    protected static class CachedEffectiveUserName
+    {
+
+        protected final String effectiveUserName;
+
+        protected CachedEffectiveUserName(final String effectiveUserName)
+        {
+            this.effectiveUserName = effectiveUserName;
         }
 
-        return effectiveUserName;
+        /**
+         * @return the effectiveUserName
+         */
+        public String getEffectiveUserName()
+        {
+            return this.effectiveUserName;
+        }
     }
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.web.scripts;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.DeclarativeWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.servlet.DependencyInjectedFilter;
+
+import de.acosix.alfresco.keycloak.share.remote.ConnectorMetrics;
+import de.acosix.alfresco.keycloak.share.web.KeycloakAuthenticationFilter;
+
+/**
+ * This web script controller provides the metrics of connectors used for calls to backend endpoints, as well as the number of requests
+ * which had to wait for a backend token exchange, to the FreeMarker response template of the {@code connectorMetrics.get} web script.
+ *
+ * @author Axel Faust
+ */
+public class ConnectorMetricsGet extends DeclarativeWebScript
+{
+
+    protected DependencyInjectedFilter ssoAuthenticationFilter;
+
+    /**
+     * @param ssoAuthenticationFilter
+     *     the ssoAuthenticationFilter to set
+     */
+    public void setSsoAuthenticationFilter(final DependencyInjectedFilter ssoAuthenticationFilter)
+    {
+        this.ssoAuthenticationFilter = ssoAuthenticationFilter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Map<String, Object> executeImpl(final WebScriptRequest req, final Status status, final Cache cache)
+    {
+        Map<String, Object> model = super.executeImpl(req, status, cache);
+        if (model == null)
+        {
+            model = new HashMap<>();
+        }
+
+        model.put("connectorMetrics", ConnectorMetrics.getAll());
+        // filter is only our filter if it has been activated
+        model.put("backendTokenExchangeWaits", this.ssoAuthenticationFilter instanceof KeycloakAuthenticationFilter
+                ? ((KeycloakAuthenticationFilter) this.ssoAuthenticationFilter).getBackendTokenExchangeWaitCount()
+                : 0L);
+        return model;
+    }
+}
@@ -0,0 +1,9 @@
+<#compress><#escape x as jsonUtils.encodeJSONString(x)>{
+    "data": [<#list statistics?keys as route><#assign stats = statistics[route]>{
+        "route": "${route}",
+        "leased": ${stats.leased?c},
+        "pending": ${stats.pending?c},
+        "available": ${stats.available?c},
+        "max": ${stats.max?c}
+    }<#if route_has_next>,</#if></#list>]
+}</#escape></#compress>
\ No newline at end of file
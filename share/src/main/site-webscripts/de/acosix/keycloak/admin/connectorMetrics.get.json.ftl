@@ -0,0 +1,9 @@
+<#compress><#escape x as jsonUtils.encodeJSONString(x)>{
+    "backendTokenExchangeWaits": ${backendTokenExchangeWaits?c},
+    "data": [<#list connectorMetrics as metrics>{
+        "endpoint": "${metrics.endpoint}",
+        "calls": ${metrics.calls?c},
+        "cachedAuthorizationHeaderUses": ${metrics.cachedAuthorizationHeaderUses?c},
+        "authorizationHeaderComputations": ${metrics.authorizationHeaderComputations?c}
+    }<#if metrics_has_next>,</#if></#list>]
+}</#escape></#compress>
\ No newline at end of file
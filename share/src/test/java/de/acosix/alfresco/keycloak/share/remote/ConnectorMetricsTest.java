@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.remote;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Axel Faust
+ */
+public class ConnectorMetricsTest
+{
+
+    @Test
+    public void metricsAreSharedPerEndpoint()
+    {
+        final ConnectorMetrics metrics = ConnectorMetrics.forEndpoint("http://test-shared:8080/alfresco/wcs");
+        Assert.assertSame(metrics, ConnectorMetrics.forEndpoint("http://test-shared:8080/alfresco/wcs"));
+        Assert.assertNotSame(metrics, ConnectorMetrics.forEndpoint("http://test-shared:8080/alfresco/api"));
+        Assert.assertTrue(ConnectorMetrics.getAll().contains(metrics));
+    }
+
+    @Test
+    public void callsAreCountedPerAuthenticationKind()
+    {
+        final ConnectorMetrics metrics = ConnectorMetrics.forEndpoint("http://test-counts:8080/alfresco/wcs");
+        metrics.recordAuthorizationHeaderComputation();
+        metrics.recordCachedAuthorizationHeaderUse();
+        metrics.recordCachedAuthorizationHeaderUse();
+
+        Assert.assertEquals(3, metrics.getCalls());
+        Assert.assertEquals(2, metrics.getCachedAuthorizationHeaderUses());
+        Assert.assertEquals(1, metrics.getAuthorizationHeaderComputations());
+        Assert.assertEquals(0, ConnectorMetrics.forEndpoint("http://test-counts:8080/alfresco/api").getCalls());
+    }
+}
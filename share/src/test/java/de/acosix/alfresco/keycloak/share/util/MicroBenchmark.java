@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Provides the measurement utilities for the JUnit-driven micro-benchmarks of this module. Benchmark classes are named {@code *Benchmark},
+ * so that they are not run by the default test includes of the Maven Surefire plugin, and need to be run explicitly, e.g. via
+ * {@code mvn test -Dtest=*Benchmark -Dsurefire.failIfNoSpecifiedTests=false}. Results are written to the standard output and are only
+ * indicative, as this utility does not provide the JVM forking and statistical rigor of a dedicated harness.
+ *
+ * @author Axel Faust
+ */
+public final class MicroBenchmark
+{
+
+    private static volatile Object sink;
+
+    private MicroBenchmark()
+    {
+        // NO-OP
+    }
+
+    /**
+     * Measures the average time of a single-threaded operation.
+     *
+     * @param name
+     *     the name of the measured operation
+     * @param warmupIterations
+     *     the number of iterations to execute before measuring
+     * @param iterations
+     *     the number of iterations to measure
+     * @param operation
+     *     the operation to measure
+     * @return the average time of the operation in nanoseconds
+     * @throws Exception
+     *     if the operation fails
+     */
+    public static double measureAverageTime(final String name, final int warmupIterations, final int iterations,
+            final Callable<?> operation) throws Exception
+    {
+        for (int idx = 0; idx < warmupIterations; idx++)
+        {
+            sink = operation.call();
+        }
+
+        final long start = System.nanoTime();
+        for (int idx = 0; idx < iterations; idx++)
+        {
+            sink = operation.call();
+        }
+        final double nanosPerOperation = (double) (System.nanoTime() - start) / iterations;
+
+        report(String.format(Locale.ENGLISH, "%-70s %14.1f ns/op", name, nanosPerOperation));
+        return nanosPerOperation;
+    }
+
+    /**
+     * Measures the throughput of an operation concurrently executed by multiple threads.
+     *
+     * @param name
+     *     the name of the measured operation
+     * @param threads
+     *     the number of threads executing the operation
+     * @param warmupMillis
+     *     the time to execute the operation before measuring
+     * @param measurementMillis
+     *     the time to measure
+     * @param operation
+     *     the operation to measure
+     * @return the throughput of the operation in operations per second
+     * @throws Exception
+     *     if the operation fails
+     */
+    public static double measureThroughput(final String name, final int threads, final long warmupMillis, final long measurementMillis,
+            final Callable<?> operation) throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            final LongAdder operations = new LongAdder();
+            final AtomicBoolean running = new AtomicBoolean(true);
+            final CountDownLatch ready = new CountDownLatch(threads);
+
+            final List<Future<?>> workers = new ArrayList<>(threads);
+            for (int idx = 0; idx < threads; idx++)
+            {
+                workers.add(executor.submit(() -> {
+                    ready.countDown();
+                    ready.await();
+
+                    // avoid a shared volatile write per operation distorting contention results
+                    long results = 0;
+                    while (running.get())
+                    {
+                        if (operation.call() != null)
+                        {
+                            results++;
+                        }
+                        operations.increment();
+                    }
+                    sink = Long.valueOf(results);
+                    return null;
+                }));
+            }
+
+            ready.await();
+            Thread.sleep(warmupMillis);
+
+            final long startOperations = operations.sum();
+            final long start = System.nanoTime();
+            Thread.sleep(measurementMillis);
+            final long endOperations = operations.sum();
+            final long end = System.nanoTime();
+
+            running.set(false);
+            for (final Future<?> worker : workers)
+            {
+                worker.get();
+            }
+
+            final double operationsPerSecond = (endOperations - startOperations) * 1_000_000_000d / (end - start);
+            report(String.format(Locale.ENGLISH, "%-60s %3d threads %14.0f ops/s", name, threads, operationsPerSecond));
+            return operationsPerSecond;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reports a single benchmark result.
+     *
+     * @param result
+     *     the result to report
+     */
+    public static void report(final String result)
+    {
+        System.out.println(result);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.keycloak.adapters.rotation.AdapterTokenVerifier.VerifiedTokens;
+import org.keycloak.common.util.Base64Url;
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.AccessTokenResponse;
+import org.keycloak.representations.IDToken;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * Compares the session footprint of 10k sessions holding the compact form of {@link RefreshableAccessTokenHolder} with the previous form,
+ * which serialised the fully parsed token object graphs, measuring the total serialised size, the time to serialise / deserialise the token
+ * state of all sessions (as for session replication or persistence) and the heap retained by the deserialised token state. See
+ * {@link MicroBenchmark} on how to run this benchmark.
+ *
+ * @author Axel Faust
+ */
+public class RefreshableAccessTokenHolderBenchmark
+{
+
+    private static final int SESSIONS = 10_000;
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    private static final int ROUNDS = 5;
+
+    private static RefreshableAccessTokenHolder[] compactHolders;
+
+    private static ParsedTokenHolder[] parsedHolders;
+
+    @BeforeClass
+    public static void setup() throws IOException
+    {
+        compactHolders = new RefreshableAccessTokenHolder[SESSIONS];
+        parsedHolders = new ParsedTokenHolder[SESSIONS];
+        for (int idx = 0; idx < SESSIONS; idx++)
+        {
+            final AccessToken accessToken = new AccessToken();
+            populateClaims(accessToken, idx);
+            accessToken.type("Bearer");
+            accessToken.setScope("openid profile email");
+            accessToken.setRealmAccess(new AccessToken.Access().addRole("offline_access", "uma_authorization", "default-roles-alfresco"));
+            accessToken.addAccess("alfresco").addRole("user");
+            accessToken.addAccess("account").addRole("manage-account", "view-profile");
+
+            final IDToken idToken = new IDToken();
+            populateClaims(idToken, idx);
+            idToken.type("ID");
+
+            final AccessTokenResponse tokenResponse = new AccessTokenResponse();
+            tokenResponse.setToken(toTokenString(accessToken));
+            tokenResponse.setIdToken(toTokenString(idToken));
+            tokenResponse.setRefreshToken(toTokenString(accessToken));
+            tokenResponse.setRefreshExpiresIn(1800);
+
+            compactHolders[idx] = new RefreshableAccessTokenHolder(tokenResponse, new VerifiedTokens(accessToken, idToken));
+            parsedHolders[idx] = new ParsedTokenHolder(accessToken, idToken, tokenResponse.getToken(), tokenResponse.getRefreshToken(),
+                    Time.currentTime() + tokenResponse.getRefreshExpiresIn());
+        }
+    }
+
+    @Test
+    public void serialisedSize() throws Exception
+    {
+        final byte[][] compactStates = serialiseAll(compactHolders);
+        final byte[][] parsedStates = serialiseAll(parsedHolders);
+
+        final long compactSize = totalSize(compactStates);
+        final long parsedSize = totalSize(parsedStates);
+        MicroBenchmark.report(String.format(Locale.ENGLISH, "%-70s %14d bytes", SESSIONS + " sessions serialised (compact)", compactSize));
+        MicroBenchmark.report(
+                String.format(Locale.ENGLISH, "%-70s %14d bytes", SESSIONS + " sessions serialised (parsed object graphs)", parsedSize));
+        Assert.assertTrue("Compact form should be smaller than the parsed object graphs", compactSize < parsedSize);
+    }
+
+    @Test
+    public void serialisationTime() throws Exception
+    {
+        MicroBenchmark.measureAverageTime("serialise " + SESSIONS + " sessions (compact)", WARMUP_ROUNDS, ROUNDS,
+                () -> serialiseAll(compactHolders));
+        MicroBenchmark.measureAverageTime("serialise " + SESSIONS + " sessions (parsed object graphs)", WARMUP_ROUNDS, ROUNDS,
+                () -> serialiseAll(parsedHolders));
+
+        final byte[][] compactStates = serialiseAll(compactHolders);
+        final byte[][] parsedStates = serialiseAll(parsedHolders);
+        MicroBenchmark.measureAverageTime("deserialise " + SESSIONS + " sessions (compact)", WARMUP_ROUNDS, ROUNDS,
+                () -> deserialiseAll(compactStates));
+        MicroBenchmark.measureAverageTime("deserialise " + SESSIONS + " sessions (parsed object graphs)", WARMUP_ROUNDS, ROUNDS,
+                () -> deserialiseAll(parsedStates));
+    }
+
+    @Test
+    public void retainedHeap() throws Exception
+    {
+        final byte[][] compactStates = serialiseAll(compactHolders);
+        final byte[][] parsedStates = serialiseAll(parsedHolders);
+
+        // approximate, as it depends on the garbage collector honouring the explicit collection requests
+        long baseline = usedHeap();
+        Object[] restored = deserialiseAll(compactStates);
+        final long compactHeap = usedHeap() - baseline;
+        Assert.assertEquals(SESSIONS, restored.length);
+
+        restored = null;
+        baseline = usedHeap();
+        restored = deserialiseAll(parsedStates);
+        final long parsedHeap = usedHeap() - baseline;
+        Assert.assertEquals(SESSIONS, restored.length);
+
+        MicroBenchmark.report(
+                String.format(Locale.ENGLISH, "%-70s %14d bytes", "heap of " + SESSIONS + " restored sessions (compact)", compactHeap));
+        MicroBenchmark.report(String.format(Locale.ENGLISH, "%-70s %14d bytes",
+                "heap of " + SESSIONS + " restored sessions (parsed object graphs)", parsedHeap));
+    }
+
+    private static void populateClaims(final IDToken token, final int session)
+    {
+        token.id("4f1c9a3e-2b7d-4e0a-9c51-" + String.format(Locale.ENGLISH, "%012d", Integer.valueOf(session)));
+        token.issuedNow();
+        token.exp(Long.valueOf(Time.currentTime() + 300));
+        token.issuer("https://keycloak.example.com/realms/alfresco");
+        token.subject("0b3a7c52-9e4d-4a61-8f2b-" + String.format(Locale.ENGLISH, "%012d", Integer.valueOf(session)));
+        token.audience("alfresco", "account");
+        token.issuedFor("alfresco");
+        token.setPreferredUsername("user" + session);
+        token.setName("User " + session);
+        token.setGivenName("User");
+        token.setFamilyName(String.valueOf(session));
+        token.setEmail("user" + session + "@example.com");
+        token.setEmailVerified(Boolean.TRUE);
+    }
+
+    private static String toTokenString(final Object token) throws IOException
+    {
+        final String header = Base64Url.encode("{\"alg\":\"RS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8));
+        final String content = Base64Url.encode(JsonSerialization.writeValueAsBytes(token));
+        // typical size of a RS256 signature
+        return header + "." + content + "." + Base64Url.encode(new byte[256]);
+    }
+
+    private static byte[][] serialiseAll(final Object[] holders) throws IOException
+    {
+        // each session is serialised on its own, as for session replication / persistence
+        final byte[][] states = new byte[holders.length][];
+        for (int idx = 0; idx < holders.length; idx++)
+        {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bos))
+            {
+                oos.writeObject(holders[idx]);
+            }
+            states[idx] = bos.toByteArray();
+        }
+        return states;
+    }
+
+    private static Object[] deserialiseAll(final byte[][] states) throws IOException, ClassNotFoundException
+    {
+        final Object[] holders = new Object[states.length];
+        for (int idx = 0; idx < states.length; idx++)
+        {
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(states[idx])))
+            {
+                holders[idx] = ois.readObject();
+            }
+        }
+        return holders;
+    }
+
+    private static long totalSize(final byte[][] states)
+    {
+        long size = 0;
+        for (final byte[] state : states)
+        {
+            size += state.length;
+        }
+        return size;
+    }
+
+    private static long usedHeap() throws InterruptedException
+    {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int idx = 0; idx < 3; idx++)
+        {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Replicates the previous, default serialised form of {@link RefreshableAccessTokenHolder}.
+     *
+     * @author Axel Faust
+     */
+    private static class ParsedTokenHolder implements Serializable
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AccessToken accessToken;
+
+        private final IDToken idToken;
+
+        private final String token;
+
+        private final String refreshToken;
+
+        private final long refreshExpiration;
+
+        private ParsedTokenHolder(final AccessToken accessToken, final IDToken idToken, final String token, final String refreshToken,
+                final long refreshExpiration)
+        {
+            this.accessToken = accessToken;
+            this.idToken = idToken;
+            this.token = token;
+            this.refreshToken = refreshToken;
+            this.refreshExpiration = refreshExpiration;
+        }
+    }
+}
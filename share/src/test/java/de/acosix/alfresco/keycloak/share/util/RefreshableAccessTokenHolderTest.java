@@ -0,0 +1,207 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.adapters.rotation.AdapterTokenVerifier.VerifiedTokens;
+import org.keycloak.common.util.Base64Url;
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.AccessTokenResponse;
+import org.keycloak.representations.IDToken;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * @author Axel Faust
+ */
+public class RefreshableAccessTokenHolderTest
+{
+
+    private static final long EARLIER_SERIAL_VERSION_UID = -3230026569734591820L;
+
+    @Test
+    public void roundTripOfTokenResponseWithIdToken() throws Exception
+    {
+        final AccessToken accessToken = createAccessToken();
+        final IDToken idToken = new IDToken();
+        idToken.setEmail("jdoe@example.com");
+
+        final String tokenString = toTokenString(accessToken);
+        final AccessTokenResponse tokenResponse = new AccessTokenResponse();
+        tokenResponse.setToken(tokenString);
+        tokenResponse.setIdToken(toTokenString(idToken));
+        tokenResponse.setRefreshToken("refresh-token");
+        tokenResponse.setRefreshExpiresIn(1800);
+
+        final RefreshableAccessTokenHolder original = new RefreshableAccessTokenHolder(tokenResponse,
+                new VerifiedTokens(accessToken, idToken));
+        final RefreshableAccessTokenHolder copy = roundTrip(original);
+
+        Assert.assertEquals(tokenString, copy.getToken());
+        Assert.assertEquals("refresh-token", copy.getRefreshToken());
+        Assert.assertEquals(original.getAccessTokenExpiration(), copy.getAccessTokenExpiration());
+        Assert.assertTrue(copy.isActive());
+        Assert.assertTrue(copy.canRefresh());
+        Assert.assertFalse(copy.shouldRefresh(60));
+        Assert.assertTrue(copy.shouldRefresh(600));
+        Assert.assertEquals("jdoe", copy.getAccessToken().getPreferredUsername());
+        Assert.assertEquals("jdoe@example.com", copy.getIdToken().getEmail());
+    }
+
+    @Test
+    public void roundTripOfTokenResponseWithoutIdToken() throws Exception
+    {
+        final AccessToken accessToken = createAccessToken();
+        final AccessTokenResponse tokenResponse = new AccessTokenResponse();
+        tokenResponse.setToken(toTokenString(accessToken));
+
+        final RefreshableAccessTokenHolder copy = roundTrip(
+                new RefreshableAccessTokenHolder(tokenResponse, new VerifiedTokens(accessToken, null)));
+
+        Assert.assertNull(copy.getIdToken());
+        Assert.assertNull(copy.getRefreshToken());
+        Assert.assertFalse(copy.canRefresh());
+        Assert.assertEquals("jdoe", copy.getAccessToken().getPreferredUsername());
+    }
+
+    @Test
+    public void roundTripWithIdTokenWithoutTextualRepresentation() throws Exception
+    {
+        final AccessToken accessToken = createAccessToken();
+        final IDToken idToken = new IDToken();
+        idToken.setEmail("jdoe@example.com");
+
+        final RefreshableAccessTokenHolder copy = roundTrip(
+                new RefreshableAccessTokenHolder(accessToken, idToken, toTokenString(accessToken), "refresh-token"));
+
+        Assert.assertEquals("refresh-token", copy.getRefreshToken());
+        Assert.assertEquals("jdoe@example.com", copy.getIdToken().getEmail());
+    }
+
+    @Test
+    public void roundTripWithAccessTokenAsIdToken() throws Exception
+    {
+        final AccessToken accessToken = createAccessToken();
+
+        final RefreshableAccessTokenHolder copy = roundTrip(
+                new RefreshableAccessTokenHolder(accessToken, accessToken, toTokenString(accessToken), null));
+
+        Assert.assertNull(copy.getRefreshToken());
+        Assert.assertSame(copy.getAccessToken(), copy.getIdToken());
+        Assert.assertEquals("jdoe", copy.getIdToken().getPreferredUsername());
+    }
+
+    @Test
+    public void roundTripOfExpiredToken() throws Exception
+    {
+        final AccessToken accessToken = createAccessToken();
+        accessToken.exp(Long.valueOf(Time.currentTime() - 10));
+
+        final RefreshableAccessTokenHolder copy = roundTrip(
+                new RefreshableAccessTokenHolder(accessToken, accessToken, toTokenString(accessToken), "refresh-token"));
+
+        Assert.assertTrue(copy.isExpired());
+        Assert.assertFalse(copy.isActive());
+    }
+
+    @Test
+    public void stateSerialisedByEarlierVersionIsRejected() throws Exception
+    {
+        final byte[] serialised = serialise(
+                new RefreshableAccessTokenHolder(createAccessToken(), new IDToken(), toTokenString(createAccessToken()), null));
+
+        // serial version UID directly follows the class name in the class descriptor
+        final byte[] className = RefreshableAccessTokenHolder.class.getName().getBytes(StandardCharsets.UTF_8);
+        final int uidIdx = indexOf(serialised, className) + className.length;
+        ByteBuffer.wrap(serialised, uidIdx, 8).putLong(EARLIER_SERIAL_VERSION_UID);
+
+        try
+        {
+            deserialise(serialised);
+            Assert.fail("State serialised by earlier version should have been rejected");
+        }
+        catch (final InvalidClassException icex)
+        {
+            // expected
+        }
+    }
+
+    private static AccessToken createAccessToken()
+    {
+        final AccessToken accessToken = new AccessToken();
+        accessToken.exp(Long.valueOf(Time.currentTime() + 300));
+        accessToken.setPreferredUsername("jdoe");
+        return accessToken;
+    }
+
+    private static String toTokenString(final Object token) throws IOException
+    {
+        // signature is not verified when tokens are parsed after deserialisation
+        final String header = Base64Url.encode("{\"alg\":\"RS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8));
+        final String content = Base64Url.encode(JsonSerialization.writeValueAsBytes(token));
+        return header + "." + content + "." + Base64Url.encode("signature".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int indexOf(final byte[] data, final byte[] pattern)
+    {
+        for (int idx = 0; idx <= data.length - pattern.length; idx++)
+        {
+            boolean match = true;
+            for (int patternIdx = 0; match && patternIdx < pattern.length; patternIdx++)
+            {
+                match = data[idx + patternIdx] == pattern[patternIdx];
+            }
+            if (match)
+            {
+                return idx;
+            }
+        }
+        throw new IllegalArgumentException("Pattern not found");
+    }
+
+    private static byte[] serialise(final RefreshableAccessTokenHolder holder) throws IOException
+    {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos))
+        {
+            oos.writeObject(holder);
+        }
+        return bos.toByteArray();
+    }
+
+    private static RefreshableAccessTokenHolder deserialise(final byte[] serialised) throws Exception
+    {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serialised)))
+        {
+            return (RefreshableAccessTokenHolder) ois.readObject();
+        }
+    }
+
+    private static RefreshableAccessTokenHolder roundTrip(final RefreshableAccessTokenHolder holder) throws Exception
+    {
+        return deserialise(serialise(holder));
+    }
+}
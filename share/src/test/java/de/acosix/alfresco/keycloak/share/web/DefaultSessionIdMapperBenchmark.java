@@ -0,0 +1,265 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.web;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+import org.keycloak.adapters.spi.SessionIdMapper;
+
+import de.acosix.alfresco.keycloak.share.util.MicroBenchmark;
+
+/**
+ * Compares the throughput of {@link DefaultSessionIdMapper} with the previous implementation based on a fair read-write lock and a globally
+ * synchronised access order at 1, 8, 32 and 128 threads. The workload consists of 95% session checks, as performed on every Share
+ * request, and 5% mappings of new sessions, each evicting an older session. See {@link MicroBenchmark} on how to run this benchmark.
+ *
+ * @author Axel Faust
+ */
+public class DefaultSessionIdMapperBenchmark
+{
+
+    private static final int SESSION_COUNT_LIMIT = 2_000;
+
+    private static final int PRINCIPALS = 500;
+
+    private static final int[] THREADS = { 1, 8, 32, 128 };
+
+    private static final long WARMUP_MILLIS = 1_000;
+
+    private static final long MEASUREMENT_MILLIS = 2_000;
+
+    @Test
+    public void contention() throws Exception
+    {
+        for (final int threads : THREADS)
+        {
+            this.measure("session checks / logins (concurrent maps, CLOCK eviction)", threads, () -> {
+                final DefaultSessionIdMapper mapper = new DefaultSessionIdMapper();
+                mapper.setSessionCountLimit(SESSION_COUNT_LIMIT);
+                mapper.afterPropertiesSet();
+                return mapper;
+            });
+            this.measure("session checks / logins (read-write lock, synchronised LRU)", threads, LockingSessionIdMapper::new);
+        }
+    }
+
+    private void measure(final String name, final int threads, final Supplier<SessionIdMapper> mapperFactory) throws Exception
+    {
+        final SessionIdMapper mapper = mapperFactory.get();
+        final AtomicLong sessionCounter = new AtomicLong(0);
+        for (int idx = 0; idx < SESSION_COUNT_LIMIT; idx++)
+        {
+            map(mapper, sessionCounter.getAndIncrement());
+        }
+
+        MicroBenchmark.measureThroughput(name, threads, WARMUP_MILLIS, MEASUREMENT_MILLIS, () -> {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final long sessionCount = sessionCounter.get();
+            Object result;
+            if (random.nextInt(100) < 5)
+            {
+                map(mapper, sessionCounter.getAndIncrement());
+                result = mapper;
+            }
+            else
+            {
+                result = Boolean.valueOf(mapper.hasSession("session-" + (sessionCount - 1 - random.nextInt(SESSION_COUNT_LIMIT))));
+            }
+            return result;
+        });
+    }
+
+    private static void map(final SessionIdMapper mapper, final long session)
+    {
+        mapper.map("sso-" + session, "user-" + (session % PRINCIPALS), "session-" + session);
+    }
+
+    /**
+     * Replicates the previous implementation of {@link DefaultSessionIdMapper} (without logging).
+     *
+     * @author Axel Faust
+     */
+    private static class LockingSessionIdMapper implements SessionIdMapper
+    {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+
+        private final Map<String, String> ssoToSession = new HashMap<>();
+
+        private final Map<String, String> sessionToSso = new HashMap<>();
+
+        private final Map<String, Set<String>> principalToSession = new HashMap<>();
+
+        private final Map<String, String> sessionToPrincipal = new HashMap<>();
+
+        private final Set<String> sessionUsedOrder = new LinkedHashSet<>();
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasSession(final String id)
+        {
+            this.lock.readLock().lock();
+            try
+            {
+                final boolean hasSession = this.sessionToSso.containsKey(id) || this.sessionToPrincipal.containsKey(id);
+                if (hasSession)
+                {
+                    synchronized (this.sessionUsedOrder)
+                    {
+                        this.sessionUsedOrder.remove(id);
+                        this.sessionUsedOrder.add(id);
+                    }
+                }
+                return hasSession;
+            }
+            finally
+            {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void clear()
+        {
+            this.lock.writeLock().lock();
+            try
+            {
+                this.ssoToSession.clear();
+                this.sessionToSso.clear();
+                this.principalToSession.clear();
+                this.sessionToPrincipal.clear();
+            }
+            finally
+            {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Set<String> getUserSessions(final String principal)
+        {
+            this.lock.readLock().lock();
+            try
+            {
+                final Set<String> lookup = this.principalToSession.get(principal);
+                return lookup != null ? new HashSet<>(lookup) : Collections.emptySet();
+            }
+            finally
+            {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getSessionFromSSO(final String sso)
+        {
+            this.lock.readLock().lock();
+            try
+            {
+                return this.ssoToSession.get(sso);
+            }
+            finally
+            {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void map(final String sso, final String principal, final String session)
+        {
+            this.lock.writeLock().lock();
+            try
+            {
+                this.ssoToSession.put(sso, session);
+                this.sessionToSso.put(session, sso);
+                this.principalToSession.computeIfAbsent(principal, key -> new HashSet<>()).add(session);
+                this.sessionToPrincipal.put(session, principal);
+
+                synchronized (this.sessionUsedOrder)
+                {
+                    this.sessionUsedOrder.add(session);
+                    if (this.sessionUsedOrder.size() > SESSION_COUNT_LIMIT)
+                    {
+                        this.removeSession(this.sessionUsedOrder.iterator().next());
+                    }
+                }
+            }
+            finally
+            {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void removeSession(final String session)
+        {
+            this.lock.writeLock().lock();
+            try
+            {
+                final String sso = this.sessionToSso.remove(session);
+                if (sso != null)
+                {
+                    this.ssoToSession.remove(sso);
+                }
+
+                final String principal = this.sessionToPrincipal.remove(session);
+                if (principal != null)
+                {
+                    this.principalToSession.computeIfPresent(principal, (key, value) -> {
+                        value.remove(session);
+                        return value.isEmpty() ? null : value;
+                    });
+                }
+
+                synchronized (this.sessionUsedOrder)
+                {
+                    this.sessionUsedOrder.remove(session);
+                }
+            }
+            finally
+            {
+                this.lock.writeLock().unlock();
+            }
+        }
+    }
+}
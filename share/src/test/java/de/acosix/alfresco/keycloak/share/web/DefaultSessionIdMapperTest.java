@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.web;
+
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Axel Faust
+ */
+public class DefaultSessionIdMapperTest
+{
+
+    private DefaultSessionIdMapper mapper;
+
+    @Before
+    public void setup()
+    {
+        this.mapper = new DefaultSessionIdMapper();
+        this.mapper.setSessionCountLimit(3);
+        this.mapper.afterPropertiesSet();
+    }
+
+    @Test
+    public void leastRecentlyMappedSessionIsEvicted()
+    {
+        this.mapper.map("sso-1", "user1", "session-1");
+        this.mapper.map("sso-2", "user2", "session-2");
+        this.mapper.map("sso-3", "user3", "session-3");
+        this.mapper.map("sso-4", "user4", "session-4");
+
+        Assert.assertFalse(this.mapper.hasSession("session-1"));
+        Assert.assertNull(this.mapper.getSessionFromSSO("sso-1"));
+        Assert.assertEquals(Collections.emptySet(), this.mapper.getUserSessions("user1"));
+
+        Assert.assertTrue(this.mapper.hasSession("session-2"));
+        Assert.assertTrue(this.mapper.hasSession("session-3"));
+        Assert.assertTrue(this.mapper.hasSession("session-4"));
+    }
+
+    @Test
+    public void validatedSessionGetsSecondChance()
+    {
+        this.mapper.map("sso-1", "user1", "session-1");
+        this.mapper.map("sso-2", "user2", "session-2");
+        this.mapper.map("sso-3", "user3", "session-3");
+
+        Assert.assertTrue(this.mapper.hasSession("session-1"));
+        this.mapper.map("sso-4", "user4", "session-4");
+
+        // SSO lookups do not count as validation
+        Assert.assertEquals("session-1", this.mapper.getSessionFromSSO("sso-1"));
+        Assert.assertNull(this.mapper.getSessionFromSSO("sso-2"));
+
+        this.mapper.map("sso-5", "user5", "session-5");
+        this.mapper.map("sso-6", "user6", "session-6");
+        Assert.assertNull(this.mapper.getSessionFromSSO("sso-3"));
+        Assert.assertNull(this.mapper.getSessionFromSSO("sso-4"));
+        Assert.assertEquals("session-1", this.mapper.getSessionFromSSO("sso-1"));
+
+        // second chance is only granted once per validation
+        this.mapper.map("sso-7", "user7", "session-7");
+        Assert.assertNull(this.mapper.getSessionFromSSO("sso-1"));
+        Assert.assertEquals("session-5", this.mapper.getSessionFromSSO("sso-5"));
+    }
+
+    @Test
+    public void incompleteMappingsDoNotCountTowardsLimit()
+    {
+        this.mapper.map(null, "user1", "session-1");
+        this.mapper.map("sso-2", null, "session-2");
+        this.mapper.map("sso-3", "user3", "session-3");
+        this.mapper.map("sso-4", "user4", "session-4");
+        this.mapper.map("sso-5", "user5", "session-5");
+
+        Assert.assertEquals(Collections.singleton("session-1"), this.mapper.getUserSessions("user1"));
+        Assert.assertEquals("session-2", this.mapper.getSessionFromSSO("sso-2"));
+        Assert.assertEquals("session-3", this.mapper.getSessionFromSSO("sso-3"));
+
+        // completing a mapping makes it count towards the limit and subject to eviction
+        this.mapper.map("sso-1", "user1", "session-1");
+        Assert.assertNull(this.mapper.getSessionFromSSO("sso-3"));
+        Assert.assertEquals("session-1", this.mapper.getSessionFromSSO("sso-1"));
+        Assert.assertEquals("session-2", this.mapper.getSessionFromSSO("sso-2"));
+    }
+
+    @Test
+    public void removedSessionDoesNotCountTowardsLimit()
+    {
+        this.mapper.map("sso-1", "user1", "session-1");
+        this.mapper.map("sso-2", "user2", "session-2");
+        this.mapper.map("sso-3", "user3", "session-3");
+        this.mapper.removeSession("session-2");
+        this.mapper.map("sso-4", "user4", "session-4");
+
+        Assert.assertTrue(this.mapper.hasSession("session-1"));
+        Assert.assertFalse(this.mapper.hasSession("session-2"));
+        Assert.assertNull(this.mapper.getSessionFromSSO("sso-2"));
+        Assert.assertTrue(this.mapper.hasSession("session-3"));
+        Assert.assertTrue(this.mapper.hasSession("session-4"));
+    }
+
+    @Test
+    public void remappingSessionUpdatesReverseMappings()
+    {
+        this.mapper.map("sso-1", "user1", "session-1");
+        this.mapper.map("sso-2", "user2", "session-1");
+
+        Assert.assertNull(this.mapper.getSessionFromSSO("sso-1"));
+        Assert.assertEquals("session-1", this.mapper.getSessionFromSSO("sso-2"));
+        Assert.assertEquals(Collections.emptySet(), this.mapper.getUserSessions("user1"));
+        Assert.assertEquals(Collections.singleton("session-1"), this.mapper.getUserSessions("user2"));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.web;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ThreadLocalRandom;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.acosix.alfresco.keycloak.share.config.KeycloakConfigSnapshot;
+import de.acosix.alfresco.keycloak.share.config.KeycloakConfigSnapshotProvider;
+import de.acosix.alfresco.keycloak.share.util.BoundedConcurrentCache;
+import de.acosix.alfresco.keycloak.share.util.MicroBenchmark;
+
+/**
+ * Compares the per-request overhead of classifying requests in {@link KeycloakAuthenticationFilter} with and without the classification
+ * cache, using a mix of typical Share page, proxy, login / logout and resource requests. Resolution of target pages via the Surf model
+ * cannot be performed outside of a running Share instance and is not included, so the results only show the savings for path-based
+ * classification. See {@link MicroBenchmark} on how to run this benchmark.
+ *
+ * @author Axel Faust
+ */
+public class RequestClassificationBenchmark
+{
+
+    private static final int WARMUP_ITERATIONS = 200_000;
+
+    private static final int ITERATIONS = 1_000_000;
+
+    private static final int THREADS = 8;
+
+    private static final String[][] REQUEST_PATHS = { { "/page", "/dashboard" }, { "/page", "/dologin" }, { "/page", null },
+            { "/page", "/proxy/alfresco/api/people/admin/preferences" }, { "/proxy", "/alfresco-noauth/api/sites" },
+            { "/page", "/dologout" }, { "/res", "/js/alfresco.js" }, { "/page", "/keycloak/k_push_not_before" } };
+
+    @Test
+    public void classification() throws Exception
+    {
+        final HttpServletRequest[] requests = new HttpServletRequest[REQUEST_PATHS.length];
+        for (int idx = 0; idx < REQUEST_PATHS.length; idx++)
+        {
+            requests[idx] = createRequest(REQUEST_PATHS[idx][0], REQUEST_PATHS[idx][1]);
+        }
+
+        final KeycloakAuthenticationFilter uncachedFilter = createFilter(false);
+        final KeycloakAuthenticationFilter cachedFilter = createFilter(true);
+        Assert.assertTrue(cachedFilter.classifyRequest(requests[1]).isLoginPath());
+        Assert.assertTrue(cachedFilter.classifyRequest(requests[5]).isLogoutRequest());
+
+        final int[] counter = new int[1];
+        MicroBenchmark.measureAverageTime("request classification (uncached)", WARMUP_ITERATIONS, ITERATIONS,
+                () -> uncachedFilter.classifyRequest(requests[counter[0]++ % requests.length]));
+        MicroBenchmark.measureAverageTime("request classification (cached)", WARMUP_ITERATIONS, ITERATIONS,
+                () -> cachedFilter.classifyRequest(requests[counter[0]++ % requests.length]));
+
+        MicroBenchmark.measureThroughput("request classification (uncached)", THREADS, 1_000, 3_000,
+                () -> uncachedFilter.classifyRequest(requests[ThreadLocalRandom.current().nextInt(requests.length)]));
+        MicroBenchmark.measureThroughput("request classification (cached)", THREADS, 1_000, 3_000,
+                () -> cachedFilter.classifyRequest(requests[ThreadLocalRandom.current().nextInt(requests.length)]));
+    }
+
+    private static KeycloakAuthenticationFilter createFilter(final boolean cached)
+    {
+        final KeycloakAuthenticationFilter filter = new KeycloakAuthenticationFilter();
+        // no configuration reset during benchmark
+        filter.setConfigSnapshotProvider(new KeycloakConfigSnapshotProvider()
+        {
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public KeycloakConfigSnapshot getSnapshot()
+            {
+                return null;
+            }
+        });
+        if (cached)
+        {
+            filter.requestClassificationCache = new BoundedConcurrentCache<>(1024, 5 * 60000);
+        }
+        return filter;
+    }
+
+    private static HttpServletRequest createRequest(final String servletPath, final String pathInfo)
+    {
+        return (HttpServletRequest) Proxy.newProxyInstance(RequestClassificationBenchmark.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+                    switch (method.getName())
+                    {
+                        case "getServletPath":
+                            return servletPath;
+                        case "getPathInfo":
+                            return pathInfo;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 - 2025 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.keycloak.share.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.servlet.ReadListener;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.acosix.alfresco.keycloak.share.web.SpillingOIDCFilterSessionStore.ByteBufferServletInputStream;
+
+/**
+ * @author Axel Faust
+ */
+public class SpillingOIDCFilterSessionStoreTest
+{
+
+    @Test
+    public void replayedBodySupportsNonBlockingRead()
+    {
+        final byte[] content = "replayed-body".getBytes(StandardCharsets.UTF_8);
+        final ByteBufferServletInputStream inputStream = new ByteBufferServletInputStream(ByteBuffer.wrap(content));
+
+        final ByteArrayOutputStream read = new ByteArrayOutputStream();
+        final List<String> events = new ArrayList<>();
+        inputStream.setReadListener(new ReadListener()
+        {
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void onDataAvailable() throws IOException
+            {
+                events.add("dataAvailable");
+                final byte[] chunk = new byte[4];
+                while (inputStream.isReady() && !inputStream.isFinished())
+                {
+                    final int count = inputStream.read(chunk);
+                    read.write(chunk, 0, count);
+                }
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void onAllDataRead()
+            {
+                events.add("allDataRead");
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void onError(final Throwable t)
+            {
+                events.add("error");
+            }
+        });
+
+        Assert.assertEquals(List.of("dataAvailable", "allDataRead"), events);
+        Assert.assertArrayEquals(content, read.toByteArray());
+    }
+}